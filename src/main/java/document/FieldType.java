@@ -1,12 +1,37 @@
 package document;
 
-public class FieldType {
+import index.DocValuesType;
+import index.IndexOptions;
+import index.IndexableFieldType;
+import index.PointValues;
+
+import java.util.Map;
+
+public class FieldType implements IndexableFieldType {
 
     private boolean stored;
 
-    private boolean indexed;
+    private boolean tokenized = true;
+
+    private boolean omitNorms;
+
+    private IndexOptions indexOptions = IndexOptions.NONE;
+
+    private DocValuesType docValuesType = DocValuesType.NONE;
+
+    private boolean storeTermVectors;
+
+    private boolean storeTermVectorOffsets;
+
+    private boolean storeTermVectorPositions;
 
-    private boolean docValue;
+    private boolean storeTermVectorPayloads;
+
+    private int dimensionCount;
+
+    private int indexDimensionCount;
+
+    private int dimensionNumBytes;
 
     public FieldType() {}
 
@@ -18,19 +43,218 @@ public class FieldType {
         this.stored = stored;
     }
 
+    /** Returns true if the field is indexed, that is if its {@link #indexOptions()} aren't NONE. */
     public boolean isIndexed() {
-        return indexed;
+        return indexOptions != IndexOptions.NONE;
     }
 
+    /**
+     * Sets whether the field is indexed. Indexing a field that had no {@link IndexOptions} yet
+     * records docs, freqs and positions, see {@link #setIndexOptions(IndexOptions)} for other levels.
+     */
     public void setIndexed(boolean indexed) {
-        this.indexed = indexed;
+        if (indexed == false) {
+            indexOptions = IndexOptions.NONE;
+        } else if (indexOptions == IndexOptions.NONE) {
+            indexOptions = IndexOptions.DOCS_AND_FREQS_AND_POSITIONS;
+        }
+    }
+
+    public void setIndexOptions(IndexOptions indexOptions) {
+        if (indexOptions == null) {
+            throw new NullPointerException("IndexOptions must not be null");
+        }
+        this.indexOptions = indexOptions;
+    }
+
+    /**
+     * Sets whether the string value of the field is split into terms, one per run of letters and
+     * digits, or indexed as a single term.
+     */
+    public void setTokenized(boolean tokenized) {
+        this.tokenized = tokenized;
     }
 
+    public void setOmitNorms(boolean omitNorms) {
+        this.omitNorms = omitNorms;
+    }
+
+    /** Returns true if the field has doc values, that is if its {@link #docValuesType()} isn't NONE. */
     public boolean isDocValue() {
-        return docValue;
+        return docValuesType != DocValuesType.NONE;
     }
 
+    /**
+     * Sets whether the field has doc values. A field that had no {@link DocValuesType} yet gets
+     * NUMERIC doc values, see {@link #setDocValuesType(DocValuesType)} for other types.
+     */
     public void setDocValue(boolean docValue) {
-        this.docValue = docValue;
+        if (docValue == false) {
+            docValuesType = DocValuesType.NONE;
+        } else if (docValuesType == DocValuesType.NONE) {
+            docValuesType = DocValuesType.NUMERIC;
+        }
+    }
+
+    public void setDocValuesType(DocValuesType type) {
+        if (type == null) {
+            throw new NullPointerException("DocValuesType must not be null");
+        }
+        docValuesType = type;
+    }
+
+    /**
+     * Sets whether the terms of the field are also stored per document, as a term vector. Only
+     * indexed fields can have term vectors.
+     */
+    public void setStoreTermVectors(boolean value) {
+        this.storeTermVectors = value;
+    }
+
+    /** Sets whether term vectors record the offsets of the terms, requires term vectors. */
+    public void setStoreTermVectorOffsets(boolean value) {
+        this.storeTermVectorOffsets = value;
+    }
+
+    /** Sets whether term vectors record the positions of the terms, requires term vectors. */
+    public void setStoreTermVectorPositions(boolean value) {
+        this.storeTermVectorPositions = value;
+    }
+
+    /** Sets whether term vectors record payloads, requires term vectors with positions. */
+    public void setStoreTermVectorPayloads(boolean value) {
+        this.storeTermVectorPayloads = value;
+    }
+
+    /**
+     * Enables points indexing, all dimensions being indexed.
+     *
+     * @see #setDimensions(int, int, int)
+     */
+    public void setDimensions(int dimensionCount, int dimensionNumBytes) {
+        setDimensions(dimensionCount, dimensionCount, dimensionNumBytes);
+    }
+
+    /**
+     * Enables points indexing with selectable dimension indexing: the first {@code
+     * indexDimensionCount} dimensions are used to build the tree, the others are only stored with
+     * the points. The value of the field must be the packed dimensions, {@code dimensionNumBytes}
+     * each, as a binary value.
+     */
+    public void setDimensions(int dimensionCount, int indexDimensionCount, int dimensionNumBytes) {
+        if (dimensionCount < 0) {
+            throw new IllegalArgumentException("dimensionCount must be >= 0; got " + dimensionCount);
+        }
+        if (dimensionCount > PointValues.MAX_DIMENSIONS) {
+            throw new IllegalArgumentException(
+                    "dimensionCount must be <= " + PointValues.MAX_DIMENSIONS + "; got " + dimensionCount);
+        }
+        if (indexDimensionCount < 0) {
+            throw new IllegalArgumentException("indexDimensionCount must be >= 0; got " + indexDimensionCount);
+        }
+        if (indexDimensionCount > dimensionCount) {
+            throw new IllegalArgumentException(
+                    "indexDimensionCount must be <= dimensionCount: " + dimensionCount + "; got " + indexDimensionCount);
+        }
+        if (indexDimensionCount > PointValues.MAX_INDEX_DIMENSIONS) {
+            throw new IllegalArgumentException(
+                    "indexDimensionCount must be <= " + PointValues.MAX_INDEX_DIMENSIONS + "; got " + indexDimensionCount);
+        }
+        if (dimensionNumBytes < 0) {
+            throw new IllegalArgumentException("dimensionNumBytes must be >= 0; got " + dimensionNumBytes);
+        }
+        if (dimensionNumBytes > PointValues.MAX_NUM_BYTES) {
+            throw new IllegalArgumentException(
+                    "dimensionNumBytes must be <= " + PointValues.MAX_NUM_BYTES + "; got " + dimensionNumBytes);
+        }
+        if (dimensionCount == 0) {
+            if (indexDimensionCount != 0) {
+                throw new IllegalArgumentException(
+                        "when dimensionCount is 0, indexDimensionCount must be 0; got " + indexDimensionCount);
+            }
+            if (dimensionNumBytes != 0) {
+                throw new IllegalArgumentException(
+                        "when dimensionCount is 0, dimensionNumBytes must be 0; got " + dimensionNumBytes);
+            }
+        } else if (indexDimensionCount == 0) {
+            throw new IllegalArgumentException(
+                    "when dimensionCount is > 0, indexDimensionCount must be > 0; got " + indexDimensionCount);
+        } else if (dimensionNumBytes == 0) {
+            throw new IllegalArgumentException(
+                    "when dimensionNumBytes is 0, dimensionCount must be 0; got " + dimensionCount);
+        }
+        this.dimensionCount = dimensionCount;
+        this.indexDimensionCount = indexDimensionCount;
+        this.dimensionNumBytes = dimensionNumBytes;
+    }
+
+    @Override
+    public boolean stored() {
+        return stored;
+    }
+
+    @Override
+    public boolean tokenized() {
+        return tokenized;
+    }
+
+    @Override
+    public boolean storeTermVectors() {
+        return storeTermVectors;
+    }
+
+    @Override
+    public boolean storeTermVectorOffsets() {
+        return storeTermVectorOffsets;
+    }
+
+    @Override
+    public boolean storeTermVectorPositions() {
+        return storeTermVectorPositions;
+    }
+
+    @Override
+    public boolean storeTermVectorPayloads() {
+        return storeTermVectorPayloads;
+    }
+
+    @Override
+    public boolean omitNorms() {
+        return omitNorms;
+    }
+
+    @Override
+    public IndexOptions indexOptions() {
+        return indexOptions;
+    }
+
+    @Override
+    public DocValuesType docValuesType() {
+        return docValuesType;
+    }
+
+    @Override
+    public int pointDimensionCount() {
+        return dimensionCount;
+    }
+
+    @Override
+    public int pointIndexDimensionCount() {
+        return indexDimensionCount;
+    }
+
+    @Override
+    public int pointNumBytes() {
+        return dimensionNumBytes;
+    }
+
+    @Override
+    public int vectorDimension() {
+        return 0;
+    }
+
+    @Override
+    public Map<String, String> getAttributes() {
+        return null;
     }
 }
@@ -0,0 +1,55 @@
+package index;
+
+/**
+ * Holds the statistics of a term and the pointers to its postings, as written in the terms
+ * dictionary by {@link PostingsWriter#encodeTerm} and read back by {@link
+ * PostingsReader#decodeTerm}.
+ */
+final class BlockTermState {
+
+    /** how many docs have this term */
+    int docFreq;
+
+    /** total number of occurrences of this term */
+    long totalTermFreq;
+
+    /** file pointer to the start of the doc ids enumeration, in {@link PostingsWriter#DOC_EXTENSION} file */
+    long docStartFP;
+
+    /** file pointer to the start of the positions enumeration, in {@link PostingsWriter#POS_EXTENSION} file */
+    long posStartFP;
+
+    /** file pointer to the start of the offsets enumeration, in {@link PostingsWriter#PAY_EXTENSION} file */
+    long payStartFP;
+
+    /**
+     * offset of the vInt encoded positions from {@link #posStartFP}, or -1 if the positions of the
+     * term fit in at most one block
+     */
+    long lastPosBlockOffset = -1;
+
+    /** offset of the skip list from {@link #docStartFP}, or -1 if the term has no skip list */
+    long skipOffset = -1;
+
+    /** the doc of a term that has a single doc, or -1; such terms have nothing in the doc file */
+    int singletonDocID = -1;
+
+    /** Copies all values from the other state into this one. */
+    void copyFrom(BlockTermState other) {
+        docFreq = other.docFreq;
+        totalTermFreq = other.totalTermFreq;
+        docStartFP = other.docStartFP;
+        posStartFP = other.posStartFP;
+        payStartFP = other.payStartFP;
+        lastPosBlockOffset = other.lastPosBlockOffset;
+        skipOffset = other.skipOffset;
+        singletonDocID = other.singletonDocID;
+    }
+
+    @Override
+    public String toString() {
+        return "docFreq=" + docFreq + " totalTermFreq=" + totalTermFreq + " docStartFP=" + docStartFP
+                + " posStartFP=" + posStartFP + " payStartFP=" + payStartFP
+                + " lastPosBlockOffset=" + lastPosBlockOffset + " skipOffset=" + skipOffset + " singletonDocID=" + singletonDocID;
+    }
+}
@@ -0,0 +1,309 @@
+package index;
+
+import store.ByteArrayDataInput;
+import store.Directory;
+import store.IndexInput;
+import util.ArrayUtil;
+import util.BytesRef;
+import util.IOUtils;
+import util.fst.BytesRefFSTEnum;
+import util.fst.FST;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static index.BlockTermsWriter.TERMS_EXTENSION;
+import static index.BlockTermsWriter.TERMS_INDEX_EXTENSION;
+import static index.BlockTermsWriter.TERMS_META_EXTENSION;
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Reads the terms dictionary written by {@link BlockTermsWriter}.
+ *
+ * <p>The terms index of every field is loaded on heap when the reader is opened, so that seeking
+ * to a term walks the in-memory {@link FST} and then reads a single block of the <code>.tim</code>
+ * file. Blocks are decoded lazily: terms are decoded as the enum moves forward within the block,
+ * their statistics and postings pointers only when they are asked for.
+ */
+final class BlockTermsReader extends Fields implements Closeable {
+
+    private final IndexInput termsIn;
+
+    private final PostingsReader postingsReader;
+
+    private final Map<String, FieldReader> fields = new HashMap<>();
+
+    BlockTermsReader(Directory directory, SegmentInfo si, PostingsReader postingsReader)
+            throws IOException {
+        this.postingsReader = postingsReader;
+        final String segment = si.name;
+        boolean success = false;
+        IndexInput termsIn = null;
+        try (IndexInput metaIn =
+                     directory.openInput(IndexFileNames.segmentFileName(segment, "", TERMS_META_EXTENSION));
+             IndexInput indexIn =
+                     directory.openInput(IndexFileNames.segmentFileName(segment, "", TERMS_INDEX_EXTENSION))) {
+            checkString(metaIn, HEADER);
+            checkString(indexIn, HEADER);
+            final int numFields = metaIn.readVInt();
+            for (int i = 0; i < numFields; i++) {
+                final FieldReader field = new FieldReader(metaIn, indexIn);
+                if (fields.put(field.fieldInfo.name, field) != null) {
+                    throw new IOException("duplicate field: " + field.fieldInfo.name + " in " + metaIn);
+                }
+            }
+            checkString(metaIn, FOOTER);
+            checkString(indexIn, FOOTER);
+
+            termsIn = directory.openInput(IndexFileNames.segmentFileName(segment, "", TERMS_EXTENSION));
+            checkString(termsIn, HEADER);
+            this.termsIn = termsIn;
+            success = true;
+        } finally {
+            if (success == false && termsIn != null) {
+                termsIn.close();
+            }
+        }
+    }
+
+    private static void checkString(IndexInput in, String expected) throws IOException {
+        final String actual = in.readString();
+        if (expected.equals(actual) == false) {
+            throw new IOException("expected " + expected + " but got " + actual + " in " + in);
+        }
+    }
+
+    @Override
+    public TermsEnum terms(String field) {
+        final FieldReader fieldReader = fields.get(field);
+        return fieldReader == null ? null : new BlockTermsEnum(fieldReader);
+    }
+
+    /** Returns the number of documents that have at least one term of the field, or 0 if it has none. */
+    int docCount(String field) {
+        final FieldReader fieldReader = fields.get(field);
+        return fieldReader == null ? 0 : fieldReader.docCount;
+    }
+
+    /** Returns the sum of the {@link TermsEnum#totalTermFreq()} of all terms of the field. */
+    long sumTotalTermFreq(String field) {
+        final FieldReader fieldReader = fields.get(field);
+        return fieldReader == null ? 0 : fieldReader.sumTotalTermFreq;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(termsIn, postingsReader);
+    }
+
+    /** Statistics and terms index of a field. */
+    private static final class FieldReader {
+
+        final FieldInfo fieldInfo;
+        final long numTerms;
+        final long sumDocFreq;
+        final long sumTotalTermFreq;
+        final int docCount;
+        final long termsStartFP;
+        final long termsEndFP;
+        final FST index;
+
+        FieldReader(IndexInput metaIn, IndexInput indexIn) throws IOException {
+            final String name = metaIn.readString();
+            fieldInfo = new FieldInfo(name, metaIn.readVInt());
+            final int indexOptions = metaIn.readByte();
+            if (indexOptions <= IndexOptions.NONE.ordinal() || indexOptions >= IndexOptions.values().length) {
+                throw new IOException("invalid index options " + indexOptions + " for field " + name + " in " + metaIn);
+            }
+            fieldInfo.setIndexOptions(IndexOptions.values()[indexOptions]);
+            numTerms = metaIn.readVLong();
+            sumDocFreq = metaIn.readVLong();
+            sumTotalTermFreq = metaIn.readVLong();
+            docCount = metaIn.readVInt();
+            termsStartFP = metaIn.readVLong();
+            termsEndFP = metaIn.readVLong();
+            indexIn.seek(metaIn.readVLong());
+            index = FST.read(metaIn, indexIn);
+        }
+    }
+
+    /** Iterates over the terms of a field, decoding a block at a time. */
+    private final class BlockTermsEnum extends TermsEnum {
+
+        private final FieldReader field;
+        private final boolean hasFreqs;
+        private final IndexInput in;
+
+        // created on the first seek
+        private BytesRefFSTEnum indexEnum;
+
+        private final BytesRef term = new BytesRef(new byte[16], 0, 0);
+
+        // address of the loaded block, -1 if none
+        private long blockFP = -1;
+        private long nextBlockFP;
+        private int blockNumTerms;
+        // index of the current term in the block, -1 before its first term
+        private int termUpto;
+        // number of terms of the block whose state has been decoded into the state
+        private int metaUpto;
+
+        private byte[] suffixBytes = new byte[128];
+        private byte[] statsBytes = new byte[64];
+        private byte[] metaBytes = new byte[64];
+        private final ByteArrayDataInput suffixReader = new ByteArrayDataInput();
+        private final ByteArrayDataInput statsReader = new ByteArrayDataInput();
+        private final ByteArrayDataInput metaReader = new ByteArrayDataInput();
+
+        private final BlockTermState state = new BlockTermState();
+
+        BlockTermsEnum(FieldReader field) {
+            this.field = field;
+            this.hasFreqs = field.fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS) >= 0;
+            this.in = termsIn.clone();
+        }
+
+        @Override
+        public BytesRef next() throws IOException {
+            if (blockFP == -1) {
+                loadBlock(field.termsStartFP);
+            }
+            if (termUpto + 1 == blockNumTerms) {
+                if (nextBlockFP == field.termsEndFP) {
+                    return null;
+                }
+                loadBlock(nextBlockFP);
+            }
+            readNextTerm();
+            return term;
+        }
+
+        @Override
+        public boolean seekExact(BytesRef target) throws IOException {
+            // terms greater than the last term of the block are smaller than the index key of the next
+            // block, so they can't be in the field
+            return seekInBlock(target) == SeekStatus.FOUND;
+        }
+
+        @Override
+        public SeekStatus seekCeil(BytesRef target) throws IOException {
+            final SeekStatus status = seekInBlock(target);
+            if (status != SeekStatus.END) {
+                return status;
+            }
+            // the ceiling is the first term of the next block
+            if (nextBlockFP == field.termsEndFP) {
+                return SeekStatus.END;
+            }
+            loadBlock(nextBlockFP);
+            readNextTerm();
+            return SeekStatus.NOT_FOUND;
+        }
+
+        /**
+         * Positions the enum on the ceiling of the target within the block whose index key is the
+         * floor of the target, returns {@link SeekStatus#END} if all terms of the block are smaller.
+         */
+        private SeekStatus seekInBlock(BytesRef target) throws IOException {
+            if (indexEnum == null) {
+                indexEnum = new BytesRefFSTEnum(field.index);
+            }
+            final BytesRefFSTEnum.InputOutput floor = indexEnum.seekFloor(target);
+            // the first block has the empty key
+            assert floor != null;
+            final long fp = field.termsStartFP + floor.output;
+
+            if (fp == blockFP && term.compareTo(target) <= 0) {
+                // seeking forward in the loaded block, scan on from the current term
+                if (termUpto >= 0 && term.bytesEquals(target)) {
+                    return SeekStatus.FOUND;
+                }
+            } else {
+                loadBlock(fp);
+            }
+
+            while (termUpto + 1 < blockNumTerms) {
+                readNextTerm();
+                final int cmp = term.compareTo(target);
+                if (cmp == 0) {
+                    return SeekStatus.FOUND;
+                } else if (cmp > 0) {
+                    return SeekStatus.NOT_FOUND;
+                }
+            }
+            return SeekStatus.END;
+        }
+
+        private void loadBlock(long fp) throws IOException {
+            in.seek(fp);
+            blockNumTerms = in.readVInt();
+            int length = in.readVInt();
+            suffixBytes = ArrayUtil.grow(suffixBytes, length);
+            in.readBytes(suffixBytes, 0, length);
+            suffixReader.reset(suffixBytes, 0, length);
+            length = in.readVInt();
+            statsBytes = ArrayUtil.grow(statsBytes, length);
+            in.readBytes(statsBytes, 0, length);
+            statsReader.reset(statsBytes, 0, length);
+            length = in.readVInt();
+            metaBytes = ArrayUtil.grow(metaBytes, length);
+            in.readBytes(metaBytes, 0, length);
+            metaReader.reset(metaBytes, 0, length);
+
+            nextBlockFP = in.getFilePointer();
+            blockFP = fp;
+            termUpto = -1;
+            metaUpto = 0;
+            term.length = 0;
+        }
+
+        private void readNextTerm() throws IOException {
+            assert termUpto + 1 < blockNumTerms;
+            // the prefix is shared with the previous term, which is still in the bytes of the term
+            final int prefix = suffixReader.readVInt();
+            final int suffix = suffixReader.readVInt();
+            term.bytes = ArrayUtil.grow(term.bytes, prefix + suffix);
+            suffixReader.readBytes(term.bytes, prefix, suffix);
+            term.length = prefix + suffix;
+            termUpto++;
+        }
+
+        /** Decodes the state of all terms of the block up to the current one. */
+        private void decodeMetaData() throws IOException {
+            assert termUpto >= 0 : "unpositioned enum";
+            while (metaUpto <= termUpto) {
+                state.docFreq = statsReader.readVInt();
+                state.totalTermFreq = hasFreqs ? state.docFreq + statsReader.readVLong() : state.docFreq;
+                postingsReader.decodeTerm(metaReader, field.fieldInfo, state, metaUpto == 0);
+                metaUpto++;
+            }
+        }
+
+        @Override
+        public BytesRef term() {
+            assert termUpto >= 0 : "unpositioned enum";
+            return term;
+        }
+
+        @Override
+        public int docFreq() throws IOException {
+            decodeMetaData();
+            return state.docFreq;
+        }
+
+        @Override
+        public long totalTermFreq() throws IOException {
+            decodeMetaData();
+            return state.totalTermFreq;
+        }
+
+        @Override
+        public PostingsEnum postings(PostingsEnum reuse, int flags) throws IOException {
+            decodeMetaData();
+            return postingsReader.postings(field.fieldInfo, state, reuse, flags);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package index;
+
+import store.ByteBuffersDataOutput;
+import store.Directory;
+import store.IndexOutput;
+import util.ArrayUtil;
+import util.BytesRef;
+import util.IOUtils;
+import util.fst.FST;
+import util.fst.FSTCompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Writes the terms dictionary of a segment, the postings of each term being written by a {@link
+ * PostingsWriter}.
+ *
+ * <p>The terms of a field are grouped in blocks of {@link #MIN_BLOCK_SIZE} to {@link
+ * #MAX_BLOCK_SIZE} terms in the <code>.tim</code> file. A block is cut where consecutive terms
+ * share the shortest prefix, so that the terms of a block share long prefixes. A block is made of
+ * its number of terms and three byte sections, each prefixed with its length so that the reader
+ * loads a block with a single read and only decodes what it needs:
+ *
+ * <ul>
+ *   <li>the terms, each one as the vInt length of the prefix it shares with the previous term of
+ *       the block, the vInt length of its suffix and the suffix bytes,
+ *   <li>the statistics of the terms: docFreq as a vInt, followed by totalTermFreq - docFreq as a
+ *       vLong if the field has frequencies,
+ *   <li>the postings pointers, see {@link PostingsWriter#encodeTerm}, the first term of the block
+ *       being encoded absolutely so that blocks can be decoded independently.
+ * </ul>
+ *
+ * <p>The <code>.tip</code> file holds one {@link FST} per field that maps the shortest prefix
+ * that distinguishes the first term of each block from the last term of the previous block to the
+ * address of the block, so that a seek walks the FST and reads a single block. The <code>.tmd
+ * </code> file holds the statistics of each field and the pointers into the other two files.
+ */
+final class BlockTermsWriter implements Closeable {
+
+    /** Extension of terms file */
+    static final String TERMS_EXTENSION = "tim";
+
+    /** Extension of terms index file */
+    static final String TERMS_INDEX_EXTENSION = "tip";
+
+    /** Extension of terms meta file */
+    static final String TERMS_META_EXTENSION = "tmd";
+
+    /** Minimum number of terms of a block, except for the last block of a field. */
+    static final int MIN_BLOCK_SIZE = 25;
+
+    /** Maximum number of terms of a block. */
+    static final int MAX_BLOCK_SIZE = 48;
+
+    private IndexOutput termsOut;
+    private IndexOutput indexOut;
+    private IndexOutput metaOut;
+
+    private final PostingsWriter postingsWriter;
+
+    // meta of the fields written so far, preceded by their number when the writer finishes
+    private final ByteBuffersDataOutput fieldsMeta = ByteBuffersDataOutput.newResettableInstance();
+    private int numFields;
+
+    // terms of the current field that haven't been written yet, one more than a block can hold so
+    // that the block can be cut before the last one
+    private final BytesRef[] pendingTerms = new BytesRef[MAX_BLOCK_SIZE + 1];
+    private final BlockTermState[] pendingStates = new BlockTermState[MAX_BLOCK_SIZE + 1];
+    private int numPending;
+
+    // last term of the previous block of the field, unused for the first block
+    private final BytesRef lastBlockTerm = new BytesRef(new byte[16], 0, 0);
+    private boolean firstBlock;
+    private final BytesRef indexKey = new BytesRef();
+
+    private final ByteBuffersDataOutput suffixWriter = ByteBuffersDataOutput.newResettableInstance();
+    private final ByteBuffersDataOutput statsWriter = ByteBuffersDataOutput.newResettableInstance();
+    private final ByteBuffersDataOutput metaWriter = ByteBuffersDataOutput.newResettableInstance();
+
+    // state of the current field
+    private FieldInfo fieldInfo;
+    private boolean hasFreqs;
+    private FSTCompiler indexCompiler;
+    private long termsStartFP;
+    private long numTerms;
+    private long sumDocFreq;
+    private long sumTotalTermFreq;
+
+    BlockTermsWriter(Directory directory, SegmentInfo si, PostingsWriter postingsWriter)
+            throws IOException {
+        this.postingsWriter = postingsWriter;
+        for (int i = 0; i < pendingTerms.length; i++) {
+            pendingTerms[i] = new BytesRef(new byte[16], 0, 0);
+            pendingStates[i] = new BlockTermState();
+        }
+        boolean success = false;
+        try {
+            termsOut = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", TERMS_EXTENSION));
+            termsOut.writeString(HEADER);
+            indexOut = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", TERMS_INDEX_EXTENSION));
+            indexOut.writeString(HEADER);
+            metaOut = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", TERMS_META_EXTENSION));
+            metaOut.writeString(HEADER);
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(this);
+            }
+        }
+    }
+
+    /**
+     * Writes the terms and postings of the given fields, in the given order. Fields that aren't
+     * indexed or have no terms are skipped.
+     */
+    void write(Fields fields, List<FieldInfo> fieldInfos) throws IOException {
+        for (FieldInfo fieldInfo : fieldInfos) {
+            if (fieldInfo.getIndexOptions() == IndexOptions.NONE) {
+                continue;
+            }
+            final TermsEnum termsEnum = fields.terms(fieldInfo.name);
+            if (termsEnum == null) {
+                continue;
+            }
+            startField(fieldInfo);
+            for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                final BlockTermState state = pendingStates[numPending];
+                postingsWriter.writeTerm(termsEnum, state);
+                if (state.docFreq > 0) {
+                    addTerm(term, state);
+                }
+            }
+            finishField();
+        }
+    }
+
+    private void startField(FieldInfo fieldInfo) {
+        this.fieldInfo = fieldInfo;
+        hasFreqs = fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS) >= 0;
+        postingsWriter.startField(fieldInfo);
+        indexCompiler = new FSTCompiler();
+        termsStartFP = termsOut.getFilePointer();
+        numTerms = sumDocFreq = sumTotalTermFreq = 0;
+        numPending = 0;
+        firstBlock = true;
+    }
+
+    /** Buffers the term, its state is already in {@code pendingStates[numPending]}. */
+    private void addTerm(BytesRef term, BlockTermState state) throws IOException {
+        assert state == pendingStates[numPending];
+        final BytesRef pending = pendingTerms[numPending++];
+        pending.bytes = ArrayUtil.grow(pending.bytes, term.length);
+        System.arraycopy(term.bytes, term.offset, pending.bytes, 0, term.length);
+        pending.length = term.length;
+
+        numTerms++;
+        sumDocFreq += state.docFreq;
+        sumTotalTermFreq += state.totalTermFreq;
+
+        if (numPending == pendingTerms.length) {
+            final int blockSize = chooseBlockSize();
+            writeBlock(blockSize);
+            // move the remaining terms to the front, swapping instances to reuse them
+            for (int i = blockSize; i < numPending; i++) {
+                swap(i - blockSize, i);
+            }
+            numPending -= blockSize;
+        }
+    }
+
+    /**
+     * Returns the number of pending terms to write as a block: the block ends where consecutive
+     * terms share the shortest prefix, preferring bigger blocks on ties.
+     */
+    private int chooseBlockSize() {
+        int blockSize = MAX_BLOCK_SIZE;
+        int minPrefix = Integer.MAX_VALUE;
+        for (int size = MAX_BLOCK_SIZE; size >= MIN_BLOCK_SIZE; size--) {
+            final int prefix = commonPrefix(pendingTerms[size - 1], pendingTerms[size]);
+            if (prefix < minPrefix) {
+                minPrefix = prefix;
+                blockSize = size;
+            }
+        }
+        return blockSize;
+    }
+
+    private void swap(int i, int j) {
+        final BytesRef term = pendingTerms[i];
+        pendingTerms[i] = pendingTerms[j];
+        pendingTerms[j] = term;
+        final BlockTermState state = pendingStates[i];
+        pendingStates[i] = pendingStates[j];
+        pendingStates[j] = state;
+    }
+
+    /** Writes the first <code>count</code> pending terms as a block. */
+    private void writeBlock(int count) throws IOException {
+        assert count > 0 && count <= numPending;
+
+        // the shortest prefix of the first term that is greater than the last term of the previous
+        // block, the empty string for the first block so that every term has a floor key
+        final BytesRef firstTerm = pendingTerms[0];
+        indexKey.bytes = firstTerm.bytes;
+        indexKey.length = firstBlock ? 0 : commonPrefix(lastBlockTerm, firstTerm) + 1;
+        indexCompiler.add(indexKey, termsOut.getFilePointer() - termsStartFP);
+        firstBlock = false;
+
+        for (int i = 0; i < count; i++) {
+            final BytesRef term = pendingTerms[i];
+            final BlockTermState state = pendingStates[i];
+
+            final int prefix = i == 0 ? 0 : commonPrefix(pendingTerms[i - 1], term);
+            suffixWriter.writeVInt(prefix);
+            suffixWriter.writeVInt(term.length - prefix);
+            suffixWriter.writeBytes(term.bytes, prefix, term.length - prefix);
+
+            statsWriter.writeVInt(state.docFreq);
+            if (hasFreqs) {
+                statsWriter.writeVLong(state.totalTermFreq - state.docFreq);
+            }
+
+            postingsWriter.encodeTerm(metaWriter, state, i == 0 ? null : pendingStates[i - 1], i == 0);
+        }
+
+        termsOut.writeVInt(count);
+        for (ByteBuffersDataOutput section : new ByteBuffersDataOutput[] {suffixWriter, statsWriter, metaWriter}) {
+            termsOut.writeVInt(Math.toIntExact(section.size()));
+            section.copyTo(termsOut);
+            section.reset();
+        }
+
+        final BytesRef lastTerm = pendingTerms[count - 1];
+        lastBlockTerm.bytes = ArrayUtil.grow(lastBlockTerm.bytes, lastTerm.length);
+        System.arraycopy(lastTerm.bytes, 0, lastBlockTerm.bytes, 0, lastTerm.length);
+        lastBlockTerm.length = lastTerm.length;
+    }
+
+    private void finishField() throws IOException {
+        if (numPending > 0) {
+            writeBlock(numPending);
+            numPending = 0;
+        }
+        if (numTerms == 0) {
+            // no block was written, the field has no entry
+            return;
+        }
+        final FST index = indexCompiler.compile();
+        indexCompiler = null;
+
+        numFields++;
+        fieldsMeta.writeString(fieldInfo.name);
+        fieldsMeta.writeVInt(fieldInfo.number);
+        fieldsMeta.writeByte((byte) fieldInfo.getIndexOptions().ordinal());
+        fieldsMeta.writeVLong(numTerms);
+        fieldsMeta.writeVLong(sumDocFreq);
+        fieldsMeta.writeVLong(sumTotalTermFreq);
+        fieldsMeta.writeVInt(postingsWriter.docCount());
+        fieldsMeta.writeVLong(termsStartFP);
+        fieldsMeta.writeVLong(termsOut.getFilePointer());
+        fieldsMeta.writeVLong(indexOut.getFilePointer());
+        index.save(fieldsMeta, indexOut);
+    }
+
+    private static int commonPrefix(BytesRef a, BytesRef b) {
+        final int mismatch =
+                Arrays.mismatch(a.bytes, a.offset, a.offset + a.length, b.bytes, b.offset, b.offset + b.length);
+        return mismatch == -1 ? a.length : mismatch;
+    }
+
+    /** Writes the meta of all fields and the footers, the writer must be closed afterwards. */
+    void finish() throws IOException {
+        metaOut.writeVInt(numFields);
+        fieldsMeta.copyTo(metaOut);
+        metaOut.writeString(FOOTER);
+        indexOut.writeString(FOOTER);
+        termsOut.writeString(FOOTER);
+        postingsWriter.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            IOUtils.close(metaOut, indexOut, termsOut, postingsWriter);
+        } finally {
+            metaOut = indexOut = termsOut = null;
+        }
+    }
+}
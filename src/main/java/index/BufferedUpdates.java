@@ -1,4 +1,205 @@
 package index;
 
-public class BufferedUpdates {
+import util.Accountable;
+import util.ArrayUtil;
+import util.BytesRef;
+import util.BytesRefHash;
+import util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds buffered deletes by term for a single segment. Each term is mapped to the number of
+ * documents the delete applies to: all documents of the segment with a lower doc ID, documents
+ * that are added after the delete are not affected.
+ *
+ * <p>Terms are stored per field in a {@link BytesRefHash}, with the doc ID limit of each term in a
+ * parallel int array, so a buffered delete costs its bytes and a few ints rather than a {@link
+ * Term} and map entry. When the segment is flushed the terms of each field are sorted once and
+ * merge-joined against the terms of the segment, see {@link #applyToSegment(Fields, int)}.
+ */
+public class BufferedUpdates implements Accountable {
+
+    /* Rough logic: HashMap has an array[Entry] w/ varying
+    load factor (say 2 * POINTER).  Entry is object w/
+    String key, DeletedTerms val, int hash, Entry next
+    (OBJ_HEADER + 3*POINTER + INT).  String is OBJ_HEADER + 4*INT +
+    POINTER + OBJ_HEADER + char[] */
+    static final long BYTES_PER_DEL_FIELD = 2L * 8 + 16 + 3L * 8 + 4 + 16 + 4L * 4 + 8 + 16 + 64;
+
+    final String segmentName;
+
+    private final Map<String, DeletedTerms> deleteTerms = new HashMap<>();
+
+    private int numTermDeletes;
+
+    BufferedUpdates(String segmentName) {
+        this.segmentName = segmentName;
+    }
+
+    void addTerm(Term term, int docIDUpto) {
+        DeletedTerms deletedTerms = deleteTerms.get(term.field());
+        if (deletedTerms == null) {
+            deletedTerms = new DeletedTerms();
+            deleteTerms.put(term.field(), deletedTerms);
+        }
+        deletedTerms.put(term.bytes(), docIDUpto);
+        numTermDeletes++;
+    }
+
+    /**
+     * Returns the number of documents the delete of the given term applies to, or -1 if the term
+     * isn't deleted.
+     */
+    int getDocIDUpto(Term term) {
+        final DeletedTerms deletedTerms = deleteTerms.get(term.field());
+        return deletedTerms == null ? -1 : deletedTerms.get(term.bytes());
+    }
+
+    /** Returns the number of buffered term deletes, including repeated deletes of the same term. */
+    int numTermDeletes() {
+        return numTermDeletes;
+    }
+
+    boolean any() {
+        return deleteTerms.size() > 0;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long bytes = 0;
+        for (DeletedTerms deletedTerms : deleteTerms.values()) {
+            bytes += BYTES_PER_DEL_FIELD + deletedTerms.ramBytesUsed();
+        }
+        return bytes;
+    }
+
+    /**
+     * Applies the buffered deletes to the segment whose terms are given, in a single pass over the
+     * terms of each field that has deletes: both the deleted terms, sorted here, and the terms of
+     * the segment are in unsigned byte order so they are merge-joined like two sorted lists.
+     *
+     * <p>This is destructive, the deletes can't be used anymore afterwards.
+     *
+     * @param fields the terms of the segment
+     * @param maxDoc the number of documents of the segment
+     * @return the live docs of the segment, or <code>null</code> if no document was deleted
+     */
+    FixedBitSet applyToSegment(Fields fields, int maxDoc) throws IOException {
+        FixedBitSet liveDocs = null;
+        final BytesRef deletedTerm = new BytesRef();
+        PostingsEnum postings = null;
+        for (Map.Entry<String, DeletedTerms> entry : deleteTerms.entrySet()) {
+            final TermsEnum termsEnum = fields.terms(entry.getKey());
+            if (termsEnum == null) {
+                continue;
+            }
+            final DeletedTerms deletedTerms = entry.getValue();
+            final int[] sortedIDs = deletedTerms.terms.sort();
+            final int numTerms = deletedTerms.terms.size();
+            int upto = 0;
+            BytesRef segmentTerm = termsEnum.next();
+            if (upto < numTerms) {
+                deletedTerms.terms.get(sortedIDs[upto], deletedTerm);
+            }
+            while (upto < numTerms && segmentTerm != null) {
+                final int cmp = deletedTerm.compareTo(segmentTerm);
+                if (cmp < 0) {
+                    // the segment doesn't have this term
+                    if (++upto < numTerms) {
+                        deletedTerms.terms.get(sortedIDs[upto], deletedTerm);
+                    }
+                } else if (cmp > 0) {
+                    segmentTerm = termsEnum.next();
+                } else {
+                    final int docIDUpto = deletedTerms.docIDUpto[sortedIDs[upto]];
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    for (int doc = postings.nextDoc(); doc < docIDUpto; doc = postings.nextDoc()) {
+                        if (liveDocs == null) {
+                            liveDocs = new FixedBitSet(maxDoc);
+                            liveDocs.set(0, maxDoc);
+                        }
+                        liveDocs.clear(doc);
+                    }
+                    if (++upto < numTerms) {
+                        deletedTerms.terms.get(sortedIDs[upto], deletedTerm);
+                    }
+                    segmentTerm = termsEnum.next();
+                }
+            }
+        }
+        return liveDocs;
+    }
+
+    /**
+     * Returns the buffered deletes as {@link FrozenBufferedUpdates} that apply to all documents of
+     * a segment, ignoring the doc ID limits, and clears this buffer so that it can be reused.
+     *
+     * @return the frozen deletes, or <code>null</code> if none are buffered
+     */
+    FrozenBufferedUpdates freeze() {
+        if (any() == false) {
+            return null;
+        }
+        final Map<String, BytesRef[]> frozenTerms = new HashMap<>();
+        final BytesRef scratch = new BytesRef();
+        for (Map.Entry<String, DeletedTerms> entry : deleteTerms.entrySet()) {
+            final BytesRefHash terms = entry.getValue().terms;
+            final int[] sortedIDs = terms.sort();
+            final BytesRef[] sortedTerms = new BytesRef[terms.size()];
+            for (int i = 0; i < sortedTerms.length; i++) {
+                sortedTerms[i] = BytesRef.deepCopyOf(terms.get(sortedIDs[i], scratch));
+            }
+            frozenTerms.put(entry.getKey(), sortedTerms);
+        }
+        deleteTerms.clear();
+        numTermDeletes = 0;
+        return new FrozenBufferedUpdates(frozenTerms);
+    }
+
+    @Override
+    public String toString() {
+        return "gen=" + segmentName + " " + numTermDeletes + " deleted terms (unique count="
+                + deleteTerms.values().stream().mapToInt(t -> t.terms.size()).sum() + ")";
+    }
+
+    /** The deleted terms of a single field. */
+    private static final class DeletedTerms implements Accountable {
+
+        private final BytesRefHash terms = new BytesRefHash();
+
+        private int[] docIDUpto = new int[BytesRefHash.DEFAULT_CAPACITY];
+
+        void put(BytesRef term, int docIDUpto) {
+            int id = terms.add(term);
+            if (id < 0) {
+                id = -id - 1;
+                // Only record the new number if it's greater than the
+                // current one. This is important because if multiple
+                // threads are replacing the same doc at nearly the
+                // same time, it's possible that one thread that got a
+                // higher docID is scheduled before the other
+                // threads. If we blindly replace than we can
+                // incorrectly get both docs indexed.
+                if (docIDUpto > this.docIDUpto[id]) {
+                    this.docIDUpto[id] = docIDUpto;
+                }
+            } else {
+                this.docIDUpto = ArrayUtil.grow(this.docIDUpto, id + 1);
+                this.docIDUpto[id] = docIDUpto;
+            }
+        }
+
+        int get(BytesRef term) {
+            final int id = terms.find(term);
+            return id == -1 ? -1 : docIDUpto[id];
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return terms.ramBytesUsed() + (long) Integer.BYTES * docIDUpto.length;
+        }
+    }
 }
@@ -0,0 +1,108 @@
+package index;
+
+import store.ByteBuffersDataOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * How stored-field chunks are compressed. The ordinal of the mode is recorded in the meta file of a
+ * segment so that readers, and merges that want to copy chunks verbatim, know how the chunks were
+ * encoded.
+ *
+ * <p>Compression may run on any thread, so {@link Deflater}/{@link Inflater} instances are cached
+ * per thread rather than per writer.
+ */
+public enum CompressionMode {
+    /** Favors indexing throughput over compression ratio. */
+    FAST(Deflater.BEST_SPEED),
+    /** Favors compression ratio, suitable for archival data. */
+    HIGH_COMPRESSION(Deflater.DEFAULT_COMPRESSION);
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    private final ThreadLocal<Inflater> inflaters;
+
+    CompressionMode(int level) {
+        // nowrap: chunks carry their own lengths, we don't need the zlib header/checksum
+        deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    }
+
+    /** Compresses {@code bytes[offset:offset+length]} and returns the compressed bytes. */
+    byte[] compress(byte[] bytes, int offset, int length) {
+        final Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(bytes, offset, length);
+        deflater.finish();
+        return deflate(deflater, new byte[Math.max(64, length / 2)], 0);
+    }
+
+    /**
+     * Compresses the content of {@code buffer} and returns the compressed bytes. Blocks of the buffer
+     * are fed to the deflater in place, they are not copied into a contiguous array first.
+     */
+    byte[] compress(ByteBuffersDataOutput buffer) {
+        final Deflater deflater = deflaters.get();
+        deflater.reset();
+        byte[] compressed = new byte[Math.max(64, Math.toIntExact(buffer.size() / 2))];
+        int compressedLength = 0;
+        for (ByteBuffer block : buffer.toWriteableBufferList()) {
+            deflater.setInput(block.array(), block.arrayOffset() + block.position(), block.remaining());
+            while (deflater.needsInput() == false) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length << 1);
+                }
+                compressedLength +=
+                        deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+        }
+        deflater.finish();
+        return deflate(deflater, compressed, compressedLength);
+    }
+
+    /** Drains a finished deflater into {@code compressed}, which already holds compressedLength bytes. */
+    private static byte[] deflate(Deflater deflater, byte[] compressed, int compressedLength) {
+        while (deflater.finished() == false) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length << 1);
+            }
+            compressedLength +=
+                    deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        return Arrays.copyOf(compressed, compressedLength);
+    }
+
+    /**
+     * Decompresses {@code compressed[offset:offset+length]} into {@code dest[0:originalLength]}.
+     */
+    void decompress(byte[] compressed, int offset, int length, byte[] dest, int originalLength)
+            throws IOException {
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed, offset, length);
+        int decompressedLength = 0;
+        try {
+            while (decompressedLength < originalLength && inflater.finished() == false) {
+                final int n = inflater.inflate(dest, decompressedLength, originalLength - decompressedLength);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                decompressedLength += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt stored fields chunk", e);
+        }
+        if (decompressedLength != originalLength) {
+            throw new IOException(
+                    "corrupt stored fields chunk: expected "
+                            + originalLength
+                            + " bytes but got "
+                            + decompressedLength);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package index;
+
+import store.ByteBuffersDataOutput;
+import store.Directory;
+import store.IndexOutput;
+import util.ArrayUtil;
+import util.BytesRef;
+import util.BytesRefHash;
+import util.IOUtils;
+import util.packed.DirectWriter;
+import util.packed.PackedLongValues;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Writes the doc values of a segment, one column per field, so that the value of a doc is read in
+ * place at a computed address rather than decoded from its stored fields.
+ *
+ * <p>The values of a numeric field are written to the <code>.dvd</code> file with a {@link
+ * DirectWriter}, one value per doc that has the field in doc ID order, with the cheapest of these
+ * encodings:
+ *
+ * <ul>
+ *   <li>Constant: all values are equal, nothing is written to the data file and the value is stored
+ *       in the meta.
+ *   <li>Table: there are at most {@link #MAX_TABLE_SIZE} unique values and the index of a value in
+ *       the sorted table of unique values takes fewer bits than its delta, the table is stored in
+ *       the meta and the data file holds the index of each value.
+ *   <li>Delta: the data file holds <code>(value - min) / gcd</code>, where <code>gcd</code> is the
+ *       greatest common divisor of the deltas of all values to the minimum, so that timestamps
+ *       rounded to the second or prices in cents take only the bits of their range.
+ * </ul>
+ *
+ * If some docs don't have the field, the column only holds the docs that have it and is preceded
+ * by the set of these docs, see {@link IndexedDISI}.
+ *
+ * <p>Sorted fields are written as the numeric column of the ordinal of the value of each doc,
+ * followed by the terms dictionary of their unique values, see {@link #writeTermsDict}. Sorted set
+ * fields are written as the numeric column of the ordinals of all docs, grouped by doc, followed by
+ * the address of the first ordinal of each doc, unless all docs have a single value, and by the
+ * terms dictionary.
+ *
+ * <p>The <code>.dvm</code> file holds <code>maxDoc</code>, then for each field its name, number and
+ * {@link DocValuesType}, the number of docs that have a value, the address of the set of these docs
+ * or -1 if all docs have a value, its length and the number of entries of its jump table, the
+ * number of values, the size of the table or -1 followed by the
+ * table, the number of bits per value (0 if constant), the minimum, the gcd, and the address and
+ * length of the column. Sorted set fields then have the address of their ordinal addresses or -1,
+ * followed by their number of bits per value and length. Sorted and sorted set fields end with the
+ * number of unique values, the length of the longest one, the address and length of the terms
+ * dictionary, and the number of bits per value, address and length of its block addresses.
+ */
+final class DocValuesConsumer implements Closeable {
+
+    /** Extension of doc values data file */
+    static final String DATA_EXTENSION = "dvd";
+
+    /** Extension of doc values meta file */
+    static final String META_EXTENSION = "dvm";
+
+    /** Maximum number of unique values of a field to be written with a table. */
+    static final int MAX_TABLE_SIZE = 256;
+
+    /** Log2 of the number of values of a block of the terms dictionary of sorted fields. */
+    static final int TERMS_DICT_BLOCK_SHIFT = 4;
+
+    private IndexOutput data;
+    private IndexOutput meta;
+
+    private final int maxDoc;
+
+    // entries of the fields written so far, preceded by their number when the writer finishes
+    private final ByteBuffersDataOutput fieldsMeta = ByteBuffersDataOutput.newResettableInstance();
+    private int numFields;
+
+    DocValuesConsumer(Directory directory, SegmentInfo si, int maxDoc) throws IOException {
+        this.maxDoc = maxDoc;
+        boolean success = false;
+        try {
+            data = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", DATA_EXTENSION));
+            data.writeString(HEADER);
+            meta = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", META_EXTENSION));
+            meta.writeString(HEADER);
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(this);
+            }
+        }
+    }
+
+    /**
+     * Writes the numeric doc values of the given field, one value per doc of the given set, which
+     * must have at least one doc.
+     */
+    void addNumericField(FieldInfo fieldInfo, DocsWithFieldSet docsWithField, PackedLongValues values) throws IOException {
+        assert fieldInfo.getDocValuesType() == DocValuesType.NUMERIC;
+        assert values.size() == docsWithField.cardinality();
+        writeFieldHeader(fieldInfo);
+        writeDocsWithField(docsWithField);
+        writeValues(values);
+    }
+
+    /**
+     * Writes the sorted doc values of the given field: the ordinal of the value of each doc of the
+     * given set, which must have at least one doc, and the unique values in ordinal order.
+     */
+    void addSortedField(
+            FieldInfo fieldInfo, DocsWithFieldSet docsWithField, PackedLongValues ords, BytesRefHash terms, int[] sortedTermIDs)
+            throws IOException {
+        assert fieldInfo.getDocValuesType() == DocValuesType.SORTED;
+        assert ords.size() == docsWithField.cardinality();
+        writeFieldHeader(fieldInfo);
+        writeDocsWithField(docsWithField);
+        writeValues(ords);
+        writeTermsDict(terms, sortedTermIDs);
+    }
+
+    /**
+     * Writes the sorted set doc values of the given field: the increasing ordinals of the values of
+     * all docs of the given set, the number of ordinals of each doc, and the unique values in
+     * ordinal order.
+     */
+    void addSortedSetField(
+            FieldInfo fieldInfo,
+            DocsWithFieldSet docsWithField,
+            PackedLongValues ords,
+            PackedLongValues counts,
+            BytesRefHash terms,
+            int[] sortedTermIDs)
+            throws IOException {
+        assert fieldInfo.getDocValuesType() == DocValuesType.SORTED_SET;
+        assert counts.size() == docsWithField.cardinality();
+        writeFieldHeader(fieldInfo);
+        writeDocsWithField(docsWithField);
+        writeValues(ords);
+
+        if (ords.size() == counts.size()) {
+            // one value per doc, read like sorted doc values
+            fieldsMeta.writeLong(-1);
+        } else {
+            // address of the first ordinal of each doc, and of the end of the last doc
+            final int bitsPerValue = DirectWriter.bitsRequired(ords.size());
+            final long start = data.getFilePointer();
+            fieldsMeta.writeLong(start);
+            fieldsMeta.writeByte((byte) bitsPerValue);
+            final DirectWriter writer = DirectWriter.getInstance(data, counts.size() + 1, bitsPerValue);
+            long address = 0;
+            writer.add(address);
+            for (PackedLongValues.Iterator it = counts.iterator(); it.hasNext(); ) {
+                address += it.next();
+                writer.add(address);
+            }
+            writer.finish();
+            fieldsMeta.writeLong(data.getFilePointer() - start);
+        }
+        writeTermsDict(terms, sortedTermIDs);
+    }
+
+    /**
+     * Writes the given unique values in blocks of <code>1 &lt;&lt; {@link #TERMS_DICT_BLOCK_SHIFT}
+     * </code> values: the first value of a block is written in full, the next ones as the length of
+     * their common prefix with the previous value followed by the rest of their bytes. The address
+     * of each block is written with a {@link DirectWriter}, so that the value of an ordinal is read by
+     * decoding at most one block.
+     */
+    private void writeTermsDict(BytesRefHash terms, int[] sortedTermIDs) throws IOException {
+        final int valueCount = terms.size();
+        final int blockMask = (1 << TERMS_DICT_BLOCK_SHIFT) - 1;
+        final long[] blockAddresses = new long[(valueCount + blockMask) >>> TERMS_DICT_BLOCK_SHIFT];
+        final BytesRef term = new BytesRef();
+        final BytesRef previous = new BytesRef(new byte[16]);
+        int maxTermLength = 0;
+
+        final long start = data.getFilePointer();
+        for (int ord = 0; ord < valueCount; ord++) {
+            terms.get(sortedTermIDs[ord], term);
+            if ((ord & blockMask) == 0) {
+                blockAddresses[ord >>> TERMS_DICT_BLOCK_SHIFT] = data.getFilePointer() - start;
+                data.writeVInt(term.length);
+                data.writeBytes(term.bytes, term.offset, term.length);
+            } else {
+                final int prefixLength = prefixLength(previous, term);
+                data.writeVInt(prefixLength);
+                data.writeVInt(term.length - prefixLength);
+                data.writeBytes(term.bytes, term.offset + prefixLength, term.length - prefixLength);
+            }
+            maxTermLength = Math.max(maxTermLength, term.length);
+            previous.bytes = ArrayUtil.grow(previous.bytes, term.length);
+            System.arraycopy(term.bytes, term.offset, previous.bytes, 0, term.length);
+            previous.length = term.length;
+        }
+        fieldsMeta.writeVInt(valueCount);
+        fieldsMeta.writeVInt(maxTermLength);
+        fieldsMeta.writeLong(start);
+        fieldsMeta.writeLong(data.getFilePointer() - start);
+
+        final long lastAddress = blockAddresses[blockAddresses.length - 1];
+        final int bitsPerValue = DirectWriter.bitsRequired(lastAddress);
+        final long addressesStart = data.getFilePointer();
+        final DirectWriter writer = DirectWriter.getInstance(data, blockAddresses.length, bitsPerValue);
+        for (long address : blockAddresses) {
+            writer.add(address);
+        }
+        writer.finish();
+        fieldsMeta.writeByte((byte) bitsPerValue);
+        fieldsMeta.writeLong(addressesStart);
+        fieldsMeta.writeLong(data.getFilePointer() - addressesStart);
+    }
+
+    /** Returns the length of the common prefix of the given values. */
+    private static int prefixLength(BytesRef a, BytesRef b) {
+        final int mismatch = Arrays.mismatch(
+                a.bytes, a.offset, a.offset + a.length, b.bytes, b.offset, b.offset + b.length);
+        return mismatch == -1 ? a.length : mismatch;
+    }
+
+    private void writeFieldHeader(FieldInfo fieldInfo) throws IOException {
+        numFields++;
+        fieldsMeta.writeString(fieldInfo.name);
+        fieldsMeta.writeVInt(fieldInfo.number);
+        fieldsMeta.writeByte((byte) fieldInfo.getDocValuesType().ordinal());
+    }
+
+    private void writeDocsWithField(DocsWithFieldSet docsWithField) throws IOException {
+        final int numDocsWithField = docsWithField.cardinality();
+        assert numDocsWithField > 0 && numDocsWithField <= maxDoc;
+        fieldsMeta.writeVInt(numDocsWithField);
+        if (docsWithField.isDense(maxDoc)) {
+            fieldsMeta.writeLong(-1);
+            fieldsMeta.writeLong(0);
+            fieldsMeta.writeInt(-1);
+        } else {
+            final long offset = data.getFilePointer();
+            fieldsMeta.writeLong(offset);
+            final int jumpTableEntryCount = IndexedDISI.writeBitSet(docsWithField.toFixedBitSet(maxDoc), data);
+            fieldsMeta.writeLong(data.getFilePointer() - offset);
+            fieldsMeta.writeInt(jumpTableEntryCount);
+        }
+    }
+
+    /** Picks the cheapest encoding of the given values and writes them as a column. */
+    private void writeValues(PackedLongValues values) throws IOException {
+        final long numValues = values.size();
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        TreeSet<Long> uniqueValues = new TreeSet<>();
+        for (PackedLongValues.Iterator it = values.iterator(); it.hasNext(); ) {
+            final long v = it.next();
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            if (uniqueValues != null && uniqueValues.add(v) && uniqueValues.size() > MAX_TABLE_SIZE) {
+                uniqueValues = null;
+            }
+        }
+
+        // the delta of a value to the minimum overflows if the range is wider than a long
+        long gcd = 0;
+        if (max - min >= 0) {
+            for (PackedLongValues.Iterator it = values.iterator(); it.hasNext() && gcd != 1; ) {
+                gcd = gcd(gcd, it.next() - min);
+            }
+        }
+        if (gcd == 0) {
+            gcd = 1;
+        }
+
+        fieldsMeta.writeLong(numValues);
+        if (min == max) {
+            fieldsMeta.writeInt(-1);
+            fieldsMeta.writeByte((byte) 0);
+            fieldsMeta.writeLong(min);
+            fieldsMeta.writeLong(1);
+            fieldsMeta.writeLong(0);
+            fieldsMeta.writeLong(0);
+            return;
+        }
+
+        final int deltaBitsPerValue = max - min < 0 ? 64 : DirectWriter.bitsRequired((max - min) / gcd);
+        long[] table = null;
+        if (uniqueValues != null) {
+            final int tableBitsPerValue = DirectWriter.bitsRequired(uniqueValues.size() - 1);
+            if (tableBitsPerValue < deltaBitsPerValue) {
+                table = new long[uniqueValues.size()];
+                int i = 0;
+                for (long v : uniqueValues) {
+                    table[i++] = v;
+                }
+            }
+        }
+
+        final int bitsPerValue;
+        if (table != null) {
+            bitsPerValue = DirectWriter.bitsRequired(table.length - 1);
+            fieldsMeta.writeInt(table.length);
+            for (long v : table) {
+                fieldsMeta.writeLong(v);
+            }
+        } else {
+            bitsPerValue = deltaBitsPerValue;
+            fieldsMeta.writeInt(-1);
+        }
+        fieldsMeta.writeByte((byte) bitsPerValue);
+        fieldsMeta.writeLong(min);
+        fieldsMeta.writeLong(gcd);
+
+        final long start = data.getFilePointer();
+        final DirectWriter writer = DirectWriter.getInstance(data, numValues, bitsPerValue);
+        for (PackedLongValues.Iterator it = values.iterator(); it.hasNext(); ) {
+            final long v = it.next();
+            if (table != null) {
+                writer.add(Arrays.binarySearch(table, v));
+            } else {
+                writer.add((v - min) / gcd);
+            }
+        }
+        writer.finish();
+        fieldsMeta.writeLong(start);
+        fieldsMeta.writeLong(data.getFilePointer() - start);
+    }
+
+    /** Returns the greatest common divisor of the given non-negative values, 0 if both are 0. */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            final long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /** Writes the meta of all fields and the footers, the writer must be closed afterwards. */
+    void finish() throws IOException {
+        meta.writeVInt(maxDoc);
+        meta.writeVInt(numFields);
+        fieldsMeta.copyTo(meta);
+        meta.writeString(FOOTER);
+        data.writeString(FOOTER);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            IOUtils.close(meta, data);
+        } finally {
+            meta = data = null;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package index;
+
+import java.io.IOException;
+
+/**
+ * Iterates over the documents that have a value for a per-document field, in increasing doc ID
+ * order. Besides iterating, the value of a given document can be looked up with {@link
+ * #advanceExact}, which is how scorers and sorts read values one hit at a time.
+ */
+public abstract class DocValuesIterator {
+
+    /**
+     * When returned by {@link #nextDoc()} it means there are no more docs in the iterator.
+     */
+    public static final int NO_MORE_DOCS = PostingsEnum.NO_MORE_DOCS;
+
+    /** Sole constructor. (For invocation by subclass constructors, typically implicit.) */
+    protected DocValuesIterator() {}
+
+    /**
+     * Returns the current doc ID, <code>-1</code> if the iterator wasn't positioned yet, or {@link
+     * #NO_MORE_DOCS} if it is exhausted. After {@link #advanceExact} returned false, the result is
+     * undefined.
+     */
+    public abstract int docID();
+
+    /**
+     * Advances to the next document that has a value and returns it, or {@link #NO_MORE_DOCS} if
+     * there are no more docs.
+     */
+    public abstract int nextDoc() throws IOException;
+
+    /**
+     * Advances to the first document whose doc ID is greater than or equal to <i>target</i> and that
+     * has a value, and returns it, or {@link #NO_MORE_DOCS} if there is none. The behavior is
+     * undefined when called with <code>target &le; current</code>.
+     */
+    public abstract int advance(int target) throws IOException;
+
+    /**
+     * Advances to exactly <code>target</code> and returns whether <code>target</code> has a value.
+     * <code>target</code> must be greater than or equal to the current doc ID and must be a valid doc
+     * ID, ie. &ge; 0 and &lt; <code>maxDoc</code>. After this method returns, {@link #docID()}
+     * returns <code>target</code>.
+     */
+    public abstract boolean advanceExact(int target) throws IOException;
+
+    /** Returns the number of documents that have a value, an upper bound of what is left to iterate. */
+    public abstract long cost();
+}
@@ -0,0 +1,745 @@
+package index;
+
+import store.Directory;
+import store.IndexInput;
+import store.RandomAccessInput;
+import util.BytesRef;
+import util.LongValues;
+import util.packed.DirectReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static index.DocValuesConsumer.DATA_EXTENSION;
+import static index.DocValuesConsumer.META_EXTENSION;
+import static index.DocValuesConsumer.TERMS_DICT_BLOCK_SHIFT;
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Reads the doc values written by {@link DocValuesConsumer}. Values are read in place from the
+ * <code>.dvd</code> file through {@link RandomAccessInput}s, so that the value of a doc costs a
+ * single read of the mapped buffer for fields that all docs have, and a handful for the others.
+ */
+final class DocValuesProducer implements Closeable {
+
+    private final IndexInput data;
+    private final int maxDoc;
+    private final Map<String, NumericEntry> numerics = new HashMap<>();
+    private final Map<String, SortedEntry> sorted = new HashMap<>();
+    private final Map<String, SortedSetEntry> sortedSets = new HashMap<>();
+
+    DocValuesProducer(Directory directory, SegmentInfo si) throws IOException {
+        try (IndexInput meta = directory.openInput(IndexFileNames.segmentFileName(si.name, "", META_EXTENSION))) {
+            checkString(meta, HEADER);
+            maxDoc = meta.readVInt();
+            final int numFields = meta.readVInt();
+            for (int i = 0; i < numFields; i++) {
+                readField(meta);
+            }
+            checkString(meta, FOOTER);
+        }
+        data = directory.openInput(IndexFileNames.segmentFileName(si.name, "", DATA_EXTENSION));
+        boolean success = false;
+        try {
+            checkString(data, HEADER);
+            success = true;
+        } finally {
+            if (success == false) {
+                data.close();
+            }
+        }
+    }
+
+    private static void checkString(IndexInput in, String expected) throws IOException {
+        final String actual = in.readString();
+        if (expected.equals(actual) == false) {
+            throw new IOException("expected " + expected + " but got " + actual + " in " + in);
+        }
+    }
+
+    private void readField(IndexInput meta) throws IOException {
+        final String name = meta.readString();
+        final int number = meta.readVInt();
+        final byte type = meta.readByte();
+        final boolean duplicate;
+        if (type == DocValuesType.NUMERIC.ordinal()) {
+            final NumericEntry entry = readNumeric(meta, name, number);
+            duplicate = numerics.put(name, entry) != null;
+        } else if (type == DocValuesType.SORTED.ordinal()) {
+            final SortedEntry entry = new SortedEntry(readNumeric(meta, name, number));
+            entry.termsDict = readTermsDict(meta, name);
+            duplicate = sorted.put(name, entry) != null;
+        } else if (type == DocValuesType.SORTED_SET.ordinal()) {
+            final NumericEntry ords = new NumericEntry(name, number);
+            readDocsWithField(meta, ords);
+            readValues(meta, ords);
+            final SortedSetEntry entry = new SortedSetEntry(ords);
+            entry.addressesOffset = meta.readLong();
+            if (entry.addressesOffset == -1) {
+                if (ords.numValues != ords.numDocsWithField) {
+                    throw new IOException("invalid numValues=" + ords.numValues + " for field " + name + " in " + meta);
+                }
+            } else {
+                entry.addressesBitsPerValue = meta.readByte();
+                entry.addressesLength = meta.readLong();
+            }
+            entry.termsDict = readTermsDict(meta, name);
+            duplicate = sortedSets.put(name, entry) != null;
+        } else {
+            throw new IOException("invalid doc values type=" + type + " for field " + name + " in " + meta);
+        }
+        if (duplicate) {
+            throw new IOException("duplicate field: " + name + " in " + meta);
+        }
+    }
+
+    /** Reads the entry of a column that has one value per doc that has the field. */
+    private NumericEntry readNumeric(IndexInput meta, String name, int number) throws IOException {
+        final NumericEntry entry = new NumericEntry(name, number);
+        readDocsWithField(meta, entry);
+        readValues(meta, entry);
+        if (entry.numValues != entry.numDocsWithField) {
+            throw new IOException("invalid numValues=" + entry.numValues + " for field " + name + " in " + meta);
+        }
+        return entry;
+    }
+
+    private static TermsDictEntry readTermsDict(IndexInput meta, String name) throws IOException {
+        final TermsDictEntry entry = new TermsDictEntry();
+        entry.valueCount = meta.readVInt();
+        if (entry.valueCount <= 0) {
+            throw new IOException("invalid valueCount=" + entry.valueCount + " for field " + name + " in " + meta);
+        }
+        entry.maxTermLength = meta.readVInt();
+        entry.termsOffset = meta.readLong();
+        entry.termsLength = meta.readLong();
+        entry.blockAddressesBitsPerValue = meta.readByte();
+        entry.blockAddressesOffset = meta.readLong();
+        entry.blockAddressesLength = meta.readLong();
+        return entry;
+    }
+
+    private void readDocsWithField(IndexInput meta, NumericEntry entry) throws IOException {
+        entry.numDocsWithField = meta.readVInt();
+        if (entry.numDocsWithField <= 0 || entry.numDocsWithField > maxDoc) {
+            throw new IOException(
+                    "invalid numDocsWithField=" + entry.numDocsWithField + " for field " + entry.name + " in " + meta);
+        }
+        entry.docsWithFieldOffset = meta.readLong();
+        if ((entry.docsWithFieldOffset == -1) != (entry.numDocsWithField == maxDoc)) {
+            throw new IOException("inconsistent docsWithFieldOffset for field " + entry.name + " in " + meta);
+        }
+        entry.docsWithFieldLength = meta.readLong();
+        entry.jumpTableEntryCount = meta.readInt();
+    }
+
+    private static void readValues(IndexInput meta, NumericEntry entry) throws IOException {
+        entry.numValues = meta.readLong();
+        final int tableSize = meta.readInt();
+        if (tableSize < -1 || tableSize > DocValuesConsumer.MAX_TABLE_SIZE) {
+            throw new IOException("invalid table size=" + tableSize + " for field " + entry.name + " in " + meta);
+        }
+        if (tableSize >= 0) {
+            entry.table = new long[tableSize];
+            for (int i = 0; i < tableSize; i++) {
+                entry.table[i] = meta.readLong();
+            }
+        }
+        entry.bitsPerValue = meta.readByte();
+        entry.min = meta.readLong();
+        entry.gcd = meta.readLong();
+        entry.valuesOffset = meta.readLong();
+        entry.valuesLength = meta.readLong();
+    }
+
+    /**
+     * Returns the numeric doc values of the given field, or null if the field has no numeric doc
+     * values in this segment. The returned instance must only be used by a single thread.
+     */
+    NumericDocValues getNumeric(String field) throws IOException {
+        final NumericEntry entry = numerics.get(field);
+        if (entry == null) {
+            return null;
+        }
+        return getNumeric(entry);
+    }
+
+    /**
+     * Returns the sorted doc values of the given field, or null if the field has no sorted doc
+     * values in this segment. The returned instance must only be used by a single thread.
+     */
+    SortedDocValues getSorted(String field) throws IOException {
+        final SortedEntry entry = sorted.get(field);
+        if (entry == null) {
+            return null;
+        }
+        return new BaseSortedDocValues(getNumeric(entry.ords), new TermsDict(entry.termsDict));
+    }
+
+    /**
+     * Returns the sorted set doc values of the given field, or null if the field has no sorted set
+     * doc values in this segment. The returned instance must only be used by a single thread.
+     */
+    SortedSetDocValues getSortedSet(String field) throws IOException {
+        final SortedSetEntry entry = sortedSets.get(field);
+        if (entry == null) {
+            return null;
+        }
+        final TermsDict termsDict = new TermsDict(entry.termsDict);
+        if (entry.addressesOffset == -1) {
+            return new SingletonSortedSetDocValues(new BaseSortedDocValues(getNumeric(entry.ords), termsDict));
+        }
+        final LongValues ords = getValues(entry.ords);
+        final RandomAccessInput addressesSlice = data.randomAccessSlice(entry.addressesOffset, entry.addressesLength);
+        final LongValues addresses = DirectReader.getInstance(addressesSlice, entry.addressesBitsPerValue);
+        final IndexedDISI docsWithField =
+                entry.ords.docsWithFieldOffset == -1 ? null : getDocsWithField(entry.ords);
+        return new MultiSortedSetDocValues(ords, addresses, docsWithField, entry.ords.numDocsWithField, termsDict);
+    }
+
+    /** Returns the numeric doc values of the column of the given entry. */
+    private NumericDocValues getNumeric(NumericEntry entry) throws IOException {
+        final LongValues values = getValues(entry);
+        if (entry.docsWithFieldOffset == -1) {
+            return new DenseNumericDocValues(values);
+        }
+        return new SparseNumericDocValues(values, getDocsWithField(entry));
+    }
+
+    /** Returns the set of docs that have a value for a field that some docs don't have. */
+    private IndexedDISI getDocsWithField(NumericEntry entry) throws IOException {
+        assert entry.docsWithFieldOffset != -1;
+        return new IndexedDISI(
+                data, entry.docsWithFieldOffset, entry.docsWithFieldLength, entry.jumpTableEntryCount, entry.numDocsWithField);
+    }
+
+    /** Returns the values of the column of the given entry, by index among the docs that have one. */
+    private LongValues getValues(NumericEntry entry) throws IOException {
+        if (entry.bitsPerValue == 0) {
+            final long value = entry.min;
+            return new LongValues() {
+                @Override
+                public long get(long index) {
+                    return value;
+                }
+            };
+        }
+        final RandomAccessInput slice = data.randomAccessSlice(entry.valuesOffset, entry.valuesLength);
+        final LongValues values = DirectReader.getInstance(slice, entry.bitsPerValue);
+        if (entry.table != null) {
+            final long[] table = entry.table;
+            return new LongValues() {
+                @Override
+                public long get(long index) {
+                    return table[(int) values.get(index)];
+                }
+            };
+        }
+        final long min = entry.min;
+        final long gcd = entry.gcd;
+        if (gcd == 1) {
+            if (min == 0) {
+                return values;
+            }
+            return new LongValues() {
+                @Override
+                public long get(long index) {
+                    return min + values.get(index);
+                }
+            };
+        }
+        return new LongValues() {
+            @Override
+            public long get(long index) {
+                return min + gcd * values.get(index);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+
+    /** Where the numeric doc values of a field are. */
+    private static final class NumericEntry {
+
+        final String name;
+        final int number;
+        int numDocsWithField;
+        long docsWithFieldOffset;
+        long docsWithFieldLength;
+        int jumpTableEntryCount;
+        long numValues;
+        // sorted unique values if values are indexes in the table, null otherwise
+        long[] table;
+        byte bitsPerValue;
+        long min;
+        long gcd;
+        long valuesOffset;
+        long valuesLength;
+
+        NumericEntry(String name, int number) {
+            this.name = name;
+            this.number = number;
+        }
+    }
+
+    /** Where the ordinals and the terms dictionary of a sorted field are. */
+    private static final class SortedEntry {
+
+        final NumericEntry ords;
+        TermsDictEntry termsDict;
+
+        SortedEntry(NumericEntry ords) {
+            this.ords = ords;
+        }
+    }
+
+    /** Where the ordinals, their addresses and the terms dictionary of a sorted set field are. */
+    private static final class SortedSetEntry {
+
+        // ordinals of all docs, grouped by doc
+        final NumericEntry ords;
+        // -1 if all docs have a single value
+        long addressesOffset;
+        byte addressesBitsPerValue;
+        long addressesLength;
+        TermsDictEntry termsDict;
+
+        SortedSetEntry(NumericEntry ords) {
+            this.ords = ords;
+        }
+    }
+
+    /** Where the unique values of a sorted or sorted set field are. */
+    private static final class TermsDictEntry {
+
+        int valueCount;
+        int maxTermLength;
+        long termsOffset;
+        long termsLength;
+        byte blockAddressesBitsPerValue;
+        long blockAddressesOffset;
+        long blockAddressesLength;
+    }
+
+    /**
+     * Reads the unique values of a field by ordinal from the terms dictionary written by {@link
+     * DocValuesConsumer}. Looking up an ordinal decodes its block from the first value, or from the
+     * previous lookup if it was in the same block, before the ordinal.
+     */
+    private final class TermsDict {
+
+        private final TermsDictEntry entry;
+        private final LongValues blockAddresses;
+        private final IndexInput bytes;
+        private final BytesRef term;
+        // ordinal of the value in term, -1 if none was read yet
+        private long ord = -1;
+
+        TermsDict(TermsDictEntry entry) throws IOException {
+            this.entry = entry;
+            final RandomAccessInput addressesSlice =
+                    data.randomAccessSlice(entry.blockAddressesOffset, entry.blockAddressesLength);
+            this.blockAddresses = DirectReader.getInstance(addressesSlice, entry.blockAddressesBitsPerValue);
+            this.bytes = data.clone();
+            this.term = new BytesRef(new byte[entry.maxTermLength], 0, 0);
+        }
+
+        long valueCount() {
+            return entry.valueCount;
+        }
+
+        /** Returns the value of the given ordinal, the returned instance is reused across calls. */
+        BytesRef lookupOrd(long target) throws IOException {
+            if (target < 0 || target >= entry.valueCount) {
+                throw new IndexOutOfBoundsException("ord=" + target + ", valueCount=" + entry.valueCount);
+            }
+            final long block = target >>> TERMS_DICT_BLOCK_SHIFT;
+            if (ord == -1 || ord > target || ord >>> TERMS_DICT_BLOCK_SHIFT != block) {
+                seekBlock(block);
+            }
+            while (ord < target) {
+                next();
+            }
+            return term;
+        }
+
+        /**
+         * Returns the ordinal of the given value, or <code>-insertionPoint-1</code> if there is no
+         * such value. Blocks are binary searched by their first value, then the block that may hold
+         * the value is scanned.
+         */
+        long lookupTerm(BytesRef key) throws IOException {
+            final long numBlocks = ((long) entry.valueCount + (1 << TERMS_DICT_BLOCK_SHIFT) - 1) >>> TERMS_DICT_BLOCK_SHIFT;
+            long low = 0;
+            long high = numBlocks - 1;
+            while (low <= high) {
+                final long mid = (low + high) >>> 1;
+                seekBlock(mid);
+                final int cmp = term.compareTo(key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return ord;
+                }
+            }
+            if (high < 0) {
+                // before the first value
+                return -1;
+            }
+            // after the first value of block high and before the first value of the next block
+            seekBlock(high);
+            while (true) {
+                final int cmp = term.compareTo(key);
+                if (cmp == 0) {
+                    return ord;
+                } else if (cmp > 0) {
+                    return -ord - 1;
+                }
+                final long nextOrd = ord + 1;
+                if (nextOrd == entry.valueCount || (nextOrd & ((1 << TERMS_DICT_BLOCK_SHIFT) - 1)) == 0) {
+                    return -nextOrd - 1;
+                }
+                next();
+            }
+        }
+
+        /** Positions on the first value of the given block. */
+        private void seekBlock(long block) throws IOException {
+            bytes.seek(entry.termsOffset + blockAddresses.get(block));
+            term.length = bytes.readVInt();
+            bytes.readBytes(term.bytes, 0, term.length);
+            ord = block << TERMS_DICT_BLOCK_SHIFT;
+        }
+
+        /** Decodes the next value of the current block. */
+        private void next() throws IOException {
+            final int prefixLength = bytes.readVInt();
+            final int suffixLength = bytes.readVInt();
+            bytes.readBytes(term.bytes, prefixLength, suffixLength);
+            term.length = prefixLength + suffixLength;
+            ord++;
+        }
+    }
+
+    /** Sorted doc values whose ordinals are read as numeric doc values. */
+    private static final class BaseSortedDocValues extends SortedDocValues {
+
+        private final NumericDocValues ords;
+        private final TermsDict termsDict;
+
+        BaseSortedDocValues(NumericDocValues ords, TermsDict termsDict) {
+            this.ords = ords;
+            this.termsDict = termsDict;
+        }
+
+        @Override
+        public int docID() {
+            return ords.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return ords.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return ords.advance(target);
+        }
+
+        @Override
+        public boolean advanceExact(int target) throws IOException {
+            return ords.advanceExact(target);
+        }
+
+        @Override
+        public long cost() {
+            return ords.cost();
+        }
+
+        @Override
+        public int ordValue() throws IOException {
+            return (int) ords.longValue();
+        }
+
+        @Override
+        public BytesRef lookupOrd(int ord) throws IOException {
+            return termsDict.lookupOrd(ord);
+        }
+
+        @Override
+        public int getValueCount() {
+            return (int) termsDict.valueCount();
+        }
+
+        @Override
+        public int lookupTerm(BytesRef key) throws IOException {
+            return (int) termsDict.lookupTerm(key);
+        }
+    }
+
+    /** Sorted set doc values of a field that has a single value in every doc that has it. */
+    private static final class SingletonSortedSetDocValues extends SortedSetDocValues {
+
+        private final SortedDocValues in;
+        private boolean exhausted;
+
+        SingletonSortedSetDocValues(SortedDocValues in) {
+            this.in = in;
+        }
+
+        @Override
+        public int docID() {
+            return in.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            exhausted = false;
+            return in.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            exhausted = false;
+            return in.advance(target);
+        }
+
+        @Override
+        public boolean advanceExact(int target) throws IOException {
+            exhausted = false;
+            return in.advanceExact(target);
+        }
+
+        @Override
+        public long cost() {
+            return in.cost();
+        }
+
+        @Override
+        public long nextOrd() throws IOException {
+            if (exhausted) {
+                return NO_MORE_ORDS;
+            }
+            exhausted = true;
+            return in.ordValue();
+        }
+
+        @Override
+        public int docValueCount() {
+            return 1;
+        }
+
+        @Override
+        public BytesRef lookupOrd(long ord) throws IOException {
+            return in.lookupOrd((int) ord);
+        }
+
+        @Override
+        public long getValueCount() {
+            return in.getValueCount();
+        }
+
+        @Override
+        public long lookupTerm(BytesRef key) throws IOException {
+            return in.lookupTerm(key);
+        }
+    }
+
+    /**
+     * Sorted set doc values of a field that has several values in some docs, the ordinals of the
+     * doc at index <code>i</code> among the docs that have the field are at addresses <code>i</code>
+     * to <code>i + 1</code> exclusive.
+     */
+    private final class MultiSortedSetDocValues extends SortedSetDocValues {
+
+        private final LongValues ords;
+        private final LongValues addresses;
+        // null if all docs have the field
+        private final IndexedDISI docsWithField;
+        private final long cost;
+        private final TermsDict termsDict;
+
+        private int doc = -1;
+        private long start;
+        private long end;
+        private int count;
+
+        MultiSortedSetDocValues(
+                LongValues ords, LongValues addresses, IndexedDISI docsWithField, long cost, TermsDict termsDict) {
+            this.ords = ords;
+            this.addresses = addresses;
+            this.docsWithField = docsWithField;
+            this.cost = cost;
+            this.termsDict = termsDict;
+        }
+
+        private void setIndex(int index) {
+            start = addresses.get(index);
+            end = addresses.get(index + 1L);
+            count = (int) (end - start);
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            if (docsWithField == null) {
+                doc = target >= maxDoc ? NO_MORE_DOCS : target;
+                if (doc != NO_MORE_DOCS) {
+                    setIndex(doc);
+                }
+            } else {
+                doc = docsWithField.advance(target);
+                if (doc != NO_MORE_DOCS) {
+                    setIndex(docsWithField.index());
+                }
+            }
+            return doc;
+        }
+
+        @Override
+        public boolean advanceExact(int target) throws IOException {
+            doc = target;
+            if (docsWithField == null) {
+                setIndex(target);
+                return true;
+            }
+            if (docsWithField.advanceExact(target)) {
+                setIndex(docsWithField.index());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public long cost() {
+            return cost;
+        }
+
+        @Override
+        public long nextOrd() {
+            return start == end ? NO_MORE_ORDS : ords.get(start++);
+        }
+
+        @Override
+        public int docValueCount() {
+            return count;
+        }
+
+        @Override
+        public BytesRef lookupOrd(long ord) throws IOException {
+            return termsDict.lookupOrd(ord);
+        }
+
+        @Override
+        public long getValueCount() {
+            return termsDict.valueCount();
+        }
+
+        @Override
+        public long lookupTerm(BytesRef key) throws IOException {
+            return termsDict.lookupTerm(key);
+        }
+    }
+
+    /** Values of a field that all docs have, the value of doc <code>i</code> is value <code>i</code>. */
+    private final class DenseNumericDocValues extends NumericDocValues {
+
+        private final LongValues values;
+        private int doc = -1;
+
+        DenseNumericDocValues(LongValues values) {
+            this.values = values;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            return doc = target >= maxDoc ? NO_MORE_DOCS : target;
+        }
+
+        @Override
+        public boolean advanceExact(int target) {
+            doc = target;
+            return true;
+        }
+
+        @Override
+        public long cost() {
+            return maxDoc;
+        }
+
+        @Override
+        public long longValue() {
+            return values.get(doc);
+        }
+    }
+
+    /** Values of a field that some docs don't have, the value of a doc is at its index in the set of docs. */
+    private static final class SparseNumericDocValues extends NumericDocValues {
+
+        private final LongValues values;
+        private final IndexedDISI docsWithField;
+
+        SparseNumericDocValues(LongValues values, IndexedDISI docsWithField) {
+            this.values = values;
+            this.docsWithField = docsWithField;
+        }
+
+        @Override
+        public int docID() {
+            return docsWithField.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return docsWithField.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return docsWithField.advance(target);
+        }
+
+        @Override
+        public boolean advanceExact(int target) throws IOException {
+            return docsWithField.advanceExact(target);
+        }
+
+        @Override
+        public long cost() {
+            return docsWithField.cost();
+        }
+
+        @Override
+        public long longValue() {
+            return values.get(docsWithField.index());
+        }
+    }
+}
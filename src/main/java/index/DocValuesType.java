@@ -0,0 +1,26 @@
+package index;
+
+/** DocValues types. Note that DocValues is strongly typed, so a field cannot have different types across different documents. */
+public enum DocValuesType {
+    /** No doc values for this field. */
+    NONE,
+    /**
+     * A per-document Number. Values are integral, a field has at most one value per document and
+     * values are read in place, see {@link NumericDocValues}.
+     */
+    NUMERIC,
+    /**
+     * A pre-sorted byte[]. Fields with this type only store distinct byte values and store an
+     * additional offset pointer per document to dereference the shared byte[]. The stored byte[] is
+     * presorted and allows access via document id, ordinal and by-value. Values must be {@code <=
+     * IndexWriter#MAX_TERM_LENGTH} bytes.
+     */
+    SORTED,
+    /**
+     * A pre-sorted Set&lt;byte[]&gt;. Fields with this type only store distinct byte values and store
+     * additional offset pointers per document to dereference the shared byte[]s. The stored byte[] is
+     * presorted and allows access via document id, ordinal and by-value. Values must be {@code <=
+     * IndexWriter#MAX_TERM_LENGTH} bytes.
+     */
+    SORTED_SET,
+}
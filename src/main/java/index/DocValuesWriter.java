@@ -0,0 +1,12 @@
+package index;
+
+import util.Accountable;
+
+import java.io.IOException;
+
+/** Buffers the doc values of a field in RAM until the segment is flushed. */
+abstract class DocValuesWriter implements Accountable {
+
+    /** Writes the buffered values of the given field, no value can be added afterwards. */
+    abstract void flush(FieldInfo fieldInfo, DocValuesConsumer consumer) throws IOException;
+}
@@ -0,0 +1,68 @@
+package index;
+
+import util.Accountable;
+import util.ArrayUtil;
+import util.FixedBitSet;
+
+/**
+ * Accumulates the docs that have a value for a field, in increasing doc ID order. As long as every
+ * doc has a value, only the number of docs is tracked; a bit set is only allocated once a doc is
+ * missing.
+ */
+final class DocsWithFieldSet implements Accountable {
+
+    private long[] bits;
+    private int cardinality = 0;
+    private int lastDocId = -1;
+
+    /** Adds a doc, which must be greater than all docs added so far. */
+    void add(int docID) {
+        if (docID <= lastDocId) {
+            throw new IllegalArgumentException(
+                    "Out of order doc ids: last=" + lastDocId + ", next=" + docID);
+        }
+        if (bits != null) {
+            bits = ArrayUtil.grow(bits, FixedBitSet.bits2words(docID + 1));
+            bits[docID >> 6] |= 1L << docID;
+        } else if (docID != cardinality) {
+            // migrate to a bit set
+            bits = new long[ArrayUtil.oversize(FixedBitSet.bits2words(docID + 1), Long.BYTES)];
+            final FixedBitSet set = new FixedBitSet(bits, docID + 1);
+            if (cardinality > 0) {
+                set.set(0, cardinality);
+            }
+            set.set(docID);
+        }
+        lastDocId = docID;
+        cardinality++;
+    }
+
+    /** Returns the number of docs that have a value. */
+    int cardinality() {
+        return cardinality;
+    }
+
+    /** Returns true if all docs below <code>maxDoc</code> have a value. */
+    boolean isDense(int maxDoc) {
+        return cardinality == maxDoc;
+    }
+
+    /** Returns the docs that have a value, as a bit set of <code>maxDoc</code> bits. */
+    FixedBitSet toFixedBitSet(int maxDoc) {
+        assert lastDocId < maxDoc;
+        final FixedBitSet set = new FixedBitSet(maxDoc);
+        if (bits == null) {
+            if (cardinality > 0) {
+                set.set(0, cardinality);
+            }
+        } else {
+            System.arraycopy(bits, 0, set.getBits(), 0, FixedBitSet.bits2words(lastDocId + 1));
+        }
+        return set;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return bits == null ? 0 : (long) bits.length * Long.BYTES;
+    }
+}
@@ -1,7 +1,16 @@
 package index;
 
+import store.Directory;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 public class DocumentsWriter {
     public DocumentsWriterDeleteQueue deleteQueue;
@@ -11,35 +20,64 @@ public class DocumentsWriter {
 
     private final FlushNotifications flushNotifications;
 
+    /** Writes flushing segments, or <code>null</code> if indexing threads flush themselves. */
+    private final Executor flushExecutor;
+
+    private final DocumentsWriterFlushQueue ticketQueue = new DocumentsWriterFlushQueue();
+
+    /**
+     * First exception hit by a flush running on the {@link #flushExecutor} since it was last
+     * reported, later ones are added as suppressed exceptions.
+     */
+    private final AtomicReference<Throwable> flushFailure = new AtomicReference<>();
+
     private final AtomicInteger numDocsInRAM = new AtomicInteger(0);
 
     private AtomicInteger numDocs = new AtomicInteger(0);
 
-    public DocumentsWriter() {
+    public DocumentsWriter(
+            FlushNotifications flushNotifications,
+            Directory directory,
+            IndexWriterConfig config,
+            Supplier<String> segmentNameSupplier) {
+        this.deleteQueue = new DocumentsWriterDeleteQueue();
         perThreadPool =new DocumentsWriterPerThreadPool(
                 () -> {
 //                    final FieldInfos.Builder infos = new FieldInfos.Builder(globalFieldNumberMap);
                     return new DocumentsWriterPerThread(
 //                            indexCreatedVersionMajor,
-//                            segmentNameSupplier.get(),
+                            segmentNameSupplier.get(),
 //                            directoryOrig,
-//                            directory,
-//                            config,
+                            directory,
+                            config,
                             deleteQueue
 //                            infos,
 //                            pendingNumDocs,
 //                            enableTestPoints
                     );
-                });
-        flushControl = new DocumentsWriterFlushControl(this);
-        flushNotifications = null;
+                },
+                Runtime.getRuntime().availableProcessors(),
+                config.getThreadAffinity());
+        config.getFlushPolicy().init(config);
+        flushControl = new DocumentsWriterFlushControl(this, config);
+        this.flushNotifications = flushNotifications;
+        this.flushExecutor = config.getFlushExecutor();
     }
 
+    /**
+     * Indexes the given documents.
+     *
+     * @param rejectIfStalled if <code>true</code> the update is rejected with a {@link
+     *     RejectedExecutionException} while indexing is stalled rather than blocking until flushing
+     *     catches up
+     * @return the sequence number of the update, negative if the update triggered a flush
+     */
     long updateDocuments(
             final Iterable<? extends Iterable<? extends IndexableField>> docs,
-            final DocumentsWriterDeleteQueue.Node<?> delNode)
+            final DocumentsWriterDeleteQueue.Node<?> delNode,
+            boolean rejectIfStalled)
             throws IOException {
-//        boolean hasEvents = preUpdate();
+        boolean hasEvents = preUpdate(rejectIfStalled);
 
         final DocumentsWriterPerThread dwpt = flushControl.obtainAndLock();
         final DocumentsWriterPerThread flushingDWPT;
@@ -66,12 +104,251 @@ public class DocumentsWriter {
             assert dwpt.isHeldByCurrentThread() == false : "we didn't release the dwpt even on abort";
         }
 
-//        if (postUpdate(flushingDWPT, hasEvents)) {
-//            seqNo = -seqNo;
-//        }
+        if (postUpdate(flushingDWPT)) {
+            hasEvents = true;
+        }
+        if (hasEvents) {
+            seqNo = -seqNo;
+        }
         return seqNo;
     }
 
+    /**
+     * Blocks, or rejects, the update while indexing is stalled because flushing can't keep up. A
+     * blocked thread helps flushing pending DWPTs before it waits.
+     *
+     * @return <code>true</code> if a flush has been started
+     */
+    private boolean preUpdate(boolean rejectIfStalled) throws IOException {
+        ensureNoFlushFailure();
+        boolean hasEvents = false;
+        if (flushControl.anyStalledThreads()) {
+            final DocumentsWriterStallControl stallControl = flushControl.stallControl;
+            if (rejectIfStalled) {
+                stallControl.recordRejection();
+                throw new RejectedExecutionException(
+                        "indexing is stalled until pending flushes complete, flushing bytes="
+                                + flushControl.getFlushingBytes());
+            }
+            final long startNanos = System.nanoTime();
+            do {
+                // Help out flushing any queued DWPTs so we can un-stall:
+                hasEvents |= postUpdate(null);
+                flushControl.waitIfStalled(); // block if stalled
+            } while (flushControl.anyStalledThreads());
+            stallControl.recordStall(System.nanoTime() - startNanos);
+        }
+        return hasEvents;
+    }
+
+    /**
+     * Hands the DWPT returned by the flush control, if any, and any other DWPT that the {@link
+     * FlushPolicy} marked as pending in the meantime over to the flush executor. The calling thread
+     * gets a fresh DWPT from the pool for its next document since flushing DWPTs are checked out of
+     * it.
+     *
+     * @return <code>true</code> if a flush has been started
+     */
+    private boolean postUpdate(DocumentsWriterPerThread flushingDWPT) throws IOException {
+        if (flushingDWPT == null && flushControl.numFlushesPending() == 0) {
+            return false;
+        }
+        boolean hasEvents = false;
+        if (flushingDWPT == null) {
+            flushingDWPT = flushControl.nextPendingFlush();
+        }
+        while (flushingDWPT != null) {
+            hasEvents = true;
+            scheduleFlush(flushingDWPT);
+            flushingDWPT = flushControl.nextPendingFlush();
+        }
+        return hasEvents;
+    }
+
+    private void scheduleFlush(DocumentsWriterPerThread flushingDWPT) throws IOException {
+        // the ticket is added before the flush starts so that segments are published in the order
+        // their DWPTs have been checked out, whichever flush completes first
+        final DocumentsWriterFlushQueue.FlushTicket ticket = ticketQueue.addFlushTicket(flushingDWPT);
+        if (flushExecutor != null) {
+            try {
+                flushExecutor.execute(
+                        () -> {
+                            try {
+                                doFlush(flushingDWPT, ticket, true);
+                            } catch (Throwable t) {
+                                onFlushFailure(t);
+                            }
+                        });
+                return;
+            } catch (RejectedExecutionException e) {
+                // the executor is saturated or shut down, flush on this thread instead
+            }
+        }
+        doFlush(flushingDWPT, ticket, false);
+    }
+
+    /**
+     * Writes the segment of the given DWPT and publishes it, or marks its ticket as failed.
+     *
+     * @param onFlushExecutor if <code>true</code> a failure is recorded for {@link
+     *     #ensureNoFlushFailure()} instead of thrown, before the DWPT is released so that {@link
+     *     #waitForFlushes()} can't miss it
+     */
+    private void doFlush(
+            DocumentsWriterPerThread flushingDWPT,
+            DocumentsWriterFlushQueue.FlushTicket ticket,
+            boolean onFlushExecutor)
+            throws IOException {
+        boolean success = false;
+        try {
+            final DocumentsWriterPerThread.FlushedSegment newSegment = flushingDWPT.flush();
+            ticketQueue.addSegment(ticket, newSegment);
+            success = true;
+        } catch (Throwable t) {
+            if (onFlushExecutor == false) {
+                throw t;
+            }
+            onFlushFailure(t);
+        } finally {
+            if (success == false) {
+                flushingDWPT.abort();
+                ticketQueue.markTicketFailed(ticket);
+            }
+            flushControl.doAfterFlush(flushingDWPT);
+            ticketQueue.tryPurge(this::publishFlushedSegment);
+        }
+    }
+
+    private void publishFlushedSegment(DocumentsWriterFlushQueue.FlushTicket ticket) {
+        ticket.markPublished();
+        try {
+            // the deletes only apply to the segments published before the ticket's own
+            if (ticket.getFrozenUpdates() != null) {
+                flushNotifications.onDeletesFrozen(ticket.getFrozenUpdates());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (ticket.getSegmentInfo() != null) {
+                final DocumentsWriterPerThread.FlushedSegment segment = ticket.getFlushedSegment();
+                if (segment != null) {
+                    flushNotifications.onSegmentFlushed(segment);
+                } else {
+                    flushNotifications.flushFailed(ticket.getSegmentInfo());
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes every DWPT that has buffered documents and waits until these, and all flushes that
+     * were already running, are done and their segments are published. Documents that other threads
+     * add concurrently may stay buffered.
+     *
+     * @throws IOException if one of the flushes failed, see {@link #ensureNoFlushFailure()}
+     */
+    void flushAllThreads() throws IOException {
+        final List<DocumentsWriterPerThread> flushingDWPTs = new ArrayList<>();
+        for (DocumentsWriterPerThread dwpt :
+                perThreadPool.filterAndLock(dwpt -> dwpt.getNumDocsInRAM() > 0)) {
+            try {
+                final DocumentsWriterPerThread flushingDWPT = flushControl.checkoutForFlush(dwpt);
+                if (flushingDWPT != null) {
+                    flushingDWPTs.add(flushingDWPT);
+                }
+            } finally {
+                dwpt.unlock();
+            }
+        }
+        Throwable failure = null;
+        // every checked out DWPT must be flushed, or it would never be released
+        for (DocumentsWriterPerThread flushingDWPT : flushingDWPTs) {
+            try {
+                scheduleFlush(flushingDWPT);
+            } catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                } else {
+                    failure.addSuppressed(t);
+                }
+            }
+        }
+        try {
+            // deletes that arrived after the last DWPT was checked out still apply to the segments
+            ticketQueue.addDeletes(deleteQueue);
+            waitForFlushes();
+        } catch (Throwable t) {
+            if (failure == null) {
+                failure = t;
+            } else {
+                failure.addSuppressed(t);
+            }
+        }
+        if (failure != null) {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Blocks until all flushes that have been started are done and their segments are published.
+     */
+    void waitForFlushes() throws IOException {
+        flushControl.waitForFlush();
+        ticketQueue.forcePurge(this::publishFlushedSegment);
+        assert ticketQueue.hasTickets() == false;
+        ensureNoFlushFailure();
+    }
+
+    private void onFlushFailure(Throwable t) {
+        while (true) {
+            final Throwable first = flushFailure.get();
+            if (first != null) {
+                first.addSuppressed(t);
+                return;
+            }
+            if (flushFailure.compareAndSet(null, t)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rethrows the exception of a flush that failed on the flush executor, if any. The failure is
+     * only reported once: the documents of the failed segment are lost, but the writer keeps working
+     * and later updates and flushes succeed again.
+     */
+    private void ensureNoFlushFailure() throws IOException {
+        if (flushFailure.get() == null) {
+            return;
+        }
+        final Throwable t = flushFailure.getAndSet(null);
+        if (t != null) {
+            throw new IOException("a background flush failed", t);
+        }
+    }
+
     interface FlushNotifications {
+        /**
+         * Called with the deletes that have been frozen when a flush was started, or by {@link
+         * #flushAllThreads()}, before the segment of that flush is published. They apply to all
+         * documents of the segments that have been published so far.
+         */
+        void onDeletesFrozen(FrozenBufferedUpdates updates) throws IOException;
+
+        /**
+         * Called once a new segment has been written by a flush. Segments are published in the
+         * order their flushes were started, this may be called from a flush executor thread.
+         */
+        void onSegmentFlushed(DocumentsWriterPerThread.FlushedSegment segment);
+
+        /** Called when a flush failed, the segment is not used and its files may be partially written. */
+        void flushFailed(SegmentInfo segment);
     }
 }
@@ -1,14 +1,322 @@
 package index;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link DocumentsWriterDeleteQueue} is a non-blocking linked pending deletes queue. In contrast to
+ * other queue implementation we only maintain the tail of the queue. A delete queue is always used
+ * in a context of a set of DWPTs. Each DWPT needs to maintain its 'own' head of the queue (as a
+ * DeleteSlice instance per {@link DocumentsWriterPerThread}), starting at the tail of the queue at
+ * the time the DWPT was created since for its segments private deletes only the deletes after that
+ * are relevant.
+ *
+ * <p>Since each {@link DeleteSlice} maintains its own head and the list is only single linked the
+ * garbage collector takes care of pruning the list for us. All nodes in the list that are still
+ * relevant should be either directly or indirectly referenced by one of the DWPT's private {@link
+ * DeleteSlice}.
+ *
+ * <p>Each DWPT maintains its private DeleteSlice instance, updating a slice is equivalent to atomically finishing the document. The slice
+ * update guarantees a "happens before" relationship to all other updates in the same indexing
+ * session. When a DWPT updates a document it:
+ *
+ * <ol>
+ *   <li>consumes a document and finishes its processing
+ *   <li>updates its private {@link DeleteSlice} either by calling {@link #updateSlice(DeleteSlice)}
+ *       or {@link #add(Node, DeleteSlice)} (if the document has a delTerm)
+ *   <li>applies all deletes in the slice to its private {@link BufferedUpdates} and resets it
+ *   <li>increments its internal document id
+ * </ol>
+ *
+ * <p>Every operation gets a sequence number from a single {@link AtomicLong}. Sequence numbers are
+ * consistent with the order of the queue: a delete only applies to the documents whose sequence
+ * number is lower than its own. To get there without a lock, a node that has been linked to the
+ * tail gets its sequence number before it may become the tail itself, and a document only keeps its
+ * sequence number if no node has been linked after the tail it read in the meantime. Sequence
+ * numbers are monotonically increasing but may have gaps.
+ *
+ * <p>Next to the DWPTs' slices, the queue has a global slice whose deletes are buffered for the
+ * segments that have already been flushed. When a DWPT is about to be flushed, the global buffer is
+ * frozen up to the tail of the DWPT's slice, see {@link #freezeGlobalBuffer(DeleteSlice)}: the DWPT
+ * applies the same deletes to its own documents, and the frozen deletes are applied to every
+ * segment published before the DWPT's segment.
+ */
 public class DocumentsWriterDeleteQueue {
 
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            TAIL = MethodHandles.lookup().findVarHandle(DocumentsWriterDeleteQueue.class, "tail", Node.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // the current end (latest delete operation) in the delete queue:
+    private volatile Node<?> tail;
+
+    /** Generates the sequence number that IW returns to callers changing the index */
+    private final AtomicLong nextSeqNo;
+
+    /** The deletes that have not been frozen for the already flushed segments yet. */
+    private final DeleteSlice globalSlice;
+
+    private final BufferedUpdates globalBufferedUpdates;
+
+    private final ReentrantLock globalBufferLock = new ReentrantLock();
+
+    DocumentsWriterDeleteQueue() {
+        this(1);
+    }
+
+    DocumentsWriterDeleteQueue(long startSeqNo) {
+        this.nextSeqNo = new AtomicLong(startSeqNo);
+        /*
+         * we use a sentinel instance as our initial tail. No slice will ever try to
+         * apply this tail since the head is always omitted.
+         */
+        final Node<?> sentinel = new Node<>(null);
+        sentinel.seqNo = startSeqNo - 1;
+        tail = sentinel;
+        globalSlice = new DeleteSlice(tail);
+        globalBufferedUpdates = new BufferedUpdates("global");
+    }
+
     static Node<Term> newNode(Term term) {
-        return new Node(term);
+        return new TermNode(term);
+    }
+
+    /** Returns a new slice that starts at the current tail of the queue. */
+    DeleteSlice newSlice() {
+        return new DeleteSlice(currentTail());
+    }
+
+    /**
+     * Appends the given node to the queue and moves the tail of the given slice to it, so that the
+     * next {@link DeleteSlice#apply(BufferedUpdates, int)} also applies all deletes that have been
+     * added by other threads in between.
+     *
+     * @return the sequence number of the delete
+     */
+    long add(Node<?> deleteNode, DeleteSlice slice) {
+        final long seqNo = add(deleteNode);
+        /*
+         * this is an update request where the term is the updated documents
+         * delTerm. in that case we need to guarantee that this insert is atomic
+         * with regards to the given delete slice. This means if two threads try to
+         * update the same document with in turn the same delTerm one of them must
+         * win. By taking the node we have created for our del term as the new tail
+         * it is guaranteed that if another thread adds the same right after us we
+         * will apply this delete next time we update our slice and one of the two
+         * competing updates wins!
+         */
+        slice.sliceTail = deleteNode;
+        assert slice.sliceHead != slice.sliceTail : "slice head and tail must differ after add";
+        return seqNo;
+    }
+
+    /** Appends the given node to the queue and returns its sequence number. */
+    long add(Node<?> newNode) {
+        assert newNode.seqNo == 0 : "node was already added";
+        while (true) {
+            final Node<?> currentTail = tail;
+            final Node<?> tailNext = currentTail.next;
+            if (tailNext == null) {
+                if (currentTail.casNext(null, newNode)) {
+                    // we linked the node, it must have a sequence number before it becomes the tail
+                    finishTail(currentTail, newNode);
+                    tryApplyGlobalSlice();
+                    return newNode.seqNo;
+                }
+            } else {
+                // another thread linked a node but didn't move the tail yet, help it
+                finishTail(currentTail, tailNext);
+            }
+        }
+    }
+
+    /**
+     * Assigns a sequence number to the node linked after {@code currentTail}, unless another thread
+     * already did, and makes it the tail.
+     */
+    private void finishTail(Node<?> currentTail, Node<?> next) {
+        if (next.seqNo == 0) {
+            // concurrent helpers may each take a sequence number, only one of them is used
+            next.casSeqNo(0, nextSeqNo.getAndIncrement());
+        }
+        TAIL.compareAndSet(this, currentTail, next);
+    }
+
+    /** Returns the tail of the queue, making sure that it has a sequence number. */
+    private Node<?> currentTail() {
+        while (true) {
+            final Node<?> currentTail = tail;
+            final Node<?> tailNext = currentTail.next;
+            if (tailNext == null) {
+                return currentTail;
+            }
+            finishTail(currentTail, tailNext);
+        }
+    }
+
+    /**
+     * Moves the tail of the slice to the current tail of the queue and assigns a sequence number to
+     * the document(s) that have been indexed with this slice.
+     *
+     * @return the sequence number, negated if the slice moved and must be applied
+     */
+    long updateSlice(DeleteSlice slice) {
+        while (true) {
+            final Node<?> currentTail = currentTail();
+            final long seqNo = nextSeqNo.getAndIncrement();
+            // if a node was linked after the tail while we took our sequence number, it may have a
+            // lower sequence number than ours but would not be in our slice, try again
+            if (currentTail.next == null) {
+                if (slice.sliceTail != currentTail) {
+                    // new deletes arrived since we last checked
+                    slice.sliceTail = currentTail;
+                    return -seqNo;
+                }
+                return seqNo;
+            }
+        }
+    }
+
+    /**
+     * Moves the deletes of the global slice to the global buffer unless another thread is already
+     * doing so, so that the queue doesn't keep all nodes since the last freeze alive.
+     */
+    private void tryApplyGlobalSlice() {
+        if (globalBufferLock.tryLock()) {
+            try {
+                final Node<?> currentTail = currentTail();
+                if (globalSlice.sliceTail != currentTail) {
+                    globalSlice.sliceTail = currentTail;
+                    globalSlice.apply(globalBufferedUpdates, Integer.MAX_VALUE);
+                }
+            } finally {
+                globalBufferLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Freezes the deletes of the global buffer for the segments that have already been flushed. The
+     * buffer is frozen up to the current tail of the queue, and the given slice of a DWPT that is
+     * about to be flushed, if any, is moved to the same tail so that the DWPT applies the deletes
+     * the frozen ones don't cover to its own documents.
+     *
+     * @return the frozen deletes, or <code>null</code> if there are none
+     */
+    FrozenBufferedUpdates freezeGlobalBuffer(DeleteSlice callerSlice) {
+        globalBufferLock.lock();
+        try {
+            final Node<?> currentTail = currentTail();
+            if (callerSlice != null) {
+                callerSlice.sliceTail = currentTail;
+            }
+            if (globalSlice.sliceTail != currentTail) {
+                globalSlice.sliceTail = currentTail;
+                globalSlice.apply(globalBufferedUpdates, Integer.MAX_VALUE);
+            }
+            return globalBufferedUpdates.freeze();
+        } finally {
+            globalBufferLock.unlock();
+        }
+    }
+
+    /** Returns the next sequence number that will be handed out, without consuming it. */
+    long getNextSequenceNumber() {
+        return nextSeqNo.get();
+    }
+
+    /** Returns the last sequence number that has been handed out. */
+    long getLastSequenceNumber() {
+        return nextSeqNo.get() - 1;
     }
 
+    /**
+     * A range of the delete queue, from right after its head to its tail inclusive, that has not
+     * been applied to a {@link BufferedUpdates} yet. Not thread-safe, each slice is owned by a
+     * single DWPT.
+     */
+    static class DeleteSlice {
+        // No need to be volatile, slices are thread captive (only accessed by one thread)!
+        Node<?> sliceHead; // we don't apply this one
+        Node<?> sliceTail;
+
+        DeleteSlice(Node<?> currentTail) {
+            assert currentTail != null;
+            /*
+             * Initially this is a 0 length slice pointing to the 'current' tail of
+             * the queue. Once we update the slice we only need to assign the tail and
+             * have a new slice
+             */
+            sliceHead = sliceTail = currentTail;
+        }
+
+        void apply(BufferedUpdates del, int docIDUpto) {
+            if (sliceHead == sliceTail) {
+                // 0 length slice
+                return;
+            }
+            /*
+             * When we apply a slice we take the head and get its next as our first
+             * item to apply and continue until we applied the tail. If the head and
+             * tail in this slice are not equal then there will be at least one more
+             * non-null node in the slice!
+             */
+            Node<?> current = sliceHead;
+            do {
+                current = current.next;
+                assert current != null
+                        : "slice property violated between the head on the tail must not be a null node";
+                current.apply(del, docIDUpto);
+            } while (current != sliceTail);
+            reset();
+        }
+
+        void reset() {
+            // Reset to a 0 length slice
+            sliceHead = sliceTail;
+        }
+
+        /**
+         * Returns <code>true</code> iff the given node is identical to the slices tail, otherwise
+         * <code>false</code>.
+         */
+        boolean isTail(Node<?> node) {
+            return sliceTail == node;
+        }
+
+        boolean isEmpty() {
+            return sliceHead == sliceTail;
+        }
+    }
 
     static class Node<T> {
+
+        private static final VarHandle NEXT;
+        private static final VarHandle SEQ_NO;
+
+        static {
+            try {
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+                SEQ_NO = lookup.findVarHandle(Node.class, "seqNo", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
         volatile Node<?> next;
+
+        /** The sequence number of this delete, 0 until it has been assigned. */
+        volatile long seqNo;
+
         final T item;
 
         Node(T item) {
@@ -22,5 +330,30 @@ public class DocumentsWriterDeleteQueue {
         boolean isDelete() {
             return true;
         }
+
+        boolean casNext(Node<?> cmp, Node<?> val) {
+            return NEXT.compareAndSet(this, cmp, val);
+        }
+
+        boolean casSeqNo(long cmp, long val) {
+            return SEQ_NO.compareAndSet(this, cmp, val);
+        }
+    }
+
+    private static final class TermNode extends Node<Term> {
+
+        TermNode(Term term) {
+            super(term);
+        }
+
+        @Override
+        void apply(BufferedUpdates bufferedDeletes, int docIDUpto) {
+            bufferedDeletes.addTerm(item, docIDUpto);
+        }
+
+        @Override
+        public String toString() {
+            return "del=" + item;
+        }
     }
 }
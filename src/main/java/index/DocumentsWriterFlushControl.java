@@ -1,28 +1,88 @@
 package index;
 
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * This class controls {@link DocumentsWriterPerThread} flushing during indexing. It tracks the
+ * memory consumption per {@link DocumentsWriterPerThread} and uses a configured {@link FlushPolicy}
+ * to decide if a {@link DocumentsWriterPerThread} must flush.
+ *
+ * <p>In addition to the {@link FlushPolicy} the flush control might set certain {@link
+ * DocumentsWriterPerThread} as flush pending iff a {@link DocumentsWriterPerThread} exceeds the
+ * {@link IndexWriterConfig#getRAMPerThreadHardLimitMB()} to prevent address space exhaustion.
+ */
 public class DocumentsWriterFlushControl {
 
    private final DocumentsWriter documentsWriter;
 
     private final DocumentsWriterPerThreadPool perThreadPool;
 
+    private final FlushPolicy flushPolicy;
 
-    private boolean closed = false;
+    private final long hardMaxBytesPerDWPT;
+
+    /**
+     * Indexing stalls once active and flushing DWPTs use more than this many times the RAM buffer.
+     */
+    static final int STALL_LIMIT_RAM_BUFFER_MULTIPLIER = 2;
+
+    private final long stallLimitBytes;
+
+    final DocumentsWriterStallControl stallControl = new DocumentsWriterStallControl();
+
+    /** Bytes used by DWPTs that are neither pending nor flushing. */
+    private long activeBytes = 0;
+
+    /** Bytes used by DWPTs that are flush pending or flushing. */
+    private volatile long flushBytes = 0;
 
-//    DocumentsWriterFlushControl(DocumentsWriter documentsWriter, LiveIndexWriterConfig config) {
-//        this.infoStream = config.getInfoStream();
-//        this.perThreadPool = documentsWriter.perThreadPool;
-//        this.flushPolicy = config.getFlushPolicy();
-//        this.config = config;
-//        this.hardMaxBytesPerDWPT = config.getRAMPerThreadHardLimitMB() * 1024 * 1024;
-//        this.documentsWriter = documentsWriter;
-//    }
+    private volatile int numPending = 0;
 
-    DocumentsWriterFlushControl(DocumentsWriter documentsWriter) {
+    /** DWPTs that have been checked out for flushing, with the bytes they used at that time. */
+    private final Map<DocumentsWriterPerThread, Long> flushingWriters = new IdentityHashMap<>();
+
+    private boolean closed = false;
+
+    DocumentsWriterFlushControl(DocumentsWriter documentsWriter, IndexWriterConfig config) {
         this.perThreadPool = documentsWriter.perThreadPool;
+        this.flushPolicy = config.getFlushPolicy();
+        this.hardMaxBytesPerDWPT = config.getRAMPerThreadHardLimitMB() * 1024L * 1024L;
+        this.stallLimitBytes =
+                (long) (STALL_LIMIT_RAM_BUFFER_MULTIPLIER * config.getRAMBufferSizeMB() * 1024 * 1024);
         this.documentsWriter = documentsWriter;
     }
 
+    public synchronized long activeBytes() {
+        return activeBytes;
+    }
+
+    public long getFlushingBytes() {
+        return flushBytes;
+    }
+
+    public synchronized long netBytes() {
+        return flushBytes + activeBytes;
+    }
+
+    int numFlushesPending() {
+        return numPending;
+    }
+
+    private void commitPerThreadBytes(DocumentsWriterPerThread perThread) {
+        final long delta = perThread.commitLastBytesUsed();
+        /*
+         * We need to differentiate here if we are pending since setFlushPending
+         * moves the perThread memory to the flushBytes
+         */
+        if (perThread.isFlushPending()) {
+            flushBytes += delta;
+        } else {
+            activeBytes += delta;
+        }
+    }
+
     DocumentsWriterPerThread obtainAndLock() {
         while (closed == false) {
             final DocumentsWriterPerThread perThread = perThreadPool.getAndLock();
@@ -55,7 +115,160 @@ public class DocumentsWriterFlushControl {
         throw new RuntimeException("can't get thread");
     }
 
-    public DocumentsWriterPerThread doAfterDocument(DocumentsWriterPerThread perThread, boolean isUpdate) {
+    /**
+     * Commits the RAM used by the given DWPT after a document has been indexed into it and lets the
+     * {@link FlushPolicy} decide whether something needs to be flushed.
+     *
+     * @return the given DWPT, checked out of the pool, if it has to be flushed now, otherwise
+     *     <code>null</code>
+     */
+    public synchronized DocumentsWriterPerThread doAfterDocument(DocumentsWriterPerThread perThread, boolean isUpdate) {
+        assert perThread.isHeldByCurrentThread();
+        commitPerThreadBytes(perThread);
+        if (perThread.isFlushPending() == false) {
+            flushPolicy.onChange(this, perThread);
+            if (perThread.isFlushPending() == false
+                    && perThread.ramBytesUsed() > hardMaxBytesPerDWPT) {
+                // Safety check to prevent a single DWPT exceeding its RAM limit. This
+                // is super important since we can not address more than 2048 MB per DWPT
+                setFlushPending(perThread);
+            }
+        }
+        final DocumentsWriterPerThread flushingDWPT = checkout(perThread);
+        updateStallState();
+        return flushingDWPT;
+    }
+
+    /**
+     * Stalls indexing threads if active and flushing DWPTs use more RAM than the stall limit, as
+     * long as the active DWPTs alone are below it. Otherwise stalling would not help since only a
+     * flush of one of the active DWPTs can bring the RAM usage down, which the {@link FlushPolicy}
+     * takes care of.
+     */
+    private void updateStallState() {
+        assert Thread.holdsLock(this);
+        final boolean stall =
+                (activeBytes + flushBytes) > stallLimitBytes
+                        && activeBytes < stallLimitBytes
+                        && closed == false;
+        stallControl.updateStalled(stall);
+    }
+
+    /** Blocks the calling thread while indexing is stalled, see {@link DocumentsWriterStallControl}. */
+    void waitIfStalled() {
+        stallControl.waitIfStalled();
+    }
+
+    boolean anyStalledThreads() {
+        return stallControl.anyStalledThreads();
+    }
+
+    /**
+     * Sets flush pending state on the given {@link DocumentsWriterPerThread}. The DWPT's memory
+     * moves from the active bytes to the flush bytes.
+     */
+    public synchronized void setFlushPending(DocumentsWriterPerThread perThread) {
+        assert perThread.isFlushPending() == false;
+        if (perThread.getNumDocsInRAM() > 0) {
+            perThread.setFlushPending(); // write access synced
+            final long bytes = perThread.getLastCommittedBytesUsed();
+            flushBytes += bytes;
+            activeBytes -= bytes;
+            numPending++; // write access synced
+            assert assertMemory();
+        } // don't assert on numDocs since we could hit an abort excp. while selecting that dwpt for
+        // flushing
+    }
+
+    /**
+     * Marks the given DWPT, which must be locked by the calling thread, as flush pending unless it
+     * already is, and checks it out of the pool to be flushed.
+     *
+     * @return the given DWPT, or <code>null</code> if it has no buffered documents
+     */
+    synchronized DocumentsWriterPerThread checkoutForFlush(DocumentsWriterPerThread perThread) {
+        assert perThread.isHeldByCurrentThread();
+        if (perThread.isFlushPending() == false) {
+            setFlushPending(perThread);
+        }
+        final DocumentsWriterPerThread flushingDWPT = checkout(perThread);
+        updateStallState();
+        return flushingDWPT;
+    }
+
+    private DocumentsWriterPerThread checkout(DocumentsWriterPerThread perThread) {
+        assert Thread.holdsLock(this);
+        if (perThread.isFlushPending() && perThreadPool.checkout(perThread)) {
+            addFlushingDWPT(perThread);
+            numPending--;
+            return perThread;
+        }
         return null;
     }
+
+    private void addFlushingDWPT(DocumentsWriterPerThread perThread) {
+        assert flushingWriters.containsKey(perThread) == false : "DWPT is already flushing";
+        // Record the flushing DWPT to reduce flushBytes in doAfterFlush
+        flushingWriters.put(perThread, perThread.getLastCommittedBytesUsed());
+    }
+
+    /**
+     * Returns the next flush-pending DWPT that is not currently held by an indexing thread, already
+     * checked out of the pool, or <code>null</code> if there is none.
+     */
+    DocumentsWriterPerThread nextPendingFlush() {
+        if (numPending == 0) {
+            return null;
+        }
+        for (DocumentsWriterPerThread next : perThreadPool) {
+            if (next.isFlushPending() && next.tryLock()) {
+                try {
+                    synchronized (this) {
+                        final DocumentsWriterPerThread flushingDWPT = checkout(next);
+                        if (flushingDWPT != null) {
+                            return flushingDWPT;
+                        }
+                    }
+                } finally {
+                    next.unlock();
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Releases the memory of a DWPT once it has been flushed, or failed to flush. */
+    synchronized void doAfterFlush(DocumentsWriterPerThread dwpt) {
+        assert flushingWriters.containsKey(dwpt);
+        final Long bytes = flushingWriters.remove(dwpt);
+        flushBytes -= bytes;
+        assert assertMemory();
+        updateStallState();
+        notifyAll();
+    }
+
+    /** Blocks until no DWPT is flushing anymore. */
+    synchronized void waitForFlush() {
+        while (flushingWriters.size() != 0) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private boolean assertMemory() {
+        assert activeBytes >= 0 : "activeBytes=" + activeBytes;
+        assert flushBytes >= 0 : "flushBytes=" + flushBytes;
+        return true;
+    }
+
+    /**
+     * Returns an iterator that provides access to all currently active {@link
+     * DocumentsWriterPerThread}s
+     */
+    public Iterator<DocumentsWriterPerThread> allActiveWriters() {
+        return perThreadPool.iterator();
+    }
 }
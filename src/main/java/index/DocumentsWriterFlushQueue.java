@@ -0,0 +1,207 @@
+package index;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the segments of concurrently flushing {@link DocumentsWriterPerThread}s in the order their
+ * flushes were started, so that they are published in that order no matter which flush finishes
+ * first.
+ *
+ * <p>A ticket is added to the queue when a DWPT is checked out for flushing. The ticket becomes
+ * publishable once the flush succeeded or failed, and is only purged from the queue once all
+ * tickets ahead of it have been purged.
+ *
+ * <p>Each ticket also carries the deletes that were frozen when it was added, which apply to the
+ * segments published before it, see {@link DocumentsWriterPerThread#prepareFlush()}. Deletes that
+ * arrive after the last flush get a ticket of their own, see {@link
+ * #addDeletes(DocumentsWriterDeleteQueue)}.
+ */
+final class DocumentsWriterFlushQueue {
+
+    private final Queue<FlushTicket> queue = new ArrayDeque<>();
+
+    // we track tickets separately since count must be present even before the ticket is
+    // constructed ie. queue.size would not reflect it.
+    private final AtomicInteger ticketCount = new AtomicInteger();
+
+    private final ReentrantLock purgeLock = new ReentrantLock();
+
+    /**
+     * Adds a ticket for the given DWPT, which must already be checked out for flushing, and freezes
+     * the deletes for the segments published before it.
+     */
+    synchronized FlushTicket addFlushTicket(DocumentsWriterPerThread dwpt) {
+        assert dwpt.isFlushPending();
+        // freezing the deletes under this lock keeps them in the same order as the tickets
+        final FlushTicket ticket = new FlushTicket(dwpt.prepareFlush(), dwpt.getSegmentInfo());
+        ticketCount.incrementAndGet();
+        queue.add(ticket);
+        return ticket;
+    }
+
+    /**
+     * Freezes the deletes that arrived since the last ticket was added, if any, and adds a ticket
+     * that is publishable right away to apply them to all segments published before it.
+     */
+    synchronized void addDeletes(DocumentsWriterDeleteQueue deleteQueue) {
+        final FrozenBufferedUpdates frozenUpdates = deleteQueue.freezeGlobalBuffer(null);
+        if (frozenUpdates != null) {
+            ticketCount.incrementAndGet();
+            queue.add(new FlushTicket(frozenUpdates, null));
+        }
+    }
+
+    synchronized void addSegment(
+            FlushTicket ticket, DocumentsWriterPerThread.FlushedSegment segment) {
+        assert ticket.segmentInfo == segment.segmentInfo;
+        ticket.setSegment(segment);
+    }
+
+    synchronized void markTicketFailed(FlushTicket ticket) {
+        ticket.setFailed();
+    }
+
+    boolean hasTickets() {
+        assert ticketCount.get() >= 0 : "ticketCount should be >= 0 but was: " + ticketCount.get();
+        return ticketCount.get() != 0;
+    }
+
+    int getTicketCount() {
+        return ticketCount.get();
+    }
+
+    private synchronized boolean canPublishHead() {
+        final FlushTicket head = queue.peek();
+        return head != null && head.canPublish();
+    }
+
+    private void innerPurge(Consumer<FlushTicket> consumer) {
+        assert purgeLock.isHeldByCurrentThread();
+        while (true) {
+            final FlushTicket head;
+            final boolean canPublish;
+            synchronized (this) {
+                head = queue.peek();
+                canPublish = head != null && head.canPublish(); // do this synced
+            }
+            if (canPublish) {
+                try {
+                    /*
+                     * if we block on publish -> lock IW -> lock BufferedDeletes we don't block
+                     * concurrent segment flushes just because they want to append to the queue.
+                     * the downside is that we need to force a purge on fullFlush since there could
+                     * be a ticket still in the queue.
+                     */
+                    consumer.accept(head);
+                } finally {
+                    synchronized (this) {
+                        // finally remove the published ticket from the queue
+                        final FlushTicket poll = queue.poll();
+                        ticketCount.decrementAndGet();
+                        assert poll == head;
+                    }
+                }
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Publishes all publishable tickets at the head of the queue, waiting for any other thread that
+     * is currently purging.
+     */
+    void forcePurge(Consumer<FlushTicket> consumer) {
+        assert Thread.holdsLock(this) == false;
+        purgeLock.lock();
+        try {
+            innerPurge(consumer);
+        } finally {
+            purgeLock.unlock();
+        }
+    }
+
+    /**
+     * Publishes all publishable tickets at the head of the queue unless another thread is already
+     * purging. The head is checked again after the purge lock is released so that a ticket that
+     * became publishable while another thread was purging can't be left behind.
+     */
+    void tryPurge(Consumer<FlushTicket> consumer) {
+        assert Thread.holdsLock(this) == false;
+        while (canPublishHead() && purgeLock.tryLock()) {
+            try {
+                innerPurge(consumer);
+            } finally {
+                purgeLock.unlock();
+            }
+        }
+    }
+
+    static final class FlushTicket {
+
+        private final FrozenBufferedUpdates frozenUpdates;
+
+        private final SegmentInfo segmentInfo;
+
+        private DocumentsWriterPerThread.FlushedSegment segment;
+
+        private boolean failed = false;
+
+        private boolean published = false;
+
+        /**
+         * @param frozenUpdates the deletes for the segments published before this ticket, or
+         *     <code>null</code>
+         * @param segmentInfo the segment that is flushed, or <code>null</code> if this ticket only
+         *     carries deletes
+         */
+        FlushTicket(FrozenBufferedUpdates frozenUpdates, SegmentInfo segmentInfo) {
+            this.frozenUpdates = frozenUpdates;
+            this.segmentInfo = segmentInfo;
+        }
+
+        boolean canPublish() {
+            return segmentInfo == null || segment != null || failed;
+        }
+
+        synchronized void markPublished() {
+            assert published == false : "ticket was already published - can not publish twice";
+            published = true;
+        }
+
+        private void setSegment(DocumentsWriterPerThread.FlushedSegment segment) {
+            assert !failed;
+            this.segment = segment;
+        }
+
+        private void setFailed() {
+            assert segment == null;
+            failed = true;
+        }
+
+        /**
+         * Returns the flushed segment or <code>null</code> if this flush ticket doesn't have a
+         * segment. This can be the case if this ticket represents a flush that failed.
+         */
+        DocumentsWriterPerThread.FlushedSegment getFlushedSegment() {
+            return segment;
+        }
+
+        /**
+         * Returns the segment this ticket was created for, whether or not its flush succeeded, or
+         * <code>null</code> if this ticket only carries deletes.
+         */
+        SegmentInfo getSegmentInfo() {
+            return segmentInfo;
+        }
+
+        /** Returns the deletes for the segments published before this ticket, or <code>null</code>. */
+        FrozenBufferedUpdates getFrozenUpdates() {
+            return frozenUpdates;
+        }
+    }
+}
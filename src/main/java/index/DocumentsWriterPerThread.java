@@ -1,25 +1,55 @@
 package index;
 
+import store.Directory;
+import util.Accountable;
+import util.ArrayUtil;
+import util.FixedBitSet;
+
 import java.io.IOException;
-import java.rmi.RemoteException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
-final class DocumentsWriterPerThread {
+final class DocumentsWriterPerThread implements Accountable {
 
     final DocumentsWriterDeleteQueue deleteQueue;
 
     private final ReentrantLock lock = new ReentrantLock();
 
+    private final SegmentInfo segmentInfo;
+
+    private final Directory directory;
+
     private int numDocsInRAM;
 
     private AtomicBoolean flushPending = new AtomicBoolean(false);
 
+    /** RAM usage last reported to {@link DocumentsWriterFlushControl}. */
+    private long lastCommittedBytesUsed;
+
     private IndexingChain indexingChain;
-    public DocumentsWriterPerThread(DocumentsWriterDeleteQueue deleteQueue) {
+
+    /** Deletes that apply to the documents of this DWPT. */
+    final BufferedUpdates pendingUpdates;
+
+    private final DocumentsWriterDeleteQueue.DeleteSlice deleteSlice;
+
+    /** Documents that failed to index, they are deleted when the segment is flushed. */
+    private int[] deleteDocIDs = new int[0];
+
+    private int numDeletedDocIds = 0;
+
+    public DocumentsWriterPerThread(
+            String segmentName,
+            Directory directory,
+            IndexWriterConfig config,
+            DocumentsWriterDeleteQueue deleteQueue) {
         this.deleteQueue = deleteQueue;
-        indexingChain = new IndexingChain();
+        this.segmentInfo = new SegmentInfo(segmentName);
+        this.directory = directory;
+        indexingChain = new IndexingChain(segmentInfo, directory, config);
         numDocsInRAM = 0;
+        this.pendingUpdates = new BufferedUpdates(segmentName);
+        this.deleteSlice = deleteQueue.newSlice();
     }
 
     long updateDocuments(
@@ -28,39 +58,77 @@ final class DocumentsWriterPerThread {
             DocumentsWriter.FlushNotifications flushNotifications,
             Runnable onNewDocOnRAM)
             throws IOException {
+        final int docsInRamBefore = numDocsInRAM;
+        boolean allDocsIndexed = false;
         try {
-            final int docsInRamBefore = numDocsInRAM;
-            boolean allDocsIndexed = false;
-            try {
-                for (Iterable<? extends IndexableField> doc : docs) {
-                    // Even on exception, the document is still added (but marked
-                    // deleted), so we don't need to un-reserve at that point.
-                    // Aborting exceptions will actually "lose" more than one
-                    // document, so the counter will be "wrong" in that case, but
-                    // it's very hard to fix (we can't easily distinguish aborting
-                    // vs non-aborting exceptions):
-                    try {
-                        indexingChain.processDocument(doc,numDocsInRAM++);
-                    } finally {
-                        onNewDocOnRAM.run();
-                    }
-                }
-                allDocsIndexed = true;
-                return finishDocuments(deleteNode, docsInRamBefore);
-            } finally {
-                if (!allDocsIndexed ) {
-                    // the iterator threw an exception that is not aborting
-                    // go and mark all docs from this block as deleted
-                    throw new RuntimeException("update Documents occur exception");
+            for (Iterable<? extends IndexableField> doc : docs) {
+                // Even on exception, the document is still added (but marked
+                // deleted), so we don't need to un-reserve at that point.
+                // Aborting exceptions will actually "lose" more than one
+                // document, so the counter will be "wrong" in that case, but
+                // it's very hard to fix (we can't easily distinguish aborting
+                // vs non-aborting exceptions):
+                try {
+                    indexingChain.processDocument(doc, numDocsInRAM++);
+                } finally {
+                    onNewDocOnRAM.run();
                 }
             }
-        } catch (Exception e) {
-            throw new RuntimeException("update Documents occur exception");
+            allDocsIndexed = true;
+            return finishDocuments(deleteNode, docsInRamBefore);
+        } finally {
+            if (allDocsIndexed == false) {
+                // the iterator or a field threw an exception that is not aborting, some fields of the
+                // failing document may already be buffered: go and mark all docs from this block as
+                // deleted, the exception propagates to the caller
+                deleteLastDocs(numDocsInRAM - docsInRamBefore);
+            }
         }
     }
 
-    private long finishDocuments(DocumentsWriterDeleteQueue.Node<?> deleteNode, int docsInRamBefore) {
-        return 0;
+    /** Marks the last {@code docCount} buffered documents as deleted. */
+    private void deleteLastDocs(int docCount) {
+        final int from = numDocsInRAM - docCount;
+        final int to = numDocsInRAM;
+        deleteDocIDs = ArrayUtil.grow(deleteDocIDs, numDeletedDocIds + (to - from));
+        for (int docID = from; docID < to; docID++) {
+            deleteDocIDs[numDeletedDocIds++] = docID;
+        }
+    }
+
+    /**
+     * Assigns the sequence number of the update and applies the deletes that arrived since the last
+     * update, including its own delete if any, to the documents that were indexed before it.
+     */
+    private long finishDocuments(DocumentsWriterDeleteQueue.Node<?> deleteNode, int docIdUpTo) {
+        /*
+         * here we actually finish the document in two steps 1. push the delete into
+         * the queue and update our slice. 2. increment the DWPT private document
+         * id.
+         *
+         * the updated slice we get from 1. holds all the deletes that have occurred
+         * since we updated the slice the last time.
+         */
+        // Apply delTerm only after all indexing has
+        // succeeded, but apply it only to docs prior to when
+        // this batch started:
+        long seqNo;
+        if (deleteNode != null) {
+            seqNo = deleteQueue.add(deleteNode, deleteSlice);
+            assert deleteSlice.isTail(deleteNode) : "expected the delete term as the tail item";
+            deleteSlice.apply(pendingUpdates, docIdUpTo);
+            return seqNo;
+        } else {
+            seqNo = deleteQueue.updateSlice(deleteSlice);
+            if (seqNo < 0) {
+                seqNo = -seqNo;
+                deleteSlice.apply(pendingUpdates, docIdUpTo);
+            } else {
+                deleteSlice.reset();
+            }
+        }
+
+        return seqNo;
     }
 
     private void reserveOneDoc() {
@@ -78,9 +146,91 @@ final class DocumentsWriterPerThread {
         lock.unlock();
     }
 
-    // TODO: wait to finish
+    /**
+     * Applies the deletes that arrived since the last document to this DWPT, and freezes those that
+     * apply to the segments flushed before it. Must be called once this DWPT has been checked out
+     * for flushing, in the order the flushes of the DWPTs are published.
+     *
+     * @return the deletes for the segments flushed before this one, or <code>null</code> if there
+     *     are none
+     */
+    FrozenBufferedUpdates prepareFlush() {
+        assert isFlushPending();
+        final FrozenBufferedUpdates globalUpdates = deleteQueue.freezeGlobalBuffer(deleteSlice);
+        deleteSlice.apply(pendingUpdates, numDocsInRAM);
+        return globalUpdates;
+    }
+
+    /**
+     * Flushes all buffered documents into a new segment. Must only be called once this DWPT has been
+     * checked out of the pool for flushing, it can't be used anymore afterwards.
+     *
+     * @return the flushed segment
+     */
+    FlushedSegment flush() throws IOException {
+        assert isFlushPending();
+        assert numDocsInRAM > 0;
+        assert deleteSlice.isEmpty() : "prepareFlush must be called first";
+        // the terms of the segment are still in RAM, so buffered deletes are resolved against them
+        // before the segment is written, in a single pass
+        FixedBitSet liveDocs =
+                pendingUpdates.any()
+                        ? pendingUpdates.applyToSegment(indexingChain.fields(), numDocsInRAM)
+                        : null;
+        if (numDeletedDocIds > 0) {
+            if (liveDocs == null) {
+                liveDocs = new FixedBitSet(numDocsInRAM);
+                liveDocs.set(0, numDocsInRAM);
+            }
+            for (int i = 0; i < numDeletedDocIds; i++) {
+                liveDocs.clear(deleteDocIDs[i]);
+            }
+        }
+        indexingChain.flush(numDocsInRAM);
+        segmentInfo.setMaxDoc(numDocsInRAM);
+        final int delCount = liveDocs == null ? 0 : numDocsInRAM - liveDocs.cardinality();
+        if (liveDocs != null) {
+            LiveDocsFormat.write(directory, segmentInfo, liveDocs, delCount);
+        }
+        return new FlushedSegment(segmentInfo, liveDocs, delCount);
+    }
+
+    /** Releases everything held by this DWPT without writing a segment. */
+    void abort() {
+        indexingChain.abort();
+    }
+
+    @Override
     public long ramBytesUsed() {
-        return 0;
+        return indexingChain.ramBytesUsed()
+                + pendingUpdates.ramBytesUsed()
+                + (long) deleteDocIDs.length * Integer.BYTES;
+    }
+
+    /**
+     * Commits the current {@link #ramBytesUsed()} and returns the amount of bytes added or removed
+     * since the last commit.
+     */
+    long commitLastBytesUsed() {
+        assert isHeldByCurrentThread();
+        long delta = ramBytesUsed() - lastCommittedBytesUsed;
+        lastCommittedBytesUsed += delta;
+        return delta;
+    }
+
+    /** Returns the RAM usage of this DWPT as it was last committed with {@link #commitLastBytesUsed()}. */
+    long getLastCommittedBytesUsed() {
+        return lastCommittedBytesUsed;
+    }
+
+    /** Returns the number of RAM resident documents in this {@link DocumentsWriterPerThread} */
+    public int getNumDocsInRAM() {
+        // public for FlushPolicy
+        return numDocsInRAM;
+    }
+
+    SegmentInfo getSegmentInfo() {
+        return segmentInfo;
     }
 
     boolean isHeldByCurrentThread() {
@@ -90,4 +240,29 @@ final class DocumentsWriterPerThread {
     public boolean isFlushPending() {
         return flushPending.get() == Boolean.TRUE;
     }
+
+    /** Marks this DWPT as flush pending, see {@link DocumentsWriterFlushControl#setFlushPending}. */
+    void setFlushPending() {
+        flushPending.set(true);
+    }
+
+    /** A segment written by {@link #flush()}, with the documents that were deleted while buffered. */
+    static final class FlushedSegment {
+
+        final SegmentInfo segmentInfo;
+
+        /**
+         * The live docs of the segment, or <code>null</code> if all documents are live. They are also
+         * written to the <code>.liv</code> file of the segment, see {@link LiveDocsFormat}.
+         */
+        final FixedBitSet liveDocs;
+
+        final int delCount;
+
+        FlushedSegment(SegmentInfo segmentInfo, FixedBitSet liveDocs, int delCount) {
+            this.segmentInfo = segmentInfo;
+            this.liveDocs = liveDocs;
+            this.delCount = delCount;
+        }
+    }
 }
@@ -1,6 +1,12 @@
 package index;
 
+import util.BitUtils;
+
 import java.io.Closeable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.IdentityHashMap;
@@ -8,6 +14,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -22,19 +29,51 @@ import java.util.function.Supplier;
  * <p>Once a {@link DocumentsWriterPerThread} is selected for flush the {@link
  * DocumentsWriterPerThread} will be checked out of the thread pool and won't be reused for
  * indexing. See {@link #checkout(DocumentsWriterPerThread)}.
+ *
+ * <p>Free DWPTs are spread over a power of two number of stripes, sized after the number of
+ * available processors, each guarded by its own lock. A thread polls the stripe its id hashes to
+ * first and only steals from other stripes if that one is empty, so indexing threads don't contend
+ * on a single lock for every document. Java can't tell which core a thread runs on, so stripes are
+ * assigned per thread rather than per core. A new DWPT is only created once every stripe has been
+ * polled, waiting for stripes that are busy. Within a stripe, DWPTs that use the most RAM are still
+ * preferred, see {@link ApproximatePriorityQueue}. The pool monitor is only taken to create new
+ * DWPTs, check them out and iterate over them.
+ *
+ * <p>With thread affinity enabled, see {@link IndexWriterConfig#setThreadAffinity(boolean)}, a
+ * thread first tries to get the DWPT it used last, whose hash tables and buffers are likely still
+ * in the caches of its core, and only falls back to the free list if that DWPT is in use or has
+ * been checked out. Virtual threads don't stay on a core, they always use the free list.
  */
 public class DocumentsWriterPerThreadPool implements Iterable<DocumentsWriterPerThread> , Closeable {
 
     private final Set<DocumentsWriterPerThread> dwpts =
             Collections.newSetFromMap(new IdentityHashMap<>());
-    private final ApproximatePriorityQueue<DocumentsWriterPerThread> freeList =
-            new ApproximatePriorityQueue<>();
+    private final FreeListStripe[] freeList;
+    private final int stripeMask;
     private final Supplier<DocumentsWriterPerThread> dwptFactory;
+    /** The DWPT each thread used last, or <code>null</code> if thread affinity is disabled. */
+    private final ThreadLocal<WeakReference<DocumentsWriterPerThread>> lastUsed;
     private int takenWriterPermits = 0;
     private boolean closed;
 
     DocumentsWriterPerThreadPool(Supplier<DocumentsWriterPerThread> dwptFactory) {
+        this(dwptFactory, Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    DocumentsWriterPerThreadPool(
+            Supplier<DocumentsWriterPerThread> dwptFactory, int numStripes, boolean threadAffinity) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("numStripes must be >= 1, got " + numStripes);
+        }
         this.dwptFactory = dwptFactory;
+        // weak so that a thread doesn't keep the buffers of a flushed DWPT alive
+        this.lastUsed = threadAffinity ? new ThreadLocal<>() : null;
+        final int size = BitUtils.nextHighestPowerOfTwo(numStripes);
+        freeList = new FreeListStripe[size];
+        for (int i = 0; i < size; ++i) {
+            freeList[i] = new FreeListStripe();
+        }
+        stripeMask = size - 1;
     }
 
     synchronized int size() {
@@ -91,26 +130,78 @@ public class DocumentsWriterPerThreadPool implements Iterable<DocumentsWriterPer
      * operation (add/updateDocument).
      */
     DocumentsWriterPerThread getAndLock() {
-        synchronized (this) {
-            DocumentsWriterPerThread dwpt = freeList.poll(DocumentsWriterPerThread::tryLock);
-            if (dwpt == null) {
-                dwpt = newWriter();
+        final int home = homeStripe();
+        final boolean affine = lastUsed != null && isVirtualThread() == false;
+        if (affine) {
+            final WeakReference<DocumentsWriterPerThread> ref = lastUsed.get();
+            final DocumentsWriterPerThread last = ref == null ? null : ref.get();
+            // the last used DWPT was returned to the home stripe, unless another thread stole it
+            if (last != null && last.tryLock()) {
+                if (freeList[home].remove(last)) {
+                    return last;
+                }
+                last.unlock();
+            }
+        }
+        DocumentsWriterPerThread dwpt = freeList[home].poll(true);
+        if (dwpt == null) {
+            // steal from other stripes, first without waiting for their locks since a stripe that
+            // is busy is likely being polled by its own threads
+            for (int i = 1; i <= stripeMask && dwpt == null; ++i) {
+                dwpt = freeList[(home + i) & stripeMask].poll(false);
+            }
+            // a busy stripe may still hold a free DWPT, and every new DWPT ends up as an extra,
+            // smaller segment: wait for the locks before giving up
+            for (int i = 1; i <= stripeMask && dwpt == null; ++i) {
+                dwpt = freeList[(home + i) & stripeMask].poll(true);
             }
-            // DWPT is already locked before return by this method:
-            return dwpt;
         }
+        if (dwpt == null) {
+            dwpt = newWriter();
+        }
+        if (affine) {
+            lastUsed.set(new WeakReference<>(dwpt));
+        }
+        // DWPT is already locked before return by this method:
+        return dwpt;
     }
 
     void marksAsFreeAndUnlock(DocumentsWriterPerThread state) {
-        final long ramBytesUsed = state.ramBytesUsed();
-        synchronized (this) {
-            assert dwpts.contains(state)
-                    : "we tried to add a DWPT back to the pool but the pool doesn't know aobut this DWPT";
-            freeList.add(state, ramBytesUsed);
-        }
+        assert isRegistered(state)
+                : "we tried to add a DWPT back to the pool but the pool doesn't know aobut this DWPT";
+        freeList[homeStripe()].add(state, state.ramBytesUsed());
         state.unlock();
     }
 
+    private static final MethodHandle IS_VIRTUAL = lookupIsVirtual();
+
+    private static MethodHandle lookupIsVirtual() {
+        try {
+            // Thread#isVirtual only exists as of Java 21
+            return MethodHandles.publicLookup()
+                    .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    /** Returns the stripe of the free list the current thread polls first and returns DWPTs to. */
+    private int homeStripe() {
+        // mix the bits of the id since ids of threads that are started together are sequential
+        final long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & stripeMask;
+    }
 
     @Override
     public synchronized Iterator<DocumentsWriterPerThread> iterator() {
@@ -148,14 +239,28 @@ public class DocumentsWriterPerThreadPool implements Iterable<DocumentsWriterPer
      */
     synchronized boolean checkout(DocumentsWriterPerThread perThread) {
         if (dwpts.remove(perThread)) {
-            freeList.remove(perThread);
+            for (FreeListStripe stripe : freeList) {
+                if (stripe.remove(perThread)) {
+                    break;
+                }
+            }
         } else {
-            assert freeList.contains(perThread) == false;
+            assert isInFreeList(perThread) == false;
             return false;
         }
         return true;
     }
 
+    // Only used for assertions
+    private boolean isInFreeList(DocumentsWriterPerThread perThread) {
+        for (FreeListStripe stripe : freeList) {
+            if (stripe.contains(perThread)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /** Returns <code>true</code> if this DWPT is still part of the pool */
     synchronized boolean isRegistered(DocumentsWriterPerThread perThread) {
         return dwpts.contains(perThread);
@@ -165,4 +270,59 @@ public class DocumentsWriterPerThreadPool implements Iterable<DocumentsWriterPer
     public synchronized void close() {
         this.closed = true;
     }
+
+    /** A part of the free list, guarded by its own lock. */
+    private static final class FreeListStripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final ApproximatePriorityQueue<DocumentsWriterPerThread> queue =
+                new ApproximatePriorityQueue<>();
+
+        /**
+         * Polls and locks a free DWPT, preferring those that use the most RAM.
+         *
+         * @param wait whether to wait for the lock of this stripe if it's held by another thread, or
+         *     give up immediately
+         */
+        DocumentsWriterPerThread poll(boolean wait) {
+            if (wait) {
+                lock.lock();
+            } else if (lock.tryLock() == false) {
+                return null;
+            }
+            try {
+                return queue.isEmpty() ? null : queue.poll(DocumentsWriterPerThread::tryLock);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void add(DocumentsWriterPerThread dwpt, long ramBytesUsed) {
+            lock.lock();
+            try {
+                queue.add(dwpt, ramBytesUsed);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean remove(DocumentsWriterPerThread dwpt) {
+            lock.lock();
+            try {
+                return queue.remove(dwpt);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean contains(DocumentsWriterPerThread dwpt) {
+            lock.lock();
+            try {
+                return queue.contains(dwpt);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
 }
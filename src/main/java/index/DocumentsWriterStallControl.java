@@ -0,0 +1,119 @@
+package index;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Controls the health status of a {@link DocumentsWriter} sessions. This class used to block
+ * incoming indexing threads if flushing significantly slower than indexing to ensure the {@link
+ * DocumentsWriter}s healthiness. If flushing is significantly slower than indexing the net memory
+ * used within an {@link IndexWriter} session can increase very quickly and easily exceed the JVM's
+ * available memory.
+ *
+ * <p>To prevent OOM Errors and ensure IndexWriter's stability this class blocks incoming threads
+ * from indexing once the RAM used by active and flushing {@link DocumentsWriterPerThread}s exceeds
+ * {@link DocumentsWriterFlushControl#STALL_LIMIT_RAM_BUFFER_MULTIPLIER} times the RAM buffer, see
+ * {@link IndexWriterConfig#getRAMBufferSizeMB()}. Once flushing catches up threads are released
+ * and can continue indexing.
+ *
+ * <p>Every blocked or rejected update is recorded, see {@link #getNumStalledUpdates()}, {@link
+ * #getStallTimeNanos()} and {@link #getNumRejectedUpdates()}.
+ */
+final class DocumentsWriterStallControl {
+
+    private volatile boolean stalled;
+
+    private int numWaiting; // only with assert
+
+    private boolean wasStalled; // only with assert
+
+    private final LongAdder numStalledUpdates = new LongAdder();
+
+    private final LongAdder stallTimeNanos = new LongAdder();
+
+    private final LongAdder numRejectedUpdates = new LongAdder();
+
+    /**
+     * Update the stalled flag status. If the flag is reset the {@link DocumentsWriterStallControl}
+     * is healthy again and all threads waiting on {@link #waitIfStalled()} are released.
+     */
+    synchronized void updateStalled(boolean stalled) {
+        if (this.stalled != stalled) {
+            this.stalled = stalled;
+            if (stalled) {
+                wasStalled = true;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Blocks if documents writing is currently in a stalled state. Waits at most one second so that
+     * the caller gets a chance to help flushing before it waits again.
+     */
+    void waitIfStalled() {
+        if (stalled) {
+            synchronized (this) {
+                if (stalled) { // react on the first wakeup call!
+                    // don't loop here, higher level logic will re-stall!
+                    try {
+                        incWaiters();
+                        // Defensive, in case we have a concurrency bug that fails to .notify/All our thread:
+                        // just wait for up to 1 second here, and let caller re-stall if it's still needed:
+                        wait(1000);
+                        decrWaiters();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+    }
+
+    boolean anyStalledThreads() {
+        return stalled;
+    }
+
+    /** Records that an update has been blocked for the given amount of time. */
+    void recordStall(long nanos) {
+        numStalledUpdates.increment();
+        stallTimeNanos.add(nanos);
+    }
+
+    /** Records that an update has been rejected because indexing was stalled. */
+    void recordRejection() {
+        numRejectedUpdates.increment();
+    }
+
+    /** Returns the number of updates that have been blocked because indexing was stalled. */
+    long getNumStalledUpdates() {
+        return numStalledUpdates.sum();
+    }
+
+    /** Returns the total time updates have been blocked because indexing was stalled. */
+    long getStallTimeNanos() {
+        return stallTimeNanos.sum();
+    }
+
+    /** Returns the number of updates that have been rejected because indexing was stalled. */
+    long getNumRejectedUpdates() {
+        return numRejectedUpdates.sum();
+    }
+
+    private void incWaiters() {
+        numWaiting++;
+        assert numWaiting > 0;
+    }
+
+    private void decrWaiters() {
+        numWaiting--;
+        assert numWaiting >= 0;
+    }
+
+    synchronized boolean hasBlocked() { // for tests
+        return numWaiting > 0;
+    }
+
+    synchronized boolean wasStalled() { // for tests
+        return wasStalled;
+    }
+}
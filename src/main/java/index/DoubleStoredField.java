@@ -0,0 +1,22 @@
+package index;
+
+/** A stored-only field holding a {@code double} value. */
+public final class DoubleStoredField extends PrimitiveStoredField {
+
+    public DoubleStoredField(String name, double value) {
+        super(name, StoredFieldConsumer.NUMERIC_DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    public double doubleValue() {
+        return Double.longBitsToDouble(bits);
+    }
+
+    public void setDoubleValue(double value) {
+        bits = Double.doubleToRawLongBits(value);
+    }
+
+    @Override
+    public Number numericValue() {
+        return doubleValue();
+    }
+}
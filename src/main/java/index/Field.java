@@ -3,6 +3,8 @@ package index;
 import document.FieldType;
 import util.BytesRef;
 
+import java.io.Reader;
+
 public class Field implements IndexableField{
 
     protected String name;
@@ -36,6 +38,14 @@ public class Field implements IndexableField{
         return null;
     }
 
+    @Override
+    public Reader readerValue() {
+        if (fieldData instanceof Reader) {
+            return (Reader) fieldData;
+        }
+        return null;
+    }
+
     @Override
     public FieldType fieldType() {
         return type;
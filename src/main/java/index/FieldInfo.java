@@ -6,9 +6,185 @@ public final class FieldInfo {
 
     public final String name;
 
+    private IndexOptions indexOptions = IndexOptions.NONE;
+
+    private DocValuesType docValuesType = DocValuesType.NONE;
+
+    private boolean omitNorms; // omit norms associated with indexed fields
+
+    private boolean storeTermVector;
+
+    private int pointDimensionCount;
+    private int pointIndexDimensionCount;
+    private int pointNumBytes;
+
     public FieldInfo(String name,
                      int number) {
         this.name = name;
         this.number = number;
     }
+
+    /** Returns IndexOptions for the field, or IndexOptions.NONE if the field is not indexed */
+    public IndexOptions getIndexOptions() {
+        return indexOptions;
+    }
+
+    /**
+     * Records the index options of the field the first time it is indexed. A field must be indexed
+     * with the same options in all documents of a segment.
+     *
+     * @throws IllegalArgumentException if the field was already indexed with other options
+     */
+    void setIndexOptions(IndexOptions newIndexOptions) {
+        verifySameIndexOptions(name, indexOptions, newIndexOptions);
+        if (newIndexOptions != IndexOptions.NONE) {
+            indexOptions = newIndexOptions;
+        }
+    }
+
+    /**
+     * Verify that the provided index options are the same, an unindexed side is compatible with
+     * anything.
+     *
+     * @throws IllegalArgumentException if they are not the same
+     */
+    static void verifySameIndexOptions(String fieldName, IndexOptions indexOptions1, IndexOptions indexOptions2) {
+        if (indexOptions1 != indexOptions2
+                && indexOptions1 != IndexOptions.NONE
+                && indexOptions2 != IndexOptions.NONE) {
+            throw new IllegalArgumentException(
+                    "cannot change field \"" + fieldName + "\" from index options=" + indexOptions1
+                            + " to inconsistent index options=" + indexOptions2);
+        }
+    }
+
+    /** Returns {@link DocValuesType} of the docValues; this is {@code DocValuesType.NONE} if the field has no docvalues. */
+    public DocValuesType getDocValuesType() {
+        return docValuesType;
+    }
+
+    /**
+     * Records the doc values type of the field the first time it has doc values. A field must have
+     * the same type of doc values in all documents of a segment.
+     *
+     * @throws IllegalArgumentException if the field already had doc values of another type
+     */
+    void setDocValuesType(DocValuesType type) {
+        if (type == null) {
+            throw new NullPointerException("DocValuesType must not be null (field: \"" + name + "\")");
+        }
+        verifySameDocValuesType(name, docValuesType, type);
+        if (type != DocValuesType.NONE) {
+            docValuesType = type;
+        }
+    }
+
+    /**
+     * Verify that the provided doc values types are the same, a side without doc values is
+     * compatible with anything.
+     *
+     * @throws IllegalArgumentException if they are not the same
+     */
+    static void verifySameDocValuesType(String fieldName, DocValuesType docValuesType1, DocValuesType docValuesType2) {
+        if (docValuesType1 != docValuesType2
+                && docValuesType1 != DocValuesType.NONE
+                && docValuesType2 != DocValuesType.NONE) {
+            throw new IllegalArgumentException(
+                    "cannot change DocValues type from " + docValuesType1 + " to " + docValuesType2
+                            + " for field \"" + fieldName + "\"");
+        }
+    }
+
+    /** Returns true if norms are explicitly omitted for this field */
+    public boolean omitsNorms() {
+        return omitNorms;
+    }
+
+    /**
+     * Omits norms for this field. Once a document of the segment omits norms for the field, the
+     * field has no norms in the whole segment.
+     */
+    void setOmitsNorms() {
+        omitNorms = true;
+    }
+
+    /** Returns true if this field is indexed and has norms. */
+    public boolean hasNorms() {
+        return indexOptions != IndexOptions.NONE && omitNorms == false;
+    }
+
+    /**
+     * Records the point dimensions of the field the first time it has points. A field must have the
+     * same point dimensions in all documents of a segment.
+     *
+     * @throws IllegalArgumentException if the field already had points with other dimensions
+     */
+    void setPointDimensions(int dimensionCount, int indexDimensionCount, int numBytes) {
+        if (dimensionCount <= 0 || indexDimensionCount <= 0 || numBytes <= 0) {
+            throw new IllegalArgumentException(
+                    "point dimensions must be positive for field \"" + name + "\", got dimensionCount="
+                            + dimensionCount + ", indexDimensionCount=" + indexDimensionCount + ", numBytes=" + numBytes);
+        }
+        verifySamePointsOptions(
+                name, pointDimensionCount, pointIndexDimensionCount, pointNumBytes,
+                dimensionCount, indexDimensionCount, numBytes);
+        pointDimensionCount = dimensionCount;
+        pointIndexDimensionCount = indexDimensionCount;
+        pointNumBytes = numBytes;
+    }
+
+    /**
+     * Verify that the provided point dimensions are the same, a side without points (a dimension
+     * count of 0) is compatible with anything.
+     *
+     * @throws IllegalArgumentException if they are not the same
+     */
+    static void verifySamePointsOptions(
+            String fieldName,
+            int pointDimensionCount1, int pointIndexDimensionCount1, int pointNumBytes1,
+            int pointDimensionCount2, int pointIndexDimensionCount2, int pointNumBytes2) {
+        if (pointDimensionCount1 == 0 || pointDimensionCount2 == 0) {
+            return;
+        }
+        if (pointDimensionCount1 != pointDimensionCount2) {
+            throw new IllegalArgumentException(
+                    "cannot change point dimension count from " + pointDimensionCount1 + " to " + pointDimensionCount2
+                            + " for field=\"" + fieldName + "\"");
+        }
+        if (pointIndexDimensionCount1 != pointIndexDimensionCount2) {
+            throw new IllegalArgumentException(
+                    "cannot change point index dimension count from " + pointIndexDimensionCount1 + " to "
+                            + pointIndexDimensionCount2 + " for field=\"" + fieldName + "\"");
+        }
+        if (pointNumBytes1 != pointNumBytes2) {
+            throw new IllegalArgumentException(
+                    "cannot change point numBytes from " + pointNumBytes1 + " to " + pointNumBytes2
+                            + " for field=\"" + fieldName + "\"");
+        }
+    }
+
+    /** Return point data dimension count */
+    public int getPointDimensionCount() {
+        return pointDimensionCount;
+    }
+
+    /** Return point index dimension count */
+    public int getPointIndexDimensionCount() {
+        return pointIndexDimensionCount;
+    }
+
+    /** Return number of bytes per dimension */
+    public int getPointNumBytes() {
+        return pointNumBytes;
+    }
+
+    /** Returns true if any document of the segment stored term vectors for this field. */
+    public boolean hasTermVectors() {
+        return storeTermVector;
+    }
+
+    /** Records that a document of the segment stored term vectors for this field. */
+    void setStoreTermVectors() {
+        storeTermVector = true;
+    }
 }
@@ -0,0 +1,84 @@
+package index;
+
+/**
+ * This class tracks the number and position / offset parameters of terms being added to the index.
+ * The information collected in this class is also used to calculate the normalization factor for a
+ * field.
+ */
+public final class FieldInvertState {
+
+    final String name;
+    final IndexOptions indexOptions;
+    int position;
+    int length;
+    int offset;
+    int maxTermFrequency;
+    int uniqueTermCount;
+
+    // offsets of the current term, including the offsets of the previous values of the field
+    int startOffset;
+    int endOffset;
+
+    /** Creates {@code FieldInvertState} for the specified field name and index options. */
+    public FieldInvertState(String name, IndexOptions indexOptions) {
+        this.name = name;
+        this.indexOptions = indexOptions;
+    }
+
+    /** Re-initialize the state */
+    void reset() {
+        position = -1;
+        length = 0;
+        offset = 0;
+        maxTermFrequency = 0;
+        uniqueTermCount = 0;
+        startOffset = 0;
+        endOffset = 0;
+    }
+
+    /** Get the last processed term position. */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Get total number of terms in this field.
+     *
+     * @return the length
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Get end offset of the last processed term.
+     *
+     * @return the offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the maximum term-frequency encountered for any term in the field. A field containing "the
+     * quick brown fox jumps over the lazy dog" would have a value of 2, because "the" appears twice.
+     */
+    public int getMaxTermFrequency() {
+        return maxTermFrequency;
+    }
+
+    /** Return the number of unique terms encountered in this field. */
+    public int getUniqueTermCount() {
+        return uniqueTermCount;
+    }
+
+    /** Return the field's name */
+    public String getName() {
+        return name;
+    }
+
+    /** Get the index options for this field */
+    public IndexOptions getIndexOptions() {
+        return indexOptions;
+    }
+}
@@ -0,0 +1,25 @@
+package index;
+
+import java.io.IOException;
+
+/** Provides a {@link TermsEnum} for each indexed field of a segment. */
+public abstract class Fields {
+
+    /** Sole constructor. (For invocation by subclass constructors, typically implicit.) */
+    protected Fields() {}
+
+    /**
+     * Returns a new {@link TermsEnum} over the terms of this field, or null if the field is not
+     * indexed.
+     */
+    public abstract TermsEnum terms(String field) throws IOException;
+
+    /** {@code Fields} without any indexed field. */
+    public static final Fields EMPTY =
+            new Fields() {
+                @Override
+                public TermsEnum terms(String field) {
+                    return null;
+                }
+            };
+}
@@ -0,0 +1,22 @@
+package index;
+
+/** A stored-only field holding a {@code float} value. */
+public final class FloatStoredField extends PrimitiveStoredField {
+
+    public FloatStoredField(String name, float value) {
+        super(name, StoredFieldConsumer.NUMERIC_FLOAT, Float.floatToRawIntBits(value));
+    }
+
+    public float floatValue() {
+        return Float.intBitsToFloat((int) bits);
+    }
+
+    public void setFloatValue(float value) {
+        bits = Float.floatToRawIntBits(value);
+    }
+
+    @Override
+    public Number numericValue() {
+        return floatValue();
+    }
+}
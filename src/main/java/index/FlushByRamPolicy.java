@@ -0,0 +1,21 @@
+package index;
+
+/**
+ * Default {@link FlushPolicy} implementation that flushes new segments based on the RAM used by
+ * all {@link DocumentsWriterPerThread}s.
+ *
+ * <p>Once the active RAM of all writers, ie. the RAM of those that are not already flushing, goes
+ * above {@link IndexWriterConfig#getRAMBufferSizeMB()}, the largest non-pending {@link
+ * DocumentsWriterPerThread} is marked as flush-pending. Flushing the largest writer frees as much
+ * memory as possible with a single segment.
+ */
+class FlushByRamPolicy extends FlushPolicy {
+
+    @Override
+    void onChange(DocumentsWriterFlushControl control, DocumentsWriterPerThread perThread) {
+        final long limit = (long) (indexWriterConfig.getRAMBufferSizeMB() * 1024.d * 1024.d);
+        if (control.activeBytes() >= limit) {
+            control.setFlushPending(findLargestNonPendingWriter(control, perThread));
+        }
+    }
+}
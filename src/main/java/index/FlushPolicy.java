@@ -0,0 +1,67 @@
+package index;
+
+import java.util.Iterator;
+
+/**
+ * {@link FlushPolicy} controls when segments are flushed from a RAM resident internal
+ * data-structure to the {@link IndexWriter}'s Directory.
+ *
+ * <p>Segments are traditionally flushed by:
+ *
+ * <ul>
+ *   <li>RAM consumption - configured via {@link IndexWriterConfig#setRAMBufferSizeMB(double)}
+ * </ul>
+ *
+ * <p>{@link IndexWriter} consults the provided {@link FlushPolicy} to control the flushing process.
+ * The policy is informed for each added or updated document. Based on the information provided via
+ * {@link DocumentsWriterPerThread} and {@link DocumentsWriterFlushControl}, the {@link FlushPolicy}
+ * decides if a {@link DocumentsWriterPerThread} needs flushing and marks it as flush-pending via
+ * {@link DocumentsWriterFlushControl#setFlushPending}.
+ *
+ * @see DocumentsWriterPerThread
+ * @see IndexWriterConfig#setFlushPolicy(FlushPolicy)
+ */
+abstract class FlushPolicy {
+
+    protected IndexWriterConfig indexWriterConfig;
+
+    /**
+     * Called for each document that has been added or updated, with the {@link
+     * DocumentsWriterPerThread} that indexed it still locked by the current thread. Its RAM usage
+     * has already been committed to the flush control.
+     */
+    abstract void onChange(DocumentsWriterFlushControl control, DocumentsWriterPerThread perThread);
+
+    /** Called by DocumentsWriter to initialize the FlushPolicy */
+    protected synchronized void init(IndexWriterConfig indexWriterConfig) {
+        this.indexWriterConfig = indexWriterConfig;
+    }
+
+    /**
+     * Returns the current most RAM consuming non-pending {@link DocumentsWriterPerThread} with at
+     * least one indexed document.
+     *
+     * <p>This method will never return <code>null</code>
+     */
+    protected DocumentsWriterPerThread findLargestNonPendingWriter(
+            DocumentsWriterFlushControl control, DocumentsWriterPerThread perThread) {
+        assert perThread.getNumDocsInRAM() > 0;
+        // the dwpt which needs to be flushed eventually
+        DocumentsWriterPerThread maxRamUsingWriter = perThread;
+        long maxRamSoFar = perThread.getLastCommittedBytesUsed();
+        Iterator<DocumentsWriterPerThread> activePerThreadsIterator = control.allActiveWriters();
+        while (activePerThreadsIterator.hasNext()) {
+            DocumentsWriterPerThread next = activePerThreadsIterator.next();
+            if (next.isFlushPending() == false) {
+                final long nextRam = next.getLastCommittedBytesUsed();
+                if (nextRam > 0 && next.getNumDocsInRAM() > 0) {
+                    if (nextRam > maxRamSoFar) {
+                        maxRamSoFar = nextRam;
+                        maxRamUsingWriter = next;
+                    }
+                }
+            }
+        }
+        return maxRamUsingWriter;
+    }
+}
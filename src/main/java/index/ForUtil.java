@@ -0,0 +1,90 @@
+package index;
+
+import store.DataInput;
+import store.DataOutput;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes blocks of {@link #BLOCK_SIZE} non-negative ints with frame of reference: a
+ * block starts with the number of bits per value, the values follow bit-packed in {@code 2 *
+ * bitsPerValue} little-endian longs, value <code>i</code> taking bits <code>i * bitsPerValue</code>
+ * to <code>(i + 1) * bitsPerValue - 1</code>. The longs are read with a single {@link
+ * DataInput#readLongs} call, which is a bulk copy out of the mapped buffer for memory-mapped files.
+ * A block whose values are all equal is written as a 0 followed by the value as a vInt.
+ */
+final class ForUtil {
+
+    /** Number of values of a block. */
+    static final int BLOCK_SIZE = 128;
+
+    /** Size of the scratch array that {@link #writeBlock} and {@link #readBlock} need. */
+    static final int MAX_ENCODED_LONGS = 2 * Integer.SIZE;
+
+    private static final int ALL_VALUES_EQUAL = 0;
+
+    private ForUtil() {}
+
+    /** Writes the first {@link #BLOCK_SIZE} values, <code>tmp</code> is used as scratch space. */
+    static void writeBlock(int[] values, long[] tmp, DataOutput out) throws IOException {
+        int or = 0;
+        boolean allEqual = true;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            assert values[i] >= 0 : "negative value " + values[i];
+            or |= values[i];
+            allEqual &= values[i] == values[0];
+        }
+        if (allEqual) {
+            out.writeByte((byte) ALL_VALUES_EQUAL);
+            out.writeVInt(values[0]);
+            return;
+        }
+
+        final int bitsPerValue = Integer.SIZE - Integer.numberOfLeadingZeros(or);
+        final int numLongs = 2 * bitsPerValue;
+        Arrays.fill(tmp, 0, numLongs, 0L);
+        for (int i = 0, bit = 0; i < BLOCK_SIZE; i++, bit += bitsPerValue) {
+            final int word = bit >>> 6;
+            final int shift = bit & 63;
+            tmp[word] |= (long) values[i] << shift;
+            if (shift + bitsPerValue > Long.SIZE) {
+                tmp[word + 1] |= (long) values[i] >>> (Long.SIZE - shift);
+            }
+        }
+        out.writeByte((byte) bitsPerValue);
+        for (int i = 0; i < numLongs; i++) {
+            out.writeLong(tmp[i]);
+        }
+    }
+
+    /** Reads a block written by {@link #writeBlock} into the first {@link #BLOCK_SIZE} values. */
+    static void readBlock(DataInput in, long[] tmp, int[] values) throws IOException {
+        final int bitsPerValue = in.readByte();
+        if (bitsPerValue == ALL_VALUES_EQUAL) {
+            Arrays.fill(values, 0, BLOCK_SIZE, in.readVInt());
+            return;
+        }
+        in.readLongs(tmp, 0, 2 * bitsPerValue);
+        final long mask = (1L << bitsPerValue) - 1;
+        for (int i = 0, bit = 0; i < BLOCK_SIZE; i++, bit += bitsPerValue) {
+            final int word = bit >>> 6;
+            final int shift = bit & 63;
+            long value = tmp[word] >>> shift;
+            if (shift + bitsPerValue > Long.SIZE) {
+                value |= tmp[word + 1] << (Long.SIZE - shift);
+            }
+            values[i] = (int) (value & mask);
+        }
+    }
+
+    /** Skips a block written by {@link #writeBlock} without decoding it. */
+    static void skipBlock(DataInput in) throws IOException {
+        final int bitsPerValue = in.readByte();
+        if (bitsPerValue == ALL_VALUES_EQUAL) {
+            in.readVInt();
+        } else {
+            in.skipBytes(2L * bitsPerValue * Long.BYTES);
+        }
+    }
+}
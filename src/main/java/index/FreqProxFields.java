@@ -0,0 +1,333 @@
+package index;
+
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Exposes the postings inverted in RAM by {@link FreqProxTermsWriterPerField}s, in term order, as
+ * if they had been written to a segment. Terms of a field are sorted the first time the field is
+ * requested, after which no term can be added to it.
+ */
+final class FreqProxFields extends Fields {
+
+    private final Map<String, FreqProxTermsWriterPerField> fields;
+
+    FreqProxFields(Map<String, FreqProxTermsWriterPerField> fields) {
+        this.fields = fields;
+    }
+
+    @Override
+    public TermsEnum terms(String field) {
+        final FreqProxTermsWriterPerField perField = fields.get(field);
+        if (perField == null || perField.getNumTerms() == 0) {
+            return null;
+        }
+        return new FreqProxTermsEnum(perField);
+    }
+
+    private static final class FreqProxTermsEnum extends TermsEnum {
+
+        final FreqProxTermsWriterPerField terms;
+        final int[] sortedTermIDs;
+        final int numTerms;
+        final BytesRef scratch = new BytesRef();
+        int ord = -1;
+
+        FreqProxTermsEnum(FreqProxTermsWriterPerField terms) {
+            this.terms = terms;
+            this.sortedTermIDs = terms.getSortedTermIDs();
+            this.numTerms = terms.getNumTerms();
+        }
+
+        @Override
+        public BytesRef next() {
+            if (ord + 1 >= numTerms) {
+                ord = numTerms;
+                return null;
+            }
+            ord++;
+            terms.getTerm(sortedTermIDs[ord], scratch);
+            return scratch;
+        }
+
+        @Override
+        public boolean seekExact(BytesRef text) {
+            return seekCeil(text) == SeekStatus.FOUND;
+        }
+
+        @Override
+        public SeekStatus seekCeil(BytesRef text) {
+            // binary search over the sorted terms
+            int lo = 0;
+            int hi = numTerms - 1;
+            while (hi >= lo) {
+                final int mid = (lo + hi) >>> 1;
+                terms.getTerm(sortedTermIDs[mid], scratch);
+                final int cmp = scratch.compareTo(text);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    // found:
+                    ord = mid;
+                    return SeekStatus.FOUND;
+                }
+            }
+
+            // not found:
+            ord = lo;
+            if (ord >= numTerms) {
+                return SeekStatus.END;
+            } else {
+                terms.getTerm(sortedTermIDs[ord], scratch);
+                return SeekStatus.NOT_FOUND;
+            }
+        }
+
+        @Override
+        public BytesRef term() {
+            assert ord >= 0 && ord < numTerms : "unpositioned enum, ord=" + ord;
+            return scratch;
+        }
+
+        @Override
+        public int docFreq() {
+            throw new UnsupportedOperationException("docFreq is only known once the postings are flushed");
+        }
+
+        @Override
+        public long totalTermFreq() {
+            throw new UnsupportedOperationException("totalTermFreq is only known once the postings are flushed");
+        }
+
+        @Override
+        public PostingsEnum postings(PostingsEnum reuse, int flags) {
+            if (terms.hasProx && PostingsEnum.featureRequested(flags, PostingsEnum.POSITIONS)) {
+                FreqProxPostingsEnum posEnum;
+                if (reuse instanceof FreqProxPostingsEnum && ((FreqProxPostingsEnum) reuse).terms == terms) {
+                    posEnum = (FreqProxPostingsEnum) reuse;
+                } else {
+                    posEnum = new FreqProxPostingsEnum(terms);
+                }
+                posEnum.reset(sortedTermIDs[ord]);
+                return posEnum;
+            }
+
+            FreqProxDocsEnum docsEnum;
+            if (reuse instanceof FreqProxDocsEnum && ((FreqProxDocsEnum) reuse).terms == terms) {
+                docsEnum = (FreqProxDocsEnum) reuse;
+            } else {
+                docsEnum = new FreqProxDocsEnum(terms);
+            }
+            docsEnum.reset(sortedTermIDs[ord]);
+            return docsEnum;
+        }
+    }
+
+    private static final class FreqProxDocsEnum extends PostingsEnum {
+
+        final FreqProxTermsWriterPerField terms;
+        final FreqProxTermsWriterPerField.FreqProxPostingsArray postingsArray;
+        final ByteSliceReader reader = new ByteSliceReader();
+        final boolean readTermFreq;
+        int docID = -1;
+        int freq;
+        boolean ended;
+        int termID;
+
+        FreqProxDocsEnum(FreqProxTermsWriterPerField terms) {
+            this.terms = terms;
+            this.postingsArray = (FreqProxTermsWriterPerField.FreqProxPostingsArray) terms.postingsArray;
+            this.readTermFreq = terms.hasFreq;
+        }
+
+        void reset(int termID) {
+            this.termID = termID;
+            terms.initReader(reader, termID, 0);
+            ended = false;
+            docID = -1;
+        }
+
+        @Override
+        public int docID() {
+            return docID;
+        }
+
+        @Override
+        public int freq() {
+            return readTermFreq ? freq : 1;
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return slowAdvance(target);
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            if (docID == -1) {
+                docID = 0;
+            }
+            if (reader.eof()) {
+                if (ended) {
+                    return docID = NO_MORE_DOCS;
+                } else {
+                    // the entry of the last document is still pending in the postings array
+                    ended = true;
+                    docID = postingsArray.lastDocIDs[termID];
+                    if (readTermFreq) {
+                        freq = postingsArray.termFreqs[termID];
+                    }
+                }
+            } else {
+                int code = reader.readVInt();
+                if (!readTermFreq) {
+                    docID += code;
+                } else {
+                    docID += code >>> 1;
+                    if ((code & 1) != 0) {
+                        freq = 1;
+                    } else {
+                        freq = reader.readVInt();
+                    }
+                }
+
+                assert docID != postingsArray.lastDocIDs[termID];
+            }
+
+            return docID;
+        }
+
+        @Override
+        public int nextPosition() {
+            return -1;
+        }
+
+        @Override
+        public int startOffset() {
+            return -1;
+        }
+
+        @Override
+        public int endOffset() {
+            return -1;
+        }
+    }
+
+    /**
+     * Iterates over the docs of a term along with their positions, read from stream 1: the delta of
+     * each position to the previous one of the doc, followed if the field has offsets by the delta
+     * of the start offset to the previous one of the doc and the length of the offsets.
+     */
+    private static final class FreqProxPostingsEnum extends PostingsEnum {
+
+        final FreqProxTermsWriterPerField terms;
+        final FreqProxTermsWriterPerField.FreqProxPostingsArray postingsArray;
+        final ByteSliceReader reader = new ByteSliceReader();
+        final ByteSliceReader posReader = new ByteSliceReader();
+        final boolean readOffsets;
+        int docID = -1;
+        int freq;
+        int pos;
+        int startOffset;
+        int endOffset;
+        // positions of the current doc that haven't been read yet
+        int posLeft;
+        boolean ended;
+        int termID;
+
+        FreqProxPostingsEnum(FreqProxTermsWriterPerField terms) {
+            this.terms = terms;
+            this.postingsArray = (FreqProxTermsWriterPerField.FreqProxPostingsArray) terms.postingsArray;
+            this.readOffsets = terms.hasOffsets;
+            assert terms.hasProx;
+            assert terms.hasFreq;
+        }
+
+        void reset(int termID) {
+            this.termID = termID;
+            terms.initReader(reader, termID, 0);
+            terms.initReader(posReader, termID, 1);
+            ended = false;
+            docID = -1;
+            posLeft = 0;
+        }
+
+        @Override
+        public int docID() {
+            return docID;
+        }
+
+        @Override
+        public int freq() {
+            return freq;
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return slowAdvance(target);
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            if (docID == -1) {
+                docID = 0;
+            }
+            // the positions of the previous doc come first in the stream
+            while (posLeft != 0) {
+                nextPosition();
+            }
+
+            if (reader.eof()) {
+                if (ended) {
+                    return docID = NO_MORE_DOCS;
+                } else {
+                    // the entry of the last document is still pending in the postings array
+                    ended = true;
+                    docID = postingsArray.lastDocIDs[termID];
+                    freq = postingsArray.termFreqs[termID];
+                }
+            } else {
+                int code = reader.readVInt();
+                docID += code >>> 1;
+                if ((code & 1) != 0) {
+                    freq = 1;
+                } else {
+                    freq = reader.readVInt();
+                }
+
+                assert docID != postingsArray.lastDocIDs[termID];
+            }
+
+            posLeft = freq;
+            pos = 0;
+            startOffset = 0;
+            return docID;
+        }
+
+        @Override
+        public int nextPosition() throws IOException {
+            assert posLeft > 0;
+            posLeft--;
+            pos += posReader.readVInt();
+            if (readOffsets) {
+                startOffset += posReader.readVInt();
+                endOffset = startOffset + posReader.readVInt();
+            }
+            return pos;
+        }
+
+        @Override
+        public int startOffset() {
+            return readOffsets ? startOffset : -1;
+        }
+
+        @Override
+        public int endOffset() {
+            return readOffsets ? endOffset : -1;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package index;
+
+import util.ByteBlockPool;
+
+/**
+ * Writes the postings of a field into RAM according to its {@link IndexOptions}. Stream 0 holds the
+ * doc deltas and freqs, stream 1 the positions and offsets if the field records positions.
+ *
+ * <p>The entry of a document is only written once the next document with the same term comes in,
+ * since its freq isn't known before that: the entry of the last document of each term stays in the
+ * {@link FreqProxPostingsArray} until the postings are read.
+ */
+final class FreqProxTermsWriterPerField extends TermsHashPerField {
+
+    final FieldInvertState fieldState;
+    final boolean hasFreq;
+    final boolean hasProx;
+    final boolean hasOffsets;
+
+    FreqProxTermsWriterPerField(
+            FieldInvertState invertState,
+            ByteBlockPool bytePool,
+            ByteBlockPool termBytePool) {
+        super(
+                hasProxs(invertState.indexOptions) ? 2 : 1,
+                bytePool,
+                termBytePool,
+                invertState.name,
+                invertState.indexOptions);
+        this.fieldState = invertState;
+        hasFreq = hasFreqs(indexOptions);
+        hasProx = hasProxs(indexOptions);
+        hasOffsets = hasOffsets(indexOptions);
+    }
+
+    void writeProx(int termID, int proxCode) {
+        writeVInt(1, proxCode);
+        getPostings().lastPositions[termID] = fieldState.position;
+    }
+
+    void writeOffsets(int termID) {
+        final FreqProxPostingsArray postings = getPostings();
+        final int startOffset = fieldState.startOffset;
+        final int endOffset = fieldState.endOffset;
+        assert startOffset - postings.lastOffsets[termID] >= 0;
+        writeVInt(1, startOffset - postings.lastOffsets[termID]);
+        writeVInt(1, endOffset - startOffset);
+        postings.lastOffsets[termID] = startOffset;
+    }
+
+    @Override
+    void newTerm(final int termID, final int docID) {
+        // First time we're seeing this term since the last
+        // flush
+        final FreqProxPostingsArray postings = getPostings();
+
+        postings.lastDocIDs[termID] = docID;
+        if (!hasFreq) {
+            assert postings.termFreqs == null;
+            postings.lastDocCodes[termID] = docID;
+            fieldState.maxTermFrequency = Math.max(1, fieldState.maxTermFrequency);
+        } else {
+            postings.lastDocCodes[termID] = docID << 1;
+            postings.termFreqs[termID] = 1;
+            if (hasProx) {
+                writeProx(termID, fieldState.position);
+                if (hasOffsets) {
+                    postings.lastOffsets[termID] = 0;
+                    writeOffsets(termID);
+                }
+            } else {
+                assert !hasOffsets;
+            }
+            fieldState.maxTermFrequency = Math.max(1, fieldState.maxTermFrequency);
+        }
+        fieldState.uniqueTermCount++;
+    }
+
+    @Override
+    void addTerm(final int termID, final int docID) {
+        final FreqProxPostingsArray postings = getPostings();
+        assert !hasFreq || postings.termFreqs[termID] > 0;
+
+        if (!hasFreq) {
+            assert postings.termFreqs == null;
+            if (docID != postings.lastDocIDs[termID]) {
+                // New document; now encode docCode for previous doc:
+                assert docID > postings.lastDocIDs[termID];
+                writeVInt(0, postings.lastDocCodes[termID]);
+                postings.lastDocCodes[termID] = docID - postings.lastDocIDs[termID];
+                postings.lastDocIDs[termID] = docID;
+                fieldState.uniqueTermCount++;
+            }
+        } else if (docID != postings.lastDocIDs[termID]) {
+            assert docID > postings.lastDocIDs[termID]
+                    : "id: " + docID + " postings ID: " + postings.lastDocIDs[termID] + " termID: " + termID;
+            // Term not yet seen in the current doc but previously
+            // seen in other doc(s) since the last flush
+
+            // Now that we know doc freq for previous doc,
+            // write it & lastDocCode
+            if (1 == postings.termFreqs[termID]) {
+                writeVInt(0, postings.lastDocCodes[termID] | 1);
+            } else {
+                writeVInt(0, postings.lastDocCodes[termID]);
+                writeVInt(0, postings.termFreqs[termID]);
+            }
+
+            // Init freq for the current document
+            postings.termFreqs[termID] = 1;
+            fieldState.maxTermFrequency = Math.max(1, fieldState.maxTermFrequency);
+            postings.lastDocCodes[termID] = (docID - postings.lastDocIDs[termID]) << 1;
+            postings.lastDocIDs[termID] = docID;
+            if (hasProx) {
+                writeProx(termID, fieldState.position);
+                if (hasOffsets) {
+                    postings.lastOffsets[termID] = 0;
+                    writeOffsets(termID);
+                }
+            } else {
+                assert !hasOffsets;
+            }
+            fieldState.uniqueTermCount++;
+        } else {
+            postings.termFreqs[termID] = Math.addExact(postings.termFreqs[termID], 1);
+            fieldState.maxTermFrequency = Math.max(fieldState.maxTermFrequency, postings.termFreqs[termID]);
+            if (hasProx) {
+                writeProx(termID, fieldState.position - postings.lastPositions[termID]);
+                if (hasOffsets) {
+                    writeOffsets(termID);
+                }
+            }
+        }
+    }
+
+    private FreqProxPostingsArray getPostings() {
+        return (FreqProxPostingsArray) postingsArray;
+    }
+
+    @Override
+    ParallelPostingsArray createPostingsArray(int size) {
+        return new FreqProxPostingsArray(size, hasFreqs(indexOptions), hasProxs(indexOptions), hasOffsets(indexOptions));
+    }
+
+    // createPostingsArray is called from the super constructor, before the final fields are set
+    private static boolean hasFreqs(IndexOptions indexOptions) {
+        return indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS) >= 0;
+    }
+
+    private static boolean hasProxs(IndexOptions indexOptions) {
+        return indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
+    }
+
+    private static boolean hasOffsets(IndexOptions indexOptions) {
+        return indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0;
+    }
+
+    static final class FreqProxPostingsArray extends ParallelPostingsArray {
+
+        FreqProxPostingsArray(int size, boolean writeFreqs, boolean writeProx, boolean writeOffsets) {
+            super(size, writeProx ? 2 : 1);
+            if (writeFreqs) {
+                termFreqs = new int[size];
+            }
+            lastDocIDs = new int[size];
+            lastDocCodes = new int[size];
+            if (writeProx) {
+                lastPositions = new int[size];
+                if (writeOffsets) {
+                    lastOffsets = new int[size];
+                }
+            } else {
+                assert !writeOffsets;
+            }
+        }
+
+        int[] termFreqs; // # times this term occurs in the current doc
+        int[] lastDocIDs; // Last docID where this term occurred
+        int[] lastDocCodes; // Code for prior doc
+        int[] lastPositions; // Last position where this term occurred
+        int[] lastOffsets; // Last startOffset where this term occurred
+
+        @Override
+        ParallelPostingsArray newInstance(int size) {
+            return new FreqProxPostingsArray(size, termFreqs != null, lastPositions != null, lastOffsets != null);
+        }
+
+        @Override
+        void copyTo(ParallelPostingsArray toArray, int numToCopy) {
+            assert toArray instanceof FreqProxPostingsArray;
+            FreqProxPostingsArray to = (FreqProxPostingsArray) toArray;
+
+            super.copyTo(toArray, numToCopy);
+
+            System.arraycopy(lastDocIDs, 0, to.lastDocIDs, 0, numToCopy);
+            System.arraycopy(lastDocCodes, 0, to.lastDocCodes, 0, numToCopy);
+            if (lastPositions != null) {
+                assert to.lastPositions != null;
+                System.arraycopy(lastPositions, 0, to.lastPositions, 0, numToCopy);
+            }
+            if (lastOffsets != null) {
+                assert to.lastOffsets != null;
+                System.arraycopy(lastOffsets, 0, to.lastOffsets, 0, numToCopy);
+            }
+            if (termFreqs != null) {
+                assert to.termFreqs != null;
+                System.arraycopy(termFreqs, 0, to.termFreqs, 0, numToCopy);
+            }
+        }
+
+        @Override
+        int bytesPerPosting() {
+            int bytes = super.bytesPerPosting() + 2 * Integer.BYTES;
+            if (lastPositions != null) {
+                bytes += Integer.BYTES;
+            }
+            if (lastOffsets != null) {
+                bytes += Integer.BYTES;
+            }
+            if (termFreqs != null) {
+                bytes += Integer.BYTES;
+            }
+
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package index;
+
+import util.BytesRef;
+import util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Deletes by term that have been frozen when the flush of a {@link DocumentsWriterPerThread} was
+ * started, see {@link DocumentsWriterDeleteQueue#freezeGlobalBuffer}. They arrived after all
+ * documents of the segments that were published before that DWPT's segment, so they apply to all of
+ * their documents, unlike {@link BufferedUpdates} which only apply to documents that were added
+ * before them.
+ *
+ * <p>The terms of each field are sorted, so a segment's terms dictionary is only ever sought
+ * forward while the deletes are applied.
+ */
+final class FrozenBufferedUpdates {
+
+    private final Map<String, BytesRef[]> deleteTerms;
+
+    private final int numTerms;
+
+    FrozenBufferedUpdates(Map<String, BytesRef[]> deleteTerms) {
+        this.deleteTerms = deleteTerms;
+        int numTerms = 0;
+        for (BytesRef[] terms : deleteTerms.values()) {
+            numTerms += terms.length;
+        }
+        this.numTerms = numTerms;
+    }
+
+    /** Returns the number of unique deleted terms. */
+    int numTerms() {
+        return numTerms;
+    }
+
+    /**
+     * Clears the bits of all documents of a segment that contain one of the deleted terms.
+     *
+     * @param fields the terms of the segment
+     * @param liveDocs the live docs of the segment, updated in place
+     * @return the number of documents that were live and are deleted now
+     */
+    int apply(Fields fields, FixedBitSet liveDocs) throws IOException {
+        int delCount = 0;
+        PostingsEnum postings = null;
+        for (Map.Entry<String, BytesRef[]> entry : deleteTerms.entrySet()) {
+            final TermsEnum termsEnum = fields.terms(entry.getKey());
+            if (termsEnum == null) {
+                continue;
+            }
+            for (BytesRef term : entry.getValue()) {
+                if (termsEnum.seekExact(term) == false) {
+                    continue;
+                }
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc();
+                        doc != PostingsEnum.NO_MORE_DOCS;
+                        doc = postings.nextDoc()) {
+                    if (liveDocs.getAndClear(doc)) {
+                        delCount++;
+                    }
+                }
+            }
+        }
+        return delCount;
+    }
+
+    @Override
+    public String toString() {
+        return numTerms + " deleted terms in " + deleteTerms.size() + " fields";
+    }
+}
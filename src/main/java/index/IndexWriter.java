@@ -1,14 +1,177 @@
 package index;
 
+import store.Directory;
+import util.ByteBlockPool;
+import util.FixedBitSet;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class IndexWriter implements Closeable {
+
+    /**
+     * Absolute hard maximum length for a term, in bytes once encoded as UTF8. If a term arrives from
+     * the analyzer longer than this length, an <code>IllegalArgumentException</code> is thrown.
+     */
+    public static final int MAX_TERM_LENGTH = ByteBlockPool.BYTE_BLOCK_SIZE - 2;
 
-public class IndexWriter {
+    private final Directory directory;
+
+    private final IndexWriterConfig config;
 
     private DocumentsWriter docWriter;
 
-    public IndexWriter() {
-        docWriter = new DocumentsWriter();
+    /** Used to give each segment a unique name. */
+    private long segmentCounter = 0;
+
+    /** Segments that have been flushed, in the order they were published. */
+    private final List<DocumentsWriterPerThread.FlushedSegment> segmentInfos = new ArrayList<>();
+
+    private volatile boolean closed = false;
+
+    public IndexWriter(Directory directory, IndexWriterConfig config) {
+        this.directory = directory;
+        this.config = config;
+        docWriter =
+                new DocumentsWriter(
+                        new DocumentsWriter.FlushNotifications() {
+                            @Override
+                            public void onDeletesFrozen(FrozenBufferedUpdates updates)
+                                    throws IOException {
+                                applyDeletes(updates);
+                            }
+
+                            @Override
+                            public void onSegmentFlushed(
+                                    DocumentsWriterPerThread.FlushedSegment segment) {
+                                publishFlushedSegment(segment);
+                            }
+
+                            @Override
+                            public void flushFailed(SegmentInfo segment) {
+                                deleteSegmentFiles(segment);
+                            }
+                        },
+                        directory,
+                        config,
+                        this::newSegmentName);
+    }
+
+    /** Returns the config this writer was created with. */
+    public IndexWriterConfig getConfig() {
+        return config;
+    }
+
+    private synchronized String newSegmentName() {
+        return "_" + Long.toString(segmentCounter++, Character.MAX_RADIX);
+    }
+
+    private synchronized void publishFlushedSegment(
+            DocumentsWriterPerThread.FlushedSegment segment) {
+        segmentInfos.add(segment);
+    }
+
+    /**
+     * Applies deletes that have been frozen by a flush to all segments published so far, and
+     * rewrites the live docs of the segments that lose documents.
+     */
+    private synchronized void applyDeletes(FrozenBufferedUpdates updates) throws IOException {
+        final Set<String> files = Set.of(directory.listAll());
+        for (int i = 0; i < segmentInfos.size(); i++) {
+            final DocumentsWriterPerThread.FlushedSegment segment = segmentInfos.get(i);
+            final SegmentInfo si = segment.segmentInfo;
+            if (files.contains(IndexFileNames.segmentFileName(si.name, "", BlockTermsWriter.TERMS_META_EXTENSION))
+                    == false) {
+                // the segment has no indexed field
+                continue;
+            }
+            final FixedBitSet liveDocs;
+            if (segment.liveDocs == null) {
+                liveDocs = new FixedBitSet(si.maxDoc());
+                liveDocs.set(0, si.maxDoc());
+            } else {
+                liveDocs = segment.liveDocs.clone();
+            }
+            final int newDelCount;
+            try (BlockTermsReader terms = new BlockTermsReader(directory, si, new PostingsReader(directory, si))) {
+                newDelCount = updates.apply(terms, liveDocs);
+            }
+            if (newDelCount > 0) {
+                final int delCount = segment.delCount + newDelCount;
+                if (segment.liveDocs != null) {
+                    directory.deleteFile(IndexFileNames.segmentFileName(si.name, "", LiveDocsFormat.EXTENSION));
+                }
+                LiveDocsFormat.write(directory, si, liveDocs, delCount);
+                segmentInfos.set(i, new DocumentsWriterPerThread.FlushedSegment(si, liveDocs, delCount));
+            }
+        }
+    }
+
+    /** Returns a copy of the segments that have been flushed so far. */
+    synchronized List<DocumentsWriterPerThread.FlushedSegment> getFlushedSegments() {
+        return List.copyOf(segmentInfos);
+    }
+
+    /**
+     * Deletes whatever files a failed flush wrote for the given segment, it is never published.
+     * This is best effort, the flush failure itself is reported to the caller.
+     */
+    private void deleteSegmentFiles(SegmentInfo segment) {
+        try {
+            for (String file : directory.listAll()) {
+                if (segment.name.equals(IndexFileNames.parseSegmentName(file))) {
+                    try {
+                        directory.deleteFile(file);
+                    } catch (IOException ignored) {
+                        // keep deleting the other files
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+            // the files are left behind
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("this IndexWriter is closed");
+        }
+    }
+
+    /**
+     * Moves all documents buffered in RAM to new segments in the Directory, and waits until these
+     * and all flushes that were already running are published. Documents that other threads add
+     * while this method runs may stay buffered.
+     *
+     * <p>If a flush fails, here or earlier on the {@link IndexWriterConfig#setFlushExecutor flush
+     * executor}, the documents of its segment are lost and the files it wrote are deleted. The
+     * failure is thrown once, by this method or the next update, after which the writer keeps
+     * working as usual.
+     *
+     * @throws IOException if a flush failed or there is a low-level IO error
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        docWriter.flushAllThreads();
+    }
+
+    /**
+     * Flushes all buffered documents, see {@link #flush()}, and closes this writer. Updates must not
+     * run concurrently with this method, the writer rejects them afterwards. The writer is closed
+     * even if the final flush fails. Closing does not close the Directory.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        docWriter.flushAllThreads();
     }
 
 
@@ -78,11 +241,30 @@ public class IndexWriter {
         return updateDocuments((DocumentsWriterDeleteQueue.Node<?>) null, docs);
     }
 
+    /**
+     * Like {@link #addDocument(Iterable)}, but never blocks because flushing can't keep up with
+     * indexing. This is meant for asynchronous callers that would rather retry later, or slow down
+     * their producer, than block one of their threads.
+     *
+     * @return The <a href="#sequence_number">sequence number</a> for this operation
+     * @throws RejectedExecutionException if indexing is currently stalled, the document has not been
+     *     added
+     * @throws IOException if there is a low-level IO error
+     * @see #getNumStalledUpdates()
+     */
+    public long tryAddDocument(Iterable<? extends IndexableField> doc) throws IOException {
+        return updateDocuments(null, List.of(doc), true);
+    }
+
     /**
      * Updates a document by first deleting the document(s) containing <code>term</code> and then
      * adding the new document. The delete and then add are atomic as seen by a reader on the same
      * index (flush may happen only after the add).
      *
+     * <p>Documents that are still buffered are deleted when their segment is flushed. Documents of
+     * segments that have already been flushed are deleted, and the live docs of these segments
+     * rewritten, when the next segment is published or on {@link #flush()}.
+     *
      * @return The <a href="#sequence_number">sequence number</a> for this operation
      * @param term the term to identify the document(s) to be deleted
      * @param doc the document to be added
@@ -117,9 +299,19 @@ public class IndexWriter {
             final DocumentsWriterDeleteQueue.Node<?> delNode,
             Iterable<? extends Iterable<? extends IndexableField>> docs)
             throws IOException {
+        return updateDocuments(delNode, docs, false);
+    }
+
+    private long updateDocuments(
+            final DocumentsWriterDeleteQueue.Node<?> delNode,
+            Iterable<? extends Iterable<? extends IndexableField>> docs,
+            boolean rejectIfStalled)
+            throws IOException {
+        ensureOpen();
         boolean success = false;
         try {
-            final long seqNo = maybeProcessEvents(docWriter.updateDocuments(docs, delNode));
+            final long seqNo =
+                    maybeProcessEvents(docWriter.updateDocuments(docs, delNode, rejectIfStalled));
             success = true;
             return seqNo;
         } catch (VirtualMachineError tragedy) {
@@ -129,7 +321,33 @@ public class IndexWriter {
         }
     }
 
-    private long maybeProcessEvents()
+    /**
+     * Returns the number of updates that blocked because flushing could not keep up with indexing,
+     * see {@link IndexWriterConfig#setRAMBufferSizeMB(double)}.
+     */
+    public long getNumStalledUpdates() {
+        return docWriter.flushControl.stallControl.getNumStalledUpdates();
+    }
+
+    /** Returns the total time, in milliseconds, updates have been blocked because indexing stalled. */
+    public long getStallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(docWriter.flushControl.stallControl.getStallTimeNanos());
+    }
+
+    /** Returns the number of {@link #tryAddDocument(Iterable)} calls rejected because indexing stalled. */
+    public long getNumRejectedUpdates() {
+        return docWriter.flushControl.stallControl.getNumRejectedUpdates();
+    }
+
+    /** Returns <code>true</code> if indexing threads are currently blocked until flushing catches up. */
+    public boolean isStalled() {
+        return docWriter.flushControl.anyStalledThreads();
+    }
 
+    private long maybeProcessEvents(long seqNo) {
+        // a negative sequence number tells that the operation triggered a flush, the flushed segments
+        // have already been published by the DocumentsWriter
+        return seqNo < 0 ? -seqNo : seqNo;
+    }
 
 }
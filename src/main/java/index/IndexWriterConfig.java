@@ -0,0 +1,171 @@
+package index;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Holds all the configuration that is used to create an {@link IndexWriter}.
+ *
+ * <p>All setters return this config so they can be chained:
+ *
+ * <pre class="prettyprint">
+ * IndexWriterConfig conf = new IndexWriterConfig().setRAMBufferSizeMB(256);
+ * </pre>
+ */
+public final class IndexWriterConfig {
+
+    /**
+     * Default value is 16 MB (which means flush when buffered docs consume approximately 16 MB RAM).
+     */
+    public static final double DEFAULT_RAM_BUFFER_SIZE_MB = 16.0;
+
+    /**
+     * Default value for the per-thread RAM hard limit, a {@link DocumentsWriterPerThread} is flushed
+     * once it uses more RAM than this, whatever the flush policy says.
+     */
+    public static final int DEFAULT_RAM_PER_THREAD_HARD_LIMIT_MB = 1945;
+
+    private double ramBufferSizeMB = DEFAULT_RAM_BUFFER_SIZE_MB;
+
+    private int perThreadHardLimitMB = DEFAULT_RAM_PER_THREAD_HARD_LIMIT_MB;
+
+    private FlushPolicy flushPolicy = new FlushByRamPolicy();
+
+    private Executor flushExecutor = null;
+
+    private Executor storedFieldsCompressionExecutor = null;
+
+    private boolean threadAffinity = false;
+
+    /** Creates a new config with defaults. */
+    public IndexWriterConfig() {}
+
+    /**
+     * Determines the amount of RAM that may be used for buffering added documents and deletions
+     * before they are flushed to the Directory. Once the sum of the RAM used by all indexing threads
+     * goes above this value, the largest {@link DocumentsWriterPerThread} is flushed.
+     *
+     * <p>The default value is {@link #DEFAULT_RAM_BUFFER_SIZE_MB}. Ingest-heavy applications
+     * typically want a larger buffer, such as 256 MB, to produce fewer and larger segments.
+     *
+     * <p>If flushing falls behind, indexing threads are blocked once active and flushing documents
+     * use twice this amount of RAM, until flushing catches up.
+     *
+     * @throws IllegalArgumentException if ramBufferSizeMB is not strictly positive
+     */
+    public IndexWriterConfig setRAMBufferSizeMB(double ramBufferSizeMB) {
+        if (ramBufferSizeMB <= 0.0) {
+            throw new IllegalArgumentException("ramBufferSizeMB must be > 0, got " + ramBufferSizeMB);
+        }
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        return this;
+    }
+
+    /** Returns the value set by {@link #setRAMBufferSizeMB(double)}. */
+    public double getRAMBufferSizeMB() {
+        return ramBufferSizeMB;
+    }
+
+    /**
+     * Expert: Sets the maximum memory consumption per thread triggering a forced flush if exceeded.
+     * A {@link DocumentsWriterPerThread} is forcefully flushed once it exceeds this limit even if
+     * the {@link #getRAMBufferSizeMB()} has not been exceeded. This is a safety limit to prevent a
+     * {@link DocumentsWriterPerThread} from address space exhaustion due to its internal 32 bit
+     * signed integer based memory addressing. The given value must be less that 2GB (2048MB)
+     *
+     * @see #DEFAULT_RAM_PER_THREAD_HARD_LIMIT_MB
+     */
+    public IndexWriterConfig setRAMPerThreadHardLimitMB(int perThreadHardLimitMB) {
+        if (perThreadHardLimitMB <= 0 || perThreadHardLimitMB >= 2048) {
+            throw new IllegalArgumentException(
+                    "PerThreadHardLimit must be greater than 0 and less than 2048MB, got "
+                            + perThreadHardLimitMB);
+        }
+        this.perThreadHardLimitMB = perThreadHardLimitMB;
+        return this;
+    }
+
+    /** Returns the max amount of memory each {@link DocumentsWriterPerThread} can consume. */
+    public int getRAMPerThreadHardLimitMB() {
+        return perThreadHardLimitMB;
+    }
+
+    /**
+     * Expert: Controls when segments are flushed to disk during indexing. The {@link FlushPolicy}
+     * is initialized once the {@link IndexWriter} is created and must not be shared across writers.
+     *
+     * @see FlushByRamPolicy
+     */
+    IndexWriterConfig setFlushPolicy(FlushPolicy flushPolicy) {
+        if (flushPolicy == null) {
+            throw new IllegalArgumentException("flushPolicy must not be null");
+        }
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    /** Returns the {@link FlushPolicy} used to decide when to flush. */
+    FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Sets the executor that writes flushed segments to the Directory. With an executor, the
+     * indexing thread that triggered a flush hands the flushing {@link DocumentsWriterPerThread}
+     * over and immediately continues indexing into a fresh one, several segments may be written in
+     * parallel. Segments are still published in the order their flushes were started.
+     *
+     * <p>By default this is <code>null</code>, which means the indexing thread that triggers a flush
+     * writes the segment itself. The executor is not shut down by the {@link IndexWriter}, if it
+     * rejects a flush, the segment is written on the indexing thread. A flush that fails on the
+     * executor is reported by the next update or {@link IndexWriter#flush()}.
+     */
+    public IndexWriterConfig setFlushExecutor(Executor flushExecutor) {
+        this.flushExecutor = flushExecutor;
+        return this;
+    }
+
+    /** Returns the executor set by {@link #setFlushExecutor(Executor)}. */
+    public Executor getFlushExecutor() {
+        return flushExecutor;
+    }
+
+    /**
+     * Sets the executor that compresses full chunks of stored fields. With an executor, an indexing
+     * thread hands a full chunk over and keeps buffering documents into a fresh chunk, chunks are
+     * still written in order by the thread that owns the segment. The executor may be shared by
+     * several writers.
+     *
+     * <p>By default this is <code>null</code>, which means chunks are compressed by the indexing
+     * thread. The executor is not shut down by the {@link IndexWriter}, if it rejects a chunk, the
+     * chunk is compressed on the indexing thread. It must either run or reject each task, a silently
+     * discarded task would make the flush of its segment wait forever.
+     */
+    public IndexWriterConfig setStoredFieldsCompressionExecutor(Executor storedFieldsCompressionExecutor) {
+        this.storedFieldsCompressionExecutor = storedFieldsCompressionExecutor;
+        return this;
+    }
+
+    /** Returns the executor set by {@link #setStoredFieldsCompressionExecutor(Executor)}. */
+    public Executor getStoredFieldsCompressionExecutor() {
+        return storedFieldsCompressionExecutor;
+    }
+
+    /**
+     * Expert: If <code>true</code>, each indexing thread keeps indexing into the same {@link
+     * DocumentsWriterPerThread} as long as it is free, so that the per-field hash tables and buffers
+     * it touches are more likely to be in the caches of its core. This can only help when there are
+     * about as many indexing threads as cores and threads are long-lived. Virtual threads always pick
+     * any free {@link DocumentsWriterPerThread}.
+     *
+     * <p>The default is <code>false</code>.
+     */
+    public IndexWriterConfig setThreadAffinity(boolean threadAffinity) {
+        this.threadAffinity = threadAffinity;
+        return this;
+    }
+
+    /** Returns the value set by {@link #setThreadAffinity(boolean)}. */
+    public boolean getThreadAffinity() {
+        return threadAffinity;
+    }
+}
@@ -61,6 +61,8 @@ public interface IndexableFieldType {
     /** {@link IndexOptions}, describing what should be recorded into the inverted index */
     IndexOptions indexOptions();
 
+    /** DocValues {@link DocValuesType}: how the field's value will be indexed into docValues. */
+    DocValuesType docValuesType();
 
     /**
      * If this is positive (representing the number of point dimensions), the field is indexed as a
@@ -0,0 +1,541 @@
+package index;
+
+import store.IndexInput;
+import store.IndexOutput;
+import store.RandomAccessInput;
+import util.ArrayUtil;
+import util.FixedBitSet;
+
+import java.io.IOException;
+
+/**
+ * Disk-based implementation of a {@link DocValuesIterator} which can return the index of the
+ * current document, i.e. the ordinal of the current document among the list of documents that this
+ * iterator can return. This is useful to implement sparse doc values by only having to encode
+ * values for documents that actually have a value.
+ *
+ * <p>Implementation-wise, this iterator is inspired by roaring bitmaps and encodes ranges of {@code
+ * 65536} documents independently and picks between 3 encodings depending on the density of the
+ * range:
+ *
+ * <ul>
+ *   <li>{@code ALL} if the range contains 65536 documents exactly,
+ *   <li>{@code DENSE} if the range contains 4096 documents or more; in that case documents are
+ *       stored in a bit set,
+ *   <li>{@code SPARSE} otherwise, and the lower 16 bits of the doc IDs are stored in a {@code
+ *       short}.
+ * </ul>
+ *
+ * <p>Only ranges that contain at least one value are encoded.
+ *
+ * <p>This implementation uses 6 bytes per document in the worst-case, which happens in the case
+ * that all ranges contain exactly one document.
+ *
+ * <p>To avoid O(n) lookup time complexity, with n being the number of documents, two lookup tables
+ * are used: A lookup table for block offset and index, and a rank structure for DENSE block index
+ * lookups.
+ *
+ * <p>The lookup table is an array of {@code int}-pairs, with a pair for each block. It allows for
+ * direct jumping to the block, as opposed to iteration from the current position and forward one
+ * block at a time. Each int-pair entry consists of 2 logical parts: the index of the first doc of
+ * the block among all docs of the set, and the offset of the block from the start of the set. Empty
+ * blocks point to the next block that has docs. The table is omitted if the set has a single block.
+ *
+ * <p>The rank structure for DENSE blocks is an array of byte-pairs with an entry for each sub-block
+ * of {@code 1 << }{@link #DENSE_RANK_POWER} docs, holding the number of docs of the block before
+ * the sub-block, so that the index of a doc is computed from at most {@code 1 << (DENSE_RANK_POWER
+ * - 6)} longs of the bit set.
+ *
+ * <p>Both {@link #advance(int)} and {@link #advanceExact(int)} thus read a bounded number of bytes
+ * whatever the distance to the target, the lookup table is only consulted when the target is at
+ * least 2 blocks ahead.
+ */
+final class IndexedDISI extends DocValuesIterator {
+
+    // jump-table time/space trade-offs to consider:
+    // The block offsets and the block indexes could be stored in more compressed form with
+    // two PackedInts or two MonotonicDirectReaders.
+    // The DENSE ranks (default 128 shorts = 256 bytes) could likewise be compressed. But as there is
+    // at least 4096 set bits in DENSE blocks, there will be at least one rank with 2^12 bits, so it
+    // is doubtful if there is much to gain here.
+
+    private static final int BLOCK_SIZE = 65536; // The number of docIDs that a single block represents
+
+    private static final int DENSE_BLOCK_LONGS = BLOCK_SIZE / Long.SIZE; // 1024
+    static final int MAX_ARRAY_LENGTH = (1 << 12) - 1;
+
+    /** Log2 of the number of docs of a DENSE block per rank entry. */
+    static final int DENSE_RANK_POWER = 9;
+
+    private static final int RANK_ENTRIES = BLOCK_SIZE >> DENSE_RANK_POWER;
+
+    private static void flush(int block, FixedBitSet buffer, int cardinality, IndexOutput out) throws IOException {
+        assert block >= 0 && block < BLOCK_SIZE;
+        out.writeShort((short) block);
+        assert cardinality > 0 && cardinality <= BLOCK_SIZE;
+        out.writeShort((short) (cardinality - 1));
+        if (cardinality > MAX_ARRAY_LENGTH) {
+            if (cardinality != BLOCK_SIZE) { // ALL blocks have no data
+                out.writeBytes(createRank(buffer), 0, RANK_ENTRIES * 2);
+                for (long word : buffer.getBits()) {
+                    out.writeLong(word);
+                }
+            }
+        } else {
+            for (int doc = buffer.nextSetBit(0); doc != FixedBitSet.NO_MORE_BITS;
+                    doc = doc + 1 >= BLOCK_SIZE ? FixedBitSet.NO_MORE_BITS : buffer.nextSetBit(doc + 1)) {
+                out.writeShort((short) doc);
+            }
+        }
+    }
+
+    // Creates a DENSE rank-entry (the number of set bits up to a given point) for the buffer.
+    // One rank-entry for every {@code 2^DENSE_RANK_POWER} bits, with each rank-entry using 2 bytes.
+    private static byte[] createRank(FixedBitSet buffer) {
+        final int longsPerRank = 1 << (DENSE_RANK_POWER - 6);
+        final int rankMark = longsPerRank - 1;
+        final byte[] rank = new byte[RANK_ENTRIES * 2];
+        final long[] bits = buffer.getBits();
+        int bitCount = 0;
+        for (int word = 0; word < DENSE_BLOCK_LONGS; word++) {
+            if ((word & rankMark) == 0) { // Every longsPerRank longs
+                rank[word / longsPerRank * 2] = (byte) (bitCount >> 8);
+                rank[word / longsPerRank * 2 + 1] = (byte) (bitCount & 0xFF);
+            }
+            bitCount += Long.bitCount(bits[word]);
+        }
+        return rank;
+    }
+
+    /**
+     * Writes the docs of the given set, followed by the jump table, and returns the number of
+     * entries of the jump table, to be given to the {@link IndexedDISI} that reads the set.
+     */
+    static int writeBitSet(FixedBitSet docs, IndexOutput out) throws IOException {
+        final long origo = out.getFilePointer(); // All jumps are relative to the origo
+        int totalCardinality = 0;
+        int blockCardinality = 0;
+        final FixedBitSet buffer = new FixedBitSet(BLOCK_SIZE);
+        int[] jumps = new int[ArrayUtil.oversize(1, Integer.BYTES * 2)];
+        int prevBlock = -1;
+        int jumpBlockIndex = 0;
+
+        final int numBits = docs.length();
+        for (int doc = numBits == 0 ? NO_MORE_DOCS : docs.nextSetBit(0); doc != NO_MORE_DOCS;
+                doc = doc + 1 >= numBits ? NO_MORE_DOCS : docs.nextSetBit(doc + 1)) {
+            final int block = doc >>> 16;
+            if (prevBlock != -1 && block != prevBlock) {
+                // Track offset+index from previous block up to current
+                jumps = addJumps(jumps, out.getFilePointer() - origo, totalCardinality, jumpBlockIndex, prevBlock + 1);
+                jumpBlockIndex = prevBlock + 1;
+                // Flush block
+                flush(prevBlock, buffer, blockCardinality, out);
+                // Reset for next block
+                buffer.clear(0, buffer.length());
+                totalCardinality += blockCardinality;
+                blockCardinality = 0;
+            }
+            buffer.set(doc & 0xFFFF);
+            blockCardinality++;
+            prevBlock = block;
+        }
+        if (blockCardinality > 0) {
+            jumps = addJumps(jumps, out.getFilePointer() - origo, totalCardinality, jumpBlockIndex, prevBlock + 1);
+            totalCardinality += blockCardinality;
+            flush(prevBlock, buffer, blockCardinality, out);
+            buffer.clear(0, buffer.length());
+            prevBlock++;
+        }
+        final int lastBlock = prevBlock == -1 ? 0 : prevBlock; // There will always be at least 1 block (NO_MORE_DOCS)
+        // Last entry is a SPARSE with blockIndex == 32767 and the single entry 65535, which becomes the
+        // docID NO_MORE_DOCS. To avoid creating 65K jump-table entries, only a single entry is created
+        // pointing to the offset of the NO_MORE_DOCS block, with the jumpBlockIndex set to the
+        // logical EMPTY block after all real blocks.
+        jumps = addJumps(jumps, out.getFilePointer() - origo, totalCardinality, lastBlock, lastBlock + 1);
+        buffer.set(NO_MORE_DOCS & 0xFFFF);
+        flush(NO_MORE_DOCS >>> 16, buffer, 1, out);
+        // offset+index jump-table stored at the end
+        return flushBlockJumps(jumps, lastBlock + 1, out);
+    }
+
+    // Adds entries to the offset & index jump-table for blocks
+    private static int[] addJumps(int[] jumps, long offset, int index, int startBlock, int endBlock) {
+        assert offset < Integer.MAX_VALUE : "Logically the offset should not exceed 2^30 but was >= Integer.MAX_VALUE";
+        jumps = ArrayUtil.grow(jumps, (endBlock + 1) * 2);
+        for (int b = startBlock; b < endBlock; b++) {
+            jumps[b * 2] = index;
+            jumps[b * 2 + 1] = (int) offset;
+        }
+        return jumps;
+    }
+
+    // Flushes the offset & index jump-table for blocks. This should be the last data written to out
+    // This method returns the blockCount for the blocks reachable for the jump_table or 0 if no
+    // jump-table was written.
+    private static int flushBlockJumps(int[] jumps, int blockCount, IndexOutput out) throws IOException {
+        // A jump table with 1 entry is pointless, the set is read from its first block anyway
+        if (blockCount == 1) {
+            blockCount = 0;
+        }
+        for (int i = 0; i < blockCount; i++) {
+            out.writeInt(jumps[i * 2]); // index
+            out.writeInt(jumps[i * 2 + 1]); // offset
+        }
+        return blockCount;
+    }
+
+    // Members are package-private to avoid synthetic accessors when accessed from the Method enum
+
+    /** The slice that stores the {@link DocValuesIterator}. */
+    final IndexInput slice;
+
+    final int jumpTableEntryCount;
+    final byte[] denseRankTable = new byte[RANK_ENTRIES * 2];
+    final RandomAccessInput jumpTable; // null if the set has a single block
+    final long cost;
+
+    /**
+     * Creates an iterator over the set written by {@link #writeBitSet} at the given offset.
+     *
+     * @param data the file the set was written to
+     * @param offset the address of the set
+     * @param length the number of bytes of the set, including its jump table
+     * @param jumpTableEntryCount the value returned by {@link #writeBitSet}
+     * @param cost the number of docs of the set
+     */
+    IndexedDISI(IndexInput data, long offset, long length, int jumpTableEntryCount, long cost) throws IOException {
+        this.slice = data.slice("docs", offset, length);
+        this.jumpTableEntryCount = jumpTableEntryCount;
+        if (jumpTableEntryCount <= 0) {
+            jumpTable = null;
+        } else {
+            final long jumpTableBytes = (long) jumpTableEntryCount * Integer.BYTES * 2;
+            jumpTable = slice.randomAccessSlice(slice.length() - jumpTableBytes, jumpTableBytes);
+        }
+        this.cost = cost;
+    }
+
+    int block = -1;
+    long blockEnd;
+    long denseBitmapOffset = -1; // Only used for DENSE blocks
+    int nextBlockIndex = -1;
+    Method method;
+
+    int doc = -1;
+    int index = -1;
+
+    // SPARSE variables
+    boolean exists;
+    int nextExistDocInBlock = -1;
+
+    // DENSE variables
+    long word;
+    int wordIndex = -1;
+    // number of one bits encountered so far, including those of `word`
+    int numberOfOnes;
+    // Used with rank for jumps inside of DENSE as they are absolute instead of relative
+    int denseOrigoIndex;
+
+    // ALL variables
+    int gap;
+
+    @Override
+    public int docID() {
+        return doc;
+    }
+
+    @Override
+    public int advance(int target) throws IOException {
+        final int targetBlock = target & 0xFFFF0000;
+        if (block < targetBlock) {
+            advanceBlock(targetBlock);
+        }
+        if (block == targetBlock) {
+            if (method.advanceWithinBlock(this, target)) {
+                return doc;
+            }
+            readBlockHeader();
+        }
+        final boolean found = method.advanceWithinBlock(this, block);
+        assert found;
+        return doc;
+    }
+
+    @Override
+    public boolean advanceExact(int target) throws IOException {
+        final int targetBlock = target & 0xFFFF0000;
+        if (block < targetBlock) {
+            advanceBlock(targetBlock);
+        }
+        final boolean found = block == targetBlock && method.advanceExactWithinBlock(this, target);
+        this.doc = target;
+        return found;
+    }
+
+    private void advanceBlock(int targetBlock) throws IOException {
+        final int blockIndex = targetBlock >> 16;
+        // If the destination block is 2 blocks or more ahead, we use the jump-table.
+        if (jumpTable != null && blockIndex >= (block >> 16) + 2) {
+            // If the jumpTableEntryCount is exceeded, there are no further bits. Last entry is always
+            // NO_MORE_DOCS
+            final int inRangeBlockIndex = blockIndex < jumpTableEntryCount ? blockIndex : jumpTableEntryCount - 1;
+            final int index = jumpTable.readInt((long) inRangeBlockIndex * Integer.BYTES * 2);
+            final int offset = jumpTable.readInt((long) inRangeBlockIndex * Integer.BYTES * 2 + Integer.BYTES);
+            this.nextBlockIndex = index - 1; // -1 to compensate for the always-added 1 in readBlockHeader
+            slice.seek(offset);
+            readBlockHeader();
+            return;
+        }
+
+        // Fallback to iteration of blocks
+        do {
+            slice.seek(blockEnd);
+            readBlockHeader();
+        } while (block < targetBlock);
+    }
+
+    private void readBlockHeader() throws IOException {
+        block = Short.toUnsignedInt(slice.readShort()) << 16;
+        assert block >= 0;
+        final int numValues = 1 + Short.toUnsignedInt(slice.readShort());
+        index = nextBlockIndex;
+        nextBlockIndex = index + numValues;
+        if (numValues <= MAX_ARRAY_LENGTH) {
+            method = Method.SPARSE;
+            blockEnd = slice.getFilePointer() + (numValues << 1);
+            nextExistDocInBlock = -1;
+        } else if (numValues == BLOCK_SIZE) {
+            method = Method.ALL;
+            blockEnd = slice.getFilePointer();
+            gap = block - index - 1;
+        } else {
+            method = Method.DENSE;
+            denseBitmapOffset = slice.getFilePointer() + denseRankTable.length;
+            blockEnd = denseBitmapOffset + (1 << 13);
+            // All ranks (128 * 16 bits) are loaded up front, this is wasted if the block is only
+            // iterated in small steps but keeps a single slice per iterator
+            slice.readBytes(denseRankTable, 0, denseRankTable.length);
+            wordIndex = -1;
+            numberOfOnes = index + 1;
+            denseOrigoIndex = numberOfOnes;
+        }
+    }
+
+    @Override
+    public int nextDoc() throws IOException {
+        return advance(doc + 1);
+    }
+
+    /**
+     * Returns the index of the current doc among the docs of the set, only valid if the iterator is
+     * positioned on a doc of the set.
+     */
+    int index() {
+        return index;
+    }
+
+    @Override
+    public long cost() {
+        return cost;
+    }
+
+    enum Method {
+        SPARSE {
+            @Override
+            boolean advanceWithinBlock(IndexedDISI disi, int target) throws IOException {
+                final int targetInBlock = target & 0xFFFF;
+                final long fp = disi.slice.getFilePointer();
+                final int remaining = disi.nextBlockIndex - disi.index;
+                final int skip = sparseCountLessThan(disi, fp, remaining, targetInBlock);
+                if (skip == remaining) {
+                    // leave the slice at the end of the block for the next header
+                    disi.slice.seek(fp + ((long) remaining << 1));
+                    disi.index = disi.nextBlockIndex;
+                    return false;
+                }
+                disi.slice.seek(fp + ((long) skip << 1));
+                final int doc = Short.toUnsignedInt(disi.slice.readShort());
+                disi.index += skip + 1;
+                disi.doc = disi.block | doc;
+                disi.exists = true;
+                disi.nextExistDocInBlock = doc;
+                return true;
+            }
+
+            @Override
+            boolean advanceExactWithinBlock(IndexedDISI disi, int target) throws IOException {
+                final int targetInBlock = target & 0xFFFF;
+                if (disi.nextExistDocInBlock > targetInBlock) {
+                    assert disi.exists == false;
+                    return false;
+                }
+                if (target == disi.doc) {
+                    return disi.exists;
+                }
+                final long fp = disi.slice.getFilePointer();
+                final int remaining = disi.nextBlockIndex - disi.index;
+                final int skip = sparseCountLessThan(disi, fp, remaining, targetInBlock);
+                if (skip == remaining) {
+                    disi.slice.seek(fp + ((long) remaining << 1));
+                    disi.index = disi.nextBlockIndex;
+                    disi.exists = false;
+                    return false;
+                }
+                disi.slice.seek(fp + ((long) skip << 1));
+                final int doc = Short.toUnsignedInt(disi.slice.readShort());
+                disi.index += skip;
+                disi.nextExistDocInBlock = doc;
+                if (doc != targetInBlock) {
+                    // the doc is not consumed, the next call starts from it again
+                    disi.slice.seek(fp + ((long) skip << 1));
+                    disi.exists = false;
+                    return false;
+                }
+                disi.index++;
+                disi.exists = true;
+                return true;
+            }
+        },
+        DENSE {
+            @Override
+            boolean advanceWithinBlock(IndexedDISI disi, int target) throws IOException {
+                final int targetInBlock = target & 0xFFFF;
+                final int targetWordIndex = targetInBlock >>> 6;
+
+                // If possible, skip ahead using the rank cache
+                if (targetWordIndex - disi.wordIndex >= (1 << (DENSE_RANK_POWER - 6))) {
+                    rankSkip(disi, targetInBlock);
+                }
+
+                for (int i = disi.wordIndex + 1; i <= targetWordIndex; ++i) {
+                    disi.word = disi.slice.readLong();
+                    disi.numberOfOnes += Long.bitCount(disi.word);
+                }
+                disi.wordIndex = targetWordIndex;
+
+                final long leftBits = disi.word >>> target;
+                if (leftBits != 0L) {
+                    disi.doc = target + Long.numberOfTrailingZeros(leftBits);
+                    disi.index = disi.numberOfOnes - Long.bitCount(leftBits);
+                    return true;
+                }
+
+                // There were no set bits at the wanted position. Move forward until one is reached
+                while (++disi.wordIndex < DENSE_BLOCK_LONGS) {
+                    // This could use the rank cache to skip empty spaces >= 512 bits, but it seems
+                    // unrealistic that such blocks would be DENSE
+                    disi.word = disi.slice.readLong();
+                    if (disi.word != 0) {
+                        disi.index = disi.numberOfOnes;
+                        disi.numberOfOnes += Long.bitCount(disi.word);
+                        disi.doc = disi.block | (disi.wordIndex << 6) | Long.numberOfTrailingZeros(disi.word);
+                        return true;
+                    }
+                }
+                // No set bits in the block at or after the wanted position.
+                return false;
+            }
+
+            @Override
+            boolean advanceExactWithinBlock(IndexedDISI disi, int target) throws IOException {
+                final int targetInBlock = target & 0xFFFF;
+                final int targetWordIndex = targetInBlock >>> 6;
+
+                // If possible, skip ahead using the rank cache
+                if (targetWordIndex - disi.wordIndex >= (1 << (DENSE_RANK_POWER - 6))) {
+                    rankSkip(disi, targetInBlock);
+                }
+
+                for (int i = disi.wordIndex + 1; i <= targetWordIndex; ++i) {
+                    disi.word = disi.slice.readLong();
+                    disi.numberOfOnes += Long.bitCount(disi.word);
+                }
+                disi.wordIndex = targetWordIndex;
+
+                final long leftBits = disi.word >>> target;
+                disi.index = disi.numberOfOnes - Long.bitCount(leftBits);
+                return (leftBits & 1L) != 0;
+            }
+        },
+        ALL {
+            @Override
+            boolean advanceWithinBlock(IndexedDISI disi, int target) {
+                disi.doc = target;
+                disi.index = target - disi.gap;
+                return true;
+            }
+
+            @Override
+            boolean advanceExactWithinBlock(IndexedDISI disi, int target) {
+                disi.index = target - disi.gap;
+                return true;
+            }
+        };
+
+        /**
+         * Advance to the first doc from the block that is equal to or greater than {@code target}.
+         * Return true if there is such a doc and false otherwise.
+         */
+        abstract boolean advanceWithinBlock(IndexedDISI disi, int target) throws IOException;
+
+        /**
+         * Advance the iterator exactly to the position corresponding to the given {@code target} and
+         * return whether this document exists.
+         */
+        abstract boolean advanceExactWithinBlock(IndexedDISI disi, int target) throws IOException;
+    }
+
+    /**
+     * Returns how many of the {@code remaining} unread docs of a SPARSE block, stored as shorts from
+     * {@code fp} on, are less than {@code targetInBlock}. The docs are sorted, so this gallops from
+     * the current position then binary searches the last range: a {@link #nextDoc()} costs a single
+     * read and a far target {@code O(log n)} reads instead of a scan of the block. The position of
+     * the slice is undefined on return.
+     */
+    private static int sparseCountLessThan(IndexedDISI disi, long fp, int remaining, int targetInBlock) throws IOException {
+        // docs before lo are known to be less than the target
+        int lo = 0;
+        int bound = 1;
+        while (bound <= remaining && sparseDocAt(disi, fp, bound - 1) < targetInBlock) {
+            lo = bound;
+            bound <<= 1;
+        }
+        // the doc at hi, if any, is known to be greater than or equal to the target
+        int hi = Math.min(bound - 1, remaining);
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (sparseDocAt(disi, fp, mid) < targetInBlock) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int sparseDocAt(IndexedDISI disi, long fp, int i) throws IOException {
+        disi.slice.seek(fp + ((long) i << 1));
+        return Short.toUnsignedInt(disi.slice.readShort());
+    }
+
+    /**
+     * If the distance between the current position and the target is at least one rank entry, jumps
+     * to the word of the rank entry of the target and sets the number of ones from the rank table.
+     */
+    private static void rankSkip(IndexedDISI disi, int targetInBlock) throws IOException {
+        final int rankIndex = targetInBlock >> DENSE_RANK_POWER;
+        // Note: We could make the rankSkip work for the last sub-block of docs too, it is just a
+        // matter of reading a word further than the rank-aligned one
+        final int rank = (disi.denseRankTable[rankIndex << 1] & 0xFF) << 8 | (disi.denseRankTable[(rankIndex << 1) + 1] & 0xFF);
+
+        // Position the counting logic just after the rank point
+        final int rankAlignedWordIndex = rankIndex << DENSE_RANK_POWER >> 6;
+        disi.slice.seek(disi.denseBitmapOffset + rankAlignedWordIndex * (long) Long.BYTES);
+        final long rankWord = disi.slice.readLong();
+        final int denseNOO = rank + Long.bitCount(rankWord);
+
+        disi.wordIndex = rankAlignedWordIndex;
+        disi.word = rankWord;
+        disi.numberOfOnes = disi.denseOrigoIndex + denseNOO;
+    }
+}
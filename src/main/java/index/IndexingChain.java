@@ -1,53 +1,271 @@
 package index;
 
-import document.FieldType;
+import store.Directory;
+import util.Accountable;
+import util.ArrayUtil;
+import util.BitUtils;
+import util.ByteBlockPool;
+import util.BytesRef;
+import util.IOUtils;
+import util.SmallFloat;
+import util.UnicodeUtil;
+import util.bkd.BKDWriter;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
-public class IndexingChain {
+public class IndexingChain implements Accountable {
+
+    private final SegmentInfo segmentInfo;
+
+    private final Directory directory;
+
+    private final IndexWriterConfig config;
 
     private long nextFieldGen = 0;
 
-    private Map<String, PerField> fieldHash = new HashMap<>();
+    // Open-addressed hash of all fields seen by this chain, keyed by the hash of the field name,
+    // with linear probing. Its size is always a power of two and it is kept at most half full.
+    private PerField[] fieldHash = new PerField[2];
 
-    private Map<String, Integer> fieldNumber = new ConcurrentHashMap<>();
+    private int hashMask = 1;
 
-    AtomicInteger nextFieldNum = new AtomicInteger(0);
+    private int totalFieldCount;
 
-    private List<PerField> fields = new ArrayList<>();
+    // Field numbers are only assigned the first time this chain sees a field, so a plain counter
+    // is enough.
+    private int nextFieldNum = 0;
+
+    // Holds fields seen in each document, reused across documents.
+    private PerField[] fields = new PerField[1];
 
     private StoredFieldConsumer storedFieldConsumer;
 
+    // only created once a field stores term vectors
+    private TermVectorsConsumer termVectorsConsumer;
+
+    // Bytes of the unique terms of all indexed fields, and the postings streams of those terms. Both
+    // are shared by all fields so that a field with few terms doesn't hold a block of its own.
+    private final ByteBlockPool termBytePool = new ByteBlockPool();
+    private final ByteBlockPool bytePool = new ByteBlockPool();
+
+    // Bytes used by the per-field buffers of all fields, kept up to date as values are buffered so
+    // that ramBytesUsed, which is called after every document, doesn't have to visit every field
+    private long perFieldBytesUsed;
+
+    // UTF-8 bytes of the term being inverted, reused across terms
+    private final BytesRef termBytes = new BytesRef(new byte[16]);
+
+    IndexingChain(SegmentInfo segmentInfo, Directory directory, IndexWriterConfig config) {
+        this.segmentInfo = segmentInfo;
+        this.directory = directory;
+        this.config = config;
+    }
+
     public void processDocument(Iterable<? extends IndexableField> document, int docID) throws IOException{
 
-        try {
-            List<PerField> docFields = new ArrayList<>();
+        if (storedFieldConsumer == null) {
+            // files are only created once the first document comes in
+            storedFieldConsumer =
+                    new StoredFieldConsumer(
+                            directory,
+                            segmentInfo,
+                            CompressionMode.FAST,
+                            config.getStoredFieldsCompressionExecutor(),
+                            StoredFieldConsumer.DEFAULT_MAX_PENDING_CHUNKS);
+        }
+
+        // Each document gets a new generation, a PerField whose fieldGen matches has already been
+        // seen in this document.
+        final long fieldGen = nextFieldGen++;
+        int fieldCount = 0;
 
+        try {
+            // Single pass: each value is checked against the schema of its field right before it is
+            // indexed. A value that is rejected may leave earlier values of the document buffered,
+            // DocumentsWriterPerThread then marks the whole document as deleted.
             for(IndexableField field : document) {
                 PerField pf = getOrAddPerField(field.name());
-                if(pf.fieldInfo == null) {
-                    initializeFieldInfo(pf);
+                if (pf.fieldGen != fieldGen) {
+                    pf.reset(docID);
+                    pf.fieldGen = fieldGen;
+                    if (fieldCount == fields.length) {
+                        fields = growFields(fields);
+                    }
+                    fields[fieldCount++] = pf;
                 }
-                docFields.add(pf);
+                processField(docID, field, pf);
             }
-
-            int docFieldIdx = 0;
-            for(IndexableField field : document) {
-                if(processField(docID, field, docFields.get(docFieldIdx))) {
-                    // ignore
+            for (int i = 0; i < fieldCount; i++) {
+                final PerField pf = fields[i];
+                final long bytesBefore = pf.ramBytesUsed();
+                try {
+                    pf.finish(docID);
+                } finally {
+                    perFieldBytesUsed += pf.ramBytesUsed() - bytesBefore;
                 }
-                docFieldIdx++;
             }
         } finally {
             finishStoredFields();
+            if (termVectorsConsumer != null) {
+                termVectorsConsumer.finishDocument(docID);
+            }
+        }
+
+    }
+
+    /**
+     * Writes the stored fields, the term vectors, the norms, the doc values, the points, the terms dictionary and the postings of
+     * the segment to the directory.
+     */
+    void flush(int numDocs) throws IOException {
+        boolean success = false;
+        try {
+            storedFieldConsumer.finish(numDocs);
+            if (termVectorsConsumer != null) {
+                termVectorsConsumer.finish(numDocs);
+            }
+            writeNorms(numDocs);
+            writeDocValues(numDocs);
+            writePoints();
+            writePostings(numDocs);
+            success = true;
+        } finally {
+            if (success) {
+                try {
+                    storedFieldConsumer.close();
+                } finally {
+                    IOUtils.close(termVectorsConsumer);
+                }
+            } else {
+                abort();
+            }
+        }
+    }
+
+    /** Writes the norms of the indexed fields that have norms, in field name order, if any. */
+    private void writeNorms(int numDocs) throws IOException {
+        final List<PerField> normsFields = new ArrayList<>();
+        for (PerField pf : fieldHash) {
+            if (pf != null && pf.norms != null && pf.fieldInfo.omitsNorms() == false && pf.norms.size() > 0) {
+                normsFields.add(pf);
+            }
+        }
+        if (normsFields.isEmpty()) {
+            return;
+        }
+        Collections.sort(normsFields);
+        try (NormsWriter normsWriter = new NormsWriter(directory, segmentInfo, numDocs)) {
+            for (PerField pf : normsFields) {
+                normsWriter.addNormsField(pf.fieldInfo, pf.norms);
+            }
+            normsWriter.finish();
+        }
+    }
+
+    /** Writes the doc values of the fields that have doc values, in field name order, if any. */
+    private void writeDocValues(int numDocs) throws IOException {
+        final List<PerField> docValuesFields = new ArrayList<>();
+        for (PerField pf : fieldHash) {
+            if (pf != null && pf.docValuesWriter != null) {
+                docValuesFields.add(pf);
+            }
+        }
+        if (docValuesFields.isEmpty()) {
+            return;
+        }
+        Collections.sort(docValuesFields);
+        try (DocValuesConsumer consumer = new DocValuesConsumer(directory, segmentInfo, numDocs)) {
+            for (PerField pf : docValuesFields) {
+                pf.docValuesWriter.flush(pf.fieldInfo, consumer);
+            }
+            consumer.finish();
+        }
+    }
+
+    /** Writes the points of the fields that have points, in field name order, if any. */
+    private void writePoints() throws IOException {
+        final List<PerField> pointFields = new ArrayList<>();
+        for (PerField pf : fieldHash) {
+            if (pf != null && pf.pointValuesWriter != null) {
+                pointFields.add(pf);
+            }
+        }
+        if (pointFields.isEmpty()) {
+            return;
+        }
+        Collections.sort(pointFields);
+        try (PointsWriter pointsWriter = new PointsWriter(directory, segmentInfo)) {
+            for (PerField pf : pointFields) {
+                pointsWriter.writeField(pf.fieldInfo, pf.pointValuesWriter);
+            }
+            pointsWriter.finish();
+        }
+    }
+
+    /** Writes the postings of the indexed fields, in field name order, if any field is indexed. */
+    private void writePostings(int numDocs) throws IOException {
+        final List<PerField> indexedFields = new ArrayList<>();
+        for (PerField pf : fieldHash) {
+            if (pf != null && pf.termsHashPerField != null) {
+                indexedFields.add(pf);
+            }
+        }
+        if (indexedFields.isEmpty()) {
+            return;
+        }
+        Collections.sort(indexedFields);
+        final List<FieldInfo> fieldInfos = new ArrayList<>(indexedFields.size());
+        for (PerField pf : indexedFields) {
+            fieldInfos.add(pf.fieldInfo);
+        }
+
+        final PostingsWriter postingsWriter = new PostingsWriter(directory, segmentInfo, numDocs, fieldInfos);
+        // the terms writer closes the postings writer, even if it fails to open its own files
+        try (BlockTermsWriter termsWriter = new BlockTermsWriter(directory, segmentInfo, postingsWriter)) {
+            termsWriter.write(fields(), fieldInfos);
+            termsWriter.finish();
         }
+    }
 
+    /** Releases resources held by a segment that will never be flushed. */
+    void abort() {
+        if (storedFieldConsumer != null) {
+            try {
+                storedFieldConsumer.close();
+            } catch (IOException | RuntimeException ignored) {
+                // the segment is discarded anyway
+            }
+        }
+        IOUtils.closeWhileHandlingException(termVectorsConsumer);
+    }
+
+    /**
+     * Returns the terms of the documents buffered in this chain, used to apply buffered deletes at
+     * flush time. The terms of a field are sorted the first time they are requested, no document can
+     * be added afterwards.
+     */
+    Fields fields() {
+        final Map<String, FreqProxTermsWriterPerField> perFields = new HashMap<>();
+        for (PerField pf : fieldHash) {
+            if (pf != null && pf.termsHashPerField != null) {
+                perFields.put(pf.fieldName, pf.termsHashPerField);
+            }
+        }
+        return perFields.isEmpty() ? Fields.EMPTY : new FreqProxFields(perFields);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long bytes = termBytePool.ramBytesUsed() + bytePool.ramBytesUsed() + perFieldBytesUsed;
+        if (termVectorsConsumer != null) {
+            bytes += termVectorsConsumer.ramBytesUsed();
+        }
+        return bytes + (storedFieldConsumer == null ? 0 : storedFieldConsumer.ramBytesUsed());
     }
 
     private void finishStoredFields() throws IOException{
@@ -59,13 +277,19 @@ public class IndexingChain {
 
     }
 
-    private void initializeFieldInfo(PerField pf) {
-        fieldNumber.computeIfAbsent(pf.fieldName, k -> nextFieldNum.incrementAndGet());
-        pf.fieldInfo = new FieldInfo(pf.fieldName, fieldNumber.get(pf.fieldName));
+    private boolean processField(int docID, IndexableField field, PerField pf) throws IOException {
+        final long bytesBefore = pf.ramBytesUsed();
+        try {
+            return processField(docID, field, pf, field.fieldType());
+        } finally {
+            // also account for what a value that failed half-way buffered
+            perFieldBytesUsed += pf.ramBytesUsed() - bytesBefore;
+        }
     }
 
-    private boolean processField(int docID, IndexableField field, PerField pf) throws IOException {
-        IndexableFieldType type = field.fieldType();
+    private boolean processField(int docID, IndexableField field, PerField pf, IndexableFieldType type) throws IOException {
+
+        pf.validate(type);
 
         if(type.stored()) {
             String value  =field.stringValue();
@@ -79,20 +303,205 @@ public class IndexingChain {
 
             }
         }
+
+        final IndexOptions indexOptions = type.indexOptions();
+        if (indexOptions != IndexOptions.NONE) {
+            // checked against the options of the field by PerField.validate
+            pf.fieldInfo.setIndexOptions(indexOptions);
+            if (type.omitNorms()) {
+                pf.fieldInfo.setOmitsNorms();
+            }
+            if (pf.termsHashPerField == null) {
+                pf.invertState = new FieldInvertState(pf.fieldName, indexOptions);
+                pf.termsHashPerField = new FreqProxTermsWriterPerField(pf.invertState, bytePool, termBytePool);
+                if (pf.fieldInfo.omitsNorms() == false) {
+                    pf.norms = new NormValuesWriter();
+                }
+            }
+            pf.invert(docID, field);
+        }
+
+        final DocValuesType dvType = type.docValuesType();
+        if (dvType != DocValuesType.NONE) {
+            // checked against the type of the field by PerField.validate
+            pf.fieldInfo.setDocValuesType(dvType);
+            indexDocValue(docID, pf, dvType, field);
+        }
+
+        if (type.pointDimensionCount() != 0) {
+            // checked against the dimensions of the field by PerField.validate
+            pf.fieldInfo.setPointDimensions(type.pointDimensionCount(), type.pointIndexDimensionCount(), type.pointNumBytes());
+            indexPoint(docID, pf, field);
+        }
         return true;
     }
 
-    private PerField getOrAddPerField(String fieldName) {
-        PerField pf = fieldHash.getOrDefault(fieldName, null);
+    /** Buffers the point of the given field, its binary value holds the packed dimensions. */
+    private void indexPoint(int docID, PerField pf, IndexableField field) {
+        final FieldInfo fieldInfo = pf.fieldInfo;
+        final BytesRef value = field.binaryValue();
+        if (value == null) {
+            throw new IllegalArgumentException("field=\"" + pf.fieldName + "\": point value must not be null");
+        }
+        final int packedBytesLength = fieldInfo.getPointDimensionCount() * fieldInfo.getPointNumBytes();
+        if (value.length != packedBytesLength) {
+            throw new IllegalArgumentException(
+                    "field=\"" + pf.fieldName + "\": this field's value has length=" + value.length
+                            + " but should be " + packedBytesLength);
+        }
+        if (pf.pointValuesWriter == null) {
+            pf.pointValuesWriter = new BKDWriter(
+                    fieldInfo.getPointDimensionCount(),
+                    fieldInfo.getPointIndexDimensionCount(),
+                    fieldInfo.getPointNumBytes(),
+                    BKDWriter.DEFAULT_MAX_POINTS_IN_LEAF_NODE);
+        }
+        pf.pointValuesWriter.add(value.bytes, value.offset, docID);
+    }
 
-        if (pf == null) {
-            pf = new PerField(fieldName);
+    /**
+     * Checks that the term vector options of a field are consistent: term vectors require the field
+     * to be indexed, and positions, offsets and payloads require term vectors. Payloads also require
+     * positions, but are never stored since tokens have no payload.
+     */
+    private static void verifyTermVectorOptions(String fieldName, IndexableFieldType type) {
+        if (type.storeTermVectors() == false) {
+            if (type.storeTermVectorPositions()) {
+                throw new IllegalArgumentException(
+                        "cannot index term vector positions when term vectors are not indexed (field=\"" + fieldName + "\")");
+            }
+            if (type.storeTermVectorOffsets()) {
+                throw new IllegalArgumentException(
+                        "cannot index term vector offsets when term vectors are not indexed (field=\"" + fieldName + "\")");
+            }
+            if (type.storeTermVectorPayloads()) {
+                throw new IllegalArgumentException(
+                        "cannot index term vector payloads when term vectors are not indexed (field=\"" + fieldName + "\")");
+            }
+        } else {
+            if (type.indexOptions() == IndexOptions.NONE) {
+                throw new IllegalArgumentException(
+                        "cannot store term vectors for a field that is not indexed (field=\"" + fieldName + "\")");
+            }
+            if (type.storeTermVectorPayloads() && type.storeTermVectorPositions() == false) {
+                throw new IllegalArgumentException(
+                        "cannot index term vector payloads without term vector positions (field=\"" + fieldName + "\")");
+            }
+        }
+    }
+
+    /** Buffers the doc value of the given field, see {@link DocValuesType} for the allowed values. */
+    private void indexDocValue(int docID, PerField pf, DocValuesType dvType, IndexableField field) {
+        switch (dvType) {
+            case NUMERIC:
+                final Number number = field.numericValue();
+                if (number == null) {
+                    throw new IllegalArgumentException(
+                            "field \"" + pf.fieldName + "\" has numeric doc values but no numeric value");
+                }
+                if (number instanceof Float || number instanceof Double) {
+                    throw new IllegalArgumentException(
+                            "field \"" + pf.fieldName + "\" has numeric doc values but a floating-point value: "
+                                    + number + ", encode it as sortable bits first");
+                }
+                if (pf.docValuesWriter == null) {
+                    pf.docValuesWriter = new NumericDocValuesWriter(pf.fieldName);
+                }
+                ((NumericDocValuesWriter) pf.docValuesWriter).addValue(docID, number.longValue());
+                break;
+            case SORTED:
+                if (pf.docValuesWriter == null) {
+                    pf.docValuesWriter = new SortedDocValuesWriter(pf.fieldName);
+                }
+                ((SortedDocValuesWriter) pf.docValuesWriter).addValue(docID, bytesValue(pf, field));
+                break;
+            case SORTED_SET:
+                if (pf.docValuesWriter == null) {
+                    pf.docValuesWriter = new SortedSetDocValuesWriter(pf.fieldName);
+                }
+                ((SortedSetDocValuesWriter) pf.docValuesWriter).addValue(docID, bytesValue(pf, field));
+                break;
+            default:
+                throw new AssertionError("unrecognized DocValues.Type: " + dvType);
         }
+    }
 
-        fieldHash.put(fieldName, pf);
+    /**
+     * Returns the binary value of the given field, or the UTF-8 bytes of its string value in a buffer
+     * that is reused across values.
+     */
+    private BytesRef bytesValue(PerField pf, IndexableField field) {
+        final BytesRef binaryValue = field.binaryValue();
+        if (binaryValue != null) {
+            return binaryValue;
+        }
+        final String stringValue = field.stringValue();
+        if (stringValue == null) {
+            throw new IllegalArgumentException(
+                    "field \"" + pf.fieldName + "\" has sorted doc values but no string or binary value");
+        }
+        final int maxLength = stringValue.length() * UnicodeUtil.MAX_UTF8_BYTES_PER_CHAR;
+        if (termBytes.bytes.length < maxLength) {
+            termBytes.bytes = ArrayUtil.grow(termBytes.bytes, maxLength);
+        }
+        termBytes.length = UnicodeUtil.UTF16toUTF8(stringValue, 0, stringValue.length(), termBytes.bytes, 0);
+        return termBytes;
+    }
+
+    /**
+     * Returns the {@link PerField} for the given field name, creating it and assigning its field
+     * number if this chain has never seen the field before.
+     */
+    private PerField getOrAddPerField(String fieldName) {
+        final int hashPos = fieldName.hashCode() & hashMask;
+        for (int slot = hashPos; ; slot = (slot + 1) & hashMask) {
+            final PerField pf = fieldHash[slot];
+            if (pf == null) {
+                break;
+            }
+            if (pf.fieldName.equals(fieldName)) {
+                return pf;
+            }
+        }
+
+        final PerField pf = new PerField(fieldName);
+        pf.fieldInfo = new FieldInfo(fieldName, nextFieldNum++);
+        if (2 * (totalFieldCount + 1) > fieldHash.length) {
+            rehash();
+        }
+        insert(fieldHash, hashMask, pf);
+        totalFieldCount++;
         return pf;
     }
 
+    private void rehash() {
+        final int newHashSize = fieldHash.length * 2;
+        assert newHashSize == BitUtils.nextHighestPowerOfTwo(newHashSize);
+        final PerField[] newHashArray = new PerField[newHashSize];
+        final int newHashMask = newHashSize - 1;
+        for (PerField pf : fieldHash) {
+            if (pf != null) {
+                insert(newHashArray, newHashMask, pf);
+            }
+        }
+        fieldHash = newHashArray;
+        hashMask = newHashMask;
+    }
+
+    private static void insert(PerField[] hash, int mask, PerField pf) {
+        int slot = pf.fieldName.hashCode() & mask;
+        while (hash[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        hash[slot] = pf;
+    }
+
+    private static PerField[] growFields(PerField[] fields) {
+        final PerField[] newFields = new PerField[fields.length << 1];
+        System.arraycopy(fields, 0, newFields, 0, fields.length);
+        return newFields;
+    }
+
     private final class PerField implements Comparable<PerField> {
 
         final String fieldName;
@@ -105,6 +514,41 @@ public class IndexingChain {
 
         int docID;
 
+        // only set once the field is indexed
+        FieldInvertState invertState;
+
+        FreqProxTermsWriterPerField termsHashPerField;
+
+        // null if the field omitted norms when it was first indexed
+        NormValuesWriter norms;
+
+        // only set once the field has a doc value
+        DocValuesWriter docValuesWriter;
+
+        // only set once the field has a point
+        BKDWriter pointValuesWriter;
+
+        // only set once the field stores term vectors
+        TermVectorsConsumerPerField termVectorsPerField;
+
+        // whether the field stores a term vector in the current doc
+        boolean doVectors;
+
+        // term vector options of the first indexed value of the field in the current doc, checked
+        // against the other values before they are indexed
+        private boolean vectorOptionsSet;
+        private boolean storeTermVectors;
+        private boolean storeTermVectorPositions;
+        private boolean storeTermVectorOffsets;
+
+        // schema of the values of the field in the current doc, checked against each further value
+        // before it is indexed
+        private IndexOptions docIndexOptions;
+        private DocValuesType docValuesType;
+        private int docPointDimensionCount;
+        private int docPointIndexDimensionCount;
+        private int docPointNumBytes;
+
         PerField(String fieldName) {
             this.fieldName = fieldName;
         }
@@ -114,8 +558,209 @@ public class IndexingChain {
             return this.fieldName.compareTo(other.fieldName);
         }
 
-        void reset() {
+        void reset(int docID) {
             first = true;
+            doVectors = false;
+            vectorOptionsSet = false;
+            docIndexOptions = IndexOptions.NONE;
+            docValuesType = DocValuesType.NONE;
+            docPointDimensionCount = docPointIndexDimensionCount = docPointNumBytes = 0;
+            this.docID = docID;
+        }
+
+        /** Returns the bytes used by the buffers of this field. */
+        long ramBytesUsed() {
+            long bytes = 0;
+            if (termsHashPerField != null) {
+                bytes += termsHashPerField.ramBytesUsed();
+            }
+            if (norms != null) {
+                bytes += norms.ramBytesUsed();
+            }
+            if (docValuesWriter != null) {
+                bytes += docValuesWriter.ramBytesUsed();
+            }
+            if (termVectorsPerField != null) {
+                bytes += termVectorsPerField.ramBytesUsed();
+            }
+            if (pointValuesWriter != null) {
+                bytes += pointValuesWriter.ramBytesUsed();
+            }
+            return bytes;
+        }
+
+        /**
+         * Checks the options of a value of this field in the current doc, before the value is
+         * buffered. The index options, doc values type and point dimensions of the value must match
+         * those of the field in the segment and in the previous values of the doc, and all indexed
+         * values of a field in a doc must have the same term vector options.
+         *
+         * <p>A rejected value fails the whole document, which is then deleted. Values of the document
+         * that were indexed before it stay buffered, and so does the schema they recorded in their
+         * {@link FieldInfo}.
+         */
+        void validate(IndexableFieldType type) {
+            final IndexOptions indexOptions = type.indexOptions();
+            if (indexOptions != IndexOptions.NONE) {
+                FieldInfo.verifySameIndexOptions(fieldName, fieldInfo.getIndexOptions(), indexOptions);
+                FieldInfo.verifySameIndexOptions(fieldName, docIndexOptions, indexOptions);
+                docIndexOptions = indexOptions;
+            }
+            final DocValuesType dvType = type.docValuesType();
+            if (dvType != DocValuesType.NONE) {
+                FieldInfo.verifySameDocValuesType(fieldName, fieldInfo.getDocValuesType(), dvType);
+                FieldInfo.verifySameDocValuesType(fieldName, docValuesType, dvType);
+                docValuesType = dvType;
+            }
+            final int pointDimensionCount = type.pointDimensionCount();
+            if (pointDimensionCount != 0) {
+                FieldInfo.verifySamePointsOptions(
+                        fieldName,
+                        fieldInfo.getPointDimensionCount(), fieldInfo.getPointIndexDimensionCount(), fieldInfo.getPointNumBytes(),
+                        pointDimensionCount, type.pointIndexDimensionCount(), type.pointNumBytes());
+                FieldInfo.verifySamePointsOptions(
+                        fieldName,
+                        docPointDimensionCount, docPointIndexDimensionCount, docPointNumBytes,
+                        pointDimensionCount, type.pointIndexDimensionCount(), type.pointNumBytes());
+                docPointDimensionCount = pointDimensionCount;
+                docPointIndexDimensionCount = type.pointIndexDimensionCount();
+                docPointNumBytes = type.pointNumBytes();
+            }
+
+            verifyTermVectorOptions(fieldName, type);
+            if (indexOptions == IndexOptions.NONE) {
+                return;
+            }
+            if (vectorOptionsSet == false) {
+                vectorOptionsSet = true;
+                storeTermVectors = type.storeTermVectors();
+                storeTermVectorPositions = type.storeTermVectorPositions();
+                storeTermVectorOffsets = type.storeTermVectorOffsets();
+                return;
+            }
+            if (storeTermVectors != type.storeTermVectors()) {
+                throw new IllegalArgumentException(
+                        "all instances of a given field name must have the same term vectors settings"
+                                + " (storeTermVectors changed for field=\"" + fieldName + "\")");
+            }
+            if (storeTermVectorPositions != type.storeTermVectorPositions()) {
+                throw new IllegalArgumentException(
+                        "all instances of a given field name must have the same term vectors settings"
+                                + " (storeTermVectorPositions changed for field=\"" + fieldName + "\")");
+            }
+            if (storeTermVectorOffsets != type.storeTermVectorOffsets()) {
+                throw new IllegalArgumentException(
+                        "all instances of a given field name must have the same term vectors settings"
+                                + " (storeTermVectorOffsets changed for field=\"" + fieldName + "\")");
+            }
+        }
+
+        /**
+         * Records the norm of the field in the given doc, once all values of the field were
+         * inverted. The norm is the number of terms of the field in the doc, see {@link
+         * SmallFloat#intToByte4}; docs where the field has no term have no norm.
+         */
+        void finish(int docID) {
+            if (first || invertState == null) {
+                // not inverted in this doc
+                return;
+            }
+            if (doVectors) {
+                termVectorsPerField.finish();
+            }
+            if (fieldInfo.omitsNorms() == false && invertState.length != 0) {
+                norms.addValue(docID, SmallFloat.intToByte4(invertState.length));
+            }
+        }
+
+        /**
+         * Inverts one value of this field into the postings of the chain. The string value of a
+         * tokenized field is split into one term per run of letters and digits, any other string or
+         * binary value is indexed as a single term. Positions and offsets go on from the previous
+         * values of the field in the same document.
+         */
+        void invert(int docID, IndexableField field) throws IOException {
+            final IndexableFieldType type = field.fieldType();
+            if (type.storeTermVectors() && termVectorsPerField == null) {
+                if (termVectorsConsumer == null) {
+                    termVectorsConsumer = new TermVectorsConsumer(directory, segmentInfo);
+                }
+                termVectorsPerField = new TermVectorsConsumerPerField(fieldName, termVectorsConsumer);
+            }
+            if (termVectorsPerField != null) {
+                // all values of the field in this doc have the same term vector options, see validate
+                doVectors = termVectorsPerField.start(type, first);
+                if (doVectors) {
+                    fieldInfo.setStoreTermVectors();
+                }
+            }
+
+            if (first) {
+                invertState.reset();
+                first = false;
+            } else {
+                // offset gap between values
+                invertState.offset++;
+            }
+
+            final CharSequence text = field.getCharSequenceValue();
+            if (text != null) {
+                if (type.tokenized()) {
+                    int tokenStart = -1;
+                    for (int i = 0; i < text.length(); ) {
+                        final int codePoint = Character.codePointAt(text, i);
+                        if (Character.isLetterOrDigit(codePoint)) {
+                            if (tokenStart == -1) {
+                                tokenStart = i;
+                            }
+                        } else if (tokenStart != -1) {
+                            addToken(docID, text, tokenStart, i);
+                            tokenStart = -1;
+                        }
+                        i += Character.charCount(codePoint);
+                    }
+                    if (tokenStart != -1) {
+                        addToken(docID, text, tokenStart, text.length());
+                    }
+                } else {
+                    addToken(docID, text, 0, text.length());
+                }
+                invertState.offset += text.length();
+            } else {
+                final BytesRef binaryValue = field.binaryValue();
+                if (binaryValue == null) {
+                    throw new IllegalArgumentException(
+                            "field \"" + fieldName + "\" is indexed but has no string or binary value");
+                }
+                invertState.startOffset = invertState.endOffset = invertState.offset;
+                addTerm(docID, binaryValue);
+            }
+        }
+
+        private void addToken(int docID, CharSequence text, int start, int end) {
+            final int maxLength = (end - start) * UnicodeUtil.MAX_UTF8_BYTES_PER_CHAR;
+            if (termBytes.bytes.length < maxLength) {
+                termBytes.bytes = ArrayUtil.grow(termBytes.bytes, maxLength);
+            }
+            termBytes.length = UnicodeUtil.UTF16toUTF8(text, start, end - start, termBytes.bytes, 0);
+            invertState.startOffset = invertState.offset + start;
+            invertState.endOffset = invertState.offset + end;
+            addTerm(docID, termBytes);
+        }
+
+        private void addTerm(int docID, BytesRef term) {
+            if (term.length > IndexWriter.MAX_TERM_LENGTH) {
+                throw new IllegalArgumentException(
+                        "Document contains at least one immense term in field=\"" + fieldName
+                                + "\" (whose UTF8 encoding is longer than the max length "
+                                + IndexWriter.MAX_TERM_LENGTH + ")");
+            }
+            invertState.position = Math.addExact(invertState.position, 1);
+            invertState.length = Math.addExact(invertState.length, 1);
+            termsHashPerField.add(term, docID);
+            if (doVectors) {
+                termVectorsPerField.add(term, invertState.position, invertState.startOffset, invertState.endOffset);
+            }
         }
     }
 }
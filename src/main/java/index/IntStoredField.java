@@ -0,0 +1,22 @@
+package index;
+
+/** A stored-only field holding an {@code int} value, stored as a zig-zag encoded vInt. */
+public final class IntStoredField extends PrimitiveStoredField {
+
+    public IntStoredField(String name, int value) {
+        super(name, StoredFieldConsumer.NUMERIC_INT, value);
+    }
+
+    public int intValue() {
+        return (int) bits;
+    }
+
+    public void setIntValue(int value) {
+        bits = value;
+    }
+
+    @Override
+    public Number numericValue() {
+        return intValue();
+    }
+}
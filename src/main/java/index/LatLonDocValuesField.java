@@ -0,0 +1,36 @@
+package index;
+
+import document.FieldType;
+import util.GeoEncodingUtils;
+
+/**
+ * A per-document location as numeric doc values: the value is the Morton code of the quantized
+ * latitude and longitude, see {@link GeoEncodingUtils#encodeMorton}. It is typically added next to
+ * a {@link LatLonPoint} with the same location, so that filters can check the location of a given
+ * document without walking the points index, see {@link LatLonPointFilter#matches(NumericDocValues,
+ * int)}.
+ *
+ * <p>Numeric doc values hold a single value per document, so a document can have only one location
+ * for a given field name.
+ */
+public final class LatLonDocValuesField extends Field {
+
+    private static final FieldType TYPE = new FieldType();
+
+    static {
+        TYPE.setDocValuesType(DocValuesType.NUMERIC);
+    }
+
+    /**
+     * Creates a new LatLonDocValuesField with the specified latitude and longitude
+     *
+     * @param name field name
+     * @param latitude latitude value: must be within standard +/-90 coordinate bounds.
+     * @param longitude longitude value: must be within standard +/-180 coordinate bounds.
+     * @throws IllegalArgumentException if the field name is null or latitude or longitude are out of
+     *     bounds
+     */
+    public LatLonDocValuesField(String name, double latitude, double longitude) {
+        super(name, TYPE, GeoEncodingUtils.encodeMorton(latitude, longitude));
+    }
+}
@@ -0,0 +1,85 @@
+package index;
+
+import document.FieldType;
+import util.BytesRef;
+import util.GeoEncodingUtils;
+import util.NumericUtils;
+
+import static util.GeoEncodingUtils.encodeLatitude;
+import static util.GeoEncodingUtils.encodeLongitude;
+
+/**
+ * An indexed location field for fast bounding box and distance filters. Latitude and longitude are
+ * quantized to 32 bits each with {@link GeoEncodingUtils} and indexed as a 2-dimension point, latitude
+ * first.
+ *
+ * <p>This field only indexes a point, add a {@link LatLonDocValuesField} with the same location to
+ * verify matches one document at a time, see {@link LatLonPointFilter}. Values are quantized, so a
+ * location read back is within about 1cm of the one that was indexed.
+ */
+public final class LatLonPoint extends Field {
+
+    /** LatLonPoint is encoded as integer values so number of bytes is 4 */
+    public static final int BYTES = Integer.BYTES;
+
+    private static final FieldType TYPE = new FieldType();
+
+    static {
+        TYPE.setDimensions(2, BYTES);
+    }
+
+    /**
+     * Creates a new LatLonPoint with the specified latitude and longitude
+     *
+     * @param name field name
+     * @param latitude latitude value: must be within standard +/-90 coordinate bounds.
+     * @param longitude longitude value: must be within standard +/-180 coordinate bounds.
+     * @throws IllegalArgumentException if the field name is null or latitude or longitude are out of
+     *     bounds
+     */
+    public LatLonPoint(String name, double latitude, double longitude) {
+        super(name, TYPE, pack(latitude, longitude));
+    }
+
+    /** Returns the packed point of the given location, as the binary value of a field. */
+    public static BytesRef pack(double latitude, double longitude) {
+        final byte[] packed = new byte[2 * BYTES];
+        NumericUtils.intToSortableBytes(encodeLatitude(latitude), packed, 0);
+        NumericUtils.intToSortableBytes(encodeLongitude(longitude), packed, BYTES);
+        return new BytesRef(packed);
+    }
+
+    /** Returns the quantized latitude of a packed point, in degrees. */
+    public static double decodeLatitude(byte[] packed, int offset) {
+        return GeoEncodingUtils.decodeLatitude(NumericUtils.sortableBytesToInt(packed, offset));
+    }
+
+    /** Returns the quantized longitude of a packed point, in degrees. */
+    public static double decodeLongitude(byte[] packed, int offset) {
+        return GeoEncodingUtils.decodeLongitude(NumericUtils.sortableBytesToInt(packed, offset + BYTES));
+    }
+
+    /**
+     * Creates a filter for matching a bounding box. The box may cross the dateline, in which case
+     * {@code minLongitude} is greater than {@code maxLongitude}.
+     *
+     * @throws IllegalArgumentException if latitude or longitude are out of bounds, or if {@code
+     *     minLatitude} is greater than {@code maxLatitude}
+     */
+    public static LatLonPointFilter newBoxFilter(
+            double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        return LatLonPointFilter.newBox(minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    /**
+     * Creates a filter for matching points within the specified distance of the supplied location.
+     *
+     * @param latitude latitude at the center: must be within standard +/-90 coordinate bounds.
+     * @param longitude longitude at the center: must be within standard +/-180 coordinate bounds.
+     * @param radiusMeters maximum distance from the center in meters: must be non-negative and finite.
+     * @throws IllegalArgumentException if latitude, longitude or radius are out of bounds
+     */
+    public static LatLonPointFilter newDistanceFilter(double latitude, double longitude, double radiusMeters) {
+        return LatLonPointFilter.newDistance(latitude, longitude, radiusMeters);
+    }
+}
@@ -0,0 +1,218 @@
+package index;
+
+import index.PointValues.IntersectVisitor;
+import index.PointValues.Relation;
+import util.FixedBitSet;
+import util.GeoEncodingUtils;
+import util.GeoUtils;
+import util.NumericUtils;
+
+import java.io.IOException;
+
+import static util.GeoEncodingUtils.decodeLatitude;
+import static util.GeoEncodingUtils.decodeLongitude;
+import static util.GeoEncodingUtils.encodeLatitude;
+import static util.GeoEncodingUtils.encodeLatitudeCeil;
+import static util.GeoEncodingUtils.encodeLongitude;
+import static util.GeoEncodingUtils.encodeLongitudeCeil;
+
+/**
+ * Matches documents whose location is within a bounding box or within a distance of a point,
+ * created with {@link LatLonPoint#newBoxFilter} and {@link LatLonPoint#newDistanceFilter}. Locations
+ * are compared once quantized, so a location on the edge of the shape may or may not match.
+ *
+ * <p>A segment is filtered in two ways:
+ *
+ * <ul>
+ *   <li>{@link #matches(PointValues, int)} walks the points index of a {@link LatLonPoint} field:
+ *       cells outside of the bounding box of the shape are pruned, documents of cells that are fully
+ *       inside the shape are accepted without looking at their values, and only the points of leaf
+ *       blocks that cross the edge of the shape are checked one by one.
+ *   <li>{@link #matches(NumericDocValues, int)} checks the location of a single document with the
+ *       Morton code of its {@link LatLonDocValuesField}, which is cheaper when another, more
+ *       selective, filter leads the iteration and only a few documents need checking.
+ * </ul>
+ *
+ * <p>Instances are immutable and may be shared across threads.
+ */
+public final class LatLonPointFilter {
+
+    // quantized bounding box of the shape, minLon > maxLon if it crosses the dateline
+    private final int minLat;
+    private final int maxLat;
+    private final int minLon;
+    private final int maxLon;
+    private final boolean crossesDateline;
+
+    // center and radius of a distance filter, radiusMeters is NaN for a box filter
+    private final double centerLat;
+    private final double centerLon;
+    private final double radiusMeters;
+
+    private LatLonPointFilter(int minLat, int maxLat, int minLon, int maxLon,
+                              double centerLat, double centerLon, double radiusMeters) {
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        this.crossesDateline = minLon > maxLon;
+        this.centerLat = centerLat;
+        this.centerLon = centerLon;
+        this.radiusMeters = radiusMeters;
+    }
+
+    static LatLonPointFilter newBox(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        GeoUtils.checkLatitude(minLatitude);
+        GeoUtils.checkLatitude(maxLatitude);
+        GeoUtils.checkLongitude(minLongitude);
+        GeoUtils.checkLongitude(maxLongitude);
+        if (minLatitude > maxLatitude) {
+            throw new IllegalArgumentException(
+                    "minLatitude=" + minLatitude + " must be less than or equal to maxLatitude=" + maxLatitude);
+        }
+        // round the box inwards so that quantized locations outside of it don't match
+        return new LatLonPointFilter(
+                encodeLatitudeCeil(minLatitude), encodeLatitude(maxLatitude),
+                encodeLongitudeCeil(minLongitude), encodeLongitude(maxLongitude),
+                Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    static LatLonPointFilter newDistance(double latitude, double longitude, double radiusMeters) {
+        if (Double.isFinite(radiusMeters) == false || radiusMeters < 0) {
+            throw new IllegalArgumentException("radiusMeters: '" + radiusMeters + "' is invalid");
+        }
+        // round the box outwards: it only prunes, the distance decides
+        final double[] box = GeoUtils.circleBoundingBox(latitude, longitude, radiusMeters);
+        return new LatLonPointFilter(
+                encodeLatitude(box[0]), encodeLatitudeCeil(box[1]),
+                encodeLongitude(box[2]), encodeLongitudeCeil(box[3]),
+                latitude, longitude, radiusMeters);
+    }
+
+    /** Returns true if the given quantized location matches. */
+    private boolean matches(int lat, int lon) {
+        if (lat < minLat || lat > maxLat) {
+            return false;
+        }
+        if (crossesDateline) {
+            if (lon < minLon && lon > maxLon) {
+                return false;
+            }
+        } else if (lon < minLon || lon > maxLon) {
+            return false;
+        }
+        return Double.isNaN(radiusMeters)
+                || GeoUtils.haversinMeters(centerLat, centerLon, decodeLatitude(lat), decodeLongitude(lon)) <= radiusMeters;
+    }
+
+    /** Returns how the cell of the given quantized bounds relates to the shape. */
+    private Relation relate(int cellMinLat, int cellMaxLat, int cellMinLon, int cellMaxLon) {
+        if (cellMinLat > maxLat || cellMaxLat < minLat) {
+            return Relation.CELL_OUTSIDE_QUERY;
+        }
+        final boolean lonInside;
+        if (crossesDateline) {
+            if (cellMinLon > maxLon && cellMaxLon < minLon) {
+                return Relation.CELL_OUTSIDE_QUERY;
+            }
+            lonInside = cellMinLon >= minLon || cellMaxLon <= maxLon;
+        } else {
+            if (cellMinLon > maxLon || cellMaxLon < minLon) {
+                return Relation.CELL_OUTSIDE_QUERY;
+            }
+            lonInside = cellMinLon >= minLon && cellMaxLon <= maxLon;
+        }
+
+        if (Double.isNaN(radiusMeters)) {
+            return lonInside && cellMinLat >= minLat && cellMaxLat <= maxLat
+                    ? Relation.CELL_INSIDE_QUERY : Relation.CELL_CROSSES_QUERY;
+        }
+
+        // Within 90 degrees of longitude from the center, the farthest location of a cell from the
+        // center is one of its corners, so the cell is inside the circle if its corners are.
+        final double cellMinLatDeg = decodeLatitude(cellMinLat);
+        final double cellMaxLatDeg = decodeLatitude(cellMaxLat);
+        final double cellMinLonDeg = decodeLongitude(cellMinLon);
+        final double cellMaxLonDeg = decodeLongitude(cellMaxLon);
+        if (cellMinLonDeg >= centerLon - 90 && cellMaxLonDeg <= centerLon + 90
+                && GeoUtils.haversinMeters(centerLat, centerLon, cellMinLatDeg, cellMinLonDeg) <= radiusMeters
+                && GeoUtils.haversinMeters(centerLat, centerLon, cellMinLatDeg, cellMaxLonDeg) <= radiusMeters
+                && GeoUtils.haversinMeters(centerLat, centerLon, cellMaxLatDeg, cellMinLonDeg) <= radiusMeters
+                && GeoUtils.haversinMeters(centerLat, centerLon, cellMaxLatDeg, cellMaxLonDeg) <= radiusMeters) {
+            return Relation.CELL_INSIDE_QUERY;
+        }
+        return Relation.CELL_CROSSES_QUERY;
+    }
+
+    /**
+     * Returns the documents of a segment that have a matching location, walking the points index of
+     * a {@link LatLonPoint} field.
+     *
+     * @param points the points of the field in the segment, or null if no document of the segment
+     *     has the field
+     * @param maxDoc the number of documents in the segment
+     * @throws IllegalArgumentException if the points weren't indexed by {@link LatLonPoint}
+     */
+    public FixedBitSet matches(PointValues points, int maxDoc) throws IOException {
+        final FixedBitSet result = new FixedBitSet(maxDoc);
+        if (points == null) {
+            return result;
+        }
+        if (points.getNumDimensions() != 2 || points.getBytesPerDimension() != LatLonPoint.BYTES) {
+            throw new IllegalArgumentException(
+                    "points have numDims=" + points.getNumDimensions() + " and bytesPerDim="
+                            + points.getBytesPerDimension() + " but LatLonPoint has numDims=2 and bytesPerDim="
+                            + LatLonPoint.BYTES);
+        }
+        points.intersect(new IntersectVisitor() {
+            @Override
+            public void visit(int docID) {
+                result.set(docID);
+            }
+
+            @Override
+            public void visit(int docID, byte[] packedValue) {
+                if (matches(NumericUtils.sortableBytesToInt(packedValue, 0),
+                        NumericUtils.sortableBytesToInt(packedValue, LatLonPoint.BYTES))) {
+                    result.set(docID);
+                }
+            }
+
+            @Override
+            public Relation compare(byte[] minPackedValue, byte[] maxPackedValue) {
+                return relate(
+                        NumericUtils.sortableBytesToInt(minPackedValue, 0),
+                        NumericUtils.sortableBytesToInt(maxPackedValue, 0),
+                        NumericUtils.sortableBytesToInt(minPackedValue, LatLonPoint.BYTES),
+                        NumericUtils.sortableBytesToInt(maxPackedValue, LatLonPoint.BYTES));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns true if the given document has a matching location, reading the Morton code of its
+     * {@link LatLonDocValuesField}. Documents must be checked in increasing doc ID order, see {@link
+     * NumericDocValues#advanceExact}.
+     */
+    public boolean matches(NumericDocValues values, int docID) throws IOException {
+        if (values == null || values.advanceExact(docID) == false) {
+            return false;
+        }
+        final long morton = values.longValue();
+        return matches(GeoEncodingUtils.mortonLatitude(morton), GeoEncodingUtils.mortonLongitude(morton));
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LatLonPointFilter(");
+        if (Double.isNaN(radiusMeters) == false) {
+            sb.append("center=").append(centerLat).append(',').append(centerLon)
+                    .append(" radiusMeters=").append(radiusMeters).append(' ');
+        }
+        sb.append("box=[").append(decodeLatitude(minLat)).append(" TO ").append(decodeLatitude(maxLat))
+                .append("],[").append(decodeLongitude(minLon)).append(" TO ").append(decodeLongitude(maxLon))
+                .append("])");
+        return sb.toString();
+    }
+}
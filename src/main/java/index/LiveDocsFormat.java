@@ -0,0 +1,151 @@
+package index;
+
+import store.Directory;
+import store.IndexInput;
+import store.IndexOutput;
+import store.RandomAccessInput;
+import util.Bits;
+import util.FixedBitSet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Reads and writes the live docs of a segment, in a <code>.liv</code> file.
+ *
+ * <p>The file is made of the header, the number of bits and the number of deleted documents as
+ * vInts, padding up to a multiple of {@link Long#BYTES}, the words of the {@link FixedBitSet} as
+ * little-endian longs and the footer. Since the words are aligned, the reader doesn't copy them
+ * onto the heap but reads them in place, which is a plain read of the mapped buffer when the
+ * directory memory-maps its files.
+ */
+final class LiveDocsFormat {
+
+    /** Extension of live docs file */
+    static final String EXTENSION = "liv";
+
+    private LiveDocsFormat() {}
+
+    /**
+     * Writes the live docs of the given segment.
+     *
+     * @param delCount the number of clear bits of <code>liveDocs</code>
+     */
+    static void write(Directory directory, SegmentInfo si, FixedBitSet liveDocs, int delCount)
+            throws IOException {
+        assert liveDocs.length() == si.maxDoc();
+        assert liveDocs.length() - liveDocs.cardinality() == delCount
+                : "delCount=" + delCount + " but liveDocs has " + (liveDocs.length() - liveDocs.cardinality());
+        final String name = IndexFileNames.segmentFileName(si.name, "", EXTENSION);
+        try (IndexOutput out = directory.createOutput(name)) {
+            out.writeString(HEADER);
+            out.writeVInt(liveDocs.length());
+            out.writeVInt(delCount);
+            out.alignFilePointer(Long.BYTES);
+            final long[] bits = liveDocs.getBits();
+            final int numWords = FixedBitSet.bits2words(liveDocs.length());
+            for (int i = 0; i < numWords; i++) {
+                out.writeLong(bits[i]);
+            }
+            out.writeString(FOOTER);
+        }
+    }
+
+    /**
+     * Opens the live docs of the given segment. The returned {@link LiveDocs} reads the file in place
+     * and must be closed once it isn't used anymore.
+     */
+    static LiveDocs read(Directory directory, SegmentInfo si) throws IOException {
+        final String name = IndexFileNames.segmentFileName(si.name, "", EXTENSION);
+        final IndexInput in = directory.openInput(name);
+        boolean success = false;
+        try {
+            checkString(in, HEADER);
+            final int numBits = in.readVInt();
+            if (numBits != si.maxDoc()) {
+                throw new IOException(
+                        "live docs have " + numBits + " bits but segment has maxDoc=" + si.maxDoc() + " in " + in);
+            }
+            final int delCount = in.readVInt();
+            if (delCount < 0 || delCount > numBits) {
+                throw new IOException("invalid delCount=" + delCount + " for maxDoc=" + numBits + " in " + in);
+            }
+            final long bitsOffset = IndexOutput.alignOffset(in.getFilePointer(), Long.BYTES);
+            final long bitsLength = (long) FixedBitSet.bits2words(numBits) * Long.BYTES;
+            in.seek(bitsOffset + bitsLength);
+            checkString(in, FOOTER);
+            final LiveDocs liveDocs =
+                    new LiveDocs(in, in.randomAccessSlice(bitsOffset, bitsLength), numBits, delCount);
+            success = true;
+            return liveDocs;
+        } finally {
+            if (success == false) {
+                in.close();
+            }
+        }
+    }
+
+    private static void checkString(IndexInput in, String expected) throws IOException {
+        final String actual = in.readString();
+        if (expected.equals(actual) == false) {
+            throw new IOException("expected " + expected + " but got " + actual + " in " + in);
+        }
+    }
+
+    /** Live docs of a segment read in place from its <code>.liv</code> file. */
+    static final class LiveDocs implements Bits, Closeable {
+
+        private final IndexInput in;
+        private final RandomAccessInput bits;
+        private final int numBits;
+        private final int delCount;
+
+        private LiveDocs(IndexInput in, RandomAccessInput bits, int numBits, int delCount) {
+            this.in = in;
+            this.bits = bits;
+            this.numBits = numBits;
+            this.delCount = delCount;
+        }
+
+        @Override
+        public boolean get(int index) {
+            assert index >= 0 && index < numBits : "index=" + index + ", numBits=" + numBits;
+            final long word;
+            try {
+                // index >> 6 is the word, << 3 its byte offset
+                word = bits.readLong((long) (index >> 6) << 3);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return (word & (1L << index)) != 0;
+        }
+
+        @Override
+        public int length() {
+            return numBits;
+        }
+
+        /** Returns the number of deleted documents of the segment. */
+        int delCount() {
+            return delCount;
+        }
+
+        /** Copies the live docs onto the heap, for instance to apply more deletes to them. */
+        FixedBitSet toFixedBitSet() throws IOException {
+            final long[] words = new long[FixedBitSet.bits2words(numBits)];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = bits.readLong((long) i << 3);
+            }
+            return new FixedBitSet(words, numBits);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
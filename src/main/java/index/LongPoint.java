@@ -0,0 +1,58 @@
+package index;
+
+import document.FieldType;
+import util.BytesRef;
+import util.NumericUtils;
+
+/**
+ * An indexed {@code long} field for fast range filters, of 1 up to {@link
+ * PointValues#MAX_INDEX_DIMENSIONS} dimensions. Values are encoded with {@link
+ * NumericUtils#longToSortableBytes} so that the points index compares them like longs.
+ *
+ * <p>This field only indexes a point, add a separate stored field or doc value to retrieve the
+ * value or sort on it.
+ */
+public final class LongPoint extends Field {
+
+    private static FieldType getType(int numDims) {
+        final FieldType type = new FieldType();
+        type.setDimensions(numDims, Long.BYTES);
+        return type;
+    }
+
+    /**
+     * Creates a new LongPoint, indexing the provided N-dimensional long point.
+     *
+     * @param name field name
+     * @param point long[] value
+     * @throws IllegalArgumentException if the field name or value is null.
+     */
+    public LongPoint(String name, long... point) {
+        super(name, getType(point.length), pack(point));
+    }
+
+    /** Returns the packed point of the given dimensions, as the binary value of a field. */
+    public static BytesRef pack(long... point) {
+        if (point == null) {
+            throw new IllegalArgumentException("point must not be null");
+        }
+        if (point.length == 0) {
+            throw new IllegalArgumentException("point must not be 0 dimensions");
+        }
+        final byte[] packed = new byte[point.length * Long.BYTES];
+        for (int dim = 0; dim < point.length; dim++) {
+            encodeDimension(point[dim], packed, dim * Long.BYTES);
+        }
+        return new BytesRef(packed);
+    }
+
+    /** Encode single long dimension */
+    public static void encodeDimension(long value, byte[] dest, int offset) {
+        NumericUtils.longToSortableBytes(value, dest, offset);
+    }
+
+    /** Decode single long dimension */
+    public static long decodeDimension(byte[] value, int offset) {
+        return NumericUtils.sortableBytesToLong(value, offset);
+    }
+}
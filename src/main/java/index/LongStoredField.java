@@ -0,0 +1,26 @@
+package index;
+
+/**
+ * A stored-only field holding a {@code long} value, stored as a zig-zag encoded vLong.
+ *
+ * @see TimestampField for values that are likely to be round numbers of seconds, hours or days
+ */
+public final class LongStoredField extends PrimitiveStoredField {
+
+    public LongStoredField(String name, long value) {
+        super(name, StoredFieldConsumer.NUMERIC_ZLONG, value);
+    }
+
+    public long longValue() {
+        return bits;
+    }
+
+    public void setLongValue(long value) {
+        bits = value;
+    }
+
+    @Override
+    public Number numericValue() {
+        return longValue();
+    }
+}
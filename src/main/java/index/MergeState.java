@@ -0,0 +1,45 @@
+package index;
+
+import util.Bits;
+
+/**
+ * Holds common state used during segment merging.
+ *
+ * <p>All arrays are indexed by the ordinal of the segment being merged.
+ */
+final class MergeState {
+
+    /** Stored field readers being merged */
+    final StoredFieldsReader[] storedFieldsReaders;
+
+    /** Live docs for each reader, {@code null} if a segment has no deletions */
+    final Bits[] liveDocs;
+
+    /**
+     * Maps field numbers of each reader to field numbers of the merged segment, {@code null} if a
+     * segment already uses the merged segment's numbering.
+     */
+    final int[][] fieldNumberMaps;
+
+    /** Max docs per reader */
+    final int[] maxDocs;
+
+    MergeState(StoredFieldsReader[] storedFieldsReaders, Bits[] liveDocs, int[][] fieldNumberMaps) {
+        if (liveDocs.length != storedFieldsReaders.length
+                || fieldNumberMaps.length != storedFieldsReaders.length) {
+            throw new IllegalArgumentException("all arrays must have one entry per merged segment");
+        }
+        this.storedFieldsReaders = storedFieldsReaders;
+        this.liveDocs = liveDocs;
+        this.fieldNumberMaps = fieldNumberMaps;
+        this.maxDocs = new int[storedFieldsReaders.length];
+        for (int i = 0; i < storedFieldsReaders.length; ++i) {
+            maxDocs[i] = storedFieldsReaders[i].numDocs();
+            if (liveDocs[i] != null && liveDocs[i].length() != maxDocs[i]) {
+                throw new IllegalArgumentException(
+                        "liveDocs of segment " + i + " has length " + liveDocs[i].length()
+                                + " but the segment has " + maxDocs[i] + " docs");
+            }
+        }
+    }
+}
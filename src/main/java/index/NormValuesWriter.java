@@ -0,0 +1,42 @@
+package index;
+
+import util.Accountable;
+import util.ArrayUtil;
+
+/**
+ * Buffers the norms of a field in RAM until the segment is flushed, one byte per doc that has at
+ * least one token of the field.
+ */
+final class NormValuesWriter implements Accountable {
+
+    private final DocsWithFieldSet docsWithField = new DocsWithFieldSet();
+    private byte[] values = new byte[16];
+    private int size;
+
+    /** Records the norm of the given doc, docs must come in increasing order. */
+    void addValue(int docID, byte value) {
+        docsWithField.add(docID);
+        values = ArrayUtil.grow(values, size + 1);
+        values[size++] = value;
+    }
+
+    /** Returns the docs that have a norm. */
+    DocsWithFieldSet docsWithField() {
+        return docsWithField;
+    }
+
+    /** Returns the norms of the docs that have one, in doc ID order; only the first {@link #size()} are valid. */
+    byte[] values() {
+        return values;
+    }
+
+    /** Returns the number of docs that have a norm. */
+    int size() {
+        return size;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return values.length + docsWithField.ramBytesUsed();
+    }
+}
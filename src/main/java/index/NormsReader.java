@@ -0,0 +1,205 @@
+package index;
+
+import store.Directory;
+import store.IndexInput;
+import store.RandomAccessInput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static index.NormsWriter.DATA_EXTENSION;
+import static index.NormsWriter.META_EXTENSION;
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Reads the norms written by {@link NormsWriter}. Norms are read in place from the <code>.nvd
+ * </code> file through {@link RandomAccessInput}s, so that the norm of a doc costs a single read of
+ * the mapped buffer for fields that all docs have, and a handful for the others.
+ */
+final class NormsReader implements Closeable {
+
+    private final IndexInput data;
+    private final int maxDoc;
+    private final Map<String, NormsEntry> norms = new HashMap<>();
+
+    NormsReader(Directory directory, SegmentInfo si) throws IOException {
+        try (IndexInput meta = directory.openInput(IndexFileNames.segmentFileName(si.name, "", META_EXTENSION))) {
+            checkString(meta, HEADER);
+            maxDoc = meta.readVInt();
+            final int numFields = meta.readVInt();
+            for (int i = 0; i < numFields; i++) {
+                final NormsEntry entry = new NormsEntry(meta, maxDoc);
+                if (norms.put(entry.name, entry) != null) {
+                    throw new IOException("duplicate field: " + entry.name + " in " + meta);
+                }
+            }
+            checkString(meta, FOOTER);
+        }
+        data = directory.openInput(IndexFileNames.segmentFileName(si.name, "", DATA_EXTENSION));
+        boolean success = false;
+        try {
+            checkString(data, HEADER);
+            success = true;
+        } finally {
+            if (success == false) {
+                data.close();
+            }
+        }
+    }
+
+    private static void checkString(IndexInput in, String expected) throws IOException {
+        final String actual = in.readString();
+        if (expected.equals(actual) == false) {
+            throw new IOException("expected " + expected + " but got " + actual + " in " + in);
+        }
+    }
+
+    /**
+     * Returns the norms of the given field, or null if the field omits norms, isn't indexed or has
+     * no norms in this segment. The returned instance must only be used by a single thread.
+     */
+    NumericDocValues getNorms(String field) throws IOException {
+        final NormsEntry entry = norms.get(field);
+        if (entry == null) {
+            return null;
+        }
+        final RandomAccessInput values =
+                entry.bytesPerNorm == 0 ? null : data.randomAccessSlice(entry.normsOffset, entry.numDocsWithField);
+        if (entry.docsWithFieldOffset == -1) {
+            return new DenseNorms(entry, values);
+        }
+        final IndexedDISI docsWithField = new IndexedDISI(
+                data, entry.docsWithFieldOffset, entry.docsWithFieldLength, entry.jumpTableEntryCount, entry.numDocsWithField);
+        return new SparseNorms(entry, values, docsWithField);
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+
+    /** Where the norms of a field are. */
+    private static final class NormsEntry {
+
+        final String name;
+        final int number;
+        final int numDocsWithField;
+        final long docsWithFieldOffset;
+        final long docsWithFieldLength;
+        final int jumpTableEntryCount;
+        final byte bytesPerNorm;
+        // the norm of all docs if bytesPerNorm is 0
+        final long normsOffset;
+
+        NormsEntry(IndexInput meta, int maxDoc) throws IOException {
+            name = meta.readString();
+            number = meta.readVInt();
+            numDocsWithField = meta.readVInt();
+            if (numDocsWithField <= 0 || numDocsWithField > maxDoc) {
+                throw new IOException("invalid numDocsWithField=" + numDocsWithField + " for field " + name + " in " + meta);
+            }
+            docsWithFieldOffset = meta.readLong();
+            if ((docsWithFieldOffset == -1) != (numDocsWithField == maxDoc)) {
+                throw new IOException("inconsistent docsWithFieldOffset for field " + name + " in " + meta);
+            }
+            docsWithFieldLength = meta.readLong();
+            jumpTableEntryCount = meta.readInt();
+            bytesPerNorm = meta.readByte();
+            if (bytesPerNorm != 0 && bytesPerNorm != 1) {
+                throw new IOException("invalid bytesPerNorm=" + bytesPerNorm + " for field " + name + " in " + meta);
+            }
+            normsOffset = meta.readLong();
+        }
+    }
+
+    /** Norms of a field that all docs have, the norm of doc <code>i</code> is byte <code>i</code>. */
+    private final class DenseNorms extends NumericDocValues {
+
+        private final NormsEntry entry;
+        private final RandomAccessInput values;
+        private int doc = -1;
+
+        DenseNorms(NormsEntry entry, RandomAccessInput values) {
+            this.entry = entry;
+            this.values = values;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            return doc = target >= maxDoc ? NO_MORE_DOCS : target;
+        }
+
+        @Override
+        public boolean advanceExact(int target) {
+            doc = target;
+            return true;
+        }
+
+        @Override
+        public long cost() {
+            return maxDoc;
+        }
+
+        @Override
+        public long longValue() throws IOException {
+            return values == null ? entry.normsOffset : values.readByte(doc);
+        }
+    }
+
+    /** Norms of a field that some docs don't have, the norm of a doc is at its index in the set of docs. */
+    private static final class SparseNorms extends NumericDocValues {
+
+        private final NormsEntry entry;
+        private final RandomAccessInput values;
+        private final IndexedDISI docsWithField;
+
+        SparseNorms(NormsEntry entry, RandomAccessInput values, IndexedDISI docsWithField) {
+            this.entry = entry;
+            this.values = values;
+            this.docsWithField = docsWithField;
+        }
+
+        @Override
+        public int docID() {
+            return docsWithField.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return docsWithField.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return docsWithField.advance(target);
+        }
+
+        @Override
+        public boolean advanceExact(int target) throws IOException {
+            return docsWithField.advanceExact(target);
+        }
+
+        @Override
+        public long cost() {
+            return docsWithField.cost();
+        }
+
+        @Override
+        public long longValue() throws IOException {
+            return values == null ? entry.normsOffset : values.readByte(docsWithField.index());
+        }
+    }
+}
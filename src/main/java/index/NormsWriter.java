@@ -0,0 +1,119 @@
+package index;
+
+import store.ByteBuffersDataOutput;
+import store.Directory;
+import store.IndexOutput;
+import util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Writes the norms of the indexed fields of a segment, the length of the field in each doc
+ * quantized to a single byte, see {@link util.SmallFloat#intToByte4}.
+ *
+ * <p>The norms of a field are a column of one byte per doc that has the field in the <code>.nvd
+ * </code> file, so that looking up the norm of a doc is a single read at a computed address. If all
+ * norms of the field are equal, the column is omitted and the value is stored in the meta instead.
+ * If some docs don't have the field, the column only holds the docs that have it, in doc ID order,
+ * and is preceded by the set of these docs, see {@link IndexedDISI}.
+ *
+ * <p>The <code>.nvm</code> file holds <code>maxDoc</code>, then for each field that has norms its
+ * name and number, the number of docs that have norms, the address of the set of these docs or -1
+ * if all docs have norms, its length and the number of entries of its jump table, the number of
+ * bytes per norm (0 or 1) and the address of the column, or
+ * the norm of all docs if there are 0 bytes per norm. Fields that omit norms or have no norms in
+ * any doc have no entry.
+ */
+final class NormsWriter implements Closeable {
+
+    /** Extension of norms data file */
+    static final String DATA_EXTENSION = "nvd";
+
+    /** Extension of norms meta file */
+    static final String META_EXTENSION = "nvm";
+
+    private IndexOutput data;
+    private IndexOutput meta;
+
+    private final int maxDoc;
+
+    // entries of the fields written so far, preceded by their number when the writer finishes
+    private final ByteBuffersDataOutput fieldsMeta = ByteBuffersDataOutput.newResettableInstance();
+    private int numFields;
+
+    NormsWriter(Directory directory, SegmentInfo si, int maxDoc) throws IOException {
+        this.maxDoc = maxDoc;
+        boolean success = false;
+        try {
+            data = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", DATA_EXTENSION));
+            data.writeString(HEADER);
+            meta = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", META_EXTENSION));
+            meta.writeString(HEADER);
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(this);
+            }
+        }
+    }
+
+    /** Writes the norms of the given field, which must have norms in at least one doc. */
+    void addNormsField(FieldInfo fieldInfo, NormValuesWriter norms) throws IOException {
+        final int numDocsWithField = norms.size();
+        assert numDocsWithField > 0 && numDocsWithField <= maxDoc;
+        assert fieldInfo.hasNorms();
+        final byte[] values = norms.values();
+
+        numFields++;
+        fieldsMeta.writeString(fieldInfo.name);
+        fieldsMeta.writeVInt(fieldInfo.number);
+        fieldsMeta.writeVInt(numDocsWithField);
+
+        if (norms.docsWithField().isDense(maxDoc)) {
+            fieldsMeta.writeLong(-1);
+            fieldsMeta.writeLong(0);
+            fieldsMeta.writeInt(-1);
+        } else {
+            final long offset = data.getFilePointer();
+            fieldsMeta.writeLong(offset);
+            final int jumpTableEntryCount = IndexedDISI.writeBitSet(norms.docsWithField().toFixedBitSet(maxDoc), data);
+            fieldsMeta.writeLong(data.getFilePointer() - offset);
+            fieldsMeta.writeInt(jumpTableEntryCount);
+        }
+
+        boolean allEqual = true;
+        for (int i = 1; i < numDocsWithField && allEqual; i++) {
+            allEqual = values[i] == values[0];
+        }
+        if (allEqual) {
+            fieldsMeta.writeByte((byte) 0);
+            fieldsMeta.writeLong(values[0]);
+        } else {
+            fieldsMeta.writeByte((byte) 1);
+            fieldsMeta.writeLong(data.getFilePointer());
+            data.writeBytes(values, 0, numDocsWithField);
+        }
+    }
+
+    /** Writes the meta of all fields and the footers, the writer must be closed afterwards. */
+    void finish() throws IOException {
+        meta.writeVInt(maxDoc);
+        meta.writeVInt(numFields);
+        fieldsMeta.copyTo(meta);
+        meta.writeString(FOOTER);
+        data.writeString(FOOTER);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            IOUtils.close(meta, data);
+        } finally {
+            meta = data = null;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package index;
+
+import java.io.IOException;
+
+/** A per-document numeric value. */
+public abstract class NumericDocValues extends DocValuesIterator {
+
+    /** Sole constructor. (For invocation by subclass constructors, typically implicit.) */
+    protected NumericDocValues() {}
+
+    /**
+     * Returns the numeric value for the current document ID. It is illegal to call this method after
+     * {@link #advanceExact(int)} returned {@code false}.
+     *
+     * @return numeric value
+     */
+    public abstract long longValue() throws IOException;
+}
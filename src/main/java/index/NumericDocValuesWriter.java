@@ -0,0 +1,47 @@
+package index;
+
+import util.packed.PackedLongValues;
+
+import java.io.IOException;
+
+/**
+ * Buffers the numeric doc values of a field in RAM until the segment is flushed, as packed deltas
+ * in pages of {@link PackedLongValues#PAGE_SIZE} values, one value per doc that has the field.
+ */
+final class NumericDocValuesWriter extends DocValuesWriter {
+
+    private final PackedLongValues.Builder pending = PackedLongValues.packedBuilder();
+    private final DocsWithFieldSet docsWithField = new DocsWithFieldSet();
+    private final String fieldName;
+    private int lastDocID = -1;
+
+    NumericDocValuesWriter(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * Records the value of the given doc, docs must come in increasing order.
+     *
+     * @throws IllegalArgumentException if the doc already has a value for this field
+     */
+    void addValue(int docID, long value) {
+        if (docID <= lastDocID) {
+            throw new IllegalArgumentException(
+                    "DocValuesField \"" + fieldName
+                            + "\" appears more than once in this document (only one value is allowed per field)");
+        }
+        pending.add(value);
+        docsWithField.add(docID);
+        lastDocID = docID;
+    }
+
+    @Override
+    void flush(FieldInfo fieldInfo, DocValuesConsumer consumer) throws IOException {
+        consumer.addNumericField(fieldInfo, docsWithField, pending.build());
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return pending.ramBytesUsed() + docsWithField.ramBytesUsed();
+    }
+}
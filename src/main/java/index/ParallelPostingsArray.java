@@ -0,0 +1,51 @@
+package index;
+
+import util.ArrayUtil;
+
+/**
+ * Per-term data of a {@link TermsHashPerField}, as parallel arrays indexed by term id rather than
+ * an object per term. Subclasses add the arrays they need and grow them together.
+ */
+class ParallelPostingsArray {
+
+    static final int BYTES_PER_POSTING = Integer.BYTES;
+
+    final int size;
+    final int streamCount;
+
+    /** Address in the byte pool of the first slice of the first stream of each term. */
+    final int[] byteStarts;
+
+    /**
+     * Address in the byte pool where the next byte of each stream of each term goes, the streams of
+     * a term are at <code>termID * streamCount</code>.
+     */
+    final int[] streamAddresses;
+
+    ParallelPostingsArray(final int size, final int streamCount) {
+        this.size = size;
+        this.streamCount = streamCount;
+        byteStarts = new int[size];
+        streamAddresses = new int[size * streamCount];
+    }
+
+    int bytesPerPosting() {
+        return BYTES_PER_POSTING + streamCount * Integer.BYTES;
+    }
+
+    ParallelPostingsArray newInstance(int size) {
+        return new ParallelPostingsArray(size, streamCount);
+    }
+
+    final ParallelPostingsArray grow() {
+        int newSize = ArrayUtil.oversize(size + 1, bytesPerPosting());
+        ParallelPostingsArray newArray = newInstance(newSize);
+        copyTo(newArray, size);
+        return newArray;
+    }
+
+    void copyTo(ParallelPostingsArray toArray, int numToCopy) {
+        System.arraycopy(byteStarts, 0, toArray.byteStarts, 0, numToCopy);
+        System.arraycopy(streamAddresses, 0, toArray.streamAddresses, 0, numToCopy * streamCount);
+    }
+}
@@ -0,0 +1,92 @@
+package index;
+
+import java.io.IOException;
+
+/**
+ * Access to the points of a field in a segment: each point is a value of up to {@link
+ * #MAX_DIMENSIONS} dimensions of {@link #getBytesPerDimension()} bytes each, packed into a single
+ * byte array dimension after dimension. Values of a dimension are compared as unsigned bytes, see
+ * {@link util.NumericUtils} for encodings that sort like the numbers they encode.
+ *
+ * <p>Points are searched with {@link #intersect(IntersectVisitor)}, which walks the cells of a
+ * k-d tree and lets the visitor prune the ones that don't intersect its query.
+ */
+public abstract class PointValues {
+
+    /** Maximum number of bytes for each dimension */
+    public static final int MAX_NUM_BYTES = 16;
+
+    /** Maximum number of dimensions */
+    public static final int MAX_DIMENSIONS = 16;
+
+    /** Maximum number of index dimensions */
+    public static final int MAX_INDEX_DIMENSIONS = 8;
+
+    /** Sole constructor. (For invocation by subclass constructors, typically implicit.) */
+    protected PointValues() {}
+
+    /** Used by {@link #intersect} to check how each recursive cell corresponds to the query. */
+    public enum Relation {
+        /** Return this if the cell is fully contained by the query */
+        CELL_INSIDE_QUERY,
+        /** Return this if the cell and query do not overlap */
+        CELL_OUTSIDE_QUERY,
+        /** Return this if the cell partially overlaps the query */
+        CELL_CROSSES_QUERY
+    }
+
+    /**
+     * We recurse the BKD tree, using a provided instance of this to guide the recursion.
+     */
+    public interface IntersectVisitor {
+
+        /**
+         * Called for all documents in a leaf cell that's fully contained by the query. The consumer
+         * should blindly accept the docID.
+         */
+        void visit(int docID) throws IOException;
+
+        /**
+         * Called for all documents in a leaf cell that crosses the query. The consumer should
+         * scrutinize the packedValue to decide whether to accept it. Within a leaf cell, documents are
+         * visited in increasing docID order.
+         */
+        void visit(int docID, byte[] packedValue) throws IOException;
+
+        /**
+         * Called for non-leaf cells to test how the cell relates to the query, to determine how to
+         * further recurse down the tree. The bounds only hold the index dimensions.
+         */
+        Relation compare(byte[] minPackedValue, byte[] maxPackedValue);
+
+        /** Notifies the caller that this many documents are about to be visited */
+        default void grow(int count) {}
+    }
+
+    /**
+     * Finds all documents and points matching the provided visitor. This method does not enforce live
+     * documents, so it's up to the caller to test whether each document is deleted, if necessary.
+     */
+    public abstract void intersect(IntersectVisitor visitor) throws IOException;
+
+    /** Returns minimum value for each index dimension, packed. */
+    public abstract byte[] getMinPackedValue() throws IOException;
+
+    /** Returns maximum value for each index dimension, packed. */
+    public abstract byte[] getMaxPackedValue() throws IOException;
+
+    /** Returns how many dimensions are represented in the values */
+    public abstract int getNumDimensions() throws IOException;
+
+    /** Returns how many dimensions are used for the index */
+    public abstract int getNumIndexDimensions() throws IOException;
+
+    /** Returns the number of bytes per dimension */
+    public abstract int getBytesPerDimension() throws IOException;
+
+    /** Returns the total number of indexed points across all documents. */
+    public abstract long size();
+
+    /** Returns the total number of documents that have indexed at least one point. */
+    public abstract int getDocCount();
+}
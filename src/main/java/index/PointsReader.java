@@ -0,0 +1,75 @@
+package index;
+
+import store.Directory;
+import store.IndexInput;
+import util.IOUtils;
+import util.bkd.BKDReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static index.PointsWriter.DATA_EXTENSION;
+import static index.PointsWriter.INDEX_EXTENSION;
+import static index.PointsWriter.META_EXTENSION;
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Reads the points written by {@link PointsWriter}. The inner nodes of all trees are loaded when
+ * the reader is opened, leaf blocks are read on demand from the <code>.kdd</code> file.
+ */
+final class PointsReader implements Closeable {
+
+    private final IndexInput data;
+    private final Map<String, BKDReader> readers = new HashMap<>();
+
+    PointsReader(Directory directory, SegmentInfo si) throws IOException {
+        IndexInput data = null;
+        boolean success = false;
+        try (IndexInput meta = directory.openInput(IndexFileNames.segmentFileName(si.name, "", META_EXTENSION));
+             IndexInput index = directory.openInput(IndexFileNames.segmentFileName(si.name, "", INDEX_EXTENSION))) {
+            data = directory.openInput(IndexFileNames.segmentFileName(si.name, "", DATA_EXTENSION));
+            checkString(data, HEADER);
+            checkString(index, HEADER);
+            checkString(meta, HEADER);
+            final int numFields = meta.readVInt();
+            for (int i = 0; i < numFields; i++) {
+                final String name = meta.readString();
+                meta.readVInt(); // field number
+                if (readers.put(name, new BKDReader(meta, index, data)) != null) {
+                    throw new IOException("duplicate field: " + name + " in " + meta);
+                }
+            }
+            checkString(meta, FOOTER);
+            this.data = data;
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(data);
+            }
+        }
+    }
+
+    private static void checkString(IndexInput in, String expected) throws IOException {
+        final String actual = in.readString();
+        if (expected.equals(actual) == false) {
+            throw new IOException("expected " + expected + " but got " + actual + " in " + in);
+        }
+    }
+
+    /**
+     * Returns the points of the given field, or null if the field has no points in this segment.
+     * The returned instance can be shared, each {@link PointValues#intersect} reads its own clone of
+     * the data file.
+     */
+    PointValues getValues(String field) {
+        return readers.get(field);
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+}
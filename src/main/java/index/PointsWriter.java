@@ -0,0 +1,86 @@
+package index;
+
+import store.ByteBuffersDataOutput;
+import store.Directory;
+import store.IndexOutput;
+import util.IOUtils;
+import util.bkd.BKDWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Writes the points of the fields of a segment, one block KD-tree per field, see {@link
+ * BKDWriter}.
+ *
+ * <p>The leaf blocks of all trees are in the <code>.kdd</code> file and their inner nodes in the
+ * <code>.kdi</code> file. The <code>.kdm</code> file holds the number of fields that have points,
+ * then for each of them its name and number followed by the dimensions, bounds, point and doc
+ * counts of its tree and where the tree is in the other files.
+ */
+final class PointsWriter implements Closeable {
+
+    /** Extension of points data file */
+    static final String DATA_EXTENSION = "kdd";
+
+    /** Extension of points index file */
+    static final String INDEX_EXTENSION = "kdi";
+
+    /** Extension of points meta file */
+    static final String META_EXTENSION = "kdm";
+
+    private IndexOutput data;
+    private IndexOutput index;
+    private IndexOutput meta;
+
+    // entries of the fields written so far, preceded by their number when the writer finishes
+    private final ByteBuffersDataOutput fieldsMeta = ByteBuffersDataOutput.newResettableInstance();
+    private int numFields;
+
+    PointsWriter(Directory directory, SegmentInfo si) throws IOException {
+        boolean success = false;
+        try {
+            data = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", DATA_EXTENSION));
+            data.writeString(HEADER);
+            index = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", INDEX_EXTENSION));
+            index.writeString(HEADER);
+            meta = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", META_EXTENSION));
+            meta.writeString(HEADER);
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(this);
+            }
+        }
+    }
+
+    /** Builds and writes the tree of the given field, which must have at least one point. */
+    void writeField(FieldInfo fieldInfo, BKDWriter points) throws IOException {
+        assert points.getPointCount() > 0;
+        numFields++;
+        fieldsMeta.writeString(fieldInfo.name);
+        fieldsMeta.writeVInt(fieldInfo.number);
+        points.finish(fieldsMeta, index, data);
+    }
+
+    /** Writes the meta of all fields and the footers, the writer must be closed afterwards. */
+    void finish() throws IOException {
+        meta.writeVInt(numFields);
+        fieldsMeta.copyTo(meta);
+        meta.writeString(FOOTER);
+        index.writeString(FOOTER);
+        data.writeString(FOOTER);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            IOUtils.close(meta, index, data);
+        } finally {
+            meta = index = data = null;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package index;
+
+import java.io.IOException;
+
+/**
+ * Iterates through the documents of a term, in increasing doc ID order, and optionally through the
+ * positions and offsets of the term in the current document.
+ *
+ * <p>Frequencies, positions and offsets are only meaningful if the field was indexed with them and
+ * they were requested through the flags of {@link TermsEnum#postings(PostingsEnum, int)}.
+ */
+public abstract class PostingsEnum {
+
+    /**
+     * When returned by {@link #nextDoc()} it means there are no more docs in the iterator.
+     */
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * Flag to pass to {@link TermsEnum#postings(PostingsEnum, int)} if you don't require per-document
+     * postings in the returned enum.
+     */
+    public static final short NONE = 0;
+
+    /**
+     * Flag to pass to {@link TermsEnum#postings(PostingsEnum, int)} if you require term frequencies
+     * in the returned enum.
+     */
+    public static final short FREQS = 1 << 3;
+
+    /**
+     * Flag to pass to {@link TermsEnum#postings(PostingsEnum, int)} if you require term positions in
+     * the returned enum.
+     */
+    public static final short POSITIONS = FREQS | 1 << 4;
+
+    /**
+     * Flag to pass to {@link TermsEnum#postings(PostingsEnum, int)} if you require offsets in the
+     * returned enum.
+     */
+    public static final short OFFSETS = POSITIONS | 1 << 5;
+
+    /** Flag to pass to {@link TermsEnum#postings(PostingsEnum, int)} to get everything there is. */
+    public static final short ALL = OFFSETS;
+
+    /** Returns true if the given feature is requested in the flags, false otherwise. */
+    public static boolean featureRequested(int flags, short feature) {
+        return (flags & feature) == feature;
+    }
+
+    /** Sole constructor. (For invocation by subclass constructors, typically implicit.) */
+    protected PostingsEnum() {}
+
+    /**
+     * Returns the following:
+     *
+     * <ul>
+     *   <li><code>-1</code> if {@link #nextDoc()} was not called yet.
+     *   <li>{@link #NO_MORE_DOCS} if the iterator has exhausted.
+     *   <li>Otherwise it should return the doc ID it is currently on.
+     * </ul>
+     */
+    public abstract int docID();
+
+    /**
+     * Advances to the next document in the set and returns the doc it is currently on, or {@link
+     * #NO_MORE_DOCS} if there are no more docs in the set.
+     */
+    public abstract int nextDoc() throws IOException;
+
+    /**
+     * Advances to the first beyond the current whose document number is greater than or equal to
+     * <i>target</i>, and returns the document number itself. Exhausts the iterator and returns {@link
+     * #NO_MORE_DOCS} if <i>target</i> is greater than the highest document number in the set.
+     *
+     * <p>The behavior of this method is <b>undefined</b> when called with <code> target &le; current
+     * </code>, or after the iterator has exhausted. Both cases may result in unpredicted behavior.
+     *
+     * <p>Some implementations are considerably more efficient than a loop over {@link #nextDoc()},
+     * for instance by skipping over whole blocks of documents without decoding them.
+     */
+    public abstract int advance(int target) throws IOException;
+
+    /**
+     * Slow (linear) implementation of {@link #advance} relying on {@link #nextDoc()} to advance
+     * beyond the target position.
+     */
+    protected final int slowAdvance(int target) throws IOException {
+        assert docID() < target;
+        int doc;
+        do {
+            doc = nextDoc();
+        } while (doc < target);
+        return doc;
+    }
+
+    /**
+     * Returns term frequency in the current document, or 1 if the field was indexed with {@link
+     * IndexOptions#DOCS}. Do not call this before {@link #nextDoc} is first called, nor after {@link
+     * #nextDoc} returns {@link #NO_MORE_DOCS}.
+     */
+    public abstract int freq() throws IOException;
+
+    /**
+     * Returns the next position, or -1 if positions were not indexed or not requested. Calling this
+     * more than {@link #freq()} times is undefined.
+     */
+    public abstract int nextPosition() throws IOException;
+
+    /** Returns start offset for the current position, or -1 if offsets were not indexed or requested. */
+    public abstract int startOffset() throws IOException;
+
+    /** Returns end offset for the current position, or -1 if offsets were not indexed or requested. */
+    public abstract int endOffset() throws IOException;
+}
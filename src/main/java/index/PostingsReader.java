@@ -0,0 +1,610 @@
+package index;
+
+import store.DataInput;
+import store.Directory;
+import store.IndexInput;
+import util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import static index.ForUtil.BLOCK_SIZE;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Reads the postings written by {@link PostingsWriter}. Positions and offsets are only read by the
+ * enums that are asked for them through the flags of {@link #postings}, the others never touch the
+ * <code>.pos</code> and <code>.pay</code> files.
+ */
+final class PostingsReader implements Closeable {
+
+    private final IndexInput docIn;
+    // null if no field of the segment has positions, respectively offsets
+    private final IndexInput posIn;
+    private final IndexInput payIn;
+
+    PostingsReader(Directory directory, SegmentInfo si) throws IOException {
+        IndexInput docIn = null;
+        IndexInput posIn = null;
+        IndexInput payIn = null;
+        boolean success = false;
+        try {
+            docIn = directory.openInput(IndexFileNames.segmentFileName(si.name, "", PostingsWriter.DOC_EXTENSION));
+            checkHeader(docIn);
+            final int maxIndexOptions = docIn.readByte();
+            if (maxIndexOptions < 0 || maxIndexOptions >= IndexOptions.values().length) {
+                throw new IOException("invalid index options " + maxIndexOptions + " in " + docIn);
+            }
+            if (maxIndexOptions >= IndexOptions.DOCS_AND_FREQS_AND_POSITIONS.ordinal()) {
+                posIn = directory.openInput(IndexFileNames.segmentFileName(si.name, "", PostingsWriter.POS_EXTENSION));
+                checkHeader(posIn);
+            }
+            if (maxIndexOptions >= IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS.ordinal()) {
+                payIn = directory.openInput(IndexFileNames.segmentFileName(si.name, "", PostingsWriter.PAY_EXTENSION));
+                checkHeader(payIn);
+            }
+            this.docIn = docIn;
+            this.posIn = posIn;
+            this.payIn = payIn;
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(docIn, posIn, payIn);
+            }
+        }
+    }
+
+    private static void checkHeader(IndexInput in) throws IOException {
+        final String header = in.readString();
+        if (HEADER.equals(header) == false) {
+            throw new IOException("expected " + HEADER + " but got " + header + " in " + in);
+        }
+    }
+
+    /**
+     * Reads the postings pointers written by {@link PostingsWriter#encodeTerm}, the docFreq and
+     * totalTermFreq of the state must already be decoded.
+     */
+    void decodeTerm(DataInput in, FieldInfo fieldInfo, BlockTermState state, boolean absolute)
+            throws IOException {
+        final IndexOptions indexOptions = fieldInfo.getIndexOptions();
+        final boolean hasPositions = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
+        final boolean hasOffsets = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0;
+        if (absolute) {
+            state.docStartFP = 0;
+            state.posStartFP = 0;
+            state.payStartFP = 0;
+        }
+        state.docStartFP += in.readVLong();
+        if (hasPositions) {
+            state.posStartFP += in.readVLong();
+            if (hasOffsets) {
+                state.payStartFP += in.readVLong();
+            }
+        }
+        state.singletonDocID = state.docFreq == 1 ? in.readVInt() : -1;
+        state.lastPosBlockOffset = hasPositions && state.totalTermFreq > BLOCK_SIZE ? in.readVLong() : -1;
+        state.skipOffset = state.docFreq > BLOCK_SIZE ? in.readVLong() : -1;
+    }
+
+    /**
+     * Returns the postings of the term whose state is given. Positions, and offsets if the field has
+     * them, are only decoded if requested by the flags and the field has them.
+     */
+    PostingsEnum postings(FieldInfo fieldInfo, BlockTermState state, PostingsEnum reuse, int flags)
+            throws IOException {
+        final boolean indexHasPositions =
+                fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
+        if (indexHasPositions && PostingsEnum.featureRequested(flags, PostingsEnum.POSITIONS)) {
+            final BlockPostingsEnum postingsEnum;
+            if (reuse instanceof BlockPostingsEnum && ((BlockPostingsEnum) reuse).canReuse(docIn)) {
+                postingsEnum = (BlockPostingsEnum) reuse;
+            } else {
+                postingsEnum = new BlockPostingsEnum();
+            }
+            return postingsEnum.reset(fieldInfo, state, flags);
+        }
+
+        final BlockDocsEnum docsEnum;
+        if (reuse instanceof BlockDocsEnum && ((BlockDocsEnum) reuse).canReuse(docIn)) {
+            docsEnum = (BlockDocsEnum) reuse;
+        } else {
+            docsEnum = new BlockDocsEnum();
+        }
+        return docsEnum.reset(fieldInfo, state);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(docIn, posIn, payIn);
+    }
+
+    /**
+     * Iterates over the docs of a term a block at a time. Doc deltas are decoded a whole block at
+     * once, frequencies only once {@link #freq()} is called on a doc of the block, and {@link
+     * #advance} uses the skip list to jump over blocks that can't contain the target.
+     */
+    private final class BlockDocsEnum extends PostingsEnum {
+
+        private final IndexInput startDocIn = PostingsReader.this.docIn;
+        private final IndexInput docIn;
+
+        private final int[] docBuffer = new int[BLOCK_SIZE];
+        private final int[] freqBuffer = new int[BLOCK_SIZE];
+        private final long[] encoded = new long[ForUtil.MAX_ENCODED_LONGS];
+
+        // created the first time a term needs it
+        private SkipReader skipper;
+        private boolean skipped;
+
+        private boolean readFreqs;
+        private boolean indexHasPositions;
+        private boolean indexHasOffsets;
+        private int docFreq;
+        private long totalTermFreq;
+        private long docTermStartFP;
+        private long posTermStartFP;
+        private long payTermStartFP;
+        private long skipOffset;
+        private int singletonDocID;
+
+        // docs read so far, including the current one
+        private int docUpto;
+        private int docBufferUpto;
+        // last doc of the previous block, which the deltas of the current block are relative to
+        private int accum;
+        // the doc to compare the target of advance to before using the skip list
+        private int nextSkipDoc;
+        // file pointer of the packed frequencies of the current block, -1 if they were decoded
+        private long freqFP;
+        private int doc;
+
+        BlockDocsEnum() {
+            docIn = startDocIn.clone();
+        }
+
+        boolean canReuse(IndexInput docIn) {
+            return docIn == startDocIn;
+        }
+
+        PostingsEnum reset(FieldInfo fieldInfo, BlockTermState state) throws IOException {
+            final IndexOptions indexOptions = fieldInfo.getIndexOptions();
+            readFreqs = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS) >= 0;
+            indexHasPositions = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
+            indexHasOffsets = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0;
+            docFreq = state.docFreq;
+            totalTermFreq = state.totalTermFreq;
+            docTermStartFP = state.docStartFP;
+            posTermStartFP = state.posStartFP;
+            payTermStartFP = state.payStartFP;
+            skipOffset = state.skipOffset;
+            singletonDocID = state.singletonDocID;
+            if (docFreq > 1) {
+                docIn.seek(docTermStartFP);
+            }
+            doc = -1;
+            docUpto = 0;
+            accum = 0;
+            docBufferUpto = BLOCK_SIZE;
+            freqFP = -1;
+            // the last doc of the first block is at least BLOCK_SIZE - 1
+            nextSkipDoc = BLOCK_SIZE - 1;
+            skipped = false;
+            return this;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            if (readFreqs == false) {
+                return 1;
+            }
+            if (freqFP != -1) {
+                final long fp = docIn.getFilePointer();
+                docIn.seek(freqFP);
+                ForUtil.readBlock(docIn, encoded, freqBuffer);
+                docIn.seek(fp);
+                freqFP = -1;
+            }
+            return freqBuffer[docBufferUpto - 1];
+        }
+
+        private void refillDocs() throws IOException {
+            final int left = docFreq - docUpto;
+            assert left > 0;
+            if (left >= BLOCK_SIZE) {
+                ForUtil.readBlock(docIn, encoded, docBuffer);
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    accum += docBuffer[i];
+                    docBuffer[i] = accum;
+                }
+                if (readFreqs) {
+                    // decoded on demand
+                    freqFP = docIn.getFilePointer();
+                    ForUtil.skipBlock(docIn);
+                }
+            } else if (docFreq == 1) {
+                docBuffer[0] = singletonDocID;
+                freqBuffer[0] = (int) totalTermFreq;
+            } else {
+                // vInt encoded tail
+                for (int i = 0; i < left; i++) {
+                    if (readFreqs) {
+                        final int code = docIn.readVInt();
+                        accum += code >>> 1;
+                        freqBuffer[i] = (code & 1) != 0 ? 1 : docIn.readVInt();
+                    } else {
+                        accum += docIn.readVInt();
+                    }
+                    docBuffer[i] = accum;
+                }
+                freqFP = -1;
+            }
+            docBufferUpto = 0;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            if (docUpto == docFreq) {
+                return doc = NO_MORE_DOCS;
+            }
+            if (docBufferUpto == BLOCK_SIZE) {
+                refillDocs();
+            }
+            doc = docBuffer[docBufferUpto++];
+            docUpto++;
+            return doc;
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            if (docFreq > BLOCK_SIZE && target > nextSkipDoc) {
+                if (skipper == null || skipper.hasPos != indexHasPositions || skipper.hasOffsets != indexHasOffsets) {
+                    // the skip entries of fields with positions are bigger even if they are not read
+                    skipper = new SkipReader(docIn.clone(), indexHasPositions, indexHasOffsets);
+                }
+                if (skipped == false) {
+                    skipper.init(docTermStartFP + skipOffset, docTermStartFP, posTermStartFP, payTermStartFP);
+                    skipped = true;
+                }
+
+                // the docs of the blocks passed by the skip list are all before the target
+                final int newDocUpto = skipper.skipTo(target);
+                if (newDocUpto > docUpto) {
+                    assert newDocUpto % BLOCK_SIZE == 0 : "got " + newDocUpto;
+                    docUpto = newDocUpto;
+                    accum = skipper.getDoc();
+                    docIn.seek(skipper.getDocPointer());
+                    docBufferUpto = BLOCK_SIZE;
+                    freqFP = -1;
+                }
+                nextSkipDoc = skipper.getNextSkipDoc();
+            }
+
+            while (true) {
+                if (docUpto == docFreq) {
+                    return doc = NO_MORE_DOCS;
+                }
+                if (docBufferUpto == BLOCK_SIZE) {
+                    refillDocs();
+                }
+                final int next = docBuffer[docBufferUpto++];
+                docUpto++;
+                if (next >= target) {
+                    return doc = next;
+                }
+            }
+        }
+
+        @Override
+        public int nextPosition() {
+            return -1;
+        }
+
+        @Override
+        public int startOffset() {
+            return -1;
+        }
+
+        @Override
+        public int endOffset() {
+            return -1;
+        }
+    }
+
+    /**
+     * Iterates over the docs of a term and their positions, and offsets if requested. Frequencies are
+     * decoded along with the docs since they tell how many positions each doc has. Positions are
+     * read lazily: moving to a doc only counts the positions of the docs passed, the positions
+     * stream catches up the first time {@link #nextPosition} is called on a doc, skipping whole
+     * blocks without decoding them.
+     */
+    private final class BlockPostingsEnum extends PostingsEnum {
+
+        private final IndexInput startDocIn = PostingsReader.this.docIn;
+        private final IndexInput docIn;
+        private final IndexInput posIn;
+        private final IndexInput payIn;
+
+        private final int[] docBuffer = new int[BLOCK_SIZE];
+        private final int[] freqBuffer = new int[BLOCK_SIZE];
+        private final int[] posDeltaBuffer = new int[BLOCK_SIZE];
+        private final int[] offsetStartDeltaBuffer;
+        private final int[] offsetLengthBuffer;
+        private final long[] encoded = new long[ForUtil.MAX_ENCODED_LONGS];
+
+        // created the first time a term needs it
+        private SkipReader skipper;
+        private boolean skipped;
+
+        private boolean indexHasOffsets;
+        private boolean needsOffsets;
+        private int docFreq;
+        private long totalTermFreq;
+        private long docTermStartFP;
+        private long posTermStartFP;
+        private long payTermStartFP;
+        private long skipOffset;
+        private int singletonDocID;
+        // file pointer of the vInt encoded positions, -1 if the positions of the term are all packed
+        private long lastPosBlockFP;
+
+        private int docUpto;
+        private int docBufferUpto;
+        private int accum;
+        private int nextSkipDoc;
+        private int doc;
+        private int freq;
+
+        private int posBufferUpto;
+        // positions of the docs passed that haven't been read yet, plus the positions of the current doc
+        private int posPendingCount;
+        // where the positions and offsets streams must seek to before they are read next, -1 if they
+        // are already in place
+        private long posPendingFP;
+        private long payPendingFP;
+        private int position;
+        private int startOffset;
+        private int endOffset;
+        private int lastStartOffset;
+
+        BlockPostingsEnum() {
+            docIn = startDocIn.clone();
+            posIn = PostingsReader.this.posIn.clone();
+            if (PostingsReader.this.payIn != null) {
+                payIn = PostingsReader.this.payIn.clone();
+                offsetStartDeltaBuffer = new int[BLOCK_SIZE];
+                offsetLengthBuffer = new int[BLOCK_SIZE];
+            } else {
+                payIn = null;
+                offsetStartDeltaBuffer = null;
+                offsetLengthBuffer = null;
+            }
+        }
+
+        boolean canReuse(IndexInput docIn) {
+            return docIn == startDocIn;
+        }
+
+        PostingsEnum reset(FieldInfo fieldInfo, BlockTermState state, int flags) throws IOException {
+            indexHasOffsets =
+                    fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0;
+            needsOffsets = indexHasOffsets && PostingsEnum.featureRequested(flags, PostingsEnum.OFFSETS);
+            docFreq = state.docFreq;
+            totalTermFreq = state.totalTermFreq;
+            docTermStartFP = state.docStartFP;
+            posTermStartFP = state.posStartFP;
+            payTermStartFP = state.payStartFP;
+            skipOffset = state.skipOffset;
+            singletonDocID = state.singletonDocID;
+            if (docFreq > 1) {
+                docIn.seek(docTermStartFP);
+            }
+            posPendingFP = posTermStartFP;
+            payPendingFP = needsOffsets ? payTermStartFP : -1;
+            posPendingCount = 0;
+            if (totalTermFreq < BLOCK_SIZE) {
+                lastPosBlockFP = posTermStartFP;
+            } else if (totalTermFreq == BLOCK_SIZE) {
+                lastPosBlockFP = -1;
+            } else {
+                lastPosBlockFP = posTermStartFP + state.lastPosBlockOffset;
+            }
+
+            doc = -1;
+            freq = 0;
+            docUpto = 0;
+            accum = 0;
+            docBufferUpto = BLOCK_SIZE;
+            nextSkipDoc = BLOCK_SIZE - 1;
+            skipped = false;
+            return this;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int freq() {
+            return freq;
+        }
+
+        private void refillDocs() throws IOException {
+            final int left = docFreq - docUpto;
+            assert left > 0;
+            if (left >= BLOCK_SIZE) {
+                ForUtil.readBlock(docIn, encoded, docBuffer);
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    accum += docBuffer[i];
+                    docBuffer[i] = accum;
+                }
+                ForUtil.readBlock(docIn, encoded, freqBuffer);
+            } else if (docFreq == 1) {
+                docBuffer[0] = singletonDocID;
+                freqBuffer[0] = (int) totalTermFreq;
+            } else {
+                // vInt encoded tail
+                for (int i = 0; i < left; i++) {
+                    final int code = docIn.readVInt();
+                    accum += code >>> 1;
+                    freqBuffer[i] = (code & 1) != 0 ? 1 : docIn.readVInt();
+                    docBuffer[i] = accum;
+                }
+            }
+            docBufferUpto = 0;
+        }
+
+        private void refillPositions() throws IOException {
+            if (posIn.getFilePointer() == lastPosBlockFP) {
+                // vInt encoded tail, offsets are inlined
+                final int count = (int) (totalTermFreq % BLOCK_SIZE);
+                for (int i = 0; i < count; i++) {
+                    posDeltaBuffer[i] = posIn.readVInt();
+                    if (indexHasOffsets) {
+                        offsetStartDeltaBuffer[i] = posIn.readVInt();
+                        offsetLengthBuffer[i] = posIn.readVInt();
+                    }
+                }
+            } else {
+                ForUtil.readBlock(posIn, encoded, posDeltaBuffer);
+                if (needsOffsets) {
+                    ForUtil.readBlock(payIn, encoded, offsetStartDeltaBuffer);
+                    ForUtil.readBlock(payIn, encoded, offsetLengthBuffer);
+                }
+            }
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            if (docUpto == docFreq) {
+                return doc = NO_MORE_DOCS;
+            }
+            if (docBufferUpto == BLOCK_SIZE) {
+                refillDocs();
+            }
+            doc = docBuffer[docBufferUpto];
+            freq = freqBuffer[docBufferUpto];
+            docBufferUpto++;
+            docUpto++;
+            posPendingCount += freq;
+            position = 0;
+            lastStartOffset = 0;
+            return doc;
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            if (docFreq > BLOCK_SIZE && target > nextSkipDoc) {
+                if (skipper == null || skipper.hasOffsets != indexHasOffsets) {
+                    skipper = new SkipReader(docIn.clone(), true, indexHasOffsets);
+                }
+                if (skipped == false) {
+                    skipper.init(docTermStartFP + skipOffset, docTermStartFP, posTermStartFP, payTermStartFP);
+                    skipped = true;
+                }
+
+                final int newDocUpto = skipper.skipTo(target);
+                if (newDocUpto > docUpto) {
+                    assert newDocUpto % BLOCK_SIZE == 0 : "got " + newDocUpto;
+                    docUpto = newDocUpto;
+                    accum = skipper.getDoc();
+                    docIn.seek(skipper.getDocPointer());
+                    docBufferUpto = BLOCK_SIZE;
+                    // the positions of the skipped docs are at the start of this block of positions
+                    posPendingFP = skipper.getPosPointer();
+                    payPendingFP = needsOffsets ? skipper.getPayPointer() : -1;
+                    posPendingCount = skipper.getPosBufferUpto();
+                }
+                nextSkipDoc = skipper.getNextSkipDoc();
+            }
+
+            while (true) {
+                if (docUpto == docFreq) {
+                    return doc = NO_MORE_DOCS;
+                }
+                if (docBufferUpto == BLOCK_SIZE) {
+                    refillDocs();
+                }
+                freq = freqBuffer[docBufferUpto];
+                posPendingCount += freq;
+                final int next = docBuffer[docBufferUpto++];
+                docUpto++;
+                if (next >= target) {
+                    position = 0;
+                    lastStartOffset = 0;
+                    return doc = next;
+                }
+            }
+        }
+
+        /** Skips the positions of the docs before the current one. */
+        private void skipPositions() throws IOException {
+            int toSkip = posPendingCount - freq;
+            final int leftInBlock = BLOCK_SIZE - posBufferUpto;
+            if (toSkip < leftInBlock) {
+                posBufferUpto += toSkip;
+            } else {
+                toSkip -= leftInBlock;
+                while (toSkip >= BLOCK_SIZE) {
+                    assert posIn.getFilePointer() != lastPosBlockFP;
+                    ForUtil.skipBlock(posIn);
+                    if (needsOffsets) {
+                        ForUtil.skipBlock(payIn);
+                        ForUtil.skipBlock(payIn);
+                    }
+                    toSkip -= BLOCK_SIZE;
+                }
+                refillPositions();
+                posBufferUpto = toSkip;
+            }
+        }
+
+        @Override
+        public int nextPosition() throws IOException {
+            assert posPendingCount > 0;
+            if (posPendingFP != -1) {
+                posIn.seek(posPendingFP);
+                posPendingFP = -1;
+                if (payPendingFP != -1) {
+                    payIn.seek(payPendingFP);
+                    payPendingFP = -1;
+                }
+                // force a refill
+                posBufferUpto = BLOCK_SIZE;
+            }
+            if (posPendingCount > freq) {
+                skipPositions();
+                posPendingCount = freq;
+            }
+            if (posBufferUpto == BLOCK_SIZE) {
+                refillPositions();
+                posBufferUpto = 0;
+            }
+            position += posDeltaBuffer[posBufferUpto];
+            if (needsOffsets) {
+                startOffset = lastStartOffset + offsetStartDeltaBuffer[posBufferUpto];
+                endOffset = startOffset + offsetLengthBuffer[posBufferUpto];
+                lastStartOffset = startOffset;
+            }
+            posBufferUpto++;
+            posPendingCount--;
+            return position;
+        }
+
+        @Override
+        public int startOffset() {
+            return needsOffsets ? startOffset : -1;
+        }
+
+        @Override
+        public int endOffset() {
+            return needsOffsets ? endOffset : -1;
+        }
+    }
+}
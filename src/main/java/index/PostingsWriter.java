@@ -0,0 +1,327 @@
+package index;
+
+import store.DataOutput;
+import store.Directory;
+import store.IndexOutput;
+import util.FixedBitSet;
+import util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import static index.ForUtil.BLOCK_SIZE;
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Writes the postings of the terms of a segment to the <code>.doc</code>, <code>.pos</code> and
+ * <code>.pay</code> files, while {@link BlockTermsWriter} writes the terms themselves.
+ *
+ * <p>The docs of a term are written as deltas to the previous doc, in blocks of {@link
+ * ForUtil#BLOCK_SIZE} docs: a packed block of doc deltas followed, if the field has frequencies,
+ * by a packed block of frequencies, see {@link ForUtil}. The remaining docs are written as vInts:
+ * the delta shifted left by one with the low bit set if the frequency is 1, the frequency follows
+ * as a vInt otherwise. Fields indexed with {@link IndexOptions#DOCS} only write the deltas. Terms
+ * that have more than one block also have a skip list, see {@link SkipWriter}, right after their
+ * postings. The doc of a term that has a single doc is stored in the terms dictionary instead.
+ *
+ * <p>Positions go to their own file so that queries that only need docs and frequencies never read
+ * them. The positions of a term, across all of its docs, are written as deltas to the previous
+ * position of the same doc in packed blocks of {@link ForUtil#BLOCK_SIZE} positions. If the field
+ * has offsets, the start offset deltas to the previous start offset of the same doc and the offset
+ * lengths are written in matching packed blocks to the <code>.pay</code> file. The remaining
+ * positions are written as vInts to the <code>.pos</code> file, each one followed by its start
+ * offset delta and length if the field has offsets. The files are only created if a field of the
+ * segment has positions, respectively offsets, and fields without them write nothing there.
+ *
+ * <p>The terms dictionary stores the file pointers returned here through {@link #encodeTerm}, delta
+ * encoded against the previous term of the same block.
+ */
+final class PostingsWriter implements Closeable {
+
+    /** Extension of the file holding the doc IDs and frequencies of all terms. */
+    static final String DOC_EXTENSION = "doc";
+
+    /** Extension of the file holding the positions of all terms. */
+    static final String POS_EXTENSION = "pos";
+
+    /** Extension of the file holding the offsets of all terms. */
+    static final String PAY_EXTENSION = "pay";
+
+    private IndexOutput docOut;
+    private IndexOutput posOut;
+    private IndexOutput payOut;
+
+    // docs that have at least one term of the current field
+    private final FixedBitSet docsSeen;
+
+    private IndexOptions indexOptions;
+    private boolean writeFreqs;
+    private boolean writePositions;
+    private boolean writeOffsets;
+    // the postings to request from the terms enum for the current field
+    private int enumFlags;
+    private PostingsEnum postingsEnum;
+
+    private final int[] docDeltaBuffer = new int[BLOCK_SIZE];
+    private final int[] freqBuffer = new int[BLOCK_SIZE];
+    private final long[] encoded = new long[ForUtil.MAX_ENCODED_LONGS];
+    private int docBufferUpto;
+
+    private final int[] posDeltaBuffer;
+    private final int[] offsetStartDeltaBuffer;
+    private final int[] offsetLengthBuffer;
+    private int posBufferUpto;
+
+    private final SkipWriter skipWriter = new SkipWriter();
+
+    /**
+     * Creates the files of the postings of the given fields, the positions and offsets files only if
+     * one of the fields has them.
+     */
+    PostingsWriter(Directory directory, SegmentInfo si, int maxDoc, List<FieldInfo> fieldInfos)
+            throws IOException {
+        docsSeen = new FixedBitSet(maxDoc);
+        IndexOptions maxIndexOptions = IndexOptions.NONE;
+        for (FieldInfo fieldInfo : fieldInfos) {
+            if (fieldInfo.getIndexOptions().compareTo(maxIndexOptions) > 0) {
+                maxIndexOptions = fieldInfo.getIndexOptions();
+            }
+        }
+        boolean success = false;
+        try {
+            docOut = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", DOC_EXTENSION));
+            docOut.writeString(HEADER);
+            // tells the reader which of the other files exist
+            docOut.writeByte((byte) maxIndexOptions.ordinal());
+            if (maxIndexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0) {
+                posOut = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", POS_EXTENSION));
+                posOut.writeString(HEADER);
+                posDeltaBuffer = new int[BLOCK_SIZE];
+            } else {
+                posDeltaBuffer = null;
+            }
+            if (maxIndexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0) {
+                payOut = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", PAY_EXTENSION));
+                payOut.writeString(HEADER);
+                offsetStartDeltaBuffer = new int[BLOCK_SIZE];
+                offsetLengthBuffer = new int[BLOCK_SIZE];
+            } else {
+                offsetStartDeltaBuffer = null;
+                offsetLengthBuffer = null;
+            }
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(this);
+            }
+        }
+    }
+
+    /** Starts a new field, all following terms belong to it. */
+    void startField(FieldInfo fieldInfo) {
+        indexOptions = fieldInfo.getIndexOptions();
+        assert indexOptions != IndexOptions.NONE;
+        writeFreqs = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS) >= 0;
+        writePositions = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0;
+        writeOffsets = indexOptions.compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0;
+        assert writePositions == false || posOut != null;
+        assert writeOffsets == false || payOut != null;
+        if (writeOffsets) {
+            enumFlags = PostingsEnum.OFFSETS;
+        } else if (writePositions) {
+            enumFlags = PostingsEnum.POSITIONS;
+        } else if (writeFreqs) {
+            enumFlags = PostingsEnum.FREQS;
+        } else {
+            enumFlags = PostingsEnum.NONE;
+        }
+        skipWriter.setField(writePositions, writeOffsets);
+        docsSeen.clear(0, docsSeen.length());
+    }
+
+    /** Returns the number of documents that have at least one term of the current field. */
+    int docCount() {
+        return docsSeen.cardinality();
+    }
+
+    /**
+     * Writes all documents of the current term of the given enum, along with the positions and
+     * offsets the field records, and fills <code>state</code> with the statistics of the term and
+     * the pointers to its postings.
+     */
+    void writeTerm(TermsEnum termsEnum, BlockTermState state) throws IOException {
+        final PostingsEnum postings = postingsEnum = termsEnum.postings(postingsEnum, enumFlags);
+        final long docStartFP = docOut.getFilePointer();
+        final long posStartFP = writePositions ? posOut.getFilePointer() : 0;
+        final long payStartFP = writeOffsets ? payOut.getFilePointer() : 0;
+        skipWriter.resetSkip(docStartFP, posStartFP, payStartFP);
+        docBufferUpto = 0;
+        posBufferUpto = 0;
+        int docFreq = 0;
+        long totalTermFreq = 0;
+        int lastDocID = 0;
+        for (int docID = postings.nextDoc(); docID != PostingsEnum.NO_MORE_DOCS; docID = postings.nextDoc()) {
+            final int delta = docID - lastDocID;
+            assert docFreq == 0 || delta > 0 : "docs out of order: " + docID + " after " + lastDocID;
+            final int freq = writeFreqs ? postings.freq() : 1;
+            docDeltaBuffer[docBufferUpto] = delta;
+            freqBuffer[docBufferUpto] = freq;
+            docBufferUpto++;
+            if (writePositions) {
+                addPositions(postings, freq);
+            }
+            if (docBufferUpto == BLOCK_SIZE) {
+                ForUtil.writeBlock(docDeltaBuffer, encoded, docOut);
+                if (writeFreqs) {
+                    ForUtil.writeBlock(freqBuffer, encoded, docOut);
+                }
+                docBufferUpto = 0;
+                skipWriter.bufferSkip(
+                        docID,
+                        docOut.getFilePointer(),
+                        writePositions ? posOut.getFilePointer() : 0,
+                        posBufferUpto,
+                        writeOffsets ? payOut.getFilePointer() : 0);
+            }
+            totalTermFreq += freq;
+            docsSeen.set(docID);
+            lastDocID = docID;
+            docFreq++;
+        }
+
+        state.docStartFP = docStartFP;
+        state.posStartFP = posStartFP;
+        state.payStartFP = payStartFP;
+        state.docFreq = docFreq;
+        state.totalTermFreq = totalTermFreq;
+        if (docFreq == 1) {
+            // pulse the doc into the terms dictionary, nothing goes to the doc file
+            state.singletonDocID = docDeltaBuffer[0];
+        } else {
+            state.singletonDocID = -1;
+            for (int i = 0; i < docBufferUpto; i++) {
+                final int docDelta = docDeltaBuffer[i];
+                if (writeFreqs == false) {
+                    docOut.writeVInt(docDelta);
+                } else if (freqBuffer[i] == 1) {
+                    docOut.writeVInt((docDelta << 1) | 1);
+                } else {
+                    docOut.writeVInt(docDelta << 1);
+                    docOut.writeVInt(freqBuffer[i]);
+                }
+            }
+        }
+        if (writePositions) {
+            // the reader finds the vInt tail through its offset, terms that have a single block of
+            // positions or less start with it
+            state.lastPosBlockOffset = totalTermFreq > BLOCK_SIZE ? posOut.getFilePointer() - posStartFP : -1;
+            for (int i = 0; i < posBufferUpto; i++) {
+                posOut.writeVInt(posDeltaBuffer[i]);
+                if (writeOffsets) {
+                    posOut.writeVInt(offsetStartDeltaBuffer[i]);
+                    posOut.writeVInt(offsetLengthBuffer[i]);
+                }
+            }
+        } else {
+            state.lastPosBlockOffset = -1;
+        }
+        if (docFreq > BLOCK_SIZE) {
+            state.skipOffset = docOut.getFilePointer() - docStartFP;
+            skipWriter.writeSkip(docOut);
+        } else {
+            state.skipOffset = -1;
+        }
+    }
+
+    /** Buffers the positions of the current doc, writing blocks as they fill up. */
+    private void addPositions(PostingsEnum postings, int freq) throws IOException {
+        int lastPosition = 0;
+        int lastStartOffset = 0;
+        for (int i = 0; i < freq; i++) {
+            final int position = postings.nextPosition();
+            assert position >= lastPosition : "positions out of order: " + position + " after " + lastPosition;
+            posDeltaBuffer[posBufferUpto] = position - lastPosition;
+            lastPosition = position;
+            if (writeOffsets) {
+                final int startOffset = postings.startOffset();
+                final int endOffset = postings.endOffset();
+                assert startOffset >= lastStartOffset && endOffset >= startOffset
+                        : "invalid offsets " + startOffset + "-" + endOffset + " after " + lastStartOffset;
+                offsetStartDeltaBuffer[posBufferUpto] = startOffset - lastStartOffset;
+                offsetLengthBuffer[posBufferUpto] = endOffset - startOffset;
+                lastStartOffset = startOffset;
+            }
+            posBufferUpto++;
+            if (posBufferUpto == BLOCK_SIZE) {
+                ForUtil.writeBlock(posDeltaBuffer, encoded, posOut);
+                if (writeOffsets) {
+                    ForUtil.writeBlock(offsetStartDeltaBuffer, encoded, payOut);
+                    ForUtil.writeBlock(offsetLengthBuffer, encoded, payOut);
+                }
+                posBufferUpto = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes the postings pointers of a term into the terms dictionary, as a delta to the previous
+     * term of the block unless <code>absolute</code> is set, followed by the doc of single-doc terms,
+     * the offset of the vInt encoded positions of terms that have more than a block of positions and
+     * the offset of the skip list of terms that have one. Pointers into the positions and offsets
+     * files are only written for fields that have them.
+     */
+    void encodeTerm(DataOutput out, BlockTermState state, BlockTermState lastState, boolean absolute)
+            throws IOException {
+        if (absolute) {
+            out.writeVLong(state.docStartFP);
+            if (writePositions) {
+                out.writeVLong(state.posStartFP);
+                if (writeOffsets) {
+                    out.writeVLong(state.payStartFP);
+                }
+            }
+        } else {
+            out.writeVLong(state.docStartFP - lastState.docStartFP);
+            if (writePositions) {
+                out.writeVLong(state.posStartFP - lastState.posStartFP);
+                if (writeOffsets) {
+                    out.writeVLong(state.payStartFP - lastState.payStartFP);
+                }
+            }
+        }
+        if (state.singletonDocID != -1) {
+            assert state.docFreq == 1;
+            out.writeVInt(state.singletonDocID);
+        }
+        if (state.lastPosBlockOffset != -1) {
+            assert writePositions && state.totalTermFreq > BLOCK_SIZE;
+            out.writeVLong(state.lastPosBlockOffset);
+        }
+        if (state.skipOffset != -1) {
+            assert state.docFreq > BLOCK_SIZE;
+            out.writeVLong(state.skipOffset);
+        }
+    }
+
+    /** Writes the footers of the postings, the writer must be closed afterwards. */
+    void finish() throws IOException {
+        docOut.writeString(FOOTER);
+        if (posOut != null) {
+            posOut.writeString(FOOTER);
+        }
+        if (payOut != null) {
+            payOut.writeString(FOOTER);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            IOUtils.close(docOut, posOut, payOut);
+        } finally {
+            docOut = posOut = payOut = null;
+        }
+    }
+}
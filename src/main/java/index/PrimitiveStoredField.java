@@ -0,0 +1,30 @@
+package index;
+
+/**
+ * Base class for stored fields that hold a single primitive value.
+ *
+ * <p>Unlike {@link StoredField}, the value is never boxed: it is kept as raw bits next to the type
+ * code it is stored with, so that {@link StoredFieldConsumer} can pick the encoding with a single
+ * switch. Instances may be reused across documents by updating their value.
+ */
+public abstract class PrimitiveStoredField extends Field {
+
+    /** Type code the value is stored with, see {@link StoredFieldConsumer}. */
+    final int storedType;
+
+    /**
+     * The value, as returned by {@link Float#floatToRawIntBits} for floats and {@link
+     * Double#doubleToRawLongBits} for doubles.
+     */
+    long bits;
+
+    PrimitiveStoredField(String name, int storedType, long bits) {
+        super(name, StoredField.TYPE);
+        this.storedType = storedType;
+        this.bits = bits;
+    }
+
+    /** Boxes the value, only use it when a {@link Number} is really needed. */
+    @Override
+    public abstract Number numericValue();
+}
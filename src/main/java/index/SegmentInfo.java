@@ -4,7 +4,25 @@ public class SegmentInfo {
 
     public final String name;
 
+    private int maxDoc = -1; // number of docs in seg
+
     public SegmentInfo(String name) {
         this.name = name;
     }
+
+    /** Returns number of documents in this segment (deletions are not taken into account). */
+    public int maxDoc() {
+        if (this.maxDoc == -1) {
+            throw new IllegalStateException("maxDoc isn't set yet");
+        }
+        return maxDoc;
+    }
+
+    // NOTE: leave package private
+    void setMaxDoc(int maxDoc) {
+        if (this.maxDoc != -1) {
+            throw new IllegalStateException("maxDoc was already set: this.maxDoc=" + this.maxDoc + " vs maxDoc=" + maxDoc);
+        }
+        this.maxDoc = maxDoc;
+    }
 }
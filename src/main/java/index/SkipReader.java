@@ -0,0 +1,202 @@
+package index;
+
+import store.IndexInput;
+
+import java.io.IOException;
+
+import static index.ForUtil.BLOCK_SIZE;
+import static index.SkipWriter.MAX_SKIP_LEVELS;
+import static index.SkipWriter.SKIP_MULTIPLIER;
+
+/**
+ * Reads the skip list written by {@link SkipWriter}. {@link #skipTo} starts from the highest level
+ * whose next entry is before the target, moves forward on that level as long as entries are before
+ * the target, then continues on the level below from the last entry it passed, down to level 0.
+ * Each level is read lazily through its own clone of the input.
+ *
+ * <p>Besides the doc and file pointer of the next block of docs, the reader tells where to resume
+ * reading positions and offsets for fields that have them: the file pointers of the blocks that
+ * hold the positions and offsets of the first doc of the next block, and how many positions of that
+ * block belong to the docs that were skipped.
+ */
+final class SkipReader {
+
+    // number of docs an entry of each level covers
+    private static final long[] DOCS_PER_ENTRY = new long[MAX_SKIP_LEVELS];
+
+    static {
+        DOCS_PER_ENTRY[0] = BLOCK_SIZE;
+        for (int level = 1; level < MAX_SKIP_LEVELS; level++) {
+            DOCS_PER_ENTRY[level] = DOCS_PER_ENTRY[level - 1] * SKIP_MULTIPLIER;
+        }
+    }
+
+    private final IndexInput docIn;
+    final boolean hasPos;
+    final boolean hasOffsets;
+    private final IndexInput[] skipStream = new IndexInput[MAX_SKIP_LEVELS];
+    private final long[] levelStart = new long[MAX_SKIP_LEVELS];
+    private final long[] levelEnd = new long[MAX_SKIP_LEVELS];
+    private int numLevels;
+
+    // last entry read on each level, which deltas are relative to
+    private final int[] lastDoc = new int[MAX_SKIP_LEVELS];
+    private final long[] lastDocFP = new long[MAX_SKIP_LEVELS];
+    private final long[] lastPosFP = new long[MAX_SKIP_LEVELS];
+    private final long[] lastPayFP = new long[MAX_SKIP_LEVELS];
+    private final long[] lastNumDocs = new long[MAX_SKIP_LEVELS];
+
+    // next entry of each level, NO_MORE_DOCS once the level is exhausted
+    private final int[] nextDoc = new int[MAX_SKIP_LEVELS];
+    private final long[] nextDocFP = new long[MAX_SKIP_LEVELS];
+    private final long[] nextPosFP = new long[MAX_SKIP_LEVELS];
+    private final int[] nextPosBufferUpto = new int[MAX_SKIP_LEVELS];
+    private final long[] nextPayFP = new long[MAX_SKIP_LEVELS];
+    private final long[] nextChildPointer = new long[MAX_SKIP_LEVELS];
+
+    // last entry passed by skipTo, on any level
+    private int skipDoc;
+    private long skipDocFP;
+    private long skipPosFP;
+    private int skipPosBufferUpto;
+    private long skipPayFP;
+    private long numSkipped;
+
+    SkipReader(IndexInput docIn, boolean hasPos, boolean hasOffsets) {
+        this.docIn = docIn;
+        this.hasPos = hasPos;
+        this.hasOffsets = hasOffsets;
+    }
+
+    /**
+     * Positions the reader on the skip list of a term whose postings start at <code>docStartFP
+     * </code>, and whose positions and offsets start at <code>posStartFP</code> and <code>payStartFP
+     * </code> if the field has them.
+     */
+    void init(long skipPointer, long docStartFP, long posStartFP, long payStartFP) throws IOException {
+        docIn.seek(skipPointer);
+        numLevels = docIn.readVInt();
+        assert numLevels > 0 && numLevels <= MAX_SKIP_LEVELS : "numLevels=" + numLevels;
+        for (int level = numLevels - 1; level >= 0; level--) {
+            final long length = docIn.readVLong();
+            levelStart[level] = docIn.getFilePointer();
+            levelEnd[level] = levelStart[level] + length;
+            docIn.seek(levelEnd[level]);
+        }
+        for (int level = 0; level < numLevels; level++) {
+            if (skipStream[level] == null) {
+                skipStream[level] = docIn.clone();
+            }
+            skipStream[level].seek(levelStart[level]);
+            lastDoc[level] = 0;
+            lastDocFP[level] = docStartFP;
+            lastPosFP[level] = posStartFP;
+            lastPayFP[level] = payStartFP;
+            lastNumDocs[level] = 0;
+            loadNextEntry(level);
+        }
+        skipDoc = 0;
+        skipDocFP = docStartFP;
+        skipPosFP = posStartFP;
+        skipPosBufferUpto = 0;
+        skipPayFP = payStartFP;
+        numSkipped = 0;
+    }
+
+    private void loadNextEntry(int level) throws IOException {
+        final IndexInput in = skipStream[level];
+        if (in.getFilePointer() == levelEnd[level]) {
+            nextDoc[level] = PostingsEnum.NO_MORE_DOCS;
+            return;
+        }
+        nextDoc[level] = lastDoc[level] + in.readVInt();
+        nextDocFP[level] = lastDocFP[level] + in.readVLong();
+        if (hasPos) {
+            nextPosFP[level] = lastPosFP[level] + in.readVLong();
+            nextPosBufferUpto[level] = in.readVInt();
+            if (hasOffsets) {
+                nextPayFP[level] = lastPayFP[level] + in.readVLong();
+            }
+        }
+        if (level > 0) {
+            nextChildPointer[level] = in.readVLong();
+        }
+    }
+
+    /**
+     * Passes all entries whose last doc is before the target.
+     *
+     * @return the number of docs before the block that may contain the target, see {@link #getDoc}
+     *     and {@link #getDocPointer} for where this block starts
+     */
+    int skipTo(int target) throws IOException {
+        int level = 0;
+        while (level + 1 < numLevels && nextDoc[level + 1] < target) {
+            level++;
+        }
+
+        for (; level >= 0; level--) {
+            boolean moved = false;
+            while (nextDoc[level] < target) {
+                lastDoc[level] = skipDoc = nextDoc[level];
+                lastDocFP[level] = skipDocFP = nextDocFP[level];
+                lastPosFP[level] = skipPosFP = nextPosFP[level];
+                lastPayFP[level] = skipPayFP = nextPayFP[level];
+                skipPosBufferUpto = nextPosBufferUpto[level];
+                lastNumDocs[level] = numSkipped = lastNumDocs[level] + DOCS_PER_ENTRY[level];
+                final long childPointer = nextChildPointer[level];
+                loadNextEntry(level);
+                if (level > 0) {
+                    skipStream[level - 1].seek(levelStart[level - 1] + childPointer);
+                }
+                moved = true;
+            }
+            if (moved && level > 0) {
+                // the level below goes on from the same block
+                lastDoc[level - 1] = lastDoc[level];
+                lastDocFP[level - 1] = lastDocFP[level];
+                lastPosFP[level - 1] = lastPosFP[level];
+                lastPayFP[level - 1] = lastPayFP[level];
+                lastNumDocs[level - 1] = lastNumDocs[level];
+                loadNextEntry(level - 1);
+            }
+        }
+        return Math.toIntExact(numSkipped);
+    }
+
+    /** Returns the last doc of the last block passed by {@link #skipTo}, 0 if none. */
+    int getDoc() {
+        return skipDoc;
+    }
+
+    /** Returns the file pointer of the block after the last block passed by {@link #skipTo}. */
+    long getDocPointer() {
+        return skipDocFP;
+    }
+
+    /**
+     * Returns the file pointer of the block of positions that holds the first position of the block
+     * after the last block passed by {@link #skipTo}.
+     */
+    long getPosPointer() {
+        return skipPosFP;
+    }
+
+    /**
+     * Returns the number of positions at the start of the block at {@link #getPosPointer()} that
+     * belong to the docs passed by {@link #skipTo}.
+     */
+    int getPosBufferUpto() {
+        return skipPosBufferUpto;
+    }
+
+    /** Returns the file pointer of the block of offsets that matches {@link #getPosPointer()}. */
+    long getPayPointer() {
+        return skipPayFP;
+    }
+
+    /** Returns the last doc of the next block, or {@link PostingsEnum#NO_MORE_DOCS} if unknown. */
+    int getNextSkipDoc() {
+        return nextDoc[0];
+    }
+}
@@ -0,0 +1,119 @@
+package index;
+
+import store.ByteBuffersDataOutput;
+import store.DataOutput;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes the multi-level skip list of a term, which lets {@link PostingsReader} jump over whole
+ * blocks of postings without decoding them.
+ *
+ * <p>Level 0 has one entry per block of {@link ForUtil#BLOCK_SIZE} docs, and each level has one
+ * entry every {@link #SKIP_MULTIPLIER} entries of the level below. An entry holds the last doc of
+ * its block and the file pointer where the next block starts, both as deltas to the previous entry
+ * of its level. Fields that have positions add the file pointer of the pending block of positions
+ * as a delta and the number of positions of that block that belong to the previous docs, and
+ * fields that have offsets add the file pointer of the pending block of offsets as a delta. Entries
+ * above level 0 hold the position of the matching entry of the level below. The skip list is written after the postings of the term: the number of levels, then each
+ * level from the top down, preceded by its length.
+ */
+final class SkipWriter {
+
+    /** Ratio between the number of entries of a level and the number of entries of the level above. */
+    static final int SKIP_MULTIPLIER = 8;
+
+    /** Maximum number of levels, enough for any doc count. */
+    static final int MAX_SKIP_LEVELS = 10;
+
+    private final ByteBuffersDataOutput[] levels = new ByteBuffersDataOutput[MAX_SKIP_LEVELS];
+    private final int[] lastSkipDoc = new int[MAX_SKIP_LEVELS];
+    private final long[] lastSkipDocFP = new long[MAX_SKIP_LEVELS];
+    private final long[] lastSkipPosFP = new long[MAX_SKIP_LEVELS];
+    private final long[] lastSkipPayFP = new long[MAX_SKIP_LEVELS];
+    private int numBlocks;
+    private int numLevels;
+
+    private boolean hasPos;
+    private boolean hasOffsets;
+
+    /** Sets the field whose terms the next skip lists belong to. */
+    void setField(boolean hasPos, boolean hasOffsets) {
+        assert hasPos || hasOffsets == false;
+        this.hasPos = hasPos;
+        this.hasOffsets = hasOffsets;
+    }
+
+    /**
+     * Starts the skip list of a new term, whose postings start at <code>docStartFP</code> and whose
+     * positions and offsets, if the field has them, start at <code>posStartFP</code> and <code>
+     * payStartFP</code>.
+     */
+    void resetSkip(long docStartFP, long posStartFP, long payStartFP) {
+        for (int level = 0; level < numLevels; level++) {
+            levels[level].reset();
+        }
+        Arrays.fill(lastSkipDoc, 0);
+        Arrays.fill(lastSkipDocFP, docStartFP);
+        Arrays.fill(lastSkipPosFP, posStartFP);
+        Arrays.fill(lastSkipPayFP, payStartFP);
+        numBlocks = 0;
+        numLevels = 0;
+    }
+
+    /**
+     * Adds an entry for the block that was just written, after the positions of its last doc.
+     *
+     * @param lastDoc the last doc of the block
+     * @param docFP the file pointer right after the block
+     * @param posFP the file pointer of the pending block of positions
+     * @param posBufferUpto the number of positions of the pending block that belong to the block
+     *     and the ones before
+     * @param payFP the file pointer of the pending block of offsets
+     */
+    void bufferSkip(int lastDoc, long docFP, long posFP, int posBufferUpto, long payFP) throws IOException {
+        numBlocks++;
+        int entryLevels = 1;
+        for (int n = numBlocks; n % SKIP_MULTIPLIER == 0 && entryLevels < MAX_SKIP_LEVELS; n /= SKIP_MULTIPLIER) {
+            entryLevels++;
+        }
+
+        long childPointer = 0;
+        for (int level = 0; level < entryLevels; level++) {
+            if (level == numLevels) {
+                if (levels[level] == null) {
+                    levels[level] = ByteBuffersDataOutput.newResettableInstance();
+                }
+                numLevels++;
+            }
+            final ByteBuffersDataOutput out = levels[level];
+            out.writeVInt(lastDoc - lastSkipDoc[level]);
+            out.writeVLong(docFP - lastSkipDocFP[level]);
+            if (hasPos) {
+                out.writeVLong(posFP - lastSkipPosFP[level]);
+                out.writeVInt(posBufferUpto);
+                if (hasOffsets) {
+                    out.writeVLong(payFP - lastSkipPayFP[level]);
+                }
+            }
+            if (level > 0) {
+                out.writeVLong(childPointer);
+            }
+            lastSkipDoc[level] = lastDoc;
+            lastSkipDocFP[level] = docFP;
+            lastSkipPosFP[level] = posFP;
+            lastSkipPayFP[level] = payFP;
+            childPointer = out.size();
+        }
+    }
+
+    /** Writes the buffered skip list. */
+    void writeSkip(DataOutput out) throws IOException {
+        out.writeVInt(numLevels);
+        for (int level = numLevels - 1; level >= 0; level--) {
+            out.writeVLong(levels[level].size());
+            levels[level].copyTo(out);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package index;
+
+import util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * A per-document byte[] with presorted values. This is fully described by the set of unique values
+ * of the field in the segment, sorted in unsigned byte order, and the ordinal of the value of each
+ * document in that set, so that sorting and counting on the field compare ints rather than bytes.
+ */
+public abstract class SortedDocValues extends DocValuesIterator {
+
+    /** Sole constructor. (For invocation by subclass constructors, typically implicit.) */
+    protected SortedDocValues() {}
+
+    /**
+     * Returns the ordinal for the current docID. It is illegal to call this method after {@link
+     * #advanceExact(int)} returned {@code false}.
+     *
+     * @return ordinal for the document: this is dense, starts at 0, then increments by 1 for the
+     *     next value in sorted order.
+     */
+    public abstract int ordValue() throws IOException;
+
+    /**
+     * Retrieves the value for the specified ordinal. The returned {@link BytesRef} may be re-used
+     * across calls to {@link #lookupOrd(int)} so make sure to {@link BytesRef#deepCopyOf(BytesRef)
+     * copy it} if you want to keep it around.
+     *
+     * @param ord ordinal to lookup (must be &gt;= 0 and &lt; {@link #getValueCount()})
+     */
+    public abstract BytesRef lookupOrd(int ord) throws IOException;
+
+    /**
+     * Returns the number of unique values.
+     *
+     * @return number of unique values in this SortedDocValues. This is also equivalent to one plus
+     *     the maximum ordinal.
+     */
+    public abstract int getValueCount();
+
+    /**
+     * If {@code key} exists, returns its ordinal, else returns {@code -insertionPoint-1}, like {@code
+     * Arrays.binarySearch}.
+     *
+     * @param key Key to look up
+     */
+    public int lookupTerm(BytesRef key) throws IOException {
+        int low = 0;
+        int high = getValueCount() - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = lookupOrd(mid).compareTo(key);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid; // key found
+            }
+        }
+
+        return -(low + 1); // key not found.
+    }
+}
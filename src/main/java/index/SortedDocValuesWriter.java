@@ -0,0 +1,70 @@
+package index;
+
+import util.BytesRef;
+import util.BytesRefHash;
+import util.packed.PackedLongValues;
+
+import java.io.IOException;
+
+/**
+ * Buffers the sorted doc values of a field in RAM until the segment is flushed. Unique values are
+ * deduplicated in a {@link BytesRefHash} and each doc that has the field records the id of its
+ * value, ids are only mapped to ordinals once all values are known.
+ */
+final class SortedDocValuesWriter extends DocValuesWriter {
+
+    private final BytesRefHash hash = new BytesRefHash();
+    private final PackedLongValues.Builder pending = PackedLongValues.packedBuilder();
+    private final DocsWithFieldSet docsWithField = new DocsWithFieldSet();
+    private final String fieldName;
+    private int lastDocID = -1;
+
+    SortedDocValuesWriter(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * Records the value of the given doc, docs must come in increasing order.
+     *
+     * @throws IllegalArgumentException if the doc already has a value for this field or the value
+     *     is longer than {@link IndexWriter#MAX_TERM_LENGTH}
+     */
+    void addValue(int docID, BytesRef value) {
+        if (docID <= lastDocID) {
+            throw new IllegalArgumentException(
+                    "DocValuesField \"" + fieldName
+                            + "\" appears more than once in this document (only one value is allowed per field)");
+        }
+        if (value.length > IndexWriter.MAX_TERM_LENGTH) {
+            throw new IllegalArgumentException(
+                    "DocValuesField \"" + fieldName + "\" is too large, must be <= " + IndexWriter.MAX_TERM_LENGTH);
+        }
+        int termID = hash.add(value);
+        if (termID < 0) {
+            termID = -termID - 1;
+        }
+        pending.add(termID);
+        docsWithField.add(docID);
+        lastDocID = docID;
+    }
+
+    @Override
+    void flush(FieldInfo fieldInfo, DocValuesConsumer consumer) throws IOException {
+        final int valueCount = hash.size();
+        final int[] sortedTermIDs = hash.sort();
+        final int[] ordMap = new int[valueCount];
+        for (int ord = 0; ord < valueCount; ord++) {
+            ordMap[sortedTermIDs[ord]] = ord;
+        }
+        final PackedLongValues.Builder ords = PackedLongValues.packedBuilder();
+        for (PackedLongValues.Iterator it = pending.build().iterator(); it.hasNext(); ) {
+            ords.add(ordMap[(int) it.next()]);
+        }
+        consumer.addSortedField(fieldInfo, docsWithField, ords.build(), hash, sortedTermIDs);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return hash.ramBytesUsed() + pending.ramBytesUsed() + docsWithField.ramBytesUsed();
+    }
+}
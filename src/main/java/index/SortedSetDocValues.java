@@ -0,0 +1,81 @@
+package index;
+
+import util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * A multi-valued version of {@link SortedDocValues}: each document has a set of ordinals in the
+ * sorted unique values of the field in the segment, which are returned in increasing order.
+ */
+public abstract class SortedSetDocValues extends DocValuesIterator {
+
+    /** Sole constructor. (For invocation by subclass constructors, typically implicit.) */
+    protected SortedSetDocValues() {}
+
+    /**
+     * When returned by {@link #nextOrd()} it means there are no more ordinals for the document.
+     */
+    public static final long NO_MORE_ORDS = -1;
+
+    /**
+     * Returns the next ordinal for the current document, or {@link #NO_MORE_ORDS} once all ordinals
+     * of the document were returned. It is illegal to call this method after {@link
+     * #advanceExact(int)} returned {@code false}.
+     *
+     * @return next ordinal for the document, or {@link #NO_MORE_ORDS}. ordinals are dense, start at
+     *     0, then increment by 1 for the next value in sorted order.
+     */
+    public abstract long nextOrd() throws IOException;
+
+    /**
+     * Retrieves the number of unique ords for the current document. This must always be greater
+     * than zero. It is illegal to call this method after {@link #advanceExact(int)} returned {@code
+     * false}.
+     */
+    public abstract int docValueCount();
+
+    /**
+     * Retrieves the value for the specified ordinal. The returned {@link BytesRef} may be re-used
+     * across calls to lookupOrd so make sure to {@link BytesRef#deepCopyOf(BytesRef) copy it} if you
+     * want to keep it around.
+     *
+     * @param ord ordinal to lookup
+     * @see #nextOrd
+     */
+    public abstract BytesRef lookupOrd(long ord) throws IOException;
+
+    /**
+     * Returns the number of unique values.
+     *
+     * @return number of unique values in this SortedSetDocValues. This is also equivalent to one plus
+     *     the maximum ordinal.
+     */
+    public abstract long getValueCount();
+
+    /**
+     * If {@code key} exists, returns its ordinal, else returns {@code -insertionPoint-1}, like {@code
+     * Arrays.binarySearch}.
+     *
+     * @param key Key to look up
+     */
+    public long lookupTerm(BytesRef key) throws IOException {
+        long low = 0;
+        long high = getValueCount() - 1;
+
+        while (low <= high) {
+            final long mid = (low + high) >>> 1;
+            final int cmp = lookupOrd(mid).compareTo(key);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid; // key found
+            }
+        }
+
+        return -(low + 1); // key not found.
+    }
+}
@@ -0,0 +1,116 @@
+package index;
+
+import util.ArrayUtil;
+import util.BytesRef;
+import util.BytesRefHash;
+import util.packed.PackedLongValues;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Buffers the sorted set doc values of a field in RAM until the segment is flushed. Unique values
+ * are deduplicated in a {@link BytesRefHash}; the ids of the values of a doc are collected while the
+ * doc is indexed, then deduplicated and appended to a single list, along with their number.
+ */
+final class SortedSetDocValuesWriter extends DocValuesWriter {
+
+    private final BytesRefHash hash = new BytesRefHash();
+    // ids of the values of all docs, grouped by doc
+    private final PackedLongValues.Builder pending = PackedLongValues.packedBuilder();
+    // number of values of each doc that has the field
+    private final PackedLongValues.Builder pendingCounts = PackedLongValues.packedBuilder();
+    private final DocsWithFieldSet docsWithField = new DocsWithFieldSet();
+    private final String fieldName;
+
+    private int currentDoc = -1;
+    private int[] currentValues = new int[8];
+    private int currentUpto;
+
+    SortedSetDocValuesWriter(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * Adds a value to the given doc, docs must come in increasing order and a doc may have any
+     * number of values.
+     *
+     * @throws IllegalArgumentException if the value is longer than {@link
+     *     IndexWriter#MAX_TERM_LENGTH}
+     */
+    void addValue(int docID, BytesRef value) {
+        assert docID >= currentDoc;
+        if (value.length > IndexWriter.MAX_TERM_LENGTH) {
+            throw new IllegalArgumentException(
+                    "DocValuesField \"" + fieldName + "\" is too large, must be <= " + IndexWriter.MAX_TERM_LENGTH);
+        }
+        if (docID != currentDoc) {
+            finishCurrentDoc();
+            currentDoc = docID;
+        }
+        int termID = hash.add(value);
+        if (termID < 0) {
+            termID = -termID - 1;
+        }
+        currentValues = ArrayUtil.grow(currentValues, currentUpto + 1);
+        currentValues[currentUpto++] = termID;
+    }
+
+    /** Appends the unique values of the current doc, if any, in id order. */
+    private void finishCurrentDoc() {
+        if (currentDoc == -1) {
+            return;
+        }
+        Arrays.sort(currentValues, 0, currentUpto);
+        int lastValue = -1;
+        int count = 0;
+        for (int i = 0; i < currentUpto; i++) {
+            final int termID = currentValues[i];
+            if (termID != lastValue) {
+                pending.add(termID);
+                count++;
+            }
+            lastValue = termID;
+        }
+        pendingCounts.add(count);
+        docsWithField.add(currentDoc);
+        currentUpto = 0;
+        currentDoc = -1;
+    }
+
+    @Override
+    void flush(FieldInfo fieldInfo, DocValuesConsumer consumer) throws IOException {
+        finishCurrentDoc();
+        final int valueCount = hash.size();
+        final int[] sortedTermIDs = hash.sort();
+        final int[] ordMap = new int[valueCount];
+        for (int ord = 0; ord < valueCount; ord++) {
+            ordMap[sortedTermIDs[ord]] = ord;
+        }
+
+        // ords of a doc must be increasing, which ids are not
+        final PackedLongValues values = pending.build();
+        final PackedLongValues counts = pendingCounts.build();
+        final PackedLongValues.Builder ords = PackedLongValues.packedBuilder();
+        final PackedLongValues.Iterator valuesIt = values.iterator();
+        int[] docOrds = new int[8];
+        for (PackedLongValues.Iterator countsIt = counts.iterator(); countsIt.hasNext(); ) {
+            final int count = (int) countsIt.next();
+            docOrds = ArrayUtil.grow(docOrds, count);
+            for (int i = 0; i < count; i++) {
+                docOrds[i] = ordMap[(int) valuesIt.next()];
+            }
+            Arrays.sort(docOrds, 0, count);
+            for (int i = 0; i < count; i++) {
+                ords.add(docOrds[i]);
+            }
+        }
+        consumer.addSortedSetField(fieldInfo, docsWithField, ords.build(), counts, hash, sortedTermIDs);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return hash.ramBytesUsed() + pending.ramBytesUsed() + pendingCounts.ramBytesUsed()
+                + docsWithField.ramBytesUsed() + (long) currentValues.length * Integer.BYTES;
+    }
+}
@@ -1,17 +1,50 @@
 package index;
 
-import disk.DiskWriter;
-import disk.RamReader;
-import disk.RamWriter;
-import disk.Writer;
+import store.ByteBuffersDataInput;
+import store.ByteBuffersDataOutput;
+import store.DataInput;
 import store.Directory;
+import store.IndexInput;
+import store.IndexOutput;
+import util.Accountable;
+import util.ArrayUtil;
+import util.Bits;
 import util.BytesRef;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Buffers stored fields of documents into chunks and writes them compressed to the {@code fdt}
+ * file, with one entry per chunk in the {@code fdx} file.
+ *
+ * <p>Compression of a full chunk can be handed to a shared compression executor: the indexing
+ * thread swaps in a fresh buffer and keeps going while the previous chunk is compressed in the
+ * background. Chunks are always written in order by the indexing thread that owns this consumer,
+ * and at most {@code maxPendingChunks} chunks may be in flight before it blocks on the oldest one.
+ *
+ * <p>A chunk in the {@code fdt} file is laid out as:
+ *
+ * <pre>
+ *   docBase (vInt)
+ *   numDocs &lt;&lt; 1 | dirty (vInt)
+ *   numStoredFields (vInt) * numDocs
+ *   lengths (vInt) * numDocs
+ *   compressedLength (vInt)
+ *   compressed bytes
+ * </pre>
+ *
+ * A chunk is dirty when it has been flushed before it was full, ie. at the end of a segment.
+ */
+class StoredFieldConsumer implements Accountable {
 
-class StoredFieldConsumer {
 
 
 
@@ -33,16 +66,30 @@ class StoredFieldConsumer {
 
     static final int NUMERIC_DOUBLE = 0x05;
 
+    /** A long without timestamp compression, see {@link LongStoredField}. */
+    static final int NUMERIC_ZLONG = 0x06;
 
-    private static final String HEADER = "piggySearch";
+    static final int TYPE_BITS = 3;
 
-    private static final String FOOTER = "hcraeSyggip";
+    static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+
+
+    static final String HEADER = "piggySearch";
+
+    static final String FOOTER = "hcraeSyggip";
+
+    /** Default number of chunks that may be compressed concurrently for a single segment. */
+    static final int DEFAULT_MAX_PENDING_CHUNKS = 4;
 
     final int maxDocsPerChunk;
 
-    private Writer bufferedDocs;
+    final int chunkSize;
 
-    private Writer fieldsStream, metaStream;
+    final CompressionMode compressionMode;
+
+    private ByteBuffersDataOutput bufferedDocs;
+
+    private IndexOutput fieldsStream, indexStream, metaStream;
 
     private int numBufferedDocs;
     private int numStoredFieldsInDoc = 0;
@@ -51,22 +98,54 @@ class StoredFieldConsumer {
 
     private int numChunks;
 
+    private int numDirtyChunks;
+
+    private int numDirtyDocs;
+
     private int docBase;
 
-    private List<Integer> numStoredFields;
+    private int[] numStoredFields;
+
+    private int[] endOffsets;
+
+    /** Executor compressing full chunks, or {@code null} to compress on the indexing thread. */
+    private final Executor compressionExecutor;
 
-    private List<Integer> endOffsets;
+    private final int maxPendingChunks;
+
+    /** Chunks handed to the executor, in the order they must be written. */
+    private final ArrayDeque<PendingChunk> pendingChunks = new ArrayDeque<>();
+
+    /** Buffers of chunks that have been written, ready to be reused. */
+    private final ArrayDeque<ByteBuffersDataOutput> freeBuffers = new ArrayDeque<>();
 
     StoredFieldConsumer(
         Directory directory,
         SegmentInfo si
     ) throws IOException {
-        this.bufferedDocs = new RamWriter();
+        this(directory, si, CompressionMode.FAST, null, DEFAULT_MAX_PENDING_CHUNKS);
+    }
+
+    StoredFieldConsumer(
+        Directory directory,
+        SegmentInfo si,
+        CompressionMode compressionMode,
+        Executor compressionExecutor,
+        int maxPendingChunks
+    ) throws IOException {
+        if (maxPendingChunks < 1) {
+            throw new IllegalArgumentException("maxPendingChunks must be >= 1, got " + maxPendingChunks);
+        }
+        this.compressionMode = compressionMode;
+        this.compressionExecutor = compressionExecutor;
+        this.maxPendingChunks = maxPendingChunks;
+        this.bufferedDocs = ByteBuffersDataOutput.newResettableInstance();
         numBufferedDocs = 0;
         docBase = 0;
-        numStoredFields = new ArrayList<>();
-        endOffsets = new ArrayList<>();
         maxDocsPerChunk = 128;
+        chunkSize = 1 << 14;
+        numStoredFields = new int[maxDocsPerChunk];
+        endOffsets = new int[maxDocsPerChunk];
         numChunks = 0;
 
         boolean success = false;
@@ -74,57 +153,348 @@ class StoredFieldConsumer {
             segment = si.name;
             metaStream = directory.createOutput(IndexFileNames.segmentFileName(segment, "", META_EXTENSION));
             metaStream.writeString(HEADER);
+            metaStream.writeVInt(compressionMode.ordinal());
             fieldsStream = directory.createOutput(IndexFileNames.segmentFileName(segment, "", FIELDS_EXTENSION));
             fieldsStream.writeString(HEADER);
+            indexStream = directory.createOutput(IndexFileNames.segmentFileName(segment, "", INDEX_EXTENSION));
+            indexStream.writeString(HEADER);
 
             success = true;
         } finally {
-
+            if (success == false) {
+                close();
+            }
         }
 
 
     }
 
-
-
     public void finishDocument() throws IOException {
-        numStoredFields.add(numStoredFieldsInDoc);
+        numStoredFields[numBufferedDocs] = numStoredFieldsInDoc;
         numStoredFieldsInDoc = 0;
 
-        endOffsets.add((int) bufferedDocs.size());
+        endOffsets[numBufferedDocs] = Math.toIntExact(bufferedDocs.size());
         numBufferedDocs++;
 
-        assert numBufferedDocs == endOffsets.size();
-        assert numBufferedDocs == numStoredFields.size();
-
-
         if(triggerFlush()) {
-            flush();
+            flush(false);
         }
     }
 
     private boolean triggerFlush() {
-        return numBufferedDocs >= maxDocsPerChunk;
+        return bufferedDocs.size() >= chunkSize || numBufferedDocs >= maxDocsPerChunk;
     }
 
-    private void flush() {
+    /**
+     * Hands the buffered documents over as a new chunk and continues with a fresh buffer. The chunk
+     * is compressed by the compression executor if there is one, and written once all chunks before
+     * it have been written.
+     */
+    private void flush(boolean dirtyChunk) throws IOException {
         numChunks++;
+        if (dirtyChunk) {
+            numDirtyChunks++;
+            numDirtyDocs += numBufferedDocs;
+        }
 
-        final int[] lengths = new int[endOffsets.size()];
+        final int[] lengths = new int[numBufferedDocs];
+        lengths[0] = endOffsets[0];
         for(int i = numBufferedDocs - 1; i > 0; --i) {
-            lengths[i] = endOffsets.get(i) - endOffsets.get(i-1);
+            lengths[i] = endOffsets[i] - endOffsets[i-1];
             assert lengths[i] >= 0;
         }
 
-//        writeFdtHeader(docBase, numBufferedDocs, numStoredFields, lengths, sliced, dirtyChunk);
+        final PendingChunk chunk =
+                new PendingChunk(
+                        docBase,
+                        numBufferedDocs,
+                        ArrayUtil.copyOfSubArray(numStoredFields, 0, numBufferedDocs),
+                        lengths,
+                        dirtyChunk,
+                        bufferedDocs);
+        docBase += numBufferedDocs;
+        numBufferedDocs = 0;
+        bufferedDocs = freeBuffers.isEmpty() ? ByteBuffersDataOutput.newResettableInstance() : freeBuffers.poll();
+
+        if (compressionExecutor == null) {
+            chunk.compressed = CompletableFuture.completedFuture(chunk.compress(compressionMode));
+        } else {
+            // backpressure: don't let more than maxPendingChunks chunks pile up for this segment
+            while (pendingChunks.size() >= maxPendingChunks) {
+                writeChunk(pendingChunks.poll());
+            }
+            compressAsync(chunk);
+        }
+        pendingChunks.add(chunk);
+
+        // write whatever is ready without waiting, in order
+        while (pendingChunks.isEmpty() == false && pendingChunks.peek().compressed.isDone()) {
+            writeChunk(pendingChunks.poll());
+        }
+    }
+
+    /**
+     * Hands the chunk to the compression executor. The future is only completed by the task itself,
+     * so if the executor rejects the task, which it may do when it is saturated or shutting down, the
+     * chunk is compressed on the indexing thread instead.
+     */
+    private void compressAsync(PendingChunk chunk) {
+        final CompletableFuture<byte[]> compressed = new CompletableFuture<>();
+        chunk.compressed = compressed;
+        try {
+            compressionExecutor.execute(() -> {
+                try {
+                    compressed.complete(chunk.compress(compressionMode));
+                } catch (Throwable t) {
+                    compressed.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            chunk.compressed = CompletableFuture.completedFuture(chunk.compress(compressionMode));
+        }
+    }
+
+    private void writeChunk(PendingChunk chunk) throws IOException {
+        final byte[] compressed;
+        try {
+            compressed = chunk.compressed.join();
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+
+        indexStream.writeVInt(chunk.docBase);
+        indexStream.writeVInt(chunk.numDocs);
+        indexStream.writeVLong(fieldsStream.getFilePointer());
+
+        writeFdtHeader(chunk.docBase, chunk.numDocs, chunk.numStoredFields, chunk.lengths, chunk.dirty);
+        fieldsStream.writeVInt(compressed.length);
+        fieldsStream.writeBytes(compressed, compressed.length);
+
+        chunk.buffer.reset();
+        freeBuffers.add(chunk.buffer);
+    }
+
+    private void writeFdtHeader(
+            int docBase, int numBufferedDocs, int[] numStoredFields, int[] lengths, boolean dirtyChunk)
+            throws IOException {
+        fieldsStream.writeVInt(docBase);
+        fieldsStream.writeVInt((numBufferedDocs << 1) | (dirtyChunk ? 1 : 0));
+        for (int i = 0; i < numBufferedDocs; ++i) {
+            fieldsStream.writeVInt(numStoredFields[i]);
+        }
+        for (int i = 0; i < numBufferedDocs; ++i) {
+            fieldsStream.writeVInt(lengths[i]);
+        }
+    }
+
+    /**
+     * Returns the memory held by buffered documents and by chunks that have not been written yet.
+     * Buffers kept for reuse are counted as one chunk each, which is roughly what their recycled
+     * blocks amount to.
+     */
+    @Override
+    public long ramBytesUsed() {
+        long bytes = bufferedDocs.ramBytesUsed() + 2L * Integer.BYTES * maxDocsPerChunk;
+        for (PendingChunk chunk : pendingChunks) {
+            bytes += chunk.buffer.ramBytesUsed();
+        }
+        bytes += (long) freeBuffers.size() * chunkSize;
+        return bytes;
+    }
 
-        RamReader byteBuffers = new RamReader(bufferedDocs.toByteBuffer());
+    /**
+     * Merges the stored fields of the given segments into this consumer and returns the number of
+     * merged documents.
+     *
+     * <p>Chunks of segments that use the same compression mode and field numbering are copied
+     * verbatim, only their docBase is rebased. Chunks that are dirty, that have deleted documents,
+     * or that come while there are still buffered documents are re-encoded document by document
+     * instead, which also fills the buffer up to a full chunk so that copying can resume on the next
+     * chunk boundary.
+     */
+    int merge(MergeState mergeState) throws IOException {
+        int docCount = 0;
+        for (int i = 0; i < mergeState.storedFieldsReaders.length; ++i) {
+            final StoredFieldsReader reader = mergeState.storedFieldsReaders[i];
+            final Bits liveDocs = mergeState.liveDocs[i];
+            final int[] fieldNumberMap = mergeState.fieldNumberMaps[i];
+            final boolean canCopyChunks =
+                    reader.compressionMode() == compressionMode && fieldNumberMap == null;
+
+            for (int chunk = 0; chunk < reader.numChunks(); ++chunk) {
+                final int chunkDocBase = reader.chunkDocBase(chunk);
+                final int chunkDocs = reader.chunkNumDocs(chunk);
+                if (canCopyChunks
+                        && numBufferedDocs == 0
+                        && allLive(liveDocs, chunkDocBase, chunkDocs)
+                        && reader.isDirtyChunk(chunk) == false) {
+                    copyChunk(reader, chunk);
+                    docCount += chunkDocs;
+                } else {
+                    for (int doc = chunkDocBase; doc < chunkDocBase + chunkDocs; ++doc) {
+                        if (liveDocs == null || liveDocs.get(doc)) {
+                            copyOneDoc(reader.serializedDocument(doc), fieldNumberMap);
+                            ++docCount;
+                        }
+                    }
+                }
+            }
+        }
+        return docCount;
+    }
 
+    private static boolean allLive(Bits liveDocs, int from, int numDocs) {
+        if (liveDocs == null) {
+            return true;
+        }
+        for (int doc = from; doc < from + numDocs; ++doc) {
+            if (liveDocs.get(doc) == false) {
+                return false;
+            }
+        }
+        return true;
     }
 
+    /** Copies a compressed chunk byte-for-byte, rewriting its docBase. */
+    private void copyChunk(StoredFieldsReader reader, int chunk) throws IOException {
+        assert numBufferedDocs == 0;
+        // chunks must be written in order: first write whatever is still being compressed
+        while (pendingChunks.isEmpty() == false) {
+            writeChunk(pendingChunks.poll());
+        }
+
+        final int chunkDocs = reader.chunkNumDocs(chunk);
+        indexStream.writeVInt(docBase);
+        indexStream.writeVInt(chunkDocs);
+        indexStream.writeVLong(fieldsStream.getFilePointer());
+
+        final IndexInput in = reader.chunkInput(chunk);
+        in.readVInt(); // docBase of the chunk in the source segment
+        fieldsStream.writeVInt(docBase);
+        fieldsStream.copyBytes(in, reader.chunkEndPointer(chunk) - in.getFilePointer());
+
+        docBase += chunkDocs;
+        numChunks++;
+    }
+
+    /** Adds a serialized document to the buffered docs, renumbering its fields if needed. */
+    private void copyOneDoc(StoredFieldsReader.SerializedDocument doc, int[] fieldNumberMap)
+            throws IOException {
+        final BytesRef bytes = doc.bytes;
+        if (fieldNumberMap == null) {
+            bufferedDocs.writeBytes(bytes.bytes, bytes.offset, bytes.length);
+        } else {
+            final DataInput in =
+                    new ByteBuffersDataInput(
+                            List.of(ByteBuffer.wrap(bytes.bytes, bytes.offset, bytes.length)));
+            for (int i = 0; i < doc.numStoredFields; ++i) {
+                final long infoAndBits = in.readVLong();
+                final int number = (int) (infoAndBits >>> TYPE_BITS);
+                final int bits = (int) (infoAndBits & TYPE_MASK);
+                bufferedDocs.writeVLong((((long) fieldNumberMap[number]) << TYPE_BITS) | bits);
+                copyValue(in, bits);
+            }
+        }
+        numStoredFieldsInDoc = doc.numStoredFields;
+        finishDocument();
+    }
+
+    private void copyValue(DataInput in, int bits) throws IOException {
+        switch (bits) {
+            case STRING:
+            case BYTE_ARR:
+                final int length = in.readVInt();
+                bufferedDocs.writeVInt(length);
+                bufferedDocs.copyBytes(in, length);
+                break;
+            case NUMERIC_INT:
+                bufferedDocs.writeZInt(in.readZInt());
+                break;
+            case NUMERIC_FLOAT:
+                bufferedDocs.writeZFloat(in.readZFloat());
+                break;
+            case NUMERIC_LONG:
+                bufferedDocs.writeTlong(in.readTLong());
+                break;
+            case NUMERIC_DOUBLE:
+                bufferedDocs.writeZDouble(in.readZDouble());
+                break;
+            case NUMERIC_ZLONG:
+                bufferedDocs.writeZLong(in.readZLong());
+                break;
+            default:
+                throw new IOException("unknown stored field type " + bits);
+        }
+    }
+
+    /**
+     * Flushes the last, possibly incomplete, chunk and waits for all pending chunks to be written.
+     *
+     * @param numDocs the number of documents of the segment, must match the number of documents that
+     *     have been added to this consumer
+     */
+    void finish(int numDocs) throws IOException {
+        if (numBufferedDocs > 0) {
+            flush(true);
+        }
+        while (pendingChunks.isEmpty() == false) {
+            writeChunk(pendingChunks.poll());
+        }
+        if (docBase != numDocs) {
+            throw new IllegalStateException(
+                    "wrote " + docBase + " docs, finish called with numDocs=" + numDocs);
+        }
+        metaStream.writeVInt(numDocs);
+        metaStream.writeVInt(maxDocsPerChunk);
+        metaStream.writeVInt(numChunks);
+        metaStream.writeVInt(numDirtyChunks);
+        metaStream.writeVInt(numDirtyDocs);
+        metaStream.writeVLong(fieldsStream.getFilePointer());
+        metaStream.writeString(FOOTER);
+        fieldsStream.writeString(FOOTER);
+        indexStream.writeString(FOOTER);
+    }
+
+    void close() throws IOException {
+        // chunks still in flight belong to an aborted segment, let them complete but ignore them
+        pendingChunks.clear();
+        IOException firstException = null;
+        for (IndexOutput out : new IndexOutput[] {metaStream, fieldsStream, indexStream}) {
+            if (out == null) {
+                continue;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (firstException == null) {
+                    firstException = e;
+                } else {
+                    firstException.addSuppressed(e);
+                }
+            }
+        }
+        metaStream = fieldsStream = indexStream = null;
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
 
     void writeField(FieldInfo info, IndexableField field) throws IOException {
         ++numStoredFieldsInDoc;
+
+        if (field instanceof PrimitiveStoredField) {
+            writePrimitive(info, (PrimitiveStoredField) field);
+            return;
+        }
+
         int bits = 0;
 
         Number number = field.numericValue();
@@ -145,9 +515,8 @@ class StoredFieldConsumer {
             }
         } else {
             bytes = field.binaryValue();
-            if(bytes == null) {
+            if(bytes != null) {
                 bits = BYTE_ARR;
-                string = null;
             } else {
                 bits = STRING;
                 string = field.stringValue();
@@ -160,7 +529,7 @@ class StoredFieldConsumer {
             }
         }
 
-        final long infoAndBits = (((long) info.number) << 3) | bits;
+        final long infoAndBits = (((long) info.number) << TYPE_BITS) | bits;
 
         bufferedDocs.writeVLong(infoAndBits);
 
@@ -183,4 +552,60 @@ class StoredFieldConsumer {
             }
         }
     }
+
+    /** Writes a primitive value without boxing it, the type code was computed by the field. */
+    private void writePrimitive(FieldInfo info, PrimitiveStoredField field) throws IOException {
+        final int type = field.storedType;
+        bufferedDocs.writeVLong((((long) info.number) << TYPE_BITS) | type);
+        final long bits = field.bits;
+        switch (type) {
+            case NUMERIC_INT:
+                bufferedDocs.writeZInt((int) bits);
+                break;
+            case NUMERIC_ZLONG:
+                bufferedDocs.writeZLong(bits);
+                break;
+            case NUMERIC_LONG:
+                bufferedDocs.writeTlong(bits);
+                break;
+            case NUMERIC_FLOAT:
+                bufferedDocs.writeZFloat(Float.intBitsToFloat((int) bits));
+                break;
+            case NUMERIC_DOUBLE:
+                bufferedDocs.writeZDouble(Double.longBitsToDouble(bits));
+                break;
+            default:
+                throw new AssertionError("unknown primitive stored type " + type);
+        }
+    }
+
+    /** A full chunk of buffered documents waiting to be compressed and written. */
+    private static final class PendingChunk {
+        final int docBase;
+        final int numDocs;
+        final int[] numStoredFields;
+        final int[] lengths;
+        final boolean dirty;
+        final ByteBuffersDataOutput buffer;
+        CompletableFuture<byte[]> compressed;
+
+        PendingChunk(
+                int docBase,
+                int numDocs,
+                int[] numStoredFields,
+                int[] lengths,
+                boolean dirty,
+                ByteBuffersDataOutput buffer) {
+            this.docBase = docBase;
+            this.numDocs = numDocs;
+            this.numStoredFields = numStoredFields;
+            this.lengths = lengths;
+            this.dirty = dirty;
+            this.buffer = buffer;
+        }
+
+        byte[] compress(CompressionMode compressionMode) {
+            return compressionMode.compress(buffer);
+        }
+    }
 }
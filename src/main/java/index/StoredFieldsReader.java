@@ -0,0 +1,233 @@
+package index;
+
+import store.Directory;
+import store.IndexInput;
+import util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static index.StoredFieldConsumer.FIELDS_EXTENSION;
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+import static index.StoredFieldConsumer.INDEX_EXTENSION;
+import static index.StoredFieldConsumer.META_EXTENSION;
+
+/**
+ * Reads the stored fields of a segment written by {@link StoredFieldConsumer}.
+ *
+ * <p>The chunk index ({@code fdx}) is loaded in memory when the reader is opened, chunks are
+ * decompressed on demand and the last decompressed chunk is kept around since documents are
+ * usually visited in order. Not thread-safe.
+ */
+final class StoredFieldsReader implements Closeable {
+
+    private final IndexInput fieldsStream;
+
+    private final CompressionMode compressionMode;
+
+    private final int numDocs;
+
+    private final int maxDocsPerChunk;
+
+    private final int numDirtyChunks;
+
+    private final int numDirtyDocs;
+
+    /** End of the last chunk in the {@code fdt} file */
+    private final long maxPointer;
+
+    private final int[] chunkDocBases;
+
+    private final int[] chunkNumDocs;
+
+    private final long[] chunkStartPointers;
+
+    // state of the last decompressed chunk
+    private int currentChunk = -1;
+    private int[] numStoredFields = new int[0];
+    private int[] offsets = new int[1];
+    private byte[] compressed = new byte[0];
+    private byte[] decompressed = new byte[0];
+
+    StoredFieldsReader(Directory directory, SegmentInfo si) throws IOException {
+        final String segment = si.name;
+        boolean success = false;
+        IndexInput fieldsStream = null;
+        try (IndexInput metaStream =
+                     directory.openInput(IndexFileNames.segmentFileName(segment, "", META_EXTENSION));
+             IndexInput indexStream =
+                     directory.openInput(IndexFileNames.segmentFileName(segment, "", INDEX_EXTENSION))) {
+            checkString(metaStream, HEADER);
+            final int mode = metaStream.readVInt();
+            if (mode < 0 || mode >= CompressionMode.values().length) {
+                throw new IOException("unknown compression mode " + mode + " in " + metaStream);
+            }
+            compressionMode = CompressionMode.values()[mode];
+            numDocs = metaStream.readVInt();
+            maxDocsPerChunk = metaStream.readVInt();
+            final int numChunks = metaStream.readVInt();
+            numDirtyChunks = metaStream.readVInt();
+            numDirtyDocs = metaStream.readVInt();
+            maxPointer = metaStream.readVLong();
+            checkString(metaStream, FOOTER);
+
+            checkString(indexStream, HEADER);
+            chunkDocBases = new int[numChunks];
+            chunkNumDocs = new int[numChunks];
+            chunkStartPointers = new long[numChunks];
+            for (int i = 0; i < numChunks; ++i) {
+                chunkDocBases[i] = indexStream.readVInt();
+                chunkNumDocs[i] = indexStream.readVInt();
+                chunkStartPointers[i] = indexStream.readVLong();
+            }
+            checkString(indexStream, FOOTER);
+
+            fieldsStream =
+                    directory.openInput(IndexFileNames.segmentFileName(segment, "", FIELDS_EXTENSION));
+            checkString(fieldsStream, HEADER);
+            this.fieldsStream = fieldsStream;
+            success = true;
+        } finally {
+            if (success == false && fieldsStream != null) {
+                fieldsStream.close();
+            }
+        }
+    }
+
+    private static void checkString(IndexInput in, String expected) throws IOException {
+        final String actual = in.readString();
+        if (expected.equals(actual) == false) {
+            throw new IOException("expected " + expected + " but got " + actual + " in " + in);
+        }
+    }
+
+    CompressionMode compressionMode() {
+        return compressionMode;
+    }
+
+    int numDocs() {
+        return numDocs;
+    }
+
+    int maxDocsPerChunk() {
+        return maxDocsPerChunk;
+    }
+
+    int numChunks() {
+        return chunkDocBases.length;
+    }
+
+    int numDirtyChunks() {
+        return numDirtyChunks;
+    }
+
+    int numDirtyDocs() {
+        return numDirtyDocs;
+    }
+
+    int chunkDocBase(int chunk) {
+        return chunkDocBases[chunk];
+    }
+
+    int chunkNumDocs(int chunk) {
+        return chunkNumDocs[chunk];
+    }
+
+    long chunkStartPointer(int chunk) {
+        return chunkStartPointers[chunk];
+    }
+
+    long chunkEndPointer(int chunk) {
+        return chunk + 1 < chunkStartPointers.length ? chunkStartPointers[chunk + 1] : maxPointer;
+    }
+
+    /** Whether the chunk was flushed before it was full. */
+    boolean isDirtyChunk(int chunk) throws IOException {
+        final IndexInput in = chunkInput(chunk);
+        in.readVInt(); // docBase
+        return (in.readVInt() & 1) != 0;
+    }
+
+    /**
+     * Returns a clone of the {@code fdt} input positioned at the start of the chunk, that is on its
+     * docBase. The chunk ends at {@link #chunkEndPointer(int)}.
+     */
+    IndexInput chunkInput(int chunk) throws IOException {
+        final IndexInput in = fieldsStream.clone();
+        in.seek(chunkStartPointers[chunk]);
+        return in;
+    }
+
+    /** Returns the serialized fields of {@code docID}, valid until the next call to this method. */
+    SerializedDocument serializedDocument(int docID) throws IOException {
+        if (docID < 0 || docID >= numDocs) {
+            throw new IllegalArgumentException("docID must be in [0, " + numDocs + "), got " + docID);
+        }
+        if (currentChunk == -1
+                || docID < chunkDocBases[currentChunk]
+                || docID >= chunkDocBases[currentChunk] + chunkNumDocs[currentChunk]) {
+            int chunk = Arrays.binarySearch(chunkDocBases, docID);
+            if (chunk < 0) {
+                chunk = -2 - chunk;
+            }
+            loadChunk(chunk);
+        }
+        final int index = docID - chunkDocBases[currentChunk];
+        return new SerializedDocument(
+                new BytesRef(decompressed, offsets[index], offsets[index + 1] - offsets[index]),
+                numStoredFields[index]);
+    }
+
+    private void loadChunk(int chunk) throws IOException {
+        fieldsStream.seek(chunkStartPointers[chunk]);
+        final int docBase = fieldsStream.readVInt();
+        final int token = fieldsStream.readVInt();
+        final int chunkDocs = token >>> 1;
+        if (docBase != chunkDocBases[chunk] || chunkDocs != chunkNumDocs[chunk]) {
+            throw new IOException(
+                    "corrupt chunk " + chunk + ": docBase=" + docBase + ", numDocs=" + chunkDocs
+                            + " but the index says docBase=" + chunkDocBases[chunk]
+                            + ", numDocs=" + chunkNumDocs[chunk] + " (resource=" + fieldsStream + ")");
+        }
+        if (numStoredFields.length < chunkDocs) {
+            numStoredFields = new int[chunkDocs];
+            offsets = new int[chunkDocs + 1];
+        }
+        for (int i = 0; i < chunkDocs; ++i) {
+            numStoredFields[i] = fieldsStream.readVInt();
+        }
+        for (int i = 0; i < chunkDocs; ++i) {
+            offsets[i + 1] = offsets[i] + fieldsStream.readVInt();
+        }
+        final int compressedLength = fieldsStream.readVInt();
+        if (compressed.length < compressedLength) {
+            compressed = new byte[compressedLength];
+        }
+        fieldsStream.readBytes(compressed, 0, compressedLength);
+        if (decompressed.length < offsets[chunkDocs]) {
+            decompressed = new byte[offsets[chunkDocs]];
+        }
+        compressionMode.decompress(compressed, 0, compressedLength, decompressed, offsets[chunkDocs]);
+        currentChunk = chunk;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fieldsStream.close();
+    }
+
+    /** The raw bytes of a stored document, as they were buffered by the writer. */
+    static final class SerializedDocument {
+
+        final BytesRef bytes;
+
+        final int numStoredFields;
+
+        SerializedDocument(BytesRef bytes, int numStoredFields) {
+            this.bytes = bytes;
+            this.numStoredFields = numStoredFields;
+        }
+    }
+}
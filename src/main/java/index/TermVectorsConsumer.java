@@ -0,0 +1,476 @@
+package index;
+
+import store.ByteBuffersDataOutput;
+import store.Directory;
+import store.IndexOutput;
+import util.Accountable;
+import util.ArrayUtil;
+import util.BytesRef;
+import util.BytesRefHash;
+import util.IOUtils;
+import util.IntroSorter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+
+/**
+ * Buffers the term vectors of documents into chunks and writes them compressed to the {@code tvd}
+ * file, with one entry per chunk in the {@code tvx} file, the same way {@link StoredFieldConsumer}
+ * writes stored fields.
+ *
+ * <p>The terms of all the vectors of a chunk are deduplicated into a chunk dictionary, sorted and
+ * prefix-compressed, and a field refers to its terms by their ordinal in that dictionary: a term
+ * that occurs in many documents of a chunk, which is the common case, has its bytes written once.
+ * Documents that have no term vector take a single byte in their chunk.
+ *
+ * <p>A chunk in the {@code tvd} file is laid out as:
+ *
+ * <pre>
+ *   docBase (vInt)
+ *   numDocs (vInt)
+ *   uncompressedLength (vInt)
+ *   compressedLength (vInt)
+ *   compressed bytes:
+ *     numFieldNames (vInt), fieldName (string) * numFieldNames
+ *     numFields (vInt) * numDocs
+ *     nameIndex (vInt), flags (byte), numTerms (vInt) * numFields of all docs
+ *     numUniqueTerms (vInt), prefixLength (vInt), suffixLength (vInt), suffix * numUniqueTerms
+ *     ordDelta (vInt), freq - 1 (vInt) * numTerms of all fields
+ *     positionDelta (vInt) * freq of all terms of the fields that have positions
+ *     startOffsetDelta (vInt), length (vInt) * freq of all terms of the fields that have offsets
+ * </pre>
+ *
+ * Field names are written in the chunk since a segment has no field infos file. Ordinals are delta
+ * coded within a field, positions and start offsets within a term.
+ */
+final class TermVectorsConsumer implements Accountable, Closeable {
+
+    public static final String VECTORS_EXTENSION = "tvd";
+
+    public static final String VECTORS_INDEX_EXTENSION = "tvx";
+
+    public static final String VECTORS_META_EXTENSION = "tvm";
+
+    /** The field has positions. */
+    static final int POSITIONS = 0x01;
+
+    /** The field has offsets. */
+    static final int OFFSETS = 0x02;
+
+    static final int MAX_DOCS_PER_CHUNK = 128;
+
+    /** Approximate number of uncompressed bytes of a chunk. */
+    static final int CHUNK_SIZE = 1 << 14;
+
+    private final CompressionMode compressionMode;
+
+    private IndexOutput vectorsStream, indexStream, metaStream;
+
+    private int numChunks;
+
+    private int docBase;
+
+    private int numBufferedDocs;
+
+    private int numFieldsInDoc;
+
+    /** Rough size of the buffered vectors, to trigger flushes. */
+    private long bufferedBytes;
+
+    // terms of all the vectors of the chunk
+    private final BytesRefHash terms = new BytesRefHash();
+
+    // field names of the chunk and their index
+    private final Map<String, Integer> fieldNameIndex = new HashMap<>();
+    private String[] fieldNames = new String[4];
+
+    private final int[] numFields = new int[MAX_DOCS_PER_CHUNK];
+
+    // fields of all docs of the chunk
+    private int numBufferedFields;
+    private int[] fieldNameIndexes = new int[16];
+    private int[] fieldFlags = new int[16];
+    private int[] fieldNumTerms = new int[16];
+
+    // terms of all fields of the chunk, sorted by bytes within a field
+    private int numBufferedTerms;
+    private int[] termIDs = new int[64];
+    private int[] termFreqs = new int[64];
+
+    // occurrences of all terms of the chunk, grouped by term
+    private int numPositions;
+    private int[] positions = new int[64];
+    private int numOffsets;
+    private int[] startOffsets = new int[64];
+    private int[] endOffsets = new int[64];
+
+    // per term ID of the field being added: index of the term in the field, or -1
+    private int[] termSlots = new int[0];
+    private int[] fieldTermIDs = new int[16];
+    private int[] fieldTermStarts = new int[16];
+    private int[] order = new int[16];
+
+    private final ByteBuffersDataOutput buffer = ByteBuffersDataOutput.newResettableInstance();
+    private final BytesRef scratch1 = new BytesRef();
+    private final BytesRef scratch2 = new BytesRef();
+
+    TermVectorsConsumer(Directory directory, SegmentInfo si) throws IOException {
+        this(directory, si, CompressionMode.FAST);
+    }
+
+    TermVectorsConsumer(Directory directory, SegmentInfo si, CompressionMode compressionMode) throws IOException {
+        this.compressionMode = compressionMode;
+        boolean success = false;
+        try {
+            metaStream = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", VECTORS_META_EXTENSION));
+            metaStream.writeString(HEADER);
+            metaStream.writeVInt(compressionMode.ordinal());
+            vectorsStream = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", VECTORS_EXTENSION));
+            vectorsStream.writeString(HEADER);
+            indexStream = directory.createOutput(IndexFileNames.segmentFileName(si.name, "", VECTORS_INDEX_EXTENSION));
+            indexStream.writeString(HEADER);
+            success = true;
+        } finally {
+            if (success == false) {
+                IOUtils.closeWhileHandlingException(this);
+            }
+        }
+    }
+
+    /**
+     * Adds a term to the dictionary of the current chunk and returns its ID, which is only valid
+     * until the current document is finished.
+     */
+    int addTerm(BytesRef term) {
+        int termID = terms.add(term);
+        if (termID < 0) {
+            termID = -termID - 1;
+        } else {
+            bufferedBytes += term.length;
+        }
+        return termID;
+    }
+
+    /**
+     * Adds the vector of a field of the current document. The tokens of the field are given in the
+     * order they were inverted, the term vector has them grouped by term, terms sorted by bytes.
+     */
+    void addField(String fieldName, boolean hasPositions, boolean hasOffsets,
+                  int numTokens, int[] tokenTermIDs, int[] tokenPositions, int[] tokenStartOffsets, int[] tokenEndOffsets) {
+        assert numTokens > 0;
+        if (termSlots.length < terms.size()) {
+            final int oldLength = termSlots.length;
+            termSlots = ArrayUtil.grow(termSlots, terms.size());
+            Arrays.fill(termSlots, oldLength, termSlots.length, -1);
+        }
+
+        // unique terms of the field and their frequencies
+        int numTerms = 0;
+        for (int i = 0; i < numTokens; ++i) {
+            final int termID = tokenTermIDs[i];
+            if (termSlots[termID] == -1) {
+                if (numTerms == fieldTermIDs.length) {
+                    fieldTermIDs = ArrayUtil.grow(fieldTermIDs, numTerms + 1);
+                    fieldTermStarts = ArrayUtil.grow(fieldTermStarts, numTerms + 1);
+                }
+                termSlots[termID] = numTerms;
+                fieldTermIDs[numTerms] = termID;
+                fieldTermStarts[numTerms] = 0;
+                numTerms++;
+            }
+            fieldTermStarts[termSlots[termID]]++;
+        }
+
+        final int[] sortedIDs = fieldTermIDs;
+        new IntroSorter() {
+            private final BytesRef pivot = new BytesRef();
+
+            @Override
+            protected void setPivot(int i) {
+                terms.get(sortedIDs[i], pivot);
+            }
+
+            @Override
+            protected int comparePivot(int j) {
+                return pivot.compareTo(terms.get(sortedIDs[j], scratch1));
+            }
+
+            @Override
+            protected int compare(int i, int j) {
+                return terms.get(sortedIDs[i], scratch1).compareTo(terms.get(sortedIDs[j], scratch2));
+            }
+
+            @Override
+            protected void swap(int i, int j) {
+                final int tmp = sortedIDs[i];
+                sortedIDs[i] = sortedIDs[j];
+                sortedIDs[j] = tmp;
+                final int tmpFreq = fieldTermStarts[i];
+                fieldTermStarts[i] = fieldTermStarts[j];
+                fieldTermStarts[j] = tmpFreq;
+            }
+        }.sort(0, numTerms);
+
+        // buffer the terms, then turn their frequencies into the start of their occurrences
+        growTerms(numBufferedTerms + numTerms);
+        int start = 0;
+        for (int i = 0; i < numTerms; ++i) {
+            final int termID = sortedIDs[i];
+            final int freq = fieldTermStarts[i];
+            termIDs[numBufferedTerms] = termID;
+            termFreqs[numBufferedTerms] = freq;
+            numBufferedTerms++;
+            termSlots[termID] = i;
+            fieldTermStarts[i] = start;
+            start += freq;
+        }
+        bufferedBytes += 2L * numTerms;
+
+        if (hasPositions || hasOffsets) {
+            // stable bucketing of the tokens by term keeps the occurrences of a term in order
+            if (order.length < numTokens) {
+                order = ArrayUtil.grow(order, numTokens);
+            }
+            for (int i = 0; i < numTokens; ++i) {
+                order[fieldTermStarts[termSlots[tokenTermIDs[i]]]++] = i;
+            }
+            if (hasPositions) {
+                if (positions.length < numPositions + numTokens) {
+                    positions = ArrayUtil.grow(positions, numPositions + numTokens);
+                }
+                for (int i = 0; i < numTokens; ++i) {
+                    positions[numPositions++] = tokenPositions[order[i]];
+                }
+                bufferedBytes += numTokens;
+            }
+            if (hasOffsets) {
+                if (startOffsets.length < numOffsets + numTokens) {
+                    startOffsets = ArrayUtil.grow(startOffsets, numOffsets + numTokens);
+                    endOffsets = ArrayUtil.grow(endOffsets, startOffsets.length);
+                }
+                for (int i = 0; i < numTokens; ++i) {
+                    startOffsets[numOffsets] = tokenStartOffsets[order[i]];
+                    endOffsets[numOffsets] = tokenEndOffsets[order[i]];
+                    numOffsets++;
+                }
+                bufferedBytes += 2L * numTokens;
+            }
+        }
+        for (int i = 0; i < numTerms; ++i) {
+            termSlots[sortedIDs[i]] = -1;
+        }
+
+        Integer nameIndex = fieldNameIndex.get(fieldName);
+        if (nameIndex == null) {
+            nameIndex = fieldNameIndex.size();
+            if (nameIndex == fieldNames.length) {
+                fieldNames = Arrays.copyOf(fieldNames, fieldNames.length << 1);
+            }
+            fieldNames[nameIndex] = fieldName;
+            fieldNameIndex.put(fieldName, nameIndex);
+            bufferedBytes += fieldName.length();
+        }
+        if (numBufferedFields == fieldNameIndexes.length) {
+            fieldNameIndexes = ArrayUtil.grow(fieldNameIndexes, numBufferedFields + 1);
+            fieldFlags = ArrayUtil.grow(fieldFlags, fieldNameIndexes.length);
+            fieldNumTerms = ArrayUtil.grow(fieldNumTerms, fieldNameIndexes.length);
+        }
+        fieldNameIndexes[numBufferedFields] = nameIndex;
+        fieldFlags[numBufferedFields] = (hasPositions ? POSITIONS : 0) | (hasOffsets ? OFFSETS : 0);
+        fieldNumTerms[numBufferedFields] = numTerms;
+        numBufferedFields++;
+        numFieldsInDoc++;
+    }
+
+    private void growTerms(int minSize) {
+        if (termIDs.length < minSize) {
+            termIDs = ArrayUtil.grow(termIDs, minSize);
+            termFreqs = ArrayUtil.grow(termFreqs, termIDs.length);
+        }
+    }
+
+    /**
+     * Finishes the given document, after adding empty vectors for the documents before it that had
+     * no term vector.
+     */
+    void finishDocument(int docID) throws IOException {
+        final int numFieldsInDoc = this.numFieldsInDoc;
+        this.numFieldsInDoc = 0;
+        fill(docID);
+        addDocument(numFieldsInDoc);
+    }
+
+    /** Adds empty vectors until the next document is {@code docID}. */
+    private void fill(int docID) throws IOException {
+        while (docBase + numBufferedDocs < docID) {
+            addDocument(0);
+        }
+    }
+
+    private void addDocument(int numFieldsInDoc) throws IOException {
+        numFields[numBufferedDocs++] = numFieldsInDoc;
+        if (numBufferedDocs == MAX_DOCS_PER_CHUNK || bufferedBytes >= CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    /** Serializes, compresses and writes the buffered documents as a chunk. */
+    private void flush() throws IOException {
+        buffer.reset();
+
+        buffer.writeVInt(fieldNameIndex.size());
+        for (int i = 0; i < fieldNameIndex.size(); ++i) {
+            buffer.writeString(fieldNames[i]);
+        }
+        for (int i = 0; i < numBufferedDocs; ++i) {
+            buffer.writeVInt(numFields[i]);
+        }
+        for (int i = 0; i < numBufferedFields; ++i) {
+            buffer.writeVInt(fieldNameIndexes[i]);
+            buffer.writeByte((byte) fieldFlags[i]);
+            buffer.writeVInt(fieldNumTerms[i]);
+        }
+
+        // the chunk dictionary, which maps term IDs to their ordinal
+        final int numUniqueTerms = terms.size();
+        final int[] sortedIDs = terms.sort();
+        final int[] ords = new int[numUniqueTerms];
+        buffer.writeVInt(numUniqueTerms);
+        BytesRef previous = scratch1;
+        BytesRef current = scratch2;
+        previous.length = 0;
+        for (int ord = 0; ord < numUniqueTerms; ++ord) {
+            ords[sortedIDs[ord]] = ord;
+            terms.get(sortedIDs[ord], current);
+            final int prefixLength = prefixLength(previous, current);
+            buffer.writeVInt(prefixLength);
+            buffer.writeVInt(current.length - prefixLength);
+            buffer.writeBytes(current.bytes, current.offset + prefixLength, current.length - prefixLength);
+            final BytesRef tmp = previous;
+            previous = current;
+            current = tmp;
+        }
+
+        int term = 0;
+        for (int i = 0; i < numBufferedFields; ++i) {
+            int previousOrd = 0;
+            for (int j = 0; j < fieldNumTerms[i]; ++j, ++term) {
+                final int ord = ords[termIDs[term]];
+                assert ord >= previousOrd;
+                buffer.writeVInt(ord - previousOrd);
+                buffer.writeVInt(termFreqs[term] - 1);
+                previousOrd = ord;
+            }
+        }
+
+        int position = 0;
+        term = 0;
+        for (int i = 0; i < numBufferedFields; ++i) {
+            if ((fieldFlags[i] & POSITIONS) == 0) {
+                term += fieldNumTerms[i];
+                continue;
+            }
+            for (int j = 0; j < fieldNumTerms[i]; ++j, ++term) {
+                int previousPosition = 0;
+                for (int k = 0; k < termFreqs[term]; ++k, ++position) {
+                    buffer.writeVInt(positions[position] - previousPosition);
+                    previousPosition = positions[position];
+                }
+            }
+        }
+        int offset = 0;
+        term = 0;
+        for (int i = 0; i < numBufferedFields; ++i) {
+            if ((fieldFlags[i] & OFFSETS) == 0) {
+                term += fieldNumTerms[i];
+                continue;
+            }
+            for (int j = 0; j < fieldNumTerms[i]; ++j, ++term) {
+                int previousStartOffset = 0;
+                for (int k = 0; k < termFreqs[term]; ++k, ++offset) {
+                    buffer.writeVInt(startOffsets[offset] - previousStartOffset);
+                    buffer.writeVInt(endOffsets[offset] - startOffsets[offset]);
+                    previousStartOffset = startOffsets[offset];
+                }
+            }
+        }
+        assert position == numPositions && offset == numOffsets;
+
+        final byte[] bytes = buffer.toArrayCopy();
+        final byte[] compressed = compressionMode.compress(bytes, 0, bytes.length);
+
+        indexStream.writeVInt(docBase);
+        indexStream.writeVInt(numBufferedDocs);
+        indexStream.writeVLong(vectorsStream.getFilePointer());
+
+        vectorsStream.writeVInt(docBase);
+        vectorsStream.writeVInt(numBufferedDocs);
+        vectorsStream.writeVInt(bytes.length);
+        vectorsStream.writeVInt(compressed.length);
+        vectorsStream.writeBytes(compressed, compressed.length);
+
+        numChunks++;
+        docBase += numBufferedDocs;
+        numBufferedDocs = 0;
+        numBufferedFields = 0;
+        numBufferedTerms = 0;
+        numPositions = 0;
+        numOffsets = 0;
+        bufferedBytes = 0;
+        terms.clear();
+        fieldNameIndex.clear();
+    }
+
+    /** Returns the length of the common prefix of the given terms. */
+    private static int prefixLength(BytesRef a, BytesRef b) {
+        final int mismatch = Arrays.mismatch(
+                a.bytes, a.offset, a.offset + a.length, b.bytes, b.offset, b.offset + b.length);
+        return mismatch == -1 ? a.length : mismatch;
+    }
+
+    /**
+     * Adds empty vectors for the documents that had none since the last one that had, flushes the
+     * last chunk and writes the meta file.
+     *
+     * @param numDocs the number of documents of the segment
+     */
+    void finish(int numDocs) throws IOException {
+        fill(numDocs);
+        if (numBufferedDocs > 0) {
+            flush();
+        }
+        if (docBase != numDocs) {
+            throw new IllegalStateException("wrote " + docBase + " docs, finish called with numDocs=" + numDocs);
+        }
+        metaStream.writeVInt(numDocs);
+        metaStream.writeVInt(numChunks);
+        metaStream.writeVLong(vectorsStream.getFilePointer());
+        metaStream.writeString(FOOTER);
+        vectorsStream.writeString(FOOTER);
+        indexStream.writeString(FOOTER);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return terms.ramBytesUsed()
+                + buffer.ramBytesUsed()
+                + (long) Integer.BYTES * (numFields.length + 3L * fieldNameIndexes.length + 2L * termIDs.length
+                        + positions.length + 2L * startOffsets.length + termSlots.length
+                        + 2L * fieldTermIDs.length + order.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            IOUtils.close(metaStream, vectorsStream, indexStream);
+        } finally {
+            metaStream = vectorsStream = indexStream = null;
+        }
+    }
+}
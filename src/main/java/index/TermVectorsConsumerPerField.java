@@ -0,0 +1,92 @@
+package index;
+
+import util.ArrayUtil;
+import util.BytesRef;
+
+/**
+ * Buffers the tokens of a field of the current document for its term vector, until the field is
+ * finished and the vector is handed over to the {@link TermVectorsConsumer}. The values of a field
+ * may be interleaved with other fields in a document, so each field buffers its own tokens.
+ */
+final class TermVectorsConsumerPerField {
+
+    private final String fieldName;
+
+    private final TermVectorsConsumer consumer;
+
+    // term vector options of the field in the current document
+    private boolean doVectors;
+    private boolean doVectorPositions;
+    private boolean doVectorOffsets;
+
+    private int numTokens;
+    private int[] termIDs = new int[16];
+    private int[] positions = new int[16];
+    private int[] startOffsets = new int[16];
+    private int[] endOffsets = new int[16];
+
+    TermVectorsConsumerPerField(String fieldName, TermVectorsConsumer consumer) {
+        this.fieldName = fieldName;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Starts the vector of the field in a new document, or checks that another value of the field
+     * in the same document has the same term vector options.
+     *
+     * @return whether the field stores a term vector in the current document
+     */
+    boolean start(IndexableFieldType type, boolean first) {
+        if (first) {
+            numTokens = 0;
+            doVectors = type.storeTermVectors();
+            doVectorPositions = type.storeTermVectorPositions();
+            doVectorOffsets = type.storeTermVectorOffsets();
+        } else {
+            if (doVectors != type.storeTermVectors()) {
+                throw new IllegalArgumentException(
+                        "all instances of a given field name must have the same term vectors settings"
+                                + " (storeTermVectors changed for field=\"" + fieldName + "\")");
+            }
+            if (doVectorPositions != type.storeTermVectorPositions()) {
+                throw new IllegalArgumentException(
+                        "all instances of a given field name must have the same term vectors settings"
+                                + " (storeTermVectorPositions changed for field=\"" + fieldName + "\")");
+            }
+            if (doVectorOffsets != type.storeTermVectorOffsets()) {
+                throw new IllegalArgumentException(
+                        "all instances of a given field name must have the same term vectors settings"
+                                + " (storeTermVectorOffsets changed for field=\"" + fieldName + "\")");
+            }
+        }
+        return doVectors;
+    }
+
+    /** Records a token of the field in the current document. */
+    void add(BytesRef term, int position, int startOffset, int endOffset) {
+        if (numTokens == termIDs.length) {
+            termIDs = ArrayUtil.grow(termIDs, numTokens + 1);
+            positions = ArrayUtil.grow(positions, termIDs.length);
+            startOffsets = ArrayUtil.grow(startOffsets, termIDs.length);
+            endOffsets = ArrayUtil.grow(endOffsets, termIDs.length);
+        }
+        termIDs[numTokens] = consumer.addTerm(term);
+        positions[numTokens] = position;
+        startOffsets[numTokens] = startOffset;
+        endOffsets[numTokens] = endOffset;
+        numTokens++;
+    }
+
+    /** Hands the vector of the field in the current document over to the consumer, if it has terms. */
+    void finish() {
+        if (doVectors && numTokens > 0) {
+            consumer.addField(
+                    fieldName, doVectorPositions, doVectorOffsets, numTokens, termIDs, positions, startOffsets, endOffsets);
+        }
+        numTokens = 0;
+    }
+
+    long ramBytesUsed() {
+        return 4L * Integer.BYTES * termIDs.length;
+    }
+}
@@ -0,0 +1,431 @@
+package index;
+
+import store.ByteArrayDataInput;
+import store.Directory;
+import store.IndexInput;
+import util.ArrayUtil;
+import util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static index.StoredFieldConsumer.FOOTER;
+import static index.StoredFieldConsumer.HEADER;
+import static index.TermVectorsConsumer.OFFSETS;
+import static index.TermVectorsConsumer.POSITIONS;
+import static index.TermVectorsConsumer.VECTORS_EXTENSION;
+import static index.TermVectorsConsumer.VECTORS_INDEX_EXTENSION;
+import static index.TermVectorsConsumer.VECTORS_META_EXTENSION;
+
+/**
+ * Reads the term vectors of a segment written by {@link TermVectorsConsumer}.
+ *
+ * <p>The chunk index ({@code tvx}) is loaded in memory when the reader is opened. A chunk is
+ * decompressed and decoded as a whole the first time one of its documents is requested, and the
+ * last decoded chunk is kept around since documents are usually visited in order. The term vector
+ * of a document is exposed as {@link Fields} whose terms enums iterate over the terms of the
+ * document only, with a single document, doc 0, in their postings. Not thread-safe.
+ */
+final class TermVectorsReader implements Closeable {
+
+    private final IndexInput vectorsStream;
+
+    private final CompressionMode compressionMode;
+
+    private final int numDocs;
+
+    private final int[] chunkDocBases;
+
+    private final long[] chunkStartPointers;
+
+    private Chunk currentChunk;
+
+    private byte[] compressed = new byte[0];
+
+    TermVectorsReader(Directory directory, SegmentInfo si) throws IOException {
+        final String segment = si.name;
+        boolean success = false;
+        IndexInput vectorsStream = null;
+        try (IndexInput metaStream =
+                     directory.openInput(IndexFileNames.segmentFileName(segment, "", VECTORS_META_EXTENSION));
+             IndexInput indexStream =
+                     directory.openInput(IndexFileNames.segmentFileName(segment, "", VECTORS_INDEX_EXTENSION))) {
+            checkString(metaStream, HEADER);
+            final int mode = metaStream.readVInt();
+            if (mode < 0 || mode >= CompressionMode.values().length) {
+                throw new IOException("unknown compression mode " + mode + " in " + metaStream);
+            }
+            compressionMode = CompressionMode.values()[mode];
+            numDocs = metaStream.readVInt();
+            final int numChunks = metaStream.readVInt();
+            metaStream.readVLong(); // end of the last chunk
+            checkString(metaStream, FOOTER);
+
+            checkString(indexStream, HEADER);
+            chunkDocBases = new int[numChunks];
+            chunkStartPointers = new long[numChunks];
+            for (int i = 0; i < numChunks; ++i) {
+                chunkDocBases[i] = indexStream.readVInt();
+                indexStream.readVInt(); // numDocs, also in the chunk
+                chunkStartPointers[i] = indexStream.readVLong();
+            }
+            checkString(indexStream, FOOTER);
+
+            vectorsStream = directory.openInput(IndexFileNames.segmentFileName(segment, "", VECTORS_EXTENSION));
+            checkString(vectorsStream, HEADER);
+            this.vectorsStream = vectorsStream;
+            success = true;
+        } finally {
+            if (success == false && vectorsStream != null) {
+                vectorsStream.close();
+            }
+        }
+    }
+
+    private static void checkString(IndexInput in, String expected) throws IOException {
+        final String actual = in.readString();
+        if (expected.equals(actual) == false) {
+            throw new IOException("expected " + expected + " but got " + actual + " in " + in);
+        }
+    }
+
+    int numDocs() {
+        return numDocs;
+    }
+
+    /**
+     * Returns the term vectors of the given document, or null if it has none. The returned instance
+     * stays valid after the next call to this method.
+     */
+    Fields get(int docID) throws IOException {
+        if (docID < 0 || docID >= numDocs) {
+            throw new IllegalArgumentException("docID must be in [0, " + numDocs + "), got " + docID);
+        }
+        if (currentChunk == null
+                || docID < currentChunk.docBase
+                || docID >= currentChunk.docBase + currentChunk.numDocs) {
+            int chunk = Arrays.binarySearch(chunkDocBases, docID);
+            if (chunk < 0) {
+                chunk = -2 - chunk;
+            }
+            currentChunk = loadChunk(chunk);
+        }
+        final Chunk chunk = currentChunk;
+        final int index = docID - chunk.docBase;
+        final int fromField = chunk.docFieldStarts[index];
+        final int toField = chunk.docFieldStarts[index + 1];
+        if (fromField == toField) {
+            return null;
+        }
+        return new Fields() {
+            @Override
+            public TermsEnum terms(String field) {
+                for (int i = fromField; i < toField; ++i) {
+                    if (chunk.fieldNames[chunk.fieldNameIndexes[i]].equals(field)) {
+                        return new TVTermsEnum(chunk, i);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private Chunk loadChunk(int chunk) throws IOException {
+        vectorsStream.seek(chunkStartPointers[chunk]);
+        final int docBase = vectorsStream.readVInt();
+        final int chunkDocs = vectorsStream.readVInt();
+        if (docBase != chunkDocBases[chunk]) {
+            throw new IOException(
+                    "corrupt chunk " + chunk + ": docBase=" + docBase + " but the index says docBase="
+                            + chunkDocBases[chunk] + " (resource=" + vectorsStream + ")");
+        }
+        final int length = vectorsStream.readVInt();
+        final int compressedLength = vectorsStream.readVInt();
+        if (compressed.length < compressedLength) {
+            compressed = new byte[ArrayUtil.oversize(compressedLength, 1)];
+        }
+        vectorsStream.readBytes(compressed, 0, compressedLength);
+        final byte[] bytes = new byte[length];
+        compressionMode.decompress(compressed, 0, compressedLength, bytes, length);
+        return new Chunk(docBase, chunkDocs, new ByteArrayDataInput(bytes));
+    }
+
+    @Override
+    public void close() throws IOException {
+        vectorsStream.close();
+    }
+
+    /** The decoded term vectors of all documents of a chunk. */
+    private static final class Chunk {
+
+        final int docBase;
+        final int numDocs;
+        final String[] fieldNames;
+        // fields of doc i are in [docFieldStarts[i], docFieldStarts[i+1])
+        final int[] docFieldStarts;
+        final int[] fieldNameIndexes;
+        final int[] fieldFlags;
+        // terms of field i are in [fieldTermStarts[i], fieldTermStarts[i+1])
+        final int[] fieldTermStarts;
+        // the chunk dictionary, the bytes of ord i are in [termByteStarts[i], termByteStarts[i+1])
+        final byte[] termBytes;
+        final int[] termByteStarts;
+        final int[] termOrds;
+        final int[] termFreqs;
+        // occurrences of term i are in [termOccurrenceStarts[i], termOccurrenceStarts[i+1])
+        final int[] termOccurrenceStarts;
+        final int[] positions;
+        final int[] startOffsets;
+        final int[] endOffsets;
+
+        Chunk(int docBase, int numDocs, ByteArrayDataInput in) throws IOException {
+            this.docBase = docBase;
+            this.numDocs = numDocs;
+
+            fieldNames = new String[in.readVInt()];
+            for (int i = 0; i < fieldNames.length; ++i) {
+                fieldNames[i] = in.readString();
+            }
+            docFieldStarts = new int[numDocs + 1];
+            for (int i = 0; i < numDocs; ++i) {
+                docFieldStarts[i + 1] = docFieldStarts[i] + in.readVInt();
+            }
+            final int numFields = docFieldStarts[numDocs];
+            fieldNameIndexes = new int[numFields];
+            fieldFlags = new int[numFields];
+            fieldTermStarts = new int[numFields + 1];
+            for (int i = 0; i < numFields; ++i) {
+                fieldNameIndexes[i] = in.readVInt();
+                if (fieldNameIndexes[i] >= fieldNames.length) {
+                    throw new IOException("invalid field name index " + fieldNameIndexes[i]);
+                }
+                fieldFlags[i] = in.readByte();
+                fieldTermStarts[i + 1] = fieldTermStarts[i] + in.readVInt();
+            }
+
+            final int numUniqueTerms = in.readVInt();
+            termByteStarts = new int[numUniqueTerms + 1];
+            byte[] termBytes = new byte[16];
+            for (int ord = 0; ord < numUniqueTerms; ++ord) {
+                final int prefixLength = in.readVInt();
+                final int suffixLength = in.readVInt();
+                final int start = termByteStarts[ord];
+                final int previousStart = ord == 0 ? 0 : termByteStarts[ord - 1];
+                if (termBytes.length < start + prefixLength + suffixLength) {
+                    termBytes = ArrayUtil.grow(termBytes, start + prefixLength + suffixLength);
+                }
+                System.arraycopy(termBytes, previousStart, termBytes, start, prefixLength);
+                in.readBytes(termBytes, start + prefixLength, suffixLength);
+                termByteStarts[ord + 1] = start + prefixLength + suffixLength;
+            }
+            this.termBytes = termBytes;
+
+            final int numTerms = fieldTermStarts[numFields];
+            termOrds = new int[numTerms];
+            termFreqs = new int[numTerms];
+            termOccurrenceStarts = new int[numTerms + 1];
+            for (int i = 0; i < numFields; ++i) {
+                int ord = 0;
+                for (int term = fieldTermStarts[i]; term < fieldTermStarts[i + 1]; ++term) {
+                    ord += in.readVInt();
+                    if (ord >= numUniqueTerms) {
+                        throw new IOException("invalid term ordinal " + ord + ", the chunk has " + numUniqueTerms + " terms");
+                    }
+                    termOrds[term] = ord;
+                    termFreqs[term] = in.readVInt() + 1;
+                    termOccurrenceStarts[term + 1] = termOccurrenceStarts[term] + termFreqs[term];
+                }
+            }
+
+            final int numOccurrences = termOccurrenceStarts[numTerms];
+            positions = new int[numOccurrences];
+            for (int i = 0; i < numFields; ++i) {
+                if ((fieldFlags[i] & POSITIONS) != 0) {
+                    for (int term = fieldTermStarts[i]; term < fieldTermStarts[i + 1]; ++term) {
+                        int position = 0;
+                        for (int j = termOccurrenceStarts[term]; j < termOccurrenceStarts[term + 1]; ++j) {
+                            position += in.readVInt();
+                            positions[j] = position;
+                        }
+                    }
+                }
+            }
+            startOffsets = new int[numOccurrences];
+            endOffsets = new int[numOccurrences];
+            for (int i = 0; i < numFields; ++i) {
+                if ((fieldFlags[i] & OFFSETS) != 0) {
+                    for (int term = fieldTermStarts[i]; term < fieldTermStarts[i + 1]; ++term) {
+                        int startOffset = 0;
+                        for (int j = termOccurrenceStarts[term]; j < termOccurrenceStarts[term + 1]; ++j) {
+                            startOffset += in.readVInt();
+                            startOffsets[j] = startOffset;
+                            endOffsets[j] = startOffset + in.readVInt();
+                        }
+                    }
+                }
+            }
+            if (in.eof() == false) {
+                throw new IOException("chunk of docBase=" + docBase + " has trailing bytes");
+            }
+        }
+    }
+
+    /** Iterates over the terms of a field in the vector of a document. */
+    private static final class TVTermsEnum extends TermsEnum {
+
+        private final Chunk chunk;
+        private final int fieldIndex;
+        private final int from;
+        private final int to;
+        private final BytesRef term = new BytesRef();
+        private int current;
+
+        TVTermsEnum(Chunk chunk, int fieldIndex) {
+            this.chunk = chunk;
+            this.fieldIndex = fieldIndex;
+            this.from = chunk.fieldTermStarts[fieldIndex];
+            this.to = chunk.fieldTermStarts[fieldIndex + 1];
+            this.current = from - 1;
+        }
+
+        private void setTerm(int index) {
+            final int ord = chunk.termOrds[index];
+            term.bytes = chunk.termBytes;
+            term.offset = chunk.termByteStarts[ord];
+            term.length = chunk.termByteStarts[ord + 1] - term.offset;
+        }
+
+        private int compareTerm(int index, BytesRef text) {
+            final int ord = chunk.termOrds[index];
+            return Arrays.compareUnsigned(
+                    chunk.termBytes, chunk.termByteStarts[ord], chunk.termByteStarts[ord + 1],
+                    text.bytes, text.offset, text.offset + text.length);
+        }
+
+        @Override
+        public BytesRef next() {
+            if (current + 1 >= to) {
+                current = to;
+                return null;
+            }
+            setTerm(++current);
+            return term;
+        }
+
+        @Override
+        public SeekStatus seekCeil(BytesRef text) {
+            int low = from;
+            int high = to - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compareTerm(mid, text);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    setTerm(current = mid);
+                    return SeekStatus.FOUND;
+                }
+            }
+            if (low == to) {
+                current = to;
+                return SeekStatus.END;
+            }
+            setTerm(current = low);
+            return SeekStatus.NOT_FOUND;
+        }
+
+        @Override
+        public boolean seekExact(BytesRef text) {
+            return seekCeil(text) == SeekStatus.FOUND;
+        }
+
+        @Override
+        public BytesRef term() {
+            return term;
+        }
+
+        @Override
+        public int docFreq() {
+            return 1;
+        }
+
+        @Override
+        public long totalTermFreq() {
+            return chunk.termFreqs[current];
+        }
+
+        @Override
+        public PostingsEnum postings(PostingsEnum reuse, int flags) {
+            final TVPostingsEnum postings =
+                    reuse instanceof TVPostingsEnum ? (TVPostingsEnum) reuse : new TVPostingsEnum();
+            final int fieldFlags = chunk.fieldFlags[fieldIndex];
+            postings.reset(
+                    chunk,
+                    current,
+                    PostingsEnum.featureRequested(flags, PostingsEnum.POSITIONS) && (fieldFlags & POSITIONS) != 0,
+                    PostingsEnum.featureRequested(flags, PostingsEnum.OFFSETS) && (fieldFlags & OFFSETS) != 0);
+            return postings;
+        }
+    }
+
+    /** The postings of a term in the vector of a document: a single document, doc 0. */
+    private static final class TVPostingsEnum extends PostingsEnum {
+
+        private Chunk chunk;
+        private boolean hasPositions;
+        private boolean hasOffsets;
+        private int freq;
+        private int occurrence;
+        private int nextOccurrence;
+        private int doc;
+
+        void reset(Chunk chunk, int term, boolean hasPositions, boolean hasOffsets) {
+            this.chunk = chunk;
+            this.hasPositions = hasPositions;
+            this.hasOffsets = hasOffsets;
+            freq = chunk.termFreqs[term];
+            occurrence = -1;
+            nextOccurrence = chunk.termOccurrenceStarts[term];
+            doc = -1;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return doc = doc == -1 ? 0 : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int advance(int target) {
+            return doc = target <= 0 && doc == -1 ? 0 : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int freq() {
+            return freq;
+        }
+
+        @Override
+        public int nextPosition() {
+            occurrence = nextOccurrence++;
+            return hasPositions ? chunk.positions[occurrence] : -1;
+        }
+
+        @Override
+        public int startOffset() {
+            return hasOffsets ? chunk.startOffsets[occurrence] : -1;
+        }
+
+        @Override
+        public int endOffset() {
+            return hasOffsets ? chunk.endOffsets[occurrence] : -1;
+        }
+    }
+}
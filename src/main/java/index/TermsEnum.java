@@ -0,0 +1,94 @@
+package index;
+
+import util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * Iterator to seek or step through the terms of a field, in unsigned byte order of their UTF-8
+ * bytes, and obtain the postings of the current term.
+ *
+ * <p>The enum is unpositioned when you first obtain it, you must call {@link #next()} first.
+ */
+public abstract class TermsEnum {
+
+    /** Sole constructor. (For invocation by subclass constructors, typically implicit.) */
+    protected TermsEnum() {}
+
+    /**
+     * Represents returned result from {@link #seekCeil}.
+     */
+    public enum SeekStatus {
+        /** The term was not found, and the end of iteration was hit. */
+        END,
+        /** The precise term was found. */
+        FOUND,
+        /** A different term was found after the requested term */
+        NOT_FOUND
+    }
+
+    /**
+     * Attempts to seek to the exact term, returning true if the term is found. If this returns false,
+     * the enum is unpositioned. For some codecs, seekExact may be substantially faster than {@link
+     * #seekCeil}.
+     *
+     * @return true if the term is found; return false if the enum is unpositioned.
+     */
+    public abstract boolean seekExact(BytesRef text) throws IOException;
+
+    /**
+     * Seeks to the specified term, if it exists, or to the next (ceiling) term. Returns SeekStatus to
+     * indicate whether exact term was found, a different term was found, or EOF was hit. The target
+     * term may be before or after the current term. If this returns SeekStatus.END, the enum is
+     * unpositioned.
+     */
+    public abstract SeekStatus seekCeil(BytesRef text) throws IOException;
+
+    /**
+     * Increments the iteration to the next {@link BytesRef} in the iterator. The returned BytesRef
+     * may be re-used across calls to next. After this method returns null, do not call it again:
+     * the results are undefined.
+     *
+     * @return the next BytesRef in the iterator or null if the end of the iterator is reached.
+     */
+    public abstract BytesRef next() throws IOException;
+
+    /** Returns current term. Do not call this when the enum is unpositioned. */
+    public abstract BytesRef term() throws IOException;
+
+    /**
+     * Returns the number of documents containing the current term. Do not call this when the enum is
+     * unpositioned.
+     */
+    public abstract int docFreq() throws IOException;
+
+    /**
+     * Returns the total number of occurrences of this term across all documents (the sum of the
+     * freq() for each doc that has this term). Note that, like other term measures, this measure does
+     * not take deleted documents into account. For fields indexed with {@link IndexOptions#DOCS},
+     * this is the {@link #docFreq()}.
+     */
+    public abstract long totalTermFreq() throws IOException;
+
+    /**
+     * Get {@link PostingsEnum} for the current term, with frequencies. Do not call this when the enum
+     * is unpositioned.
+     *
+     * @param reuse pass a prior PostingsEnum for possible reuse
+     * @see #postings(PostingsEnum, int)
+     */
+    public final PostingsEnum postings(PostingsEnum reuse) throws IOException {
+        return postings(reuse, PostingsEnum.FREQS);
+    }
+
+    /**
+     * Get {@link PostingsEnum} for the current term, with control over whether freqs, positions or
+     * offsets are required. Only what is requested is decoded, so that doc-only consumers never read
+     * positions. Do not call this when the enum is unpositioned.
+     *
+     * @param reuse pass a prior PostingsEnum for possible reuse
+     * @param flags specifies which optional per-document values you require; see {@link
+     *     PostingsEnum#FREQS}
+     */
+    public abstract PostingsEnum postings(PostingsEnum reuse, int flags) throws IOException;
+}
@@ -0,0 +1,160 @@
+package index;
+
+import util.ByteBlockPool;
+import util.BytesRef;
+import util.BytesRefHash;
+
+/**
+ * Inverts the terms of a single field into RAM. Terms are deduplicated by a {@link BytesRefHash}
+ * whose bytes live in a pool shared by all fields, and each term gets {@link #streamCount} byte
+ * streams in another shared pool, written as byte slices that grow in place. Per-term state lives in
+ * a {@link ParallelPostingsArray}, so no object is allocated per term or per occurrence.
+ *
+ * <p>Subclasses decide what is written to the streams in {@link #newTerm(int, int)} and {@link
+ * #addTerm(int, int)}.
+ */
+abstract class TermsHashPerField implements Comparable<TermsHashPerField> {
+
+    private static final int HASH_INIT_SIZE = 4;
+
+    private final ByteBlockPool bytePool;
+    private final int streamCount;
+    final String fieldName;
+    final IndexOptions indexOptions;
+    private final BytesRefHash bytesHash;
+
+    ParallelPostingsArray postingsArray;
+
+    // address of the first stream of the current term in postingsArray.streamAddresses
+    private int streamAddressOffset;
+
+    private int[] sortedTermIDs;
+
+    /**
+     * @param streamCount number of streams this field stores per term, e.g. 1 for doc/freq or 2 for
+     *     doc/freq and positions
+     * @param bytePool the pool the streams of the terms are written to
+     * @param termBytePool the pool the bytes of the terms are written to
+     * @param fieldName the field name
+     * @param indexOptions the options the field is indexed with
+     */
+    TermsHashPerField(
+            int streamCount,
+            ByteBlockPool bytePool,
+            ByteBlockPool termBytePool,
+            String fieldName,
+            IndexOptions indexOptions) {
+        this.bytePool = bytePool;
+        this.streamCount = streamCount;
+        this.fieldName = fieldName;
+        this.indexOptions = indexOptions;
+        this.bytesHash = new BytesRefHash(termBytePool, HASH_INIT_SIZE);
+        this.postingsArray = createPostingsArray(2);
+    }
+
+    /** Creates a new postings array of the specified size. */
+    abstract ParallelPostingsArray createPostingsArray(int size);
+
+    /** Called when a term is seen for the first time. */
+    abstract void newTerm(int termID, int docID);
+
+    /** Called when a previously seen term is seen again. */
+    abstract void addTerm(int termID, int docID);
+
+    /** Returns the number of unique terms of this field. */
+    final int getNumTerms() {
+        return bytesHash.size();
+    }
+
+    /**
+     * Returns the term IDs in term order. The hash table is collapsed and sorted in-place the first
+     * time this is called, no term can be added afterwards.
+     */
+    final int[] getSortedTermIDs() {
+        if (sortedTermIDs == null) {
+            sortedTermIDs = bytesHash.sort();
+        }
+        return sortedTermIDs;
+    }
+
+    /** Points the given {@link BytesRef} to the bytes of the given term, without copying them. */
+    final BytesRef getTerm(int termID, BytesRef ref) {
+        return bytesHash.get(termID, ref);
+    }
+
+    /** Positions the reader on the given stream of the given term. */
+    final void initReader(ByteSliceReader reader, int termID, int stream) {
+        assert stream < streamCount;
+        final int start = postingsArray.byteStarts[termID] + stream * ByteBlockPool.FIRST_LEVEL_SIZE;
+        reader.init(bytePool, start, postingsArray.streamAddresses[termID * streamCount + stream]);
+    }
+
+    /** Called once per inverted token, with the term bytes of the token. */
+    void add(BytesRef termBytes, final int docID) {
+        assert sortedTermIDs == null : "terms were already sorted";
+        // We are first in the chain so we must "intern" the
+        // term text into textStart address
+        // Get the text & hash of this term.
+        int termID = bytesHash.add(termBytes);
+        if (termID >= 0) {
+            initStreamSlices(termID, docID);
+        } else {
+            termID = -termID - 1;
+            streamAddressOffset = termID * streamCount;
+            addTerm(termID, docID);
+        }
+    }
+
+    private void initStreamSlices(int termID, int docID) {
+        if (termID >= postingsArray.size) {
+            postingsArray = postingsArray.grow();
+        }
+        if (bytePool.byteUpto > ByteBlockPool.BYTE_BLOCK_SIZE - streamCount * ByteBlockPool.FIRST_LEVEL_SIZE) {
+            // all streams of a term start in the same buffer so that stream i starts at
+            // byteStarts + i * FIRST_LEVEL_SIZE
+            bytePool.nextBuffer();
+        }
+        streamAddressOffset = termID * streamCount;
+        for (int i = 0; i < streamCount; i++) {
+            final int upto = bytePool.newSlice(ByteBlockPool.FIRST_LEVEL_SIZE);
+            postingsArray.streamAddresses[streamAddressOffset + i] = upto + bytePool.byteOffset;
+        }
+        postingsArray.byteStarts[termID] = postingsArray.streamAddresses[streamAddressOffset];
+        newTerm(termID, docID);
+    }
+
+    final void writeByte(int stream, byte b) {
+        final int streamAddress = streamAddressOffset + stream;
+        final int upto = postingsArray.streamAddresses[streamAddress];
+        byte[] bytes = bytePool.buffers[upto >> ByteBlockPool.BYTE_BLOCK_SHIFT];
+        assert bytes != null;
+        int offset = upto & ByteBlockPool.BYTE_BLOCK_MASK;
+        if (bytes[offset] != 0) {
+            // End of slice; allocate a new one
+            offset = bytePool.allocSlice(bytes, offset);
+            bytes = bytePool.buffer;
+            postingsArray.streamAddresses[streamAddress] = offset + bytePool.byteOffset;
+        }
+        bytes[offset] = b;
+        postingsArray.streamAddresses[streamAddress]++;
+    }
+
+    final void writeVInt(int stream, int i) {
+        assert stream < streamCount;
+        while ((i & ~0x7F) != 0) {
+            writeByte(stream, (byte) ((i & 0x7f) | 0x80));
+            i >>>= 7;
+        }
+        writeByte(stream, (byte) i);
+    }
+
+    /** Returns the RAM used by the hash and the per-term arrays, the shared pools excluded. */
+    long ramBytesUsed() {
+        return bytesHash.ramBytesUsed() + (long) postingsArray.size * postingsArray.bytesPerPosting();
+    }
+
+    @Override
+    public final int compareTo(TermsHashPerField other) {
+        return fieldName.compareTo(other.fieldName);
+    }
+}
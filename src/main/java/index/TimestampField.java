@@ -0,0 +1,26 @@
+package index;
+
+/**
+ * A stored-only field holding a timestamp in milliseconds since the epoch. It is stored with
+ * {@link store.DataOutput#writeTlong(long)}, which takes fewer bytes when the timestamp has second,
+ * hour or day precision.
+ */
+public final class TimestampField extends PrimitiveStoredField {
+
+    public TimestampField(String name, long epochMillis) {
+        super(name, StoredFieldConsumer.NUMERIC_LONG, epochMillis);
+    }
+
+    public long longValue() {
+        return bits;
+    }
+
+    public void setLongValue(long epochMillis) {
+        bits = epochMillis;
+    }
+
+    @Override
+    public Number numericValue() {
+        return longValue();
+    }
+}
@@ -0,0 +1,66 @@
+package store;
+
+import util.BytesRef;
+
+/**
+ * DataInput backed by a byte array. <b>WARNING:</b> This class omits all low-level checks.
+ *
+ * @lucene.experimental
+ */
+public final class ByteArrayDataInput extends DataInput {
+
+    private byte[] bytes;
+
+    private int pos;
+    private int limit;
+
+    public ByteArrayDataInput(byte[] bytes) {
+        reset(bytes);
+    }
+
+    public ByteArrayDataInput(byte[] bytes, int offset, int len) {
+        reset(bytes, offset, len);
+    }
+
+    public ByteArrayDataInput() {
+        reset(BytesRef.EMPTY_BYTES);
+    }
+
+    public void reset(byte[] bytes) {
+        reset(bytes, 0, bytes.length);
+    }
+
+    public void reset(byte[] bytes, int offset, int len) {
+        this.bytes = bytes;
+        pos = offset;
+        limit = offset + len;
+    }
+
+    public int getPosition() {
+        return pos;
+    }
+
+    public void setPosition(int pos) {
+        this.pos = pos;
+    }
+
+    public boolean eof() {
+        return pos == limit;
+    }
+
+    @Override
+    public byte readByte() {
+        return bytes[pos++];
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len) {
+        System.arraycopy(bytes, pos, b, offset, len);
+        pos += len;
+    }
+
+    @Override
+    public void skipBytes(long count) {
+        pos += count;
+    }
+}
@@ -1,5 +1,6 @@
 package store;
 
+import util.Accountable;
 import util.BitUtils;
 import util.BytesRef;
 
@@ -18,7 +19,7 @@ import java.util.function.Consumer;
 import java.util.function.IntConsumer;
 import java.util.function.IntFunction;
 
-public final class ByteBuffersDataOutput extends DataOutput{
+public final class ByteBuffersDataOutput extends DataOutput implements Accountable {
 
     private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
 
@@ -328,6 +329,13 @@ public final class ByteBuffersDataOutput extends DataOutput{
         }
     }
 
+    /** @return The capacity of all blocks allocated by this output, in bytes. */
+    @Override
+    public long ramBytesUsed() {
+        assert ramBytesUsed == blocks.stream().mapToLong(ByteBuffer::capacity).sum();
+        return ramBytesUsed;
+    }
+
     /** @return The number of bytes written to this output so far. */
     public long size() {
         long size = 0;
@@ -468,6 +476,7 @@ public final class ByteBuffersDataOutput extends DataOutput{
         ;
         assert currentBlock.capacity() == requiredBlockSize;
         blocks.add(currentBlock);
+        ramBytesUsed += currentBlock.capacity();
     }
 
     private void rewriteToBlockSize(int targetBlockBits) {
@@ -490,6 +499,7 @@ public final class ByteBuffersDataOutput extends DataOutput{
         assert blocks.isEmpty();
         this.blockBits = targetBlockBits;
         blocks.addAll(cloned.blocks);
+        ramBytesUsed = cloned.ramBytesUsed;
     }
 
     private static int computeBlockSizeBitsFor(long bytes) {
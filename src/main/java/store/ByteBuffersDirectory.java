@@ -0,0 +1,80 @@
+package store;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A heap-based {@link Directory} whose files are held in {@link ByteBuffersDataOutput}s. A file is
+ * listed as soon as it is created, and an input only sees the bytes that were written to the file
+ * when it was opened.
+ *
+ * <p>This is mostly useful for tests and benchmarks, nothing is persisted.
+ */
+public final class ByteBuffersDirectory extends Directory {
+
+    private final ConcurrentHashMap<String, ByteBuffersDataOutput> files = new ConcurrentHashMap<>();
+
+    private volatile boolean isOpen = true;
+
+    @Override
+    public String[] listAll() throws IOException {
+        ensureOpen();
+        final String[] names = files.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Override
+    public void deleteFile(String name) throws IOException {
+        ensureOpen();
+        if (files.remove(name) == null) {
+            throw new NoSuchFileException(name);
+        }
+    }
+
+    @Override
+    public long fileLength(String name) throws IOException {
+        ensureOpen();
+        return getFile(name).size();
+    }
+
+    @Override
+    public IndexOutput createOutput(String name) throws IOException {
+        ensureOpen();
+        final ByteBuffersDataOutput file = new ByteBuffersDataOutput();
+        if (files.putIfAbsent(name, file) != null) {
+            throw new FileAlreadyExistsException(name);
+        }
+        return new ByteBuffersIndexOutput(file, "ByteBuffersIndexOutput(name=\"" + name + "\")", name);
+    }
+
+    @Override
+    public IndexInput openInput(String name) throws IOException {
+        ensureOpen();
+        return new ByteBuffersIndexInput(
+                getFile(name).toDataInput(), "ByteBuffersIndexInput(name=\"" + name + "\")");
+    }
+
+    private ByteBuffersDataOutput getFile(String name) throws NoSuchFileException {
+        final ByteBuffersDataOutput file = files.get(name);
+        if (file == null) {
+            throw new NoSuchFileException(name);
+        }
+        return file;
+    }
+
+    private void ensureOpen() {
+        if (isOpen == false) {
+            throw new IllegalStateException("this Directory is closed");
+        }
+    }
+
+    @Override
+    public void close() {
+        isOpen = false;
+        files.clear();
+    }
+}
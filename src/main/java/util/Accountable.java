@@ -0,0 +1,8 @@
+package util;
+
+/** An object whose RAM usage can be computed. */
+public interface Accountable {
+
+    /** Return the memory usage of this object in bytes. Negative values are illegal. */
+    long ramBytesUsed();
+}
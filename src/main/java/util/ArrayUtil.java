@@ -12,6 +12,7 @@ import java.util.Comparator;
 public final class ArrayUtil {
 
     /** Maximum length for an array (Integer.MAX_VALUE - RamUsageEstimator.NUM_BYTES_ARRAY_HEADER). */
+    public static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 16;
 
     private ArrayUtil() {} // no instance
 
@@ -209,6 +210,109 @@ public final class ArrayUtil {
         return copy;
     }
 
+    /**
+     * Returns an array size &gt;= minTargetSize, generally over-allocating exponentially to achieve
+     * amortized linear-time cost as the array grows.
+     *
+     * <p>NOTE: this was originally borrowed from Python 2.4.2 listobject.c sources (attribution in
+     * LICENSE.txt), but has now been substantially changed based on discussions from java-dev thread
+     * with subject "Dynamic array reallocation algorithms", started on Jan 12 2010.
+     *
+     * @param minTargetSize Minimum required value to be returned.
+     * @param bytesPerElement Bytes used by each element of the array.
+     */
+    public static int oversize(int minTargetSize, int bytesPerElement) {
+        if (minTargetSize < 0) {
+            // catch usage that accidentally overflows int
+            throw new IllegalArgumentException("invalid array size " + minTargetSize);
+        }
+        if (minTargetSize == 0) {
+            // wait until at least one element is requested
+            return 0;
+        }
+        if (minTargetSize > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException(
+                    "requested array size "
+                            + minTargetSize
+                            + " exceeds maximum array in java ("
+                            + MAX_ARRAY_LENGTH
+                            + ")");
+        }
+
+        // asymptotic exponential growth by 1/8th, favors
+        // spending a bit more CPU to not tie up too much wasted
+        // RAM:
+        int extra = minTargetSize >> 3;
+        if (extra < 3) {
+            // for very small arrays, where constant overhead of
+            // realloc is presumably relatively high, we grow
+            // faster
+            extra = 3;
+        }
+        int newSize = minTargetSize + extra;
+        // add 7 to allow for worst case byte alignment addition below:
+        if (newSize + 7 < 0 || newSize + 7 > MAX_ARRAY_LENGTH) {
+            // int overflowed, or we went above the max array size
+            return MAX_ARRAY_LENGTH;
+        }
+        // round up to 8 byte alignment, for the usual 64 bit JVM
+        switch (bytesPerElement) {
+            case 4:
+                // round up to multiple of 2
+                return (newSize + 1) & 0x7ffffffe;
+            case 2:
+                // round up to multiple of 4
+                return (newSize + 3) & 0x7ffffffc;
+            case 1:
+                // round up to multiple of 8
+                return (newSize + 7) & 0x7ffffff8;
+            case 8:
+                // no rounding
+            default:
+                // odd (invalid?) size
+                return newSize;
+        }
+    }
+
+    /**
+     * Returns an array whose size is at least {@code minSize}, generally over-allocating
+     * exponentially
+     */
+    public static int[] grow(int[] array, int minSize) {
+        assert minSize >= 0 : "size must be positive (got " + minSize + "): likely integer overflow?";
+        if (array.length < minSize) {
+            return Arrays.copyOf(array, oversize(minSize, Integer.BYTES));
+        } else {
+            return array;
+        }
+    }
+
+    /**
+     * Returns an array whose size is at least {@code minSize}, generally over-allocating
+     * exponentially
+     */
+    public static long[] grow(long[] array, int minSize) {
+        assert minSize >= 0 : "size must be positive (got " + minSize + "): likely integer overflow?";
+        if (array.length < minSize) {
+            return Arrays.copyOf(array, oversize(minSize, Long.BYTES));
+        } else {
+            return array;
+        }
+    }
+
+    /**
+     * Returns an array whose size is at least {@code minSize}, generally over-allocating
+     * exponentially
+     */
+    public static byte[] grow(byte[] array, int minSize) {
+        assert minSize >= 0 : "size must be positive (got " + minSize + "): likely integer overflow?";
+        if (array.length < minSize) {
+            return Arrays.copyOf(array, oversize(minSize, Byte.BYTES));
+        } else {
+            return array;
+        }
+    }
+
     /** Comparator for a fixed number of bytes. */
     @FunctionalInterface
     public static interface ByteArrayComparator {
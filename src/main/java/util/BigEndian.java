@@ -0,0 +1,55 @@
+package util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Reads and writes big endian values in byte arrays, for encodings that are big endian by
+ * definition rather than for backwards compatibility: sortable bytes must compare in unsigned byte
+ * order, and a 2-byte length must have its flag bit in the first byte. Anything else should use the
+ * little endian handles of {@link BitUtils}.
+ *
+ * @lucene.internal
+ */
+public final class BigEndian {
+
+    private BigEndian() {} // no instance
+
+    private static final VarHandle VH_SHORT =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle VH_INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle VH_LONG =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /** Reads the big endian short at the given offset. */
+    public static short readShort(byte[] bytes, int offset) {
+        return (short) VH_SHORT.get(bytes, offset);
+    }
+
+    /** Writes the given short at the given offset, big endian. */
+    public static void writeShort(byte[] bytes, int offset, short value) {
+        VH_SHORT.set(bytes, offset, value);
+    }
+
+    /** Reads the big endian int at the given offset. */
+    public static int readInt(byte[] bytes, int offset) {
+        return (int) VH_INT.get(bytes, offset);
+    }
+
+    /** Writes the given int at the given offset, big endian. */
+    public static void writeInt(byte[] bytes, int offset, int value) {
+        VH_INT.set(bytes, offset, value);
+    }
+
+    /** Reads the big endian long at the given offset. */
+    public static long readLong(byte[] bytes, int offset) {
+        return (long) VH_LONG.get(bytes, offset);
+    }
+
+    /** Writes the given long at the given offset, big endian. */
+    public static void writeLong(byte[] bytes, int offset, long value) {
+        VH_LONG.set(bytes, offset, value);
+    }
+}
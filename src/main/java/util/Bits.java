@@ -0,0 +1,22 @@
+package util;
+
+/**
+ * Interface for Bitset-like structures.
+ *
+ * <p>Used to tell which documents of a segment are still live, a {@code null} {@link Bits} meaning
+ * that all documents are live.
+ */
+public interface Bits {
+
+    /**
+     * Returns the value of the bit with the specified <code>index</code>.
+     *
+     * @param index index, should be non-negative and &lt; {@link #length()}. The result of passing
+     *     negative or out of bounds values is undefined by this interface, <b>just don't do it!</b>
+     * @return <code>true</code> if the bit is set, <code>false</code> otherwise.
+     */
+    boolean get(int index);
+
+    /** Returns the number of bits in this set */
+    int length();
+}
@@ -0,0 +1,192 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Stores many small byte sequences into shared fixed-size byte[] blocks, so that indexing doesn't
+ * allocate an array per term. A value is addressed by a single int, the index of its block shifted
+ * by {@link #BYTE_BLOCK_SHIFT} plus its offset in the block, see {@link #append(BytesRef)} and
+ * {@link #setBytesRef(BytesRef, int)}.
+ *
+ * <p>The pool can also hold byte slices, streams that are appended to one byte at a time and grow
+ * in place: a slice starts with {@link #FIRST_LEVEL_SIZE} bytes and, once full, is chained to a
+ * larger one by overwriting its last 4 bytes with the address of the next slice, see {@link
+ * #newSlice(int)} and {@link #allocSlice(byte[], int)}. The end of a slice is marked by a non-zero
+ * byte, which is why a pool must be used for either values or slices, not both.
+ *
+ * @lucene.internal
+ */
+public final class ByteBlockPool implements Accountable {
+
+    public static final int BYTE_BLOCK_SHIFT = 15;
+    public static final int BYTE_BLOCK_SIZE = 1 << BYTE_BLOCK_SHIFT;
+    public static final int BYTE_BLOCK_MASK = BYTE_BLOCK_SIZE - 1;
+
+    /**
+     * An array holding the offset into the {@link ByteBlockPool#LEVEL_SIZE_ARRAY} to quickly
+     * navigate to the next slice level.
+     */
+    public static final int[] NEXT_LEVEL_ARRAY = {1, 2, 3, 4, 5, 6, 7, 8, 9, 9};
+
+    /** An array holding the level sizes for byte slices. */
+    public static final int[] LEVEL_SIZE_ARRAY = {5, 14, 20, 30, 40, 40, 80, 80, 120, 200};
+
+    /**
+     * The first level size for new slices
+     *
+     * @see ByteBlockPool#newSlice(int)
+     */
+    public static final int FIRST_LEVEL_SIZE = LEVEL_SIZE_ARRAY[0];
+
+    /**
+     * array of buffers currently used in the pool. Buffers are allocated if needed don't modify this
+     * outside of this class.
+     */
+    public byte[][] buffers = new byte[10][];
+
+    /** index into the buffers array pointing to the current buffer used as the head */
+    private int bufferUpto = -1; // Which buffer we are upto
+
+    /** Where we are in head buffer */
+    public int byteUpto = BYTE_BLOCK_SIZE;
+
+    /** Current head buffer */
+    public byte[] buffer;
+
+    /** Current head offset */
+    public int byteOffset = -BYTE_BLOCK_SIZE;
+
+    /**
+     * Resets the pool to its initial state, dropping all buffers. The pool can be reused
+     * afterwards.
+     */
+    public void reset() {
+        if (bufferUpto != -1) {
+            Arrays.fill(buffers, 0, bufferUpto + 1, null);
+            bufferUpto = -1;
+            byteUpto = BYTE_BLOCK_SIZE;
+            byteOffset = -BYTE_BLOCK_SIZE;
+            buffer = null;
+        }
+    }
+
+    /**
+     * Advances the pool to its next buffer. This method should be called once after the constructor
+     * to initialize the pool. In contrast to the constructor a {@link ByteBlockPool#reset()} call
+     * will advance the pool to its first buffer immediately.
+     */
+    public void nextBuffer() {
+        if (1 + bufferUpto == buffers.length) {
+            buffers = Arrays.copyOf(buffers, ArrayUtil.oversize(buffers.length + 1, Long.BYTES));
+        }
+        buffer = buffers[1 + bufferUpto] = new byte[BYTE_BLOCK_SIZE];
+        bufferUpto++;
+
+        byteUpto = 0;
+        byteOffset = Math.addExact(byteOffset, BYTE_BLOCK_SIZE);
+    }
+
+    /**
+     * Allocates a new slice with the given size and returns its offset in the current buffer.
+     *
+     * @see ByteBlockPool#FIRST_LEVEL_SIZE
+     */
+    public int newSlice(final int size) {
+        if (byteUpto > BYTE_BLOCK_SIZE - size) {
+            nextBuffer();
+        }
+        final int upto = byteUpto;
+        byteUpto += size;
+        buffer[byteUpto - 1] = 16;
+        return upto;
+    }
+
+    /**
+     * Creates a new byte slice with the given starting size and returns the slices offset in the
+     * pool. The slice that ends at <code>upto</code> in <code>slice</code> is chained to it: its last
+     * 3 bytes are moved to the new slice and replaced, together with the end marker, by the address
+     * of the new slice.
+     */
+    public int allocSlice(final byte[] slice, final int upto) {
+        final int level = slice[upto] & 15;
+        final int newLevel = NEXT_LEVEL_ARRAY[level];
+        final int newSize = LEVEL_SIZE_ARRAY[newLevel];
+
+        // Maybe allocate another block
+        if (byteUpto > BYTE_BLOCK_SIZE - newSize) {
+            nextBuffer();
+        }
+
+        final int newUpto = byteUpto;
+        final int offset = newUpto + byteOffset;
+        byteUpto += newSize;
+
+        // Copy forward the past 3 bytes (which we are about to overwrite with the forwarding
+        // address).
+        System.arraycopy(slice, upto - 3, buffer, newUpto, 3);
+
+        // Write forwarding address at end of last slice:
+        BitUtils.VH_LE_INT.set(slice, upto - 3, offset);
+
+        // Write new level:
+        buffer[byteUpto - 1] = (byte) (16 | newLevel);
+
+        return newUpto + 3;
+    }
+
+    /**
+     * Appends the bytes of the given {@link BytesRef}, prefixed with their length on 1 byte if the
+     * length is less than 128 and 2 bytes otherwise, and returns the address of the length prefix.
+     * The bytes never cross a buffer boundary.
+     *
+     * @throws IllegalArgumentException if the length is greater than {@code BYTE_BLOCK_SIZE - 2}
+     */
+    public int append(BytesRef bytes) {
+        final int length = bytes.length;
+        if (length > BYTE_BLOCK_SIZE - 2) {
+            throw new IllegalArgumentException(
+                    "bytes can be at most " + (BYTE_BLOCK_SIZE - 2) + " in length; got " + length);
+        }
+        if (length + 2 + byteUpto > BYTE_BLOCK_SIZE) {
+            // not enough room in current block, just skip to the next one
+            nextBuffer();
+        }
+        final int textStart = byteUpto + byteOffset;
+        if (length < 128) {
+            // 1 byte to store length
+            buffer[byteUpto] = (byte) length;
+            byteUpto += length + 1;
+            System.arraycopy(bytes.bytes, bytes.offset, buffer, byteUpto - length, length);
+        } else {
+            // 2 byte to store length
+            BigEndian.writeShort(buffer, byteUpto, (short) (length | 0x8000));
+            byteUpto += length + 2;
+            System.arraycopy(bytes.bytes, bytes.offset, buffer, byteUpto - length, length);
+        }
+        return textStart;
+    }
+
+    /**
+     * Points the given {@link BytesRef} to the bytes that have been appended at {@code textStart},
+     * see {@link #append(BytesRef)}. The bytes are not copied.
+     */
+    public void setBytesRef(BytesRef term, int textStart) {
+        final byte[] bytes = term.bytes = buffers[textStart >> BYTE_BLOCK_SHIFT];
+        int pos = textStart & BYTE_BLOCK_MASK;
+        if ((bytes[pos] & 0x80) == 0) {
+            // length is 1 byte
+            term.length = bytes[pos];
+            term.offset = pos + 1;
+        } else {
+            // length is 2 bytes
+            term.length = BigEndian.readShort(bytes, pos) & 0x7FFF;
+            term.offset = pos + 2;
+        }
+        assert term.length >= 0;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return (long) (bufferUpto + 1) * BYTE_BLOCK_SIZE + (long) buffers.length * Long.BYTES;
+    }
+}
@@ -45,6 +45,59 @@ public final class BytesRef implements Comparable<BytesRef>{
                 other.offset + other.length);
     }
 
+    /**
+     * Expert: compares the bytes against another BytesRef, returning true if the bytes are equal.
+     *
+     * @param other Another BytesRef, should not be null.
+     */
+    public boolean bytesEquals(BytesRef other) {
+        return Arrays.equals(
+                this.bytes,
+                this.offset,
+                this.offset + this.length,
+                other.bytes,
+                other.offset,
+                other.offset + other.length);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == null) {
+            return false;
+        }
+        if (other instanceof BytesRef) {
+            return this.bytesEquals((BytesRef) other);
+        }
+        return false;
+    }
+
+    /**
+     * Calculates the hash code as required by TermsHash during indexing.
+     *
+     * <p>This is currently implemented as MurmurHash3 (32 bit), using the seed from {@link
+     * StringHelper#GOOD_FAST_HASH_SEED}.
+     */
+    @Override
+    public int hashCode() {
+        return StringHelper.murmurhash3_x86_32(this, StringHelper.GOOD_FAST_HASH_SEED);
+    }
+
+    /** Returns hex encoded bytes, eg [0x6c 0x75 0x63 0x65 0x6e 0x65] */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (i > offset) {
+                sb.append(' ');
+            }
+            sb.append(Integer.toHexString(bytes[i] & 0xff));
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
     /**
      * Creates a new BytesRef that points to a copy of the bytes from <code>other</code>
      *
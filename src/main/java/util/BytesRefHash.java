@@ -0,0 +1,359 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * {@link BytesRefHash} is a special purpose hash-map like data-structure optimized for {@link
+ * BytesRef} instances. BytesRefHash maintains mappings of byte arrays to ids
+ * (Map&lt;BytesRef,int&gt;) storing the hashed bytes efficiently in continuous storage. The mapping
+ * to the id is encapsulated inside {@link BytesRefHash} and is guaranteed to be increased for each
+ * added {@link BytesRef}.
+ *
+ * <p>Note: The maximum capacity {@link BytesRef} instance passed to {@link #add(BytesRef)} must
+ * not be longer than {@link ByteBlockPool#BYTE_BLOCK_SIZE}-2. The internal storage is limited to
+ * 2GB total byte storage.
+ *
+ * @lucene.internal
+ */
+public final class BytesRefHash implements Accountable {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    final ByteBlockPool pool;
+    private final boolean ownsPool;
+    int[] bytesStart;
+
+    private final BytesRef scratch1 = new BytesRef();
+
+    private int hashSize;
+    private int hashHalfSize;
+    private int hashMask;
+    private int count;
+    private int lastCount = -1;
+    private int[] ids;
+
+    /** Creates a new {@link BytesRefHash} with its own {@link ByteBlockPool}. */
+    public BytesRefHash() {
+        this(new ByteBlockPool(), DEFAULT_CAPACITY, true);
+    }
+
+    /**
+     * Creates a new {@link BytesRefHash} that stores its bytes in the given pool, which may be shared
+     * with other hashes. The pool is not accounted for in {@link #ramBytesUsed()}.
+     */
+    public BytesRefHash(ByteBlockPool pool, int capacity) {
+        this(pool, capacity, false);
+    }
+
+    private BytesRefHash(ByteBlockPool pool, int capacity, boolean ownsPool) {
+        this.ownsPool = ownsPool;
+        hashSize = capacity;
+        hashHalfSize = hashSize >> 1;
+        hashMask = hashSize - 1;
+        this.pool = pool;
+        ids = new int[hashSize];
+        Arrays.fill(ids, -1);
+        bytesStart = new int[ArrayUtil.oversize(capacity, Integer.BYTES)];
+    }
+
+    /**
+     * Returns the number of {@link BytesRef} values in this {@link BytesRefHash}.
+     *
+     * @return the number of {@link BytesRef} values in this {@link BytesRefHash}.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Populates and returns a {@link BytesRef} with the bytes for the given bytesID.
+     *
+     * <p>Note: the given bytesID must be a positive integer less than the current size ({@link
+     * #size()})
+     *
+     * @param bytesID the id
+     * @param ref the {@link BytesRef} to populate
+     * @return the given BytesRef instance populated with the bytes for the given bytesID
+     */
+    public BytesRef get(int bytesID, BytesRef ref) {
+        assert bytesStart != null : "bytesStart is null - not initialized";
+        assert bytesID < bytesStart.length : "bytesID exceeds byteStart len: " + bytesStart.length;
+        pool.setBytesRef(ref, bytesStart[bytesID]);
+        return ref;
+    }
+
+    /**
+     * Returns the ids array in arbitrary order. Valid ids start at offset of 0 and end at a limit of
+     * {@link #size()} - 1
+     *
+     * <p>Note: This is a destructive operation. {@link #clear()} must be called in order to reuse
+     * this {@link BytesRefHash} instance.
+     */
+    public int[] compact() {
+        assert bytesStart != null : "bytesStart is null - not initialized";
+        int upto = 0;
+        for (int i = 0; i < hashSize; i++) {
+            if (ids[i] != -1) {
+                if (upto < i) {
+                    ids[upto] = ids[i];
+                    ids[i] = -1;
+                }
+                upto++;
+            }
+        }
+
+        assert upto == count;
+        lastCount = count;
+        return ids;
+    }
+
+    /**
+     * Returns the values array sorted by the referenced byte values, in unsigned byte order. Terms
+     * are sorted with a {@link MSBRadixSorter} that reads their bytes in place from the pool.
+     *
+     * <p>Note: This is a destructive operation. {@link #clear()} must be called in order to reuse
+     * this {@link BytesRefHash} instance.
+     */
+    public int[] sort() {
+        final int[] compact = compact();
+        new MSBRadixSorter(Integer.MAX_VALUE) {
+
+            private final BytesRef scratch = new BytesRef();
+
+            @Override
+            protected void swap(int i, int j) {
+                final int tmp = compact[i];
+                compact[i] = compact[j];
+                compact[j] = tmp;
+            }
+
+            @Override
+            protected int byteAt(int i, int k) {
+                pool.setBytesRef(scratch, bytesStart[compact[i]]);
+                return k < scratch.length ? scratch.bytes[scratch.offset + k] & 0xff : -1;
+            }
+
+            @Override
+            protected Sorter getFallbackSorter(int k) {
+                // all terms of the bucket share their first k bytes, compare the rest in bulk
+                return new IntroSorter() {
+
+                    private final BytesRef pivot = new BytesRef();
+                    private final BytesRef scratch1 = new BytesRef();
+                    private final BytesRef scratch2 = new BytesRef();
+
+                    @Override
+                    protected void swap(int i, int j) {
+                        final int tmp = compact[i];
+                        compact[i] = compact[j];
+                        compact[j] = tmp;
+                    }
+
+                    @Override
+                    protected int compare(int i, int j) {
+                        pool.setBytesRef(scratch1, bytesStart[compact[i]]);
+                        pool.setBytesRef(scratch2, bytesStart[compact[j]]);
+                        return compareSuffix(scratch1, scratch2, k);
+                    }
+
+                    @Override
+                    protected void setPivot(int i) {
+                        // the pool never moves bytes, so the pivot can point into it
+                        pool.setBytesRef(pivot, bytesStart[compact[i]]);
+                    }
+
+                    @Override
+                    protected int comparePivot(int j) {
+                        pool.setBytesRef(scratch2, bytesStart[compact[j]]);
+                        return compareSuffix(pivot, scratch2, k);
+                    }
+                };
+            }
+        }.sort(0, count);
+        return compact;
+    }
+
+    private static int compareSuffix(BytesRef a, BytesRef b, int k) {
+        assert k <= a.length && k <= b.length;
+        return Arrays.compareUnsigned(
+                a.bytes, a.offset + k, a.offset + a.length, b.bytes, b.offset + k, b.offset + b.length);
+    }
+
+    private boolean equals(int id, BytesRef b) {
+        pool.setBytesRef(scratch1, bytesStart[id]);
+        return scratch1.bytesEquals(b);
+    }
+
+    private boolean shrink(int targetSize) {
+        // Cannot use ArrayUtil.shrink because we require power
+        // of 2:
+        int newSize = hashSize;
+        while (newSize >= 8 && newSize / 4 > targetSize) {
+            newSize /= 2;
+        }
+        if (newSize != hashSize) {
+            hashSize = newSize;
+            ids = new int[hashSize];
+            Arrays.fill(ids, -1);
+            hashHalfSize = newSize / 2;
+            hashMask = newSize - 1;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /** Clears the {@link BytesRef} which maps to the given {@link BytesRef} */
+    public void clear(boolean resetPool) {
+        lastCount = count;
+        count = 0;
+        if (resetPool) {
+            pool.reset();
+        }
+        bytesStart = null;
+        if (lastCount != -1 && shrink(lastCount)) {
+            // shrink clears the hash entries
+            return;
+        }
+        Arrays.fill(ids, -1);
+    }
+
+    public void clear() {
+        clear(true);
+        bytesStart = new int[ArrayUtil.oversize(DEFAULT_CAPACITY, Integer.BYTES)];
+    }
+
+    /**
+     * Adds a new {@link BytesRef}
+     *
+     * @param bytes the bytes to hash
+     * @return the id the given bytes are hashed if there was no mapping for the given bytes,
+     *     otherwise <code>(-(id)-1)</code>. This guarantees that the return value will always be
+     *     &gt;= 0 if the given bytes haven't been hashed before.
+     * @throws IllegalArgumentException if the given bytes are {@code > 2 + }{@link
+     *     ByteBlockPool#BYTE_BLOCK_SIZE}
+     */
+    public int add(BytesRef bytes) {
+        assert bytesStart != null : "Bytesstart is null - not initialized";
+        // final position
+        final int hashPos = findHash(bytes);
+        int e = ids[hashPos];
+
+        if (e == -1) {
+            // new entry
+            if (count >= bytesStart.length) {
+                bytesStart = ArrayUtil.grow(bytesStart, count + 1);
+                assert count < bytesStart.length + 1 : "count: " + count + " len: " + bytesStart.length;
+            }
+            bytesStart[count] = pool.append(bytes);
+            e = count++;
+            assert ids[hashPos] == -1;
+            ids[hashPos] = e;
+
+            if (count == hashHalfSize) {
+                rehash(2 * hashSize, true);
+            }
+            return e;
+        }
+        return -(e + 1);
+    }
+
+    /**
+     * Returns the id of the given {@link BytesRef}.
+     *
+     * @param bytes the bytes to look for
+     * @return the id of the given bytes, or {@code -1} if there is no mapping for the given bytes.
+     */
+    public int find(BytesRef bytes) {
+        return ids[findHash(bytes)];
+    }
+
+    private int findHash(BytesRef bytes) {
+        assert bytesStart != null : "bytesStart is null - not initialized";
+
+        int code = doHash(bytes.bytes, bytes.offset, bytes.length);
+
+        // final position
+        int hashPos = code & hashMask;
+        int e = ids[hashPos];
+        if (e != -1 && !equals(e, bytes)) {
+            // Conflict; use linear probe to find an open slot
+            // (see LUCENE-5604):
+            do {
+                code++;
+                hashPos = code & hashMask;
+                e = ids[hashPos];
+            } while (e != -1 && !equals(e, bytes));
+        }
+
+        return hashPos;
+    }
+
+    /**
+     * Called when hash is too small ({@code > 50%} occupied) or too large ({@code < 20%} occupied).
+     */
+    private void rehash(final int newSize, boolean hashOnData) {
+        final int newMask = newSize - 1;
+        final int[] newHash = new int[newSize];
+        Arrays.fill(newHash, -1);
+        final BytesRef scratch = new BytesRef();
+        for (int i = 0; i < hashSize; i++) {
+            final int e0 = ids[i];
+            if (e0 != -1) {
+                int code;
+                if (hashOnData) {
+                    pool.setBytesRef(scratch, bytesStart[e0]);
+                    code = doHash(scratch.bytes, scratch.offset, scratch.length);
+                } else {
+                    code = bytesStart[e0];
+                }
+
+                int hashPos = code & newMask;
+                assert hashPos >= 0;
+                if (newHash[hashPos] != -1) {
+                    // Conflict; use linear probe to find an open slot
+                    // (see LUCENE-5604):
+                    do {
+                        code++;
+                        hashPos = code & newMask;
+                    } while (newHash[hashPos] != -1);
+                }
+                newHash[hashPos] = e0;
+            }
+        }
+
+        hashMask = newMask;
+        ids = newHash;
+        hashSize = newSize;
+        hashHalfSize = newSize / 2;
+    }
+
+    // TODO: maybe use long?  But our keys are typically short...
+    private int doHash(byte[] bytes, int offset, int length) {
+        return StringHelper.murmurhash3_x86_32(bytes, offset, length, StringHelper.GOOD_FAST_HASH_SEED);
+    }
+
+    /**
+     * Returns the bytesStart offset into the internally used {@link ByteBlockPool} for the given
+     * bytesID
+     *
+     * @param bytesID the id to look up
+     * @return the bytesStart offset into the internally used {@link ByteBlockPool} for the given id
+     */
+    public int byteStart(int bytesID) {
+        assert bytesStart != null : "bytesStart is null - not initialized";
+        assert bytesID >= 0 && bytesID < count : bytesID;
+        return bytesStart[bytesID];
+    }
+
+    /**
+     * Returns the memory used by the hash table and the ids, plus the bytes of the pool if it was
+     * created by this hash.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return (ownsPool ? pool.ramBytesUsed() : 0)
+                + (long) Integer.BYTES * ids.length
+                + (bytesStart == null ? 0 : (long) Integer.BYTES * bytesStart.length);
+    }
+}
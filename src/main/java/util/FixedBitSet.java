@@ -0,0 +1,346 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * BitSet of fixed length (numBits), backed by accessible ({@link #getBits}) long[], accessed with
+ * an int index, implementing {@link Bits}. If you need to manage more than 2.1B bits, use a
+ * LongBitSet instead.
+ *
+ * @lucene.internal
+ */
+public final class FixedBitSet implements Bits, Accountable, Cloneable {
+
+    /** Returned by {@link #nextSetBit(int)} when there are no more set bits. */
+    public static final int NO_MORE_BITS = Integer.MAX_VALUE;
+
+    private final long[] bits; // Array of longs holding the bits
+    private final int numBits; // The number of bits in use
+    private final int numWords; // The exact number of longs needed to hold numBits (<= bits.length)
+
+    /** returns the number of 64 bit words it would take to hold numBits */
+    public static int bits2words(int numBits) {
+        // I.e.: get the word-offset of the last bit and add one (make sure to use >> so 0
+        // returns 0!)
+        return ((numBits - 1) >> 6) + 1;
+    }
+
+    /**
+     * Creates a new FixedBitSet. The internally allocated long array will be exactly the size needed
+     * to accommodate the numBits specified.
+     *
+     * @param numBits the number of bits needed
+     */
+    public FixedBitSet(int numBits) {
+        this.numBits = numBits;
+        bits = new long[bits2words(numBits)];
+        numWords = bits.length;
+    }
+
+    /**
+     * Creates a new FixedBitSet using the provided long[] array as backing store. The storedBits
+     * array must be large enough to accommodate the numBits specified, but may be larger. In that
+     * case the 'extra' or 'ghost' bits must be clear (or they may provoke spurious side-effects)
+     *
+     * @param storedBits the array to use as backing store
+     * @param numBits the number of bits actually needed
+     */
+    public FixedBitSet(long[] storedBits, int numBits) {
+        this.numWords = bits2words(numBits);
+        if (numWords > storedBits.length) {
+            throw new IllegalArgumentException(
+                    "The given long array is too small  to hold " + numBits + " bits");
+        }
+        this.numBits = numBits;
+        this.bits = storedBits;
+
+        assert verifyGhostBitsClear();
+    }
+
+    /**
+     * Checks if the bits past numBits are clear. Some methods rely on this implicit assumption:
+     * search for "Depends on the ghost bits being clear!"
+     *
+     * @return true if the bits past numBits are clear.
+     */
+    private boolean verifyGhostBitsClear() {
+        for (int i = numWords; i < bits.length; i++) {
+            if (bits[i] != 0) return false;
+        }
+
+        if ((numBits & 0x3f) == 0) return true;
+
+        long mask = -1L << numBits;
+
+        return (bits[numWords - 1] & mask) == 0;
+    }
+
+    @Override
+    public int length() {
+        return numBits;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return (long) Long.BYTES * bits.length;
+    }
+
+    /** Expert. */
+    public long[] getBits() {
+        return bits;
+    }
+
+    /**
+     * Returns number of set bits. NOTE: this visits every long in the backing bits array, and the
+     * result is not internally cached!
+     */
+    public int cardinality() {
+        // Depends on the ghost bits being clear!
+        int tot = 0;
+        for (int i = 0; i < numWords; ++i) {
+            tot += Long.bitCount(bits[i]);
+        }
+        return tot;
+    }
+
+    @Override
+    public boolean get(int index) {
+        assert index >= 0 && index < numBits : "index=" + index + ", numBits=" + numBits;
+        int i = index >> 6; // div 64
+        // signed shift will keep a negative index and force an
+        // array-index-out-of-bounds-exception, removing the need for an explicit check.
+        long bitmask = 1L << index;
+        return (bits[i] & bitmask) != 0;
+    }
+
+    public void set(int index) {
+        assert index >= 0 && index < numBits : "index=" + index + ", numBits=" + numBits;
+        int wordNum = index >> 6; // div 64
+        long bitmask = 1L << index;
+        bits[wordNum] |= bitmask;
+    }
+
+    public boolean getAndSet(int index) {
+        assert index >= 0 && index < numBits : "index=" + index + ", numBits=" + numBits;
+        int wordNum = index >> 6; // div 64
+        long bitmask = 1L << index;
+        boolean val = (bits[wordNum] & bitmask) != 0;
+        bits[wordNum] |= bitmask;
+        return val;
+    }
+
+    public void clear(int index) {
+        assert index >= 0 && index < numBits : "index=" + index + ", numBits=" + numBits;
+        int wordNum = index >> 6;
+        long bitmask = 1L << index;
+        bits[wordNum] &= ~bitmask;
+    }
+
+    public boolean getAndClear(int index) {
+        assert index >= 0 && index < numBits : "index=" + index + ", numBits=" + numBits;
+        int wordNum = index >> 6; // div 64
+        long bitmask = 1L << index;
+        boolean val = (bits[wordNum] & bitmask) != 0;
+        bits[wordNum] &= ~bitmask;
+        return val;
+    }
+
+    /**
+     * Returns the index of the first set bit starting at the index specified. {@link
+     * #NO_MORE_BITS} is returned if there are no more set bits.
+     */
+    public int nextSetBit(int index) {
+        // Depends on the ghost bits being clear!
+        assert index >= 0 && index < numBits : "index=" + index + ", numBits=" + numBits;
+        int i = index >> 6;
+        long word = bits[i] >> index; // skip all the bits to the right of index
+
+        if (word != 0) {
+            return index + Long.numberOfTrailingZeros(word);
+        }
+
+        while (++i < numWords) {
+            word = bits[i];
+            if (word != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+
+        return NO_MORE_BITS;
+    }
+
+    /**
+     * Returns the index of the last set bit before or on the index specified. -1 is returned if
+     * there are no more set bits.
+     */
+    public int prevSetBit(int index) {
+        assert index >= 0 && index < numBits : "index=" + index + " numBits=" + numBits;
+        int i = index >> 6;
+        final int subIndex = index & 0x3f; // index within the word
+        long word = (bits[i] << (63 - subIndex)); // skip all the bits to the left of index
+
+        if (word != 0) {
+            return (i << 6) + subIndex - Long.numberOfLeadingZeros(word); // See LUCENE-3197
+        }
+
+        while (--i >= 0) {
+            word = bits[i];
+            if (word != 0) {
+                return (i << 6) + 63 - Long.numberOfLeadingZeros(word);
+            }
+        }
+
+        return -1;
+    }
+
+    /** this = this OR other */
+    public void or(FixedBitSet other) {
+        assert other.numWords <= numWords : "numWords=" + numWords + ", other.numWords=" + other.numWords;
+        final long[] thisArr = this.bits;
+        final long[] otherArr = other.bits;
+        for (int pos = Math.min(numWords, other.numWords) - 1; pos >= 0; pos--) {
+            thisArr[pos] |= otherArr[pos];
+        }
+    }
+
+    /** this = this AND other */
+    public void and(FixedBitSet other) {
+        final long[] thisArr = this.bits;
+        final long[] otherArr = other.bits;
+        final int commonWords = Math.min(numWords, other.numWords);
+        for (int pos = commonWords - 1; pos >= 0; pos--) {
+            thisArr[pos] &= otherArr[pos];
+        }
+        if (numWords > commonWords) {
+            Arrays.fill(thisArr, commonWords, numWords, 0L);
+        }
+    }
+
+    /** this = this AND NOT other */
+    public void andNot(FixedBitSet other) {
+        final long[] thisArr = this.bits;
+        final long[] otherArr = other.bits;
+        for (int pos = Math.min(numWords, other.numWords) - 1; pos >= 0; pos--) {
+            thisArr[pos] &= ~otherArr[pos];
+        }
+    }
+
+    /** returns true if the sets have any elements in common */
+    public boolean intersects(FixedBitSet other) {
+        // Depends on the ghost bits being clear!
+        final int pos = Math.min(numWords, other.numWords);
+        for (int i = 0; i < pos; i++) {
+            if ((bits[i] & other.bits[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clears a range of bits.
+     *
+     * @param startIndex lower index
+     * @param endIndex one-past the last bit to clear
+     */
+    public void clear(int startIndex, int endIndex) {
+        assert startIndex >= 0 && startIndex < numBits
+                : "startIndex=" + startIndex + ", numBits=" + numBits;
+        assert endIndex >= 0 && endIndex <= numBits : "endIndex=" + endIndex + ", numBits=" + numBits;
+        if (endIndex <= startIndex) {
+            return;
+        }
+
+        int startWord = startIndex >> 6;
+        int endWord = (endIndex - 1) >> 6;
+
+        long startmask = -1L << startIndex;
+        long endmask = -1L >>> -endIndex; // 64-(endIndex&0x3f) is the same as -endIndex since only the lowest 6 bits are used
+
+        // invert masks since we are clearing
+        startmask = ~startmask;
+        endmask = ~endmask;
+
+        if (startWord == endWord) {
+            bits[startWord] &= (startmask | endmask);
+            return;
+        }
+
+        bits[startWord] &= startmask;
+        Arrays.fill(bits, startWord + 1, endWord, 0L);
+        bits[endWord] &= endmask;
+    }
+
+    @Override
+    public FixedBitSet clone() {
+        long[] bits = new long[this.bits.length];
+        System.arraycopy(this.bits, 0, bits, 0, numWords);
+        return new FixedBitSet(bits, numBits);
+    }
+
+    /**
+     * Sets a range of bits
+     *
+     * @param startIndex lower index
+     * @param endIndex one-past the last bit to set
+     */
+    public void set(int startIndex, int endIndex) {
+        assert startIndex >= 0 && startIndex < numBits
+                : "startIndex=" + startIndex + ", numBits=" + numBits;
+        assert endIndex >= 0 && endIndex <= numBits : "endIndex=" + endIndex + ", numBits=" + numBits;
+        if (endIndex <= startIndex) {
+            return;
+        }
+
+        int startWord = startIndex >> 6;
+        int endWord = (endIndex - 1) >> 6;
+
+        /* Grrr, java shifting uses only the lower 6 bits of the count so -1L>>>64 == -1
+         * for that reason, make sure not to use endmask if the bits to flip will
+         * be zero in the last word (redefine endWord to be the last changed...)
+         * long startmask = -1L << (startIndex & 0x3f);     // example: 11111...111000
+         * long endmask = -1L >>> (64-(endIndex & 0x3f));   // example: 00111...111111
+         */
+
+        long startmask = -1L << startIndex;
+        long endmask = -1L >>> -endIndex; // 64-(endIndex&0x3f) is the same as -endIndex since only the lowest 6 bits are used
+
+        if (startWord == endWord) {
+            bits[startWord] |= (startmask & endmask);
+            return;
+        }
+
+        bits[startWord] |= startmask;
+        Arrays.fill(bits, startWord + 1, endWord, -1L);
+        bits[endWord] |= endmask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FixedBitSet)) {
+            return false;
+        }
+        FixedBitSet other = (FixedBitSet) o;
+        if (numBits != other.numBits) {
+            return false;
+        }
+        // Depends on the ghost bits being clear!
+        return Arrays.equals(bits, other.bits);
+    }
+
+    @Override
+    public int hashCode() {
+        // Depends on the ghost bits being clear!
+        long h = 0;
+        for (int i = numWords; --i >= 0; ) {
+            h ^= bits[i];
+            h = (h << 1) | (h >>> 63); // rotate left
+        }
+        // fold leftmost bits into right and add a constant to prevent
+        // empty sets from returning 0, which is too common.
+        return (int) ((h >> 32) ^ h) + 0x98761234;
+    }
+}
@@ -0,0 +1,126 @@
+package util;
+
+import static util.GeoUtils.checkLatitude;
+import static util.GeoUtils.checkLongitude;
+
+/**
+ * Reusable geo-spatial encoding methods: latitudes and longitudes are quantized to 32-bit ints,
+ * and a point can be packed into a single long as the Morton code (Z-order) of its two encoded
+ * coordinates, see {@link BitUtils#interleave}.
+ *
+ * @lucene.experimental
+ */
+public final class GeoEncodingUtils {
+
+    /** number of bits used for quantizing latitude and longitude values */
+    public static final short BITS = 32;
+
+    private static final double LAT_SCALE = (0x1L << BITS) / 180.0D;
+    private static final double LAT_DECODE = 1 / LAT_SCALE;
+    private static final double LON_SCALE = (0x1L << BITS) / 360.0D;
+    private static final double LON_DECODE = 1 / LON_SCALE;
+
+    private GeoEncodingUtils() {} // no instance!
+
+    /**
+     * Quantizes double (64 bit) latitude into 32 bits (rounding down: in the direction of -90)
+     *
+     * @param latitude latitude value: must be within standard +/-90 coordinate bounds.
+     * @return encoded value as a 32-bit {@code int}
+     * @throws IllegalArgumentException if latitude is out of bounds
+     */
+    public static int encodeLatitude(double latitude) {
+        checkLatitude(latitude);
+        // the maximum possible value cannot be encoded without overflow
+        if (latitude == 90.0D) {
+            latitude = Math.nextDown(latitude);
+        }
+        return (int) Math.floor(latitude / LAT_DECODE);
+    }
+
+    /**
+     * Quantizes double (64 bit) latitude into 32 bits (rounding up: in the direction of +90)
+     *
+     * @param latitude latitude value: must be within standard +/-90 coordinate bounds.
+     * @return encoded value as a 32-bit {@code int}
+     * @throws IllegalArgumentException if latitude is out of bounds
+     */
+    public static int encodeLatitudeCeil(double latitude) {
+        checkLatitude(latitude);
+        // the maximum possible value cannot be encoded without overflow
+        if (latitude == 90.0D) {
+            latitude = Math.nextDown(latitude);
+        }
+        return (int) Math.ceil(latitude / LAT_DECODE);
+    }
+
+    /**
+     * Quantizes double (64 bit) longitude into 32 bits (rounding down: in the direction of -180)
+     *
+     * @param longitude longitude value: must be within standard +/-180 coordinate bounds.
+     * @return encoded value as a 32-bit {@code int}
+     * @throws IllegalArgumentException if longitude is out of bounds
+     */
+    public static int encodeLongitude(double longitude) {
+        checkLongitude(longitude);
+        // the maximum possible value cannot be encoded without overflow
+        if (longitude == 180.0D) {
+            longitude = Math.nextDown(longitude);
+        }
+        return (int) Math.floor(longitude / LON_DECODE);
+    }
+
+    /**
+     * Quantizes double (64 bit) longitude into 32 bits (rounding up: in the direction of +180)
+     *
+     * @param longitude longitude value: must be within standard +/-180 coordinate bounds.
+     * @return encoded value as a 32-bit {@code int}
+     * @throws IllegalArgumentException if longitude is out of bounds
+     */
+    public static int encodeLongitudeCeil(double longitude) {
+        checkLongitude(longitude);
+        // the maximum possible value cannot be encoded without overflow
+        if (longitude == 180.0D) {
+            longitude = Math.nextDown(longitude);
+        }
+        return (int) Math.ceil(longitude / LON_DECODE);
+    }
+
+    /**
+     * Turns quantized value from {@link #encodeLatitude} back into a double.
+     *
+     * @param encoded encoded value: 32-bit quantized value.
+     * @return decoded latitude value.
+     */
+    public static double decodeLatitude(int encoded) {
+        return encoded * LAT_DECODE;
+    }
+
+    /**
+     * Turns quantized value from {@link #encodeLongitude} back into a double.
+     *
+     * @param encoded encoded value: 32-bit quantized value.
+     * @return decoded longitude value.
+     */
+    public static double decodeLongitude(int encoded) {
+        return encoded * LON_DECODE;
+    }
+
+    /**
+     * Returns the Morton code of the given point: the bits of its encoded longitude on even
+     * positions and the bits of its encoded latitude on odd positions.
+     */
+    public static long encodeMorton(double latitude, double longitude) {
+        return BitUtils.interleave(encodeLongitude(longitude), encodeLatitude(latitude));
+    }
+
+    /** Returns the encoded latitude of a Morton code from {@link #encodeMorton}. */
+    public static int mortonLatitude(long morton) {
+        return (int) BitUtils.deinterleave(morton >>> 1);
+    }
+
+    /** Returns the encoded longitude of a Morton code from {@link #encodeMorton}. */
+    public static int mortonLongitude(long morton) {
+        return (int) BitUtils.deinterleave(morton);
+    }
+}
@@ -0,0 +1,101 @@
+package util;
+
+/**
+ * Basic reusable geo-spatial utility methods: validation of latitudes and longitudes, haversine
+ * distances and the bounding box of a circle.
+ *
+ * @lucene.experimental
+ */
+public final class GeoUtils {
+
+    /** Minimum longitude value. */
+    public static final double MIN_LON_INCL = -180.0D;
+
+    /** Maximum longitude value. */
+    public static final double MAX_LON_INCL = 180.0D;
+
+    /** Minimum latitude value. */
+    public static final double MIN_LAT_INCL = -90.0D;
+
+    /** Maximum latitude value. */
+    public static final double MAX_LAT_INCL = 90.0D;
+
+    /** mean earth axis in meters */
+    // see http://earth-info.nga.mil/GandG/publications/tr8350.2/wgs84fin.pdf
+    public static final double EARTH_MEAN_RADIUS_METERS = 6_371_008.7714;
+
+    private static final double MIN_LAT_RADIANS = Math.toRadians(MIN_LAT_INCL);
+    private static final double MAX_LAT_RADIANS = Math.toRadians(MAX_LAT_INCL);
+    private static final double MIN_LON_RADIANS = Math.toRadians(MIN_LON_INCL);
+    private static final double MAX_LON_RADIANS = Math.toRadians(MAX_LON_INCL);
+
+    private GeoUtils() {} // no instance!
+
+    /** validates latitude value is within standard +/-90 coordinate bounds */
+    public static void checkLatitude(double latitude) {
+        if (Double.isNaN(latitude) || latitude < MIN_LAT_INCL || latitude > MAX_LAT_INCL) {
+            throw new IllegalArgumentException(
+                    "invalid latitude " + latitude + "; must be between " + MIN_LAT_INCL + " and " + MAX_LAT_INCL);
+        }
+    }
+
+    /** validates longitude value is within standard +/-180 coordinate bounds */
+    public static void checkLongitude(double longitude) {
+        if (Double.isNaN(longitude) || longitude < MIN_LON_INCL || longitude > MAX_LON_INCL) {
+            throw new IllegalArgumentException(
+                    "invalid longitude " + longitude + "; must be between " + MIN_LON_INCL + " and " + MAX_LON_INCL);
+        }
+    }
+
+    /**
+     * Returns the haversine distance in meters between two points specified in decimal degrees
+     * (latitude/longitude), on a sphere of {@link #EARTH_MEAN_RADIUS_METERS}.
+     */
+    public static double haversinMeters(double lat1, double lon1, double lat2, double lon2) {
+        final double sinHalfLat = Math.sin(Math.toRadians(lat2 - lat1) * 0.5);
+        final double sinHalfLon = Math.sin(Math.toRadians(lon2 - lon1) * 0.5);
+        final double h = sinHalfLat * sinHalfLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinHalfLon * sinHalfLon;
+        return 2 * EARTH_MEAN_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Returns the bounding box of the circle of the given radius around a point, as {minLat, maxLat,
+     * minLon, maxLon} in degrees. minLon is greater than maxLon if the box crosses the dateline, and
+     * the box spans all longitudes if the circle contains a pole.
+     */
+    public static double[] circleBoundingBox(double centerLat, double centerLon, double radiusMeters) {
+        checkLatitude(centerLat);
+        checkLongitude(centerLon);
+        final double radLat = Math.toRadians(centerLat);
+        final double radLon = Math.toRadians(centerLon);
+        // a small margin accounts for the rounding errors of the distance computations
+        final double radDistance = (radiusMeters + 7E-2) / EARTH_MEAN_RADIUS_METERS;
+        double minLat = radLat - radDistance;
+        double maxLat = radLat + radDistance;
+        double minLon;
+        double maxLon;
+
+        if (minLat > MIN_LAT_RADIANS && maxLat < MAX_LAT_RADIANS) {
+            final double deltaLon = Math.asin(Math.sin(radDistance) / Math.cos(radLat));
+            minLon = radLon - deltaLon;
+            if (minLon < MIN_LON_RADIANS) {
+                minLon += 2d * Math.PI;
+            }
+            maxLon = radLon + deltaLon;
+            if (maxLon > MAX_LON_RADIANS) {
+                maxLon -= 2d * Math.PI;
+            }
+        } else {
+            // a pole is within the distance
+            minLat = Math.max(minLat, MIN_LAT_RADIANS);
+            maxLat = Math.min(maxLat, MAX_LAT_RADIANS);
+            minLon = MIN_LON_RADIANS;
+            maxLon = MAX_LON_RADIANS;
+        }
+
+        return new double[] {
+            Math.toDegrees(minLat), Math.toDegrees(maxLat), Math.toDegrees(minLon), Math.toDegrees(maxLon)
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Helpers to close several resources at once, as files of a segment are usually opened and closed
+ * together.
+ *
+ * @lucene.internal
+ */
+public final class IOUtils {
+
+    private IOUtils() {} // no instance
+
+    /**
+     * Closes all given <code>Closeable</code>s, null values are ignored. All of them are closed even
+     * if some throw, the first exception is rethrown with the others suppressed.
+     */
+    public static void close(Closeable... objects) throws IOException {
+        Throwable th = null;
+        for (Closeable object : objects) {
+            try {
+                if (object != null) {
+                    object.close();
+                }
+            } catch (Throwable t) {
+                if (th == null) {
+                    th = t;
+                } else {
+                    th.addSuppressed(t);
+                }
+            }
+        }
+        if (th != null) {
+            if (th instanceof IOException) {
+                throw (IOException) th;
+            } else if (th instanceof RuntimeException) {
+                throw (RuntimeException) th;
+            } else if (th instanceof Error) {
+                throw (Error) th;
+            }
+            throw new RuntimeException(th);
+        }
+    }
+
+    /**
+     * Closes all given <code>Closeable</code>s, suppressing all thrown exceptions. Meant to be used
+     * while an exception is already being handled, to release resources without hiding it.
+     */
+    public static void closeWhileHandlingException(Closeable... objects) {
+        for (Closeable object : objects) {
+            try {
+                if (object != null) {
+                    object.close();
+                }
+            } catch (Throwable ignored) {
+                // the original exception matters more
+            }
+        }
+    }
+}
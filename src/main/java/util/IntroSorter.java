@@ -0,0 +1,153 @@
+package util;
+
+/**
+ * {@link Sorter} implementation based on a variant of the quicksort algorithm called <a
+ * href="http://en.wikipedia.org/wiki/Introsort">introsort</a>: when the recursion level exceeds the
+ * log of the length of the array to sort, it falls back to heapsort. This prevents quicksort from
+ * running into its worst-case quadratic runtime. Small ranges are sorted with insertion sort.
+ *
+ * <p>This algorithm is <b>NOT</b> stable.
+ *
+ * @lucene.internal
+ */
+public abstract class IntroSorter extends Sorter {
+
+    /** Below this size threshold, the sub-range is sorted using Insertion sort. */
+    static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /** Create a new {@link IntroSorter}. */
+    public IntroSorter() {}
+
+    @Override
+    public final void sort(int from, int to) {
+        checkRange(from, to);
+        if (to - from > 1) {
+            sort(from, to, 2 * log2(to - from));
+        }
+    }
+
+    // the pivot slot is swapped while partitioning, so the pivot must be saved by value
+
+    @Override
+    protected abstract void setPivot(int i);
+
+    @Override
+    protected abstract int comparePivot(int j);
+
+    /**
+     * Sorts between from (inclusive) and to (exclusive) with intro sort.
+     *
+     * <p>Sorts small ranges with insertion sort. Fallbacks to heap sort to avoid quadratic worst
+     * case. Selects the pivot with medians and partitions with the Bentley-McIlroy fast 3-ways
+     * algorithm (Engineering a Sort Function, Bentley-McIlroy).
+     */
+    void sort(int from, int to, int maxDepth) {
+        int size;
+
+        // Sort small ranges with insertion sort.
+        while ((size = to - from) > INSERTION_SORT_THRESHOLD) {
+            if (--maxDepth < 0) {
+                // Max recursion depth reached: fallback to heap sort.
+                heapSort(from, to);
+                return;
+            }
+
+            // Pivot selection based on medians.
+            int last = to - 1;
+            int mid = (from + last) >>> 1;
+            int pivot;
+            if (size <= 100) {
+                // Select the pivot with the median of three.
+                pivot = median(from, mid, last);
+            } else {
+                // Select the pivot with the median of three medians.
+                int range = size >> 3;
+                pivot =
+                        median(
+                                median(from, from + range, from + 2 * range),
+                                median(mid - range, mid, mid + range),
+                                median(last - 2 * range, last - range, last));
+            }
+
+            // Bentley-McIlroy 3-way partitioning.
+            setPivot(pivot);
+            swap(from, pivot);
+            int i = from;
+            int j = to;
+            int p = from + 1;
+            int q = last;
+            while (true) {
+                int leftCmp, rightCmp;
+                while ((leftCmp = comparePivot(++i)) > 0) {}
+                while ((rightCmp = comparePivot(--j)) < 0) {}
+                if (i >= j) {
+                    if (i == j && rightCmp == 0) {
+                        swap(i, p);
+                    }
+                    break;
+                }
+                swap(i, j);
+                if (rightCmp == 0) {
+                    swap(i, p++);
+                }
+                if (leftCmp == 0) {
+                    swap(j, q--);
+                }
+            }
+            i = j + 1;
+            for (int k = from; k < p; ) {
+                swap(k++, j--);
+            }
+            for (int k = last; k > q; ) {
+                swap(k--, i++);
+            }
+
+            // Recursion on the smallest partition. Replace the tail recursion by a loop.
+            if (j - from < last - i) {
+                sort(from, j + 1, maxDepth);
+                from = i;
+            } else {
+                sort(i, to, maxDepth);
+                to = j + 1;
+            }
+        }
+
+        insertionSort(from, to);
+    }
+
+    /** Returns the index of the median element among three elements at provided indices. */
+    private int median(int i, int j, int k) {
+        if (compare(i, j) < 0) {
+            if (compare(j, k) <= 0) {
+                return j;
+            }
+            return compare(i, k) < 0 ? k : i;
+        }
+        if (compare(j, k) >= 0) {
+            return j;
+        }
+        return compare(i, k) < 0 ? i : k;
+    }
+
+    /** Sorts between from (inclusive) and to (exclusive) with insertion sort. */
+    void insertionSort(int from, int to) {
+        for (int i = from + 1; i < to; ) {
+            int current = i++;
+            int previous;
+            while (compare((previous = current - 1), current) > 0) {
+                swap(previous, current);
+                if (previous == from) {
+                    break;
+                }
+                current = previous;
+            }
+        }
+    }
+
+    static int log2(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be > 0, got " + n);
+        }
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+}
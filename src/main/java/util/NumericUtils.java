@@ -0,0 +1,83 @@
+package util;
+
+/**
+ * Helper APIs to encode numeric values as sortable bytes and vice-versa, so that the unsigned byte
+ * order of the encoded values is the natural order of the numbers. This is how numbers are encoded
+ * in the dimensions of points, see {@link index.PointValues}.
+ *
+ * @lucene.internal
+ */
+public final class NumericUtils {
+
+    private NumericUtils() {} // no instance!
+
+    /**
+     * Result = a - b, where a &gt;= b, else {@code IllegalArgumentException} is thrown. The values
+     * are the {@code dim}-th dimension of {@code bytesPerDim} bytes of the given packed values.
+     */
+    public static void subtract(int bytesPerDim, int dim, byte[] a, byte[] b, byte[] result) {
+        final int start = dim * bytesPerDim;
+        final int end = start + bytesPerDim;
+        int borrow = 0;
+        for (int i = end - 1; i >= start; i--) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff) - borrow;
+            if (diff < 0) {
+                diff += 256;
+                borrow = 1;
+            } else {
+                borrow = 0;
+            }
+            result[i - start] = (byte) diff;
+        }
+        if (borrow != 0) {
+            throw new IllegalArgumentException("a < b");
+        }
+    }
+
+    /**
+     * Encodes an integer {@code value} such that unsigned byte order comparison is consistent with
+     * {@link Integer#compare(int, int)}
+     *
+     * @see #sortableBytesToInt(byte[], int)
+     */
+    public static void intToSortableBytes(int value, byte[] result, int offset) {
+        // Flip the sign bit, so negative ints sort before positive ints correctly:
+        value ^= 0x80000000;
+        BigEndian.writeInt(result, offset, value);
+    }
+
+    /**
+     * Decodes an integer value previously written with {@link #intToSortableBytes}
+     *
+     * @see #intToSortableBytes(int, byte[], int)
+     */
+    public static int sortableBytesToInt(byte[] encoded, int offset) {
+        int x = BigEndian.readInt(encoded, offset);
+        // Re-flip the sign bit to restore the original value:
+        return x ^ 0x80000000;
+    }
+
+    /**
+     * Encodes an long {@code value} such that unsigned byte order comparison is consistent with
+     * {@link Long#compare(long, long)}
+     *
+     * @see #sortableBytesToLong(byte[], int)
+     */
+    public static void longToSortableBytes(long value, byte[] result, int offset) {
+        // Flip the sign bit so negative longs sort before positive longs:
+        value ^= 0x8000000000000000L;
+        BigEndian.writeLong(result, offset, value);
+    }
+
+    /**
+     * Decodes a long value previously written with {@link #longToSortableBytes}
+     *
+     * @see #longToSortableBytes(long, byte[], int)
+     */
+    public static long sortableBytesToLong(byte[] encoded, int offset) {
+        long v = BigEndian.readLong(encoded, offset);
+        // Flip the sign bit back
+        v ^= 0x8000000000000000L;
+        return v;
+    }
+}
@@ -0,0 +1,82 @@
+package util;
+
+/**
+ * Floating point numbers smaller than 32 bits, used to store values such as field lengths in a
+ * single byte.
+ *
+ * @lucene.internal
+ */
+public final class SmallFloat {
+
+    /** No instance */
+    private SmallFloat() {}
+
+    /**
+     * Float-like encoding for positive longs that preserves ordering and 4 significant bits. Values
+     * that have 3 significant bits or less are encoded exactly.
+     */
+    public static int longToInt4(long i) {
+        if (i < 0) {
+            throw new IllegalArgumentException("Only supports positive values, got " + i);
+        }
+        int numBits = 64 - Long.numberOfLeadingZeros(i);
+        if (numBits < 4) {
+            // subnormal value
+            return Math.toIntExact(i);
+        } else {
+            // normal value
+            int shift = numBits - 4;
+            // only keep the 5 most significant bits
+            int encoded = Math.toIntExact(i >>> shift);
+            // clear the most significant bit, which is implicit
+            encoded &= 0x07;
+            // encode the shift, adding 1 because 0 is reserved for subnormal values
+            encoded |= (shift + 1) << 3;
+            return encoded;
+        }
+    }
+
+    /** Decode values that have been encoded with {@link #longToInt4(long)}. */
+    public static long int4ToLong(int i) {
+        long bits = i & 0x07;
+        int shift = (i >>> 3) - 1;
+        long decoded;
+        if (shift == -1) {
+            // subnormal value
+            decoded = bits;
+        } else {
+            // normal value
+            decoded = (bits | 0x08) << shift;
+        }
+        return decoded;
+    }
+
+    private static final int MAX_INT4 = longToInt4(Integer.MAX_VALUE);
+    private static final int NUM_FREE_VALUES = 255 - MAX_INT4;
+
+    /**
+     * Encode an integer to a byte. It is built upon {@link #longToInt4(long)} and leverages the fact
+     * that {@code longToInt4(Integer.MAX_VALUE)} is less than 255 to encode low values exactly.
+     */
+    public static byte intToByte4(int i) {
+        if (i < 0) {
+            throw new IllegalArgumentException("Only supports positive values, got " + i);
+        }
+        if (i < NUM_FREE_VALUES) {
+            return (byte) i;
+        } else {
+            return (byte) (NUM_FREE_VALUES + longToInt4(i - NUM_FREE_VALUES));
+        }
+    }
+
+    /** Decode values that have been encoded with {@link #intToByte4(int)}. */
+    public static int byte4ToInt(byte b) {
+        int i = Byte.toUnsignedInt(b);
+        if (i < NUM_FREE_VALUES) {
+            return i;
+        } else {
+            long decoded = NUM_FREE_VALUES + int4ToLong(i - NUM_FREE_VALUES);
+            return Math.toIntExact(decoded);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package util;
+
+/**
+ * Base class for sorting algorithms implementations, which sort a range of slots of a data
+ * structure through {@link #compare(int, int)} and {@link #swap(int, int)}, so that the data
+ * doesn't need to be copied into an array of objects first.
+ *
+ * @lucene.internal
+ */
+public abstract class Sorter {
+
+    static final int BINARY_SORT_THRESHOLD = 20;
+
+    /** Sole constructor, used for inheritance. */
+    protected Sorter() {}
+
+    /**
+     * Compare entries found in slots <code>i</code> and <code>j</code>. The contract for the returned
+     * value is the same as {@link java.util.Comparator#compare(Object, Object)}.
+     */
+    protected abstract int compare(int i, int j);
+
+    /** Swap values at slots <code>i</code> and <code>j</code>. */
+    protected abstract void swap(int i, int j);
+
+    private int pivotIndex;
+
+    /**
+     * Save the value at slot <code>i</code> so that it can later be used as a pivot, see {@link
+     * #comparePivot(int)}.
+     */
+    protected void setPivot(int i) {
+        pivotIndex = i;
+    }
+
+    /**
+     * Compare the pivot with the slot at <code>j</code>, similarly to {@link #compare(int, int)
+     * compare(i, j)}.
+     */
+    protected int comparePivot(int j) {
+        return compare(pivotIndex, j);
+    }
+
+    /**
+     * Sort the slice which starts at <code>from</code> (inclusive) and ends at <code>to</code>
+     * (exclusive).
+     */
+    public abstract void sort(int from, int to);
+
+    void checkRange(int from, int to) {
+        if (to < from) {
+            throw new IllegalArgumentException("'to' must be >= 'from', got from=" + from + " and to=" + to);
+        }
+    }
+
+    /**
+     * A binary sort implementation. This performs {@code O(n*log(n))} comparisons and {@code O(n^2)}
+     * swaps. It is typically used by more sophisticated implementations as a fall-back when the
+     * number of items to sort has become less than {@value #BINARY_SORT_THRESHOLD}.
+     */
+    void binarySort(int from, int to) {
+        binarySort(from, to, from + 1);
+    }
+
+    void binarySort(int from, int to, int i) {
+        for (; i < to; ++i) {
+            setPivot(i);
+            int l = from;
+            int h = i - 1;
+            while (l <= h) {
+                final int mid = (l + h) >>> 1;
+                final int cmp = comparePivot(mid);
+                if (cmp < 0) {
+                    h = mid - 1;
+                } else {
+                    l = mid + 1;
+                }
+            }
+            for (int j = i; j > l; --j) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    /**
+     * Use heap sort to sort items between {@code from} inclusive and {@code to} exclusive. This runs
+     * in {@code O(n*log(n))} and is used as a fall-back by {@link IntroSorter}.
+     */
+    void heapSort(int from, int to) {
+        if (to - from <= 1) {
+            return;
+        }
+        heapify(from, to);
+        for (int end = to - 1; end > from; --end) {
+            swap(from, end);
+            siftDown(from, from, end);
+        }
+    }
+
+    void heapify(int from, int to) {
+        for (int i = heapParent(from, to - 1); i >= from; --i) {
+            siftDown(i, from, to);
+        }
+    }
+
+    void siftDown(int i, int from, int to) {
+        for (int leftChild = heapChild(from, i); leftChild < to; leftChild = heapChild(from, i)) {
+            final int rightChild = leftChild + 1;
+            if (compare(i, leftChild) < 0) {
+                if (rightChild < to && compare(leftChild, rightChild) < 0) {
+                    swap(i, rightChild);
+                    i = rightChild;
+                } else {
+                    swap(i, leftChild);
+                    i = leftChild;
+                }
+            } else if (rightChild < to && compare(i, rightChild) < 0) {
+                swap(i, rightChild);
+                i = rightChild;
+            } else {
+                break;
+            }
+        }
+    }
+
+    static int heapParent(int from, int i) {
+        return ((i - 1 - from) >>> 1) + from;
+    }
+
+    static int heapChild(int from, int i) {
+        return ((i - from) << 1) + 1 + from;
+    }
+}
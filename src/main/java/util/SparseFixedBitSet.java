@@ -0,0 +1,249 @@
+package util;
+
+/**
+ * A bit set that only stores longs that have at least one bit which is set. The way it works is
+ * that the space of bits is divided into blocks of 4096 bits, which is 64 longs. Then for each
+ * block, we have:
+ *
+ * <ul>
+ *   <li>a long[] which stores the non-zero longs for that block
+ *   <li>a long so that bit <code>i</code> being set means that the <code>i-th</code> long of the
+ *       block is non-null, and its offset in the array of longs is the number of one bits on the
+ *       right of the <code>i-th</code> bit.
+ * </ul>
+ *
+ * <p>This makes it a better fit than {@link FixedBitSet} when only few bits are set, for instance
+ * the deleted documents of a segment that only has a handful of deletes.
+ *
+ * @lucene.internal
+ */
+public final class SparseFixedBitSet implements Bits, Accountable {
+
+    private static final long SINGLE_ELEMENT_ARRAY_BYTES_USED = 16 + Long.BYTES;
+
+    private static int blockCount(int length) {
+        int blockCount = length >>> 12;
+        if ((blockCount << 12) < length) {
+            ++blockCount;
+        }
+        assert (blockCount << 12) >= length;
+        return blockCount;
+    }
+
+    final long[] indices;
+    final long[][] bits;
+    final int length;
+    int nonZeroLongCount;
+    long ramBytesUsed;
+
+    /** Create a {@link SparseFixedBitSet} that can contain bits between <code>0</code> included and
+     * <code>length</code> excluded. */
+    public SparseFixedBitSet(int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("length needs to be >= 1");
+        }
+        this.length = length;
+        final int blockCount = blockCount(length);
+        indices = new long[blockCount];
+        bits = new long[blockCount][];
+        ramBytesUsed = (long) Long.BYTES * blockCount + 8L * blockCount;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    private boolean consistent(int index) {
+        assert index >= 0 && index < length : "index=" + index + ",length=" + length;
+        return true;
+    }
+
+    /** Returns the number of set bits, this is a popcount over the non-zero longs only. */
+    public int cardinality() {
+        int cardinality = 0;
+        for (long[] bitArray : bits) {
+            if (bitArray != null) {
+                for (long bits : bitArray) {
+                    cardinality += Long.bitCount(bits);
+                }
+            }
+        }
+        return cardinality;
+    }
+
+    @Override
+    public boolean get(int i) {
+        assert consistent(i);
+        final int i4096 = i >>> 12;
+        final long index = indices[i4096];
+        final int i64 = i >>> 6;
+        // first check the index, if the i64-th bit is not set, then i is not set
+        // note: this relies on the fact that shifts are mod 64 in java
+        if ((index & (1L << i64)) == 0) {
+            return false;
+        }
+
+        // if it is set, then we count the number of bits that are set on the right
+        // of i64, and that gives us the index of the long that stores the bits we
+        // are interested in
+        final long bits = this.bits[i4096][Long.bitCount(index & ((1L << i64) - 1))];
+        return (bits & (1L << i)) != 0;
+    }
+
+    private static int oversize(int s) {
+        int newSize = s + (s >>> 1);
+        if (newSize > 50) {
+            newSize = 64;
+        }
+        return newSize;
+    }
+
+    /** Set the bit at index <code>i</code>. */
+    public void set(int i) {
+        assert consistent(i);
+        final int i4096 = i >>> 12;
+        final long index = indices[i4096];
+        final int i64 = i >>> 6;
+        if ((index & (1L << i64)) != 0) {
+            // in that case the sub 64-bits block we are interested in already exists,
+            // we just need to set a bit in an existing long: the number of ones on
+            // the right of i64 gives us the index of the long we need to update
+            bits[i4096][Long.bitCount(index & ((1L << i64) - 1))] |= 1L << i; // shifts are mod 64 in java
+        } else if (index == 0) {
+            // if the index is 0, it means that we just found a block of 4096 bits
+            // that has no bit that is set yet. So let's initialize a new block:
+            insertBlock(i4096, i64, i);
+        } else {
+            // in that case we found a block of 4096 bits that has some values, but
+            // the sub-block of 64 bits that we are interested in has no value yet,
+            // so we need to insert a new long
+            insertLong(i4096, i64, i, index);
+        }
+    }
+
+    private void insertBlock(int i4096, int i64, int i) {
+        indices[i4096] = 1L << i64; // shifts are mod 64 in java
+        assert bits[i4096] == null;
+        bits[i4096] = new long[] {1L << i}; // shifts are mod 64 in java
+        ++nonZeroLongCount;
+        ramBytesUsed += SINGLE_ELEMENT_ARRAY_BYTES_USED;
+    }
+
+    private void insertLong(int i4096, int i64, int i, long index) {
+        indices[i4096] |= 1L << i64; // shifts are mod 64 in java
+        // we count the number of bits that are set on the right of i64
+        // this gives us the index at which to perform the insertion
+        final int o = Long.bitCount(index & ((1L << i64) - 1));
+        final long[] bitArray = bits[i4096];
+        if (bitArray[bitArray.length - 1] == 0) {
+            // since we only store non-zero longs, if the last value is 0, it means
+            // that we allocated more than needed and we can insert the new long
+            // in the existing array
+            System.arraycopy(bitArray, o, bitArray, o + 1, bitArray.length - o - 1);
+            bitArray[o] = 1L << i;
+        } else {
+            // we don't have enough room so we need to resize
+            final int newSize = oversize(bitArray.length + 1);
+            final long[] newBitArray = new long[newSize];
+            System.arraycopy(bitArray, 0, newBitArray, 0, o);
+            newBitArray[o] = 1L << i;
+            System.arraycopy(bitArray, o, newBitArray, o + 1, bitArray.length - o);
+            bits[i4096] = newBitArray;
+            ramBytesUsed += (long) (newSize - bitArray.length) * Long.BYTES;
+        }
+        ++nonZeroLongCount;
+    }
+
+    /** Clear the bit at index <code>i</code>. */
+    public void clear(int i) {
+        assert consistent(i);
+        final int i4096 = i >>> 12;
+        final int i64 = i >>> 6;
+        and(i4096, i64, ~(1L << i));
+    }
+
+    private void and(int i4096, int i64, long mask) {
+        final long index = indices[i4096];
+        if ((index & (1L << i64)) != 0) {
+            // offset of the long bits we are interested in
+            final int location = Long.bitCount(index & ((1L << i64) - 1));
+            final long bits = this.bits[i4096][location] & mask;
+            if (bits == 0) {
+                removeLong(i4096, i64, index, location);
+            } else {
+                this.bits[i4096][location] = bits;
+            }
+        }
+    }
+
+    private void removeLong(int i4096, int i64, long index, int o) {
+        index &= ~(1L << i64);
+        indices[i4096] = index;
+        if (index == 0) {
+            // release memory, there is nothing in this block anymore
+            this.bits[i4096] = null;
+        } else {
+            final int length = Long.bitCount(index);
+            final long[] bitArray = bits[i4096];
+            System.arraycopy(bitArray, o + 1, bitArray, o, length - o);
+            bitArray[length] = 0L;
+        }
+        nonZeroLongCount -= 1;
+    }
+
+    /**
+     * Returns the index of the first set bit starting at the index specified. {@link
+     * FixedBitSet#NO_MORE_BITS} is returned if there are no more set bits.
+     */
+    public int nextSetBit(int i) {
+        assert i < length;
+        final int i4096 = i >>> 12;
+        final long index = indices[i4096];
+        final long[] bitArray = this.bits[i4096];
+        int i64 = i >>> 6;
+        int o = Long.bitCount(index & ((1L << i64) - 1));
+        if ((index & (1L << i64)) != 0) {
+            // There is at least one bit that is set in the current long, check if
+            // one of them is after i
+            final long bits = bitArray[o] >>> i; // shifts are mod 64
+            if (bits != 0) {
+                return i + Long.numberOfTrailingZeros(bits);
+            }
+            o += 1;
+        }
+        final long indexBits = index >>> i64 >>> 1;
+        if (indexBits == 0) {
+            // no more bits are set in the current block of 4096 bits, go to the next one
+            return firstDoc(i4096 + 1);
+        }
+        // there are still set bits
+        i64 += 1 + Long.numberOfTrailingZeros(indexBits);
+        final long bits = bitArray[o];
+        return (i64 << 6) | Long.numberOfTrailingZeros(bits);
+    }
+
+    /** Return the first document that occurs on or after the provided block index. */
+    private int firstDoc(int i4096) {
+        long index = 0;
+        while (i4096 < indices.length) {
+            index = indices[i4096];
+            if (index != 0) {
+                final int i64 = Long.numberOfTrailingZeros(index);
+                return (i4096 << 12) | (i64 << 6) | Long.numberOfTrailingZeros(bits[i4096][0]);
+            }
+            i4096 += 1;
+        }
+        return FixedBitSet.NO_MORE_BITS;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return ramBytesUsed;
+    }
+
+    @Override
+    public String toString() {
+        return "SparseFixedBitSet(size=" + length + ",cardinality=~" + nonZeroLongCount + ")";
+    }
+}
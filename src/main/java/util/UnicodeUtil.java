@@ -0,0 +1,75 @@
+package util;
+
+/**
+ * Encodes UTF-16 chars to UTF-8 bytes into a caller-provided array, so that terms can be produced
+ * from a {@link CharSequence} without allocating a {@link String} or a byte[] per term.
+ *
+ * @lucene.internal
+ */
+public final class UnicodeUtil {
+
+    /** Maximum number of UTF8 bytes per UTF16 character. */
+    public static final int MAX_UTF8_BYTES_PER_CHAR = 3;
+
+    private static final int UNI_SUR_HIGH_START = 0xD800;
+    private static final int UNI_SUR_LOW_START = 0xDC00;
+    private static final int UNI_SUR_LOW_END = 0xDFFF;
+
+    private static final long HALF_SHIFT = 10;
+
+    private static final int SURROGATE_OFFSET =
+            Character.MIN_SUPPLEMENTARY_CODE_POINT - (UNI_SUR_HIGH_START << HALF_SHIFT) - UNI_SUR_LOW_START;
+
+    private UnicodeUtil() {} // no instance
+
+    /**
+     * Encode characters from this String, starting at offset for length characters. Output to the
+     * destination array will begin at {@code outOffset}. It is the responsibility of the caller to
+     * make sure that the destination array is large enough, {@link #MAX_UTF8_BYTES_PER_CHAR} bytes
+     * per char are enough. Unpaired surrogates are replaced with U+FFFD.
+     *
+     * @return the number of bytes written
+     */
+    public static int UTF16toUTF8(
+            final CharSequence s, final int offset, final int length, byte[] out, int outOffset) {
+        final int end = offset + length;
+
+        int upto = outOffset;
+        for (int i = offset; i < end; i++) {
+            final int code = (int) s.charAt(i);
+
+            if (code < 0x80) {
+                out[upto++] = (byte) code;
+            } else if (code < 0x800) {
+                out[upto++] = (byte) (0xC0 | (code >> 6));
+                out[upto++] = (byte) (0x80 | (code & 0x3F));
+            } else if (code < 0xD800 || code > 0xDFFF) {
+                out[upto++] = (byte) (0xE0 | (code >> 12));
+                out[upto++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+                out[upto++] = (byte) (0x80 | (code & 0x3F));
+            } else {
+                // surrogate pair
+                // confirm valid high surrogate
+                if (code < 0xDC00 && (i < end - 1)) {
+                    int utf32 = (int) s.charAt(i + 1);
+                    // confirm valid low surrogate and write pair
+                    if (utf32 >= UNI_SUR_LOW_START && utf32 <= UNI_SUR_LOW_END) {
+                        utf32 = (code << 10) + utf32 + SURROGATE_OFFSET;
+                        i++;
+                        out[upto++] = (byte) (0xF0 | (utf32 >> 18));
+                        out[upto++] = (byte) (0x80 | ((utf32 >> 12) & 0x3F));
+                        out[upto++] = (byte) (0x80 | ((utf32 >> 6) & 0x3F));
+                        out[upto++] = (byte) (0x80 | (utf32 & 0x3F));
+                        continue;
+                    }
+                }
+                // replace unpaired surrogate or out-of-order low surrogate
+                // with substitution character
+                out[upto++] = (byte) 0xEF;
+                out[upto++] = (byte) 0xBF;
+                out[upto++] = (byte) 0xBD;
+            }
+        }
+        return upto - outOffset;
+    }
+}
@@ -0,0 +1,265 @@
+package util.bkd;
+
+import index.PointValues;
+import store.IndexInput;
+import util.ArrayUtil;
+
+import java.io.IOException;
+
+/**
+ * Handles reading a block KD-tree previously written with {@link BKDWriter}. The inner nodes and
+ * the file pointers of the leaf blocks are loaded in heap when the reader is opened, leaf blocks are
+ * read from the data file on demand.
+ *
+ * @lucene.experimental
+ */
+public final class BKDReader extends PointValues {
+
+    final int numDataDims;
+    final int numIndexDims;
+    final int bytesPerDim;
+    final int packedBytesLength;
+    final int packedIndexBytesLength;
+    final int maxPointsInLeafNode;
+    final int numLeaves;
+    final byte[] minPackedValue;
+    final byte[] maxPackedValue;
+    final long pointCount;
+    final int docCount;
+
+    private final ArrayUtil.ByteArrayComparator comparator;
+
+    // split dimension and value of inner node i, in heap order starting at 1
+    private final byte[] splitDims;
+    private final byte[] splitValues;
+
+    private final long[] leafBlockFPs;
+
+    private final IndexInput in;
+
+    /**
+     * Opens the tree written by {@link BKDWriter#finish}.
+     *
+     * @param metaIn positioned on the meta of the tree, which is fully read
+     * @param indexIn the index file, which is fully read at the position the meta refers to
+     * @param dataIn the data file, which is kept to read leaf blocks
+     */
+    public BKDReader(IndexInput metaIn, IndexInput indexIn, IndexInput dataIn) throws IOException {
+        numDataDims = metaIn.readVInt();
+        numIndexDims = metaIn.readVInt();
+        bytesPerDim = metaIn.readVInt();
+        maxPointsInLeafNode = metaIn.readVInt();
+        numLeaves = metaIn.readVInt();
+        if (numDataDims < 1 || numDataDims > MAX_DIMENSIONS
+                || numIndexDims < 1 || numIndexDims > Math.min(numDataDims, MAX_INDEX_DIMENSIONS)
+                || bytesPerDim < 1 || bytesPerDim > MAX_NUM_BYTES
+                || numLeaves < 1 || Integer.bitCount(numLeaves) != 1) {
+            throw new IOException(
+                    "invalid BKD tree: numDataDims=" + numDataDims + ", numIndexDims=" + numIndexDims
+                            + ", bytesPerDim=" + bytesPerDim + ", numLeaves=" + numLeaves + " in " + metaIn);
+        }
+        packedBytesLength = numDataDims * bytesPerDim;
+        packedIndexBytesLength = numIndexDims * bytesPerDim;
+        comparator = ArrayUtil.getUnsignedComparator(bytesPerDim);
+
+        minPackedValue = new byte[packedIndexBytesLength];
+        maxPackedValue = new byte[packedIndexBytesLength];
+        metaIn.readBytes(minPackedValue, 0, packedIndexBytesLength);
+        metaIn.readBytes(maxPackedValue, 0, packedIndexBytesLength);
+        for (int dim = 0; dim < numIndexDims; dim++) {
+            if (comparator.compare(minPackedValue, dim * bytesPerDim, maxPackedValue, dim * bytesPerDim) > 0) {
+                throw new IOException("minPackedValue > maxPackedValue for dim=" + dim + " in " + metaIn);
+            }
+        }
+        pointCount = metaIn.readVLong();
+        docCount = metaIn.readVInt();
+        final long dataStartFP = metaIn.readLong();
+        final long indexFP = metaIn.readLong();
+
+        indexIn.seek(indexFP);
+        splitDims = new byte[numLeaves];
+        splitValues = new byte[numLeaves * bytesPerDim];
+        for (int nodeID = 1; nodeID < numLeaves; nodeID++) {
+            splitDims[nodeID] = indexIn.readByte();
+            if (splitDims[nodeID] < 0 || splitDims[nodeID] >= numIndexDims) {
+                throw new IOException("invalid split dimension " + splitDims[nodeID] + " in " + indexIn);
+            }
+            indexIn.readBytes(splitValues, nodeID * bytesPerDim, bytesPerDim);
+        }
+        leafBlockFPs = new long[numLeaves];
+        long fp = dataStartFP;
+        for (int leaf = 0; leaf < numLeaves; leaf++) {
+            fp += indexIn.readVLong();
+            leafBlockFPs[leaf] = fp;
+        }
+        this.in = dataIn;
+    }
+
+    @Override
+    public void intersect(IntersectVisitor visitor) throws IOException {
+        final IntersectState state = new IntersectState(in.clone(), visitor);
+        intersect(state, 1, minPackedValue.clone(), maxPackedValue.clone());
+    }
+
+    private void intersect(IntersectState state, int nodeID, byte[] cellMinPacked, byte[] cellMaxPacked)
+            throws IOException {
+        final Relation r = state.visitor.compare(cellMinPacked, cellMaxPacked);
+        if (r == Relation.CELL_OUTSIDE_QUERY) {
+            // this cell is fully outside the query shape: stop recursing
+            return;
+        } else if (r == Relation.CELL_INSIDE_QUERY) {
+            // this cell is fully inside the query shape: recursively add all points in this cell
+            // without filtering
+            addAll(state, nodeID);
+            return;
+        }
+
+        if (nodeID >= numLeaves) {
+            visitLeafBlock(state, nodeID - numLeaves);
+            return;
+        }
+
+        final int splitDim = splitDims[nodeID];
+        final int splitOffset = splitDim * bytesPerDim;
+
+        final byte[] splitPackedValue = cellMaxPacked.clone();
+        System.arraycopy(splitValues, nodeID * bytesPerDim, splitPackedValue, splitOffset, bytesPerDim);
+        intersect(state, 2 * nodeID, cellMinPacked, splitPackedValue);
+
+        final byte[] splitMinPackedValue = cellMinPacked.clone();
+        System.arraycopy(splitValues, nodeID * bytesPerDim, splitMinPackedValue, splitOffset, bytesPerDim);
+        intersect(state, 2 * nodeID + 1, splitMinPackedValue, cellMaxPacked);
+    }
+
+    /** Visits the doc IDs of all points under the given node, without their values. */
+    private void addAll(IntersectState state, int nodeID) throws IOException {
+        if (nodeID >= numLeaves) {
+            state.in.seek(leafBlockFPs[nodeID - numLeaves]);
+            final int count = readDocIDs(state);
+            visitDocIDs(state, count);
+        } else {
+            addAll(state, 2 * nodeID);
+            addAll(state, 2 * nodeID + 1);
+        }
+    }
+
+    /**
+     * Visits a leaf block that crosses the query: the block is skipped or fully accepted if its actual
+     * bounds allow it, otherwise each point is checked by the visitor.
+     */
+    private void visitLeafBlock(IntersectState state, int leaf) throws IOException {
+        final IndexInput in = state.in;
+        in.seek(leafBlockFPs[leaf]);
+        final int count = readDocIDs(state);
+
+        final byte[] packedValue = state.scratchPackedValue;
+        for (int dim = 0; dim < numDataDims; dim++) {
+            final int prefixLength = in.readVInt();
+            if (prefixLength > bytesPerDim) {
+                throw new IOException("invalid prefix length " + prefixLength + " in " + in);
+            }
+            state.prefixLengths[dim] = prefixLength;
+            in.readBytes(packedValue, dim * bytesPerDim, prefixLength);
+        }
+
+        final byte[] leafMin = state.scratchMin;
+        final byte[] leafMax = state.scratchMax;
+        for (int dim = 0; dim < numIndexDims; dim++) {
+            final int offset = dim * bytesPerDim;
+            final int prefixLength = state.prefixLengths[dim];
+            System.arraycopy(packedValue, offset, leafMin, offset, prefixLength);
+            System.arraycopy(packedValue, offset, leafMax, offset, prefixLength);
+            in.readBytes(leafMin, offset + prefixLength, bytesPerDim - prefixLength);
+            in.readBytes(leafMax, offset + prefixLength, bytesPerDim - prefixLength);
+        }
+        final Relation r = state.visitor.compare(leafMin, leafMax);
+        if (r == Relation.CELL_OUTSIDE_QUERY) {
+            return;
+        } else if (r == Relation.CELL_INSIDE_QUERY) {
+            visitDocIDs(state, count);
+            return;
+        }
+
+        state.visitor.grow(count);
+        for (int i = 0; i < count; i++) {
+            for (int dim = 0; dim < numDataDims; dim++) {
+                final int prefixLength = state.prefixLengths[dim];
+                in.readBytes(packedValue, dim * bytesPerDim + prefixLength, bytesPerDim - prefixLength);
+            }
+            state.visitor.visit(state.docIDs[i], packedValue);
+        }
+    }
+
+    /** Reads the doc IDs of the leaf block the input is positioned on and returns their count. */
+    private int readDocIDs(IntersectState state) throws IOException {
+        final IndexInput in = state.in;
+        final int count = in.readVInt();
+        if (count > maxPointsInLeafNode) {
+            throw new IOException("leaf block has " + count + " points, more than " + maxPointsInLeafNode + " in " + in);
+        }
+        int docID = 0;
+        for (int i = 0; i < count; i++) {
+            docID += in.readVInt();
+            state.docIDs[i] = docID;
+        }
+        return count;
+    }
+
+    private static void visitDocIDs(IntersectState state, int count) throws IOException {
+        state.visitor.grow(count);
+        for (int i = 0; i < count; i++) {
+            state.visitor.visit(state.docIDs[i]);
+        }
+    }
+
+    @Override
+    public byte[] getMinPackedValue() {
+        return minPackedValue.clone();
+    }
+
+    @Override
+    public byte[] getMaxPackedValue() {
+        return maxPackedValue.clone();
+    }
+
+    @Override
+    public int getNumDimensions() {
+        return numDataDims;
+    }
+
+    @Override
+    public int getNumIndexDimensions() {
+        return numIndexDims;
+    }
+
+    @Override
+    public int getBytesPerDimension() {
+        return bytesPerDim;
+    }
+
+    @Override
+    public long size() {
+        return pointCount;
+    }
+
+    @Override
+    public int getDocCount() {
+        return docCount;
+    }
+
+    /** Used to track all state for a single call to {@link #intersect}. */
+    private final class IntersectState {
+        final IndexInput in;
+        final IntersectVisitor visitor;
+        final int[] docIDs = new int[maxPointsInLeafNode];
+        final int[] prefixLengths = new int[numDataDims];
+        final byte[] scratchPackedValue = new byte[packedBytesLength];
+        final byte[] scratchMin = new byte[packedIndexBytesLength];
+        final byte[] scratchMax = new byte[packedIndexBytesLength];
+
+        IntersectState(IndexInput in, IntersectVisitor visitor) {
+            this.in = in;
+            this.visitor = visitor;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package util.bkd;
+
+import index.PointValues;
+import store.DataOutput;
+import store.IndexOutput;
+import util.Accountable;
+import util.ArrayUtil;
+import util.IntroSorter;
+import util.NumericUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Recursively builds a block KD-tree to assign all incoming points in N-dim space to smaller and
+ * smaller N-dim rectangles (cells) until the number of points in a given rectangle is &lt;= <code>
+ * maxPointsInLeafNode</code>. The tree is fully balanced, which means the leaf nodes will have
+ * between 50% and 100% of the requested <code>maxPointsInLeafNode</code>. Values that fall exactly
+ * on a cell boundary may be in either cell.
+ *
+ * <p>Points are buffered in heap as they are added and the tree is built when the writer finishes:
+ * each inner node splits its points in two halves at the median value of the index dimension that
+ * has the widest span, found with a quickselect that partitions the buffered points in place, so
+ * building the tree takes linear time per level.
+ *
+ * <p>A leaf block in the data file holds the number of points, their doc IDs in increasing order,
+ * delta-coded, the common prefix of each dimension, the bounds of the index dimensions of the
+ * leaf, and then the suffixes of the values of each point. The index file holds the split dimension
+ * and split value of each inner node, in heap order, and the file pointer of each leaf block.
+ *
+ * @lucene.experimental
+ */
+public final class BKDWriter implements Accountable {
+
+    /** Default maximum number of point in each leaf block */
+    public static final int DEFAULT_MAX_POINTS_IN_LEAF_NODE = 512;
+
+    /** How many dimensions we are storing at the leaf (data) nodes */
+    final int numDataDims;
+
+    /** How many dimensions we are indexing in the internal nodes */
+    final int numIndexDims;
+
+    /** How many bytes each value in each dimension takes. */
+    final int bytesPerDim;
+
+    /** numDataDims * bytesPerDim */
+    final int packedBytesLength;
+
+    /** numIndexDims * bytesPerDim */
+    final int packedIndexBytesLength;
+
+    final int maxPointsInLeafNode;
+
+    private final ArrayUtil.ByteArrayComparator comparator;
+
+    // buffered points, point i is packedValues[i * packedBytesLength, (i + 1) * packedBytesLength)
+    private byte[] packedValues;
+    private int[] docIDs;
+    private int numPoints;
+
+    private int docCount;
+    private int lastDocID = -1;
+
+    private boolean finished;
+
+    // state of the tree being written
+    private int numLeaves;
+    private byte[] splitDims;
+    private byte[] splitValues;
+    private long[] leafBlockFPs;
+
+    private final byte[] scratch1;
+    private final byte[] scratch2;
+    private final byte[] scratchDiff;
+
+    public BKDWriter(int numDataDims, int numIndexDims, int bytesPerDim, int maxPointsInLeafNode) {
+        verifyParams(numDataDims, numIndexDims, bytesPerDim, maxPointsInLeafNode);
+        this.numDataDims = numDataDims;
+        this.numIndexDims = numIndexDims;
+        this.bytesPerDim = bytesPerDim;
+        this.maxPointsInLeafNode = maxPointsInLeafNode;
+        packedBytesLength = numDataDims * bytesPerDim;
+        packedIndexBytesLength = numIndexDims * bytesPerDim;
+        comparator = ArrayUtil.getUnsignedComparator(bytesPerDim);
+        packedValues = new byte[16 * packedBytesLength];
+        docIDs = new int[16];
+        scratch1 = new byte[packedBytesLength];
+        scratch2 = new byte[packedBytesLength];
+        scratchDiff = new byte[bytesPerDim];
+    }
+
+    private static void verifyParams(int numDims, int numIndexDims, int bytesPerDim, int maxPointsInLeafNode) {
+        if (numDims < 1 || numDims > PointValues.MAX_DIMENSIONS) {
+            throw new IllegalArgumentException(
+                    "numDims must be 1 .. " + PointValues.MAX_DIMENSIONS + " (got: " + numDims + ")");
+        }
+        if (numIndexDims < 1 || numIndexDims > Math.min(numDims, PointValues.MAX_INDEX_DIMENSIONS)) {
+            throw new IllegalArgumentException(
+                    "numIndexDims must be 1 .. " + Math.min(numDims, PointValues.MAX_INDEX_DIMENSIONS)
+                            + " (got: " + numIndexDims + ")");
+        }
+        if (bytesPerDim < 1 || bytesPerDim > PointValues.MAX_NUM_BYTES) {
+            throw new IllegalArgumentException(
+                    "bytesPerDim must be 1 .. " + PointValues.MAX_NUM_BYTES + " (got: " + bytesPerDim + ")");
+        }
+        // with at least 2 points per leaf, a fully balanced tree has no empty leaf
+        if (maxPointsInLeafNode < 2) {
+            throw new IllegalArgumentException("maxPointsInLeafNode must be >= 2; got " + maxPointsInLeafNode);
+        }
+    }
+
+    /**
+     * Buffers a point, the {@code packedBytesLength} bytes of {@code packedValue} from {@code offset}.
+     * Points must be added in increasing doc ID order, a doc may have several points.
+     */
+    public void add(byte[] packedValue, int offset, int docID) {
+        if (finished) {
+            throw new IllegalStateException("already finished");
+        }
+        if (docID < lastDocID) {
+            throw new IllegalArgumentException("docID must be >= " + lastDocID + ", got " + docID);
+        }
+        final long minLength = (long) (numPoints + 1) * packedBytesLength;
+        if (minLength > ArrayUtil.MAX_ARRAY_LENGTH) {
+            throw new IllegalStateException(
+                    "cannot buffer more than " + numPoints + " points of " + packedBytesLength
+                            + " bytes, flush the segment before");
+        }
+        if (packedValues.length < minLength) {
+            packedValues = ArrayUtil.grow(packedValues, (int) minLength);
+        }
+        if (docIDs.length == numPoints) {
+            docIDs = ArrayUtil.grow(docIDs, numPoints + 1);
+        }
+        System.arraycopy(packedValue, offset, packedValues, numPoints * packedBytesLength, packedBytesLength);
+        docIDs[numPoints] = docID;
+        numPoints++;
+        if (docID != lastDocID) {
+            docCount++;
+            lastDocID = docID;
+        }
+    }
+
+    /** How many points have been added so far */
+    public int getPointCount() {
+        return numPoints;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return packedValues.length + (long) Integer.BYTES * docIDs.length;
+    }
+
+    /**
+     * Builds the tree of the buffered points and writes it: the leaf blocks to {@code dataOut}, the
+     * inner nodes to {@code indexOut} and the dimensions, bounds and file pointers of the tree to
+     * {@code metaOut}. There must be at least one point.
+     */
+    public void finish(DataOutput metaOut, IndexOutput indexOut, IndexOutput dataOut) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("already finished");
+        }
+        if (numPoints == 0) {
+            throw new IllegalStateException("no points were added");
+        }
+        finished = true;
+
+        numLeaves = 1;
+        while ((long) numLeaves * maxPointsInLeafNode < numPoints) {
+            numLeaves <<= 1;
+        }
+        splitDims = new byte[numLeaves];
+        splitValues = new byte[numLeaves * bytesPerDim];
+        leafBlockFPs = new long[numLeaves];
+
+        final byte[] minPackedValue = new byte[packedIndexBytesLength];
+        final byte[] maxPackedValue = new byte[packedIndexBytesLength];
+        computeBounds(0, numPoints, minPackedValue, maxPackedValue);
+
+        final long dataStartFP = dataOut.getFilePointer();
+        build(1, 0, numPoints, minPackedValue, maxPackedValue, dataOut);
+
+        final long indexFP = indexOut.getFilePointer();
+        for (int nodeID = 1; nodeID < numLeaves; nodeID++) {
+            indexOut.writeByte(splitDims[nodeID]);
+            indexOut.writeBytes(splitValues, nodeID * bytesPerDim, bytesPerDim);
+        }
+        long previousFP = dataStartFP;
+        for (long fp : leafBlockFPs) {
+            indexOut.writeVLong(fp - previousFP);
+            previousFP = fp;
+        }
+
+        metaOut.writeVInt(numDataDims);
+        metaOut.writeVInt(numIndexDims);
+        metaOut.writeVInt(bytesPerDim);
+        metaOut.writeVInt(maxPointsInLeafNode);
+        metaOut.writeVInt(numLeaves);
+        metaOut.writeBytes(minPackedValue, 0, packedIndexBytesLength);
+        metaOut.writeBytes(maxPackedValue, 0, packedIndexBytesLength);
+        metaOut.writeVLong(numPoints);
+        metaOut.writeVInt(docCount);
+        metaOut.writeLong(dataStartFP);
+        metaOut.writeLong(indexFP);
+
+        // release the buffered points
+        packedValues = null;
+        docIDs = null;
+    }
+
+    /** Computes the bounds of the index dimensions of the points in [from, to). */
+    private void computeBounds(int from, int to, byte[] minPackedValue, byte[] maxPackedValue) {
+        System.arraycopy(packedValues, from * packedBytesLength, minPackedValue, 0, packedIndexBytesLength);
+        System.arraycopy(packedValues, from * packedBytesLength, maxPackedValue, 0, packedIndexBytesLength);
+        for (int i = from + 1; i < to; i++) {
+            for (int dim = 0; dim < numIndexDims; dim++) {
+                final int offset = i * packedBytesLength + dim * bytesPerDim;
+                final int dimOffset = dim * bytesPerDim;
+                if (comparator.compare(packedValues, offset, minPackedValue, dimOffset) < 0) {
+                    System.arraycopy(packedValues, offset, minPackedValue, dimOffset, bytesPerDim);
+                } else if (comparator.compare(packedValues, offset, maxPackedValue, dimOffset) > 0) {
+                    System.arraycopy(packedValues, offset, maxPackedValue, dimOffset, bytesPerDim);
+                }
+            }
+        }
+    }
+
+    /** Writes the subtree of the given node, which holds the points in [from, to). */
+    private void build(int nodeID, int from, int to, byte[] minPackedValue, byte[] maxPackedValue, IndexOutput dataOut)
+            throws IOException {
+        if (nodeID >= numLeaves) {
+            writeLeafBlock(nodeID - numLeaves, from, to, dataOut);
+            return;
+        }
+
+        // split on the dimension that has the widest span
+        int splitDim = 0;
+        if (numIndexDims > 1) {
+            byte[] maxDiff = scratch1;
+            byte[] diff = scratchDiff;
+            for (int dim = 0; dim < numIndexDims; dim++) {
+                NumericUtils.subtract(bytesPerDim, dim, maxPackedValue, minPackedValue, diff);
+                if (dim == 0 || comparator.compare(diff, 0, maxDiff, 0) > 0) {
+                    System.arraycopy(diff, 0, maxDiff, 0, bytesPerDim);
+                    splitDim = dim;
+                }
+            }
+        }
+
+        final int mid = (from + to) >>> 1;
+        assert from < mid && mid < to;
+        select(from, to, mid, splitDim);
+        splitDims[nodeID] = (byte) splitDim;
+        System.arraycopy(
+                packedValues, mid * packedBytesLength + splitDim * bytesPerDim, splitValues, nodeID * bytesPerDim, bytesPerDim);
+
+        final byte[] childMin = new byte[packedIndexBytesLength];
+        final byte[] childMax = new byte[packedIndexBytesLength];
+        computeBounds(from, mid, childMin, childMax);
+        build(2 * nodeID, from, mid, childMin, childMax, dataOut);
+        computeBounds(mid, to, childMin, childMax);
+        build(2 * nodeID + 1, mid, to, childMin, childMax, dataOut);
+    }
+
+    /**
+     * Reorders the points in [from, to) so that point {@code k} has the value it would have if they
+     * were sorted on the given dimension, the points before it having lesser or equal values and the
+     * points after it greater or equal values.
+     */
+    private void select(int from, int to, int k, int dim) {
+        final byte[] pivot = scratch2;
+        final int dimOffset = dim * bytesPerDim;
+        while (to - from > 1) {
+            final int pivotIndex = medianOfThree(from, (from + to) >>> 1, to - 1, dimOffset);
+            System.arraycopy(packedValues, pivotIndex * packedBytesLength + dimOffset, pivot, 0, bytesPerDim);
+            // three-way partition, so that many equal values don't make it quadratic:
+            // [from, lt) < pivot, [lt, i) == pivot, [gt, to) > pivot
+            int lt = from;
+            int i = from;
+            int gt = to;
+            while (i < gt) {
+                final int cmp = comparator.compare(packedValues, i * packedBytesLength + dimOffset, pivot, 0);
+                if (cmp < 0) {
+                    swap(lt++, i++);
+                } else if (cmp > 0) {
+                    swap(i, --gt);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                to = lt;
+            } else if (k >= gt) {
+                from = gt;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int medianOfThree(int a, int b, int c, int dimOffset) {
+        if (compare(a, b, dimOffset) > 0) {
+            final int tmp = a;
+            a = b;
+            b = tmp;
+        }
+        // a <= b
+        if (compare(b, c, dimOffset) <= 0) {
+            return b;
+        }
+        return compare(a, c, dimOffset) > 0 ? a : c;
+    }
+
+    private int compare(int i, int j, int dimOffset) {
+        return comparator.compare(
+                packedValues, i * packedBytesLength + dimOffset, packedValues, j * packedBytesLength + dimOffset);
+    }
+
+    private void swap(int i, int j) {
+        final int tmpDoc = docIDs[i];
+        docIDs[i] = docIDs[j];
+        docIDs[j] = tmpDoc;
+        final byte[] tmp = scratch1;
+        System.arraycopy(packedValues, i * packedBytesLength, tmp, 0, packedBytesLength);
+        System.arraycopy(packedValues, j * packedBytesLength, packedValues, i * packedBytesLength, packedBytesLength);
+        System.arraycopy(tmp, 0, packedValues, j * packedBytesLength, packedBytesLength);
+    }
+
+    private void writeLeafBlock(int leaf, int from, int to, IndexOutput dataOut) throws IOException {
+        leafBlockFPs[leaf] = dataOut.getFilePointer();
+
+        // doc IDs in increasing order compress well and let visitors collect them in order
+        new IntroSorter() {
+            int pivot;
+
+            @Override
+            protected void setPivot(int i) {
+                pivot = docIDs[i];
+            }
+
+            @Override
+            protected int comparePivot(int j) {
+                return Integer.compare(pivot, docIDs[j]);
+            }
+
+            @Override
+            protected int compare(int i, int j) {
+                return Integer.compare(docIDs[i], docIDs[j]);
+            }
+
+            @Override
+            protected void swap(int i, int j) {
+                BKDWriter.this.swap(i, j);
+            }
+        }.sort(from, to);
+
+        dataOut.writeVInt(to - from);
+        int previousDocID = 0;
+        for (int i = from; i < to; i++) {
+            dataOut.writeVInt(docIDs[i] - previousDocID);
+            previousDocID = docIDs[i];
+        }
+
+        // common prefix of each dimension
+        final int[] prefixLengths = new int[numDataDims];
+        final int firstOffset = from * packedBytesLength;
+        for (int dim = 0; dim < numDataDims; dim++) {
+            final int dimOffset = firstOffset + dim * bytesPerDim;
+            int prefixLength = bytesPerDim;
+            for (int i = from + 1; i < to && prefixLength > 0; i++) {
+                final int offset = i * packedBytesLength + dim * bytesPerDim;
+                final int mismatch = Arrays.mismatch(
+                        packedValues, dimOffset, dimOffset + prefixLength, packedValues, offset, offset + prefixLength);
+                if (mismatch != -1) {
+                    prefixLength = mismatch;
+                }
+            }
+            prefixLengths[dim] = prefixLength;
+            dataOut.writeVInt(prefixLength);
+            dataOut.writeBytes(packedValues, dimOffset, prefixLength);
+        }
+
+        // actual bounds of the leaf, so that readers can skip or accept it without reading values
+        final byte[] minPackedValue = new byte[packedIndexBytesLength];
+        final byte[] maxPackedValue = new byte[packedIndexBytesLength];
+        computeBounds(from, to, minPackedValue, maxPackedValue);
+        for (int dim = 0; dim < numIndexDims; dim++) {
+            final int prefixLength = prefixLengths[dim];
+            dataOut.writeBytes(minPackedValue, dim * bytesPerDim + prefixLength, bytesPerDim - prefixLength);
+            dataOut.writeBytes(maxPackedValue, dim * bytesPerDim + prefixLength, bytesPerDim - prefixLength);
+        }
+
+        for (int i = from; i < to; i++) {
+            for (int dim = 0; dim < numDataDims; dim++) {
+                final int prefixLength = prefixLengths[dim];
+                dataOut.writeBytes(
+                        packedValues, i * packedBytesLength + dim * bytesPerDim + prefixLength, bytesPerDim - prefixLength);
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package util.fst;
+
+import util.ArrayUtil;
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Enumerates all input (BytesRef) + output pairs in an FST, in the order of the inputs.
+ *
+ * <p>The enum keeps the path of arcs from the root to the current input, with the output
+ * accumulated along it, so that {@link #next()} resumes from the current input instead of walking
+ * down from the root again, and seeking shares the same stack.
+ *
+ * @lucene.experimental
+ */
+public final class BytesRefFSTEnum {
+
+    private final FST fst;
+    private final FST.BytesReader fstReader;
+
+    // arcs[i] is the i-th arc of the path to the current input, outputs[i] the sum of the outputs of
+    // arcs 1 to i; slot 0 is unused
+    private FST.Arc[] arcs = new FST.Arc[10];
+    private long[] outputs = new long[10];
+
+    // depth of the current input, which ends with arcs[upto] or is the empty input if upto is 0
+    private int upto;
+
+    private final BytesRef current = new BytesRef(new byte[10], 0, 0);
+    private final InputOutput result = new InputOutput();
+
+    // scratch arc for seekFloor
+    private final FST.Arc floorArc = new FST.Arc();
+
+    private boolean started;
+    private boolean exhausted;
+
+    /** Holds a single input (BytesRef) + output pair. */
+    public static class InputOutput {
+        public BytesRef input;
+        public long output;
+    }
+
+    /** Creates an enum over the given FST, it must be positioned with next or a seek first. */
+    public BytesRefFSTEnum(FST fst) {
+        this.fst = fst;
+        this.fstReader = fst.getBytesReader();
+        for (int i = 0; i < arcs.length; i++) {
+            arcs[i] = new FST.Arc();
+        }
+        result.input = current;
+    }
+
+    /** Returns the current input/output pair, or null if the enum isn't positioned. */
+    public InputOutput current() {
+        return started && exhausted == false ? result : null;
+    }
+
+    /** Advances to the next input, or returns null once all inputs have been visited. */
+    public InputOutput next() throws IOException {
+        if (exhausted) {
+            return null;
+        }
+        if (started == false) {
+            started = true;
+            upto = 0;
+            if (fst.getEmptyOutput() >= 0) {
+                return setResult();
+            }
+        }
+        final long node = upto == 0 ? fst.getStartNode() : arcs[upto].target;
+        if (node != FST.END_NODE) {
+            // inputs that extend the current one come first
+            pushFirst(node);
+        } else if (advance() == false) {
+            return setExhausted();
+        }
+        return setResult();
+    }
+
+    /** Seeks to smallest input greater than or equal to target. Returns null if there is none. */
+    public InputOutput seekCeil(BytesRef target) throws IOException {
+        started = true;
+        exhausted = false;
+        upto = 0;
+        if (target.length == 0 && fst.getEmptyOutput() >= 0) {
+            return setResult();
+        }
+
+        long node = fst.getStartNode();
+        for (int i = 0; i < target.length; i++) {
+            if (node == FST.END_NODE) {
+                // the current input is a prefix of the target, so it is smaller
+                return advance() ? setResult() : setExhausted();
+            }
+            final int label = target.bytes[target.offset + i] & 0xFF;
+            final FST.Arc arc = arc(upto + 1);
+            fst.readFirstArc(node, arc, fstReader);
+            while (arc.label < label && arc.isLast() == false) {
+                fst.readNextArc(arc, fstReader);
+            }
+            if (arc.label < label) {
+                // all inputs below this node are smaller than the target
+                return upto > 0 && advance() ? setResult() : setExhausted();
+            }
+            push(arc);
+            if (arc.label > label) {
+                // the smallest input below this arc is the ceiling
+                descendToFinal();
+                return setResult();
+            }
+            node = arc.target;
+        }
+
+        if (upto > 0 && arcs[upto].isFinal()) {
+            // exact match
+            return setResult();
+        }
+        if (node == FST.END_NODE) {
+            return setExhausted();
+        }
+        pushFirst(node);
+        return setResult();
+    }
+
+    /** Seeks to biggest input smaller than or equal to target. Returns null if there is none. */
+    public InputOutput seekFloor(BytesRef target) throws IOException {
+        started = true;
+        exhausted = false;
+        upto = 0;
+
+        // the best candidate so far: either the input that ends at depth candDepth, or the last input
+        // below floorArc, the largest arc at depth candDepth whose label is smaller than the target's.
+        // Candidates found deeper are always bigger.
+        int candDepth = fst.getEmptyOutput() >= 0 ? 0 : -1;
+        boolean candIsSibling = false;
+
+        long node = fst.getStartNode();
+        for (int i = 0; i < target.length && node != FST.END_NODE; i++) {
+            final int label = target.bytes[target.offset + i] & 0xFF;
+            final FST.Arc arc = arc(upto + 1);
+            fst.readFirstArc(node, arc, fstReader);
+            while (arc.label < label) {
+                floorArc.copyFrom(arc);
+                candDepth = i + 1;
+                candIsSibling = true;
+                if (arc.isLast()) {
+                    break;
+                }
+                fst.readNextArc(arc, fstReader);
+            }
+            if (arc.label != label) {
+                break;
+            }
+            push(arc);
+            if (arc.isFinal()) {
+                if (upto == target.length) {
+                    // exact match
+                    return setResult();
+                }
+                candDepth = upto;
+                candIsSibling = false;
+            }
+            node = arc.target;
+        }
+
+        if (candDepth == -1) {
+            return setExhausted();
+        }
+        upto = candDepth - (candIsSibling ? 1 : 0);
+        if (candIsSibling) {
+            push(arc(upto + 1).copyFrom(floorArc));
+            // follow the last arcs down to the biggest input below the sibling
+            while (arcs[upto].target != FST.END_NODE) {
+                push(fst.readLastArc(arcs[upto].target, arc(upto + 1), fstReader));
+            }
+        }
+        return setResult();
+    }
+
+    /**
+     * Seeks to exactly this target. Returns null if this target is not accepted, in which case the
+     * enum is left unpositioned and must be re-seeked before it is used.
+     */
+    public InputOutput seekExact(BytesRef target) throws IOException {
+        started = true;
+        exhausted = false;
+        upto = 0;
+        long node = fst.getStartNode();
+        for (int i = 0; i < target.length; i++) {
+            final int label = target.bytes[target.offset + i] & 0xFF;
+            final FST.Arc arc = fst.findTargetArc(label, node, arc(upto + 1), fstReader);
+            if (arc == null) {
+                return setExhausted();
+            }
+            push(arc);
+            node = arc.target;
+        }
+        if (upto == 0 ? fst.getEmptyOutput() >= 0 : arcs[upto].isFinal()) {
+            return setResult();
+        }
+        return setExhausted();
+    }
+
+    /** Returns the arc at the given depth, growing the stack if needed. */
+    private FST.Arc arc(int depth) {
+        if (depth >= arcs.length) {
+            final int oldLength = arcs.length;
+            arcs = Arrays.copyOf(arcs, ArrayUtil.oversize(depth + 1, Long.BYTES));
+            for (int i = oldLength; i < arcs.length; i++) {
+                arcs[i] = new FST.Arc();
+            }
+            outputs = ArrayUtil.grow(outputs, arcs.length);
+        }
+        return arcs[depth];
+    }
+
+    /** Makes the given arc, read into {@code arcs[upto + 1]}, the last arc of the path. */
+    private void push(FST.Arc arc) {
+        assert arc == arcs[upto + 1];
+        upto++;
+        outputs[upto] = outputs[upto - 1] + arc.output;
+        current.bytes = ArrayUtil.grow(current.bytes, upto);
+        current.bytes[upto - 1] = (byte) arc.label;
+    }
+
+    /** Pushes the first arc of the node, then moves down to the smallest input below it. */
+    private void pushFirst(long node) throws IOException {
+        push(fst.readFirstArc(node, arc(upto + 1), fstReader));
+        descendToFinal();
+    }
+
+    /** Follows first arcs until the path ends with a final arc. */
+    private void descendToFinal() throws IOException {
+        while (arcs[upto].isFinal() == false) {
+            // a non final arc always has a target with arcs
+            push(fst.readFirstArc(arcs[upto].target, arc(upto + 1), fstReader));
+        }
+    }
+
+    /**
+     * Moves to the smallest input that doesn't start with the current one, by moving to the next
+     * sibling of the deepest arc that has one.
+     *
+     * @return false if there is no such input
+     */
+    private boolean advance() throws IOException {
+        if (upto == 0) {
+            return false;
+        }
+        while (arcs[upto].isLast()) {
+            upto--;
+            if (upto == 0) {
+                return false;
+            }
+        }
+        final FST.Arc arc = fst.readNextArc(arcs[upto], fstReader);
+        upto--;
+        push(arc);
+        descendToFinal();
+        return true;
+    }
+
+    private InputOutput setResult() {
+        current.length = upto;
+        result.output = upto == 0 ? fst.getEmptyOutput() : outputs[upto] + arcs[upto].nextFinalOutput;
+        return result;
+    }
+
+    private InputOutput setExhausted() {
+        exhausted = true;
+        upto = 0;
+        current.length = 0;
+        return null;
+    }
+}
@@ -0,0 +1,335 @@
+package util.fst;
+
+import store.DataInput;
+import store.DataOutput;
+import store.IndexInput;
+import util.Accountable;
+
+import java.io.IOException;
+
+/**
+ * Represents an finite state machine (FST), using a compact byte[] format. The FST is acyclic and
+ * minimal: it maps sorted byte sequences to non-negative long outputs, and every input shares its
+ * prefix and its suffix with the other inputs. Build it with {@link FSTCompiler}, look it up with
+ * {@link Util} or {@link BytesRefFSTEnum}.
+ *
+ * <p>The bytes are either held on heap, or read in place from an {@link IndexInput}, see {@link
+ * #readOffHeap(DataInput, IndexInput)}. Every lookup goes through a {@link BytesReader}, which is
+ * a {@link DataInput} positioned at the arcs being read.
+ *
+ * <p>A node is stored as the list of its arcs, in label order. Each arc is a flags byte, the label
+ * byte, then the output and final output as vLongs if they aren't 0 and the address of the target
+ * node as a vLong unless the target is the final node without arcs.
+ *
+ * @lucene.experimental
+ */
+public final class FST implements Accountable {
+
+    static final int BIT_FINAL_ARC = 1;
+    static final int BIT_LAST_ARC = 1 << 1;
+    // the arc points to the final node, which has no arcs and no address
+    static final int BIT_STOP_NODE = 1 << 2;
+    static final int BIT_ARC_HAS_OUTPUT = 1 << 3;
+    static final int BIT_ARC_HAS_FINAL_OUTPUT = 1 << 4;
+
+    /** Address of the node without arcs that all inputs end on. */
+    static final long END_NODE = -1;
+
+    /** Output of the empty input, or -1 if the empty input isn't accepted. */
+    private final long emptyOutput;
+
+    private final long startNode;
+
+    private final long numBytes;
+
+    // exactly one of these is set
+    private final byte[] bytes;
+    private final IndexInput offHeapBytes;
+
+    FST(long startNode, long emptyOutput, byte[] bytes) {
+        this.startNode = startNode;
+        this.emptyOutput = emptyOutput;
+        this.bytes = bytes;
+        this.numBytes = bytes.length;
+        this.offHeapBytes = null;
+    }
+
+    private FST(long startNode, long emptyOutput, IndexInput offHeapBytes) {
+        this.startNode = startNode;
+        this.emptyOutput = emptyOutput;
+        this.bytes = null;
+        this.numBytes = offHeapBytes.length();
+        this.offHeapBytes = offHeapBytes;
+    }
+
+    /** Loads a FST that was written with {@link #save}, copying its bytes onto the heap. */
+    public static FST read(DataInput metaIn, DataInput in) throws IOException {
+        final long emptyOutput = metaIn.readByte() == 1 ? metaIn.readVLong() : -1;
+        final long startNode = metaIn.readVLong() - 1;
+        final long numBytes = metaIn.readVLong();
+        if (numBytes > Integer.MAX_VALUE) {
+            throw new IOException("FST of " + numBytes + " bytes can't be loaded on heap, read it off-heap");
+        }
+        final byte[] bytes = new byte[(int) numBytes];
+        in.readBytes(bytes, 0, bytes.length);
+        return new FST(startNode, emptyOutput, bytes);
+    }
+
+    /**
+     * Loads a FST that was written with {@link #save} without copying its bytes: lookups read them
+     * from a slice of <code>in</code>, which must be positioned at the start of the FST bytes. On
+     * return <code>in</code> is positioned after them. The FST can't be used anymore once
+     * <code>in</code> is closed.
+     */
+    public static FST readOffHeap(DataInput metaIn, IndexInput in) throws IOException {
+        final long emptyOutput = metaIn.readByte() == 1 ? metaIn.readVLong() : -1;
+        final long startNode = metaIn.readVLong() - 1;
+        final long numBytes = metaIn.readVLong();
+        final IndexInput slice = in.slice("fst", in.getFilePointer(), numBytes);
+        in.seek(in.getFilePointer() + numBytes);
+        return new FST(startNode, emptyOutput, slice);
+    }
+
+    /** Writes the FST: a few header values to <code>metaOut</code> and its bytes to <code>out</code>. */
+    public void save(DataOutput metaOut, DataOutput out) throws IOException {
+        if (emptyOutput >= 0) {
+            metaOut.writeByte((byte) 1);
+            metaOut.writeVLong(emptyOutput);
+        } else {
+            metaOut.writeByte((byte) 0);
+        }
+        metaOut.writeVLong(startNode + 1);
+        metaOut.writeVLong(numBytes);
+        if (bytes != null) {
+            out.writeBytes(bytes, 0, bytes.length);
+        } else {
+            final IndexInput in = offHeapBytes.clone();
+            in.seek(0);
+            final byte[] buffer = new byte[8192];
+            for (long remaining = numBytes; remaining > 0; ) {
+                final int chunk = (int) Math.min(buffer.length, remaining);
+                in.readBytes(buffer, 0, chunk);
+                out.writeBytes(buffer, 0, chunk);
+                remaining -= chunk;
+            }
+        }
+    }
+
+    /** Returns the number of bytes of the serialized FST. */
+    public long numBytes() {
+        return numBytes;
+    }
+
+    /** Returns the output of the empty input, or -1 if the FST doesn't accept the empty input. */
+    public long getEmptyOutput() {
+        return emptyOutput;
+    }
+
+    long getStartNode() {
+        return startNode;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    /**
+     * Returns a {@link BytesReader} for this FST. Readers are cheap to create but not thread-safe,
+     * each thread needs its own.
+     */
+    public BytesReader getBytesReader() {
+        if (bytes != null) {
+            return new OnHeapBytesReader(bytes);
+        }
+        return new OffHeapBytesReader(offHeapBytes.clone());
+    }
+
+    /** Reads the first arc of the given node, which must not be {@link #END_NODE}. */
+    Arc readFirstArc(long node, Arc arc, BytesReader in) throws IOException {
+        assert node != END_NODE;
+        in.setPosition(node);
+        return readArc(arc, in);
+    }
+
+    /** Reads the arc that follows the given one in its node, the given arc must not be the last. */
+    Arc readNextArc(Arc arc, BytesReader in) throws IOException {
+        assert arc.isLast() == false;
+        in.setPosition(arc.nextArc);
+        return readArc(arc, in);
+    }
+
+    /** Reads the last arc of the given node, which must not be {@link #END_NODE}. */
+    Arc readLastArc(long node, Arc arc, BytesReader in) throws IOException {
+        readFirstArc(node, arc, in);
+        while (arc.isLast() == false) {
+            readArc(arc, in);
+        }
+        return arc;
+    }
+
+    /**
+     * Finds the arc of the given node with the given label.
+     *
+     * @return the arc, or null if the node has no arc with this label
+     */
+    Arc findTargetArc(int label, long node, Arc arc, BytesReader in) throws IOException {
+        if (node == END_NODE) {
+            return null;
+        }
+        readFirstArc(node, arc, in);
+        while (true) {
+            if (arc.label == label) {
+                return arc;
+            } else if (arc.label > label || arc.isLast()) {
+                return null;
+            }
+            readArc(arc, in);
+        }
+    }
+
+    private static Arc readArc(Arc arc, BytesReader in) throws IOException {
+        final int flags = in.readByte();
+        arc.flags = (byte) flags;
+        arc.label = in.readByte() & 0xFF;
+        arc.output = (flags & BIT_ARC_HAS_OUTPUT) != 0 ? in.readVLong() : 0;
+        arc.nextFinalOutput = (flags & BIT_ARC_HAS_FINAL_OUTPUT) != 0 ? in.readVLong() : 0;
+        arc.target = (flags & BIT_STOP_NODE) != 0 ? END_NODE : in.readVLong();
+        arc.nextArc = in.getPosition();
+        return arc;
+    }
+
+    /** Represents a single arc. */
+    public static final class Arc {
+
+        int label;
+        long output;
+        long nextFinalOutput;
+        long target;
+        byte flags;
+        // position of the next arc of the same node, if this isn't the last one
+        long nextArc;
+
+        /** Returns this */
+        public Arc copyFrom(Arc other) {
+            label = other.label;
+            output = other.output;
+            nextFinalOutput = other.nextFinalOutput;
+            target = other.target;
+            flags = other.flags;
+            nextArc = other.nextArc;
+            return this;
+        }
+
+        /** The label of this arc, between 0 and 255. */
+        public int label() {
+            return label;
+        }
+
+        /** The output of this arc. */
+        public long output() {
+            return output;
+        }
+
+        /** Output to add when the input ends with this arc, only meaningful if {@link #isFinal()}. */
+        public long nextFinalOutput() {
+            return nextFinalOutput;
+        }
+
+        /** Returns true if an input ends with this arc. */
+        public boolean isFinal() {
+            return (flags & BIT_FINAL_ARC) != 0;
+        }
+
+        /** Returns true if this is the last arc of its node. */
+        public boolean isLast() {
+            return (flags & BIT_LAST_ARC) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Arc(label=" + label + " output=" + output + " final=" + isFinal()
+                    + " finalOutput=" + nextFinalOutput + " target=" + target + ")";
+        }
+    }
+
+    /** Reads bytes stored in an FST. */
+    public abstract static class BytesReader extends DataInput {
+
+        /** Get current read position. */
+        public abstract long getPosition();
+
+        /** Set current read position. */
+        public abstract void setPosition(long pos) throws IOException;
+    }
+
+    private static final class OnHeapBytesReader extends BytesReader {
+
+        private final byte[] bytes;
+        private int pos;
+
+        OnHeapBytesReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public byte readByte() {
+            return bytes[pos++];
+        }
+
+        @Override
+        public void readBytes(byte[] b, int offset, int len) {
+            System.arraycopy(bytes, pos, b, offset, len);
+            pos += len;
+        }
+
+        @Override
+        public void skipBytes(long numBytes) {
+            pos = Math.toIntExact(pos + numBytes);
+        }
+
+        @Override
+        public long getPosition() {
+            return pos;
+        }
+
+        @Override
+        public void setPosition(long pos) {
+            this.pos = (int) pos;
+        }
+    }
+
+    private static final class OffHeapBytesReader extends BytesReader {
+
+        private final IndexInput in;
+
+        OffHeapBytesReader(IndexInput in) {
+            this.in = in;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            return in.readByte();
+        }
+
+        @Override
+        public void readBytes(byte[] b, int offset, int len) throws IOException {
+            in.readBytes(b, offset, len);
+        }
+
+        @Override
+        public void skipBytes(long numBytes) throws IOException {
+            in.skipBytes(numBytes);
+        }
+
+        @Override
+        public long getPosition() {
+            return in.getFilePointer();
+        }
+
+        @Override
+        public void setPosition(long pos) throws IOException {
+            in.seek(pos);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package util.fst;
+
+import util.ArrayUtil;
+import util.BytesRef;
+import util.StringHelper;
+
+import java.util.Arrays;
+
+/**
+ * Builds a minimal FST (maps a BytesRef term to a non-negative long output) from pre-sorted terms
+ * with outputs. The FST becomes an FSA if you use outputs of 0. Inputs are added in unsigned byte
+ * order, and each input must be greater than the previous one.
+ *
+ * <p>The builder keeps a frontier of uncompiled nodes, one per byte of the last input. When the
+ * next input diverges from it, the nodes past the common prefix can't change anymore: they are
+ * serialized and deduplicated against the nodes already written, so that equal suffixes are
+ * shared. Outputs are pushed as close to the root as possible, each arc holding the smallest
+ * output of the inputs below it. Nothing is allocated per input.
+ *
+ * @lucene.experimental
+ */
+public final class FSTCompiler {
+
+    // marks an arc whose target is still on the frontier
+    private static final long UNCOMPILED = -2;
+
+    private UnCompiledNode[] frontier;
+
+    // the bytes of the FST, nodes are written children first
+    private byte[] bytes = new byte[1024];
+    private int numBytes;
+
+    // encoding of the node being compiled
+    private byte[] scratch = new byte[64];
+    private int scratchLength;
+
+    private final NodeHash dedupHash = new NodeHash();
+
+    private final BytesRef lastInput = new BytesRef(new byte[16], 0, 0);
+    private long inputCount;
+
+    private long emptyOutput = -1;
+
+    /** Creates a compiler for a new FST. */
+    public FSTCompiler() {
+        frontier = new UnCompiledNode[10];
+        for (int idx = 0; idx < frontier.length; idx++) {
+            frontier[idx] = new UnCompiledNode(idx);
+        }
+    }
+
+    /** Returns the number of inputs added so far. */
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * Adds the next input/output pair.
+     *
+     * @throws IllegalArgumentException if the input isn't greater than the previous one, or if the
+     *     output is negative
+     */
+    public void add(BytesRef input, long output) {
+        if (output < 0) {
+            throw new IllegalArgumentException("outputs must be >= 0, got " + output);
+        }
+        if (inputCount > 0 && lastInput.compareTo(input) >= 0) {
+            throw new IllegalArgumentException(
+                    "inputs are added out of order, or twice: lastInput=" + lastInput + " vs input=" + input);
+        }
+        inputCount++;
+
+        if (input.length == 0) {
+            // empty input: only allowed as first input. we have
+            // to special case this because the packed FST
+            // format cannot represent the empty input since
+            // 'finalness' is stored on the incoming arc, not on
+            // the node
+            emptyOutput = output;
+            return;
+        }
+
+        // compare shared prefix length
+        int pos1 = 0;
+        int pos2 = input.offset;
+        final int pos1Stop = Math.min(lastInput.length, input.length);
+        while (pos1 < pos1Stop && lastInput.bytes[pos1] == input.bytes[pos2]) {
+            pos1++;
+            pos2++;
+        }
+        final int prefixLenPlus1 = pos1 + 1;
+
+        if (frontier.length < input.length + 1) {
+            final UnCompiledNode[] next =
+                    Arrays.copyOf(frontier, ArrayUtil.oversize(input.length + 1, Long.BYTES));
+            for (int idx = frontier.length; idx < next.length; idx++) {
+                next[idx] = new UnCompiledNode(idx);
+            }
+            frontier = next;
+        }
+
+        // minimize/compile states from previous input's
+        // orphan'd suffix
+        freezeTail(prefixLenPlus1);
+
+        // init tail states for current input
+        for (int idx = prefixLenPlus1; idx <= input.length; idx++) {
+            frontier[idx - 1].addArc(input.bytes[input.offset + idx - 1] & 0xFF);
+        }
+
+        final UnCompiledNode lastNode = frontier[input.length];
+        lastNode.isFinal = true;
+        lastNode.output = 0;
+
+        // push conflicting outputs forward, only as far as
+        // needed
+        for (int idx = 1; idx < prefixLenPlus1; idx++) {
+            final UnCompiledNode node = frontier[idx];
+            final UnCompiledNode parentNode = frontier[idx - 1];
+
+            final int label = input.bytes[input.offset + idx - 1] & 0xFF;
+            final long lastOutput = parentNode.getLastOutput(label);
+
+            final long commonOutputPrefix;
+            if (lastOutput != 0) {
+                commonOutputPrefix = Math.min(output, lastOutput);
+                final long wordSuffix = lastOutput - commonOutputPrefix;
+                parentNode.setLastOutput(label, commonOutputPrefix);
+                node.prependOutput(wordSuffix);
+            } else {
+                commonOutputPrefix = 0;
+            }
+
+            output -= commonOutputPrefix;
+        }
+
+        // this new arc is private to this new input; set its
+        // arc output to the leftover output:
+        frontier[prefixLenPlus1 - 1].setLastOutput(input.bytes[input.offset + prefixLenPlus1 - 1] & 0xFF, output);
+
+        // save last input
+        lastInput.bytes = ArrayUtil.grow(lastInput.bytes, input.length);
+        System.arraycopy(input.bytes, input.offset, lastInput.bytes, 0, input.length);
+        lastInput.length = input.length;
+    }
+
+    /** Returns the final FST. No input can be added afterwards. */
+    public FST compile() {
+        final UnCompiledNode root = frontier[0];
+
+        // minimize nodes in the last word's suffix
+        freezeTail(0);
+
+        final long startNode = root.numArcs == 0 ? FST.END_NODE : compileNode(root);
+        return new FST(startNode, emptyOutput, ArrayUtil.copyOfSubArray(bytes, 0, numBytes));
+    }
+
+    private void freezeTail(int prefixLenPlus1) {
+        final int downTo = Math.max(1, prefixLenPlus1);
+        for (int idx = lastInput.length; idx >= downTo; idx--) {
+            final UnCompiledNode node = frontier[idx];
+            final UnCompiledNode parent = frontier[idx - 1];
+
+            final long nextFinalOutput = node.output;
+            // a node without arcs is always final, inputs can't end elsewhere
+            final boolean isFinal = node.isFinal || node.numArcs == 0;
+            parent.replaceLast(lastInput.bytes[idx - 1] & 0xFF, compileNode(node), nextFinalOutput, isFinal);
+        }
+    }
+
+    /** Writes the given node, unless an equal node was already written, and returns its address. */
+    private long compileNode(UnCompiledNode node) {
+        if (node.numArcs == 0) {
+            node.clear();
+            return FST.END_NODE;
+        }
+
+        scratchLength = 0;
+        for (int i = 0; i < node.numArcs; i++) {
+            final long target = node.targets[i];
+            assert target != UNCOMPILED;
+            int flags = 0;
+            if (i == node.numArcs - 1) {
+                flags |= FST.BIT_LAST_ARC;
+            }
+            if (node.arcIsFinal[i]) {
+                flags |= FST.BIT_FINAL_ARC;
+            }
+            if (target == FST.END_NODE) {
+                flags |= FST.BIT_STOP_NODE;
+            }
+            if (node.outputs[i] != 0) {
+                flags |= FST.BIT_ARC_HAS_OUTPUT;
+            }
+            if (node.nextFinalOutputs[i] != 0) {
+                assert node.arcIsFinal[i];
+                flags |= FST.BIT_ARC_HAS_FINAL_OUTPUT;
+            }
+            writeScratchByte((byte) flags);
+            writeScratchByte((byte) node.labels[i]);
+            if (node.outputs[i] != 0) {
+                writeScratchVLong(node.outputs[i]);
+            }
+            if (node.nextFinalOutputs[i] != 0) {
+                writeScratchVLong(node.nextFinalOutputs[i]);
+            }
+            if (target != FST.END_NODE) {
+                writeScratchVLong(target);
+            }
+        }
+        node.clear();
+
+        final int hash = StringHelper.murmurhash3_x86_32(scratch, 0, scratchLength, StringHelper.GOOD_FAST_HASH_SEED);
+        final long existing = dedupHash.find(hash);
+        if (existing != -1) {
+            return existing;
+        }
+        final long address = numBytes;
+        bytes = ArrayUtil.grow(bytes, numBytes + scratchLength);
+        System.arraycopy(scratch, 0, bytes, numBytes, scratchLength);
+        numBytes += scratchLength;
+        dedupHash.add(address, hash);
+        return address;
+    }
+
+    private void writeScratchByte(byte b) {
+        if (scratchLength == scratch.length) {
+            scratch = ArrayUtil.grow(scratch, scratchLength + 1);
+        }
+        scratch[scratchLength++] = b;
+    }
+
+    private void writeScratchVLong(long i) {
+        assert i >= 0L;
+        while ((i & ~0x7FL) != 0L) {
+            writeScratchByte((byte) ((i & 0x7FL) | 0x80L));
+            i >>>= 7;
+        }
+        writeScratchByte((byte) i);
+    }
+
+    /**
+     * Open-addressed hash of the addresses of the written nodes, keyed by the hash of their bytes. A
+     * node is equal to the one being compiled if its bytes start with the bytes of the compiled node:
+     * nodes are self-delimiting thanks to {@link FST#BIT_LAST_ARC}.
+     */
+    private final class NodeHash {
+
+        // address + 1, 0 for empty slots
+        private long[] table = new long[16];
+        private int[] hashes = new int[16];
+        private int count;
+        private int mask = 15;
+
+        long find(int hash) {
+            for (int pos = hash & mask, c = 0; ; pos = (pos + (++c)) & mask) {
+                final long v = table[pos];
+                if (v == 0) {
+                    return -1;
+                }
+                if (hashes[pos] == hash && nodeEquals(v - 1)) {
+                    return v - 1;
+                }
+            }
+        }
+
+        private boolean nodeEquals(long address) {
+            final int start = (int) address;
+            return start + scratchLength <= numBytes
+                    && Arrays.equals(scratch, 0, scratchLength, bytes, start, start + scratchLength);
+        }
+
+        void add(long address, int hash) {
+            if (count == table.length >> 1) {
+                rehash();
+            }
+            insert(table, hashes, mask, address + 1, hash);
+            count++;
+        }
+
+        private void rehash() {
+            final long[] newTable = new long[table.length << 1];
+            final int[] newHashes = new int[newTable.length];
+            final int newMask = newTable.length - 1;
+            for (int i = 0; i < table.length; i++) {
+                if (table[i] != 0) {
+                    insert(newTable, newHashes, newMask, table[i], hashes[i]);
+                }
+            }
+            table = newTable;
+            hashes = newHashes;
+            mask = newMask;
+        }
+
+        private void insert(long[] table, int[] hashes, int mask, long value, int hash) {
+            // quadratic probe, as in find
+            for (int pos = hash & mask, c = 0; ; pos = (pos + (++c)) & mask) {
+                if (table[pos] == 0) {
+                    table[pos] = value;
+                    hashes[pos] = hash;
+                    return;
+                }
+            }
+        }
+    }
+
+    /** A node of the frontier, its arcs are kept in parallel arrays that are reused across inputs. */
+    private static final class UnCompiledNode {
+
+        final int depth;
+        int numArcs;
+        int[] labels = new int[1];
+        long[] targets = new long[1];
+        long[] outputs = new long[1];
+        long[] nextFinalOutputs = new long[1];
+        boolean[] arcIsFinal = new boolean[1];
+        boolean isFinal;
+        // output of the input that ends on this node, only meaningful if isFinal
+        long output;
+
+        UnCompiledNode(int depth) {
+            this.depth = depth;
+        }
+
+        void clear() {
+            numArcs = 0;
+            isFinal = false;
+            output = 0;
+        }
+
+        long getLastOutput(int labelToMatch) {
+            assert numArcs > 0;
+            assert labels[numArcs - 1] == labelToMatch;
+            return outputs[numArcs - 1];
+        }
+
+        void addArc(int label) {
+            assert label >= 0;
+            assert numArcs == 0 || label > labels[numArcs - 1]
+                    : "arc[numArcs-1].label=" + labels[numArcs - 1] + " new label=" + label + " numArcs=" + numArcs;
+            if (numArcs == labels.length) {
+                final int newSize = ArrayUtil.oversize(numArcs + 1, Long.BYTES);
+                labels = Arrays.copyOf(labels, newSize);
+                targets = Arrays.copyOf(targets, newSize);
+                outputs = Arrays.copyOf(outputs, newSize);
+                nextFinalOutputs = Arrays.copyOf(nextFinalOutputs, newSize);
+                arcIsFinal = Arrays.copyOf(arcIsFinal, newSize);
+            }
+            labels[numArcs] = label;
+            targets[numArcs] = UNCOMPILED;
+            outputs[numArcs] = 0;
+            nextFinalOutputs[numArcs] = 0;
+            arcIsFinal[numArcs] = false;
+            numArcs++;
+        }
+
+        void replaceLast(int labelToMatch, long target, long nextFinalOutput, boolean isFinal) {
+            assert numArcs > 0;
+            assert labels[numArcs - 1] == labelToMatch;
+            targets[numArcs - 1] = target;
+            nextFinalOutputs[numArcs - 1] = nextFinalOutput;
+            arcIsFinal[numArcs - 1] = isFinal;
+        }
+
+        void setLastOutput(int labelToMatch, long newOutput) {
+            assert numArcs > 0;
+            assert labels[numArcs - 1] == labelToMatch;
+            outputs[numArcs - 1] = newOutput;
+        }
+
+        // pushes an output prefix forward onto all arcs
+        void prependOutput(long outputPrefix) {
+            for (int arcIdx = 0; arcIdx < numArcs; arcIdx++) {
+                outputs[arcIdx] += outputPrefix;
+            }
+
+            if (isFinal) {
+                output += outputPrefix;
+            }
+        }
+    }
+}
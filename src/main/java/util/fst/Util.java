@@ -0,0 +1,92 @@
+package util.fst;
+
+import util.ArrayUtil;
+import util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * Static helpers to look up a {@link FST}.
+ *
+ * @lucene.experimental
+ */
+public final class Util {
+
+    private Util() {}
+
+    /** Looks up the output for this input, or null if the input is not accepted. */
+    public static Long get(FST fst, BytesRef input) throws IOException {
+        if (input.length == 0) {
+            return fst.getEmptyOutput() >= 0 ? fst.getEmptyOutput() : null;
+        }
+
+        final FST.BytesReader fstReader = fst.getBytesReader();
+        final FST.Arc arc = new FST.Arc();
+
+        long output = 0;
+        long node = fst.getStartNode();
+        for (int i = 0; i < input.length; i++) {
+            if (fst.findTargetArc(input.bytes[i + input.offset] & 0xFF, node, arc, fstReader) == null) {
+                return null;
+            }
+            output += arc.output;
+            node = arc.target;
+        }
+
+        if (arc.isFinal()) {
+            return output + arc.nextFinalOutput;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Reverse lookup (lookup by output instead of by input), in the special case when your FST's
+     * outputs are strictly ascending. This locates the input/output pair where the output is equal to
+     * the target, and will return null if that output does not exist.
+     *
+     * <p>NOTE: this only works with strictly ascending outputs, for instance the ordinals of the
+     * inputs, and will not detect if the outputs aren't.
+     */
+    public static BytesRef getByOutput(FST fst, long targetOutput) throws IOException {
+        if (fst.getEmptyOutput() == targetOutput) {
+            return new BytesRef();
+        }
+
+        final FST.BytesReader in = fst.getBytesReader();
+        final FST.Arc arc = new FST.Arc();
+        final FST.Arc prevArc = new FST.Arc();
+        final BytesRef result = new BytesRef(new byte[8], 0, 0);
+
+        long output = 0;
+        long node = fst.getStartNode();
+        while (node != FST.END_NODE) {
+            // arcs are sorted by output too: pick the last one that doesn't go past the target
+            boolean found = false;
+            fst.readFirstArc(node, arc, in);
+            while (true) {
+                if (output + arc.output > targetOutput) {
+                    break;
+                }
+                prevArc.copyFrom(arc);
+                found = true;
+                if (arc.isLast()) {
+                    break;
+                }
+                fst.readNextArc(arc, in);
+            }
+            if (found == false) {
+                return null;
+            }
+
+            result.bytes = ArrayUtil.grow(result.bytes, result.length + 1);
+            result.bytes[result.length++] = (byte) prevArc.label;
+            output += prevArc.output;
+            if (prevArc.isFinal() && output + prevArc.nextFinalOutput == targetOutput) {
+                return result;
+            }
+            node = prevArc.target;
+        }
+        return null;
+    }
+}
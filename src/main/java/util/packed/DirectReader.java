@@ -0,0 +1,255 @@
+package util.packed;
+
+import store.RandomAccessInput;
+import util.LongValues;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Retrieves an instance previously written by {@link DirectWriter}.
+ *
+ * <p>Each value is fetched with a single absolute read of a byte, short, int or long at the byte
+ * that holds its first bit, followed by a shift and a mask, which is a plain load of the mapped
+ * buffer when the directory memory-maps its files.
+ *
+ * @lucene.internal
+ */
+public final class DirectReader {
+
+    private DirectReader() {
+        // no instances
+    }
+
+    /**
+     * Retrieves an instance from the specified slice written decoding {@code bitsPerValue} for each
+     * value
+     */
+    public static LongValues getInstance(RandomAccessInput slice, int bitsPerValue) {
+        return getInstance(slice, bitsPerValue, 0);
+    }
+
+    /**
+     * Retrieves an instance from the specified {@code offset} of the given slice decoding {@code
+     * bitsPerValue} for each value
+     */
+    public static LongValues getInstance(RandomAccessInput slice, int bitsPerValue, long offset) {
+        switch (bitsPerValue) {
+            case 1:
+                return new DirectPackedReader1(slice, offset);
+            case 2:
+                return new DirectPackedReader2(slice, offset);
+            case 4:
+                return new DirectPackedReader4(slice, offset);
+            case 8:
+                return new DirectPackedReader8(slice, offset);
+            case 12:
+                return new DirectPackedReader12(slice, offset);
+            case 16:
+                return new DirectPackedReader16(slice, offset);
+            case 20:
+                return new DirectPackedReader20(slice, offset);
+            case 24:
+                return new DirectPackedReader24(slice, offset);
+            case 28:
+                return new DirectPackedReader28(slice, offset);
+            case 32:
+                return new DirectPackedReader32(slice, offset);
+            case 40:
+                return new DirectPackedReader40(slice, offset);
+            case 48:
+                return new DirectPackedReader48(slice, offset);
+            case 56:
+                return new DirectPackedReader56(slice, offset);
+            case 64:
+                return new DirectPackedReader64(slice, offset);
+            default:
+                throw new IllegalArgumentException("unsupported bitsPerValue: " + bitsPerValue);
+        }
+    }
+
+    private abstract static class DirectPackedReader extends LongValues {
+
+        final RandomAccessInput in;
+        final long offset;
+
+        DirectPackedReader(RandomAccessInput in, long offset) {
+            this.in = in;
+            this.offset = offset;
+        }
+
+        @Override
+        public final long get(long index) {
+            try {
+                return read(index);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        abstract long read(long index) throws IOException;
+    }
+
+    static final class DirectPackedReader1 extends DirectPackedReader {
+        DirectPackedReader1(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            int shift = (int) (index & 7);
+            return (in.readByte(offset + (index >>> 3)) >>> shift) & 0x1;
+        }
+    }
+
+    static final class DirectPackedReader2 extends DirectPackedReader {
+        DirectPackedReader2(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            int shift = ((int) (index & 3)) << 1;
+            return (in.readByte(offset + (index >>> 2)) >>> shift) & 0x3;
+        }
+    }
+
+    static final class DirectPackedReader4 extends DirectPackedReader {
+        DirectPackedReader4(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            int shift = (int) (index & 1) << 2;
+            return (in.readByte(offset + (index >>> 1)) >>> shift) & 0xF;
+        }
+    }
+
+    static final class DirectPackedReader8 extends DirectPackedReader {
+        DirectPackedReader8(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            return in.readByte(offset + index) & 0xFF;
+        }
+    }
+
+    static final class DirectPackedReader12 extends DirectPackedReader {
+        DirectPackedReader12(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            long offset = (index * 12) >>> 3;
+            int shift = (int) (index & 1) << 2;
+            return (in.readShort(this.offset + offset) >>> shift) & 0xFFF;
+        }
+    }
+
+    static final class DirectPackedReader16 extends DirectPackedReader {
+        DirectPackedReader16(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            return in.readShort(offset + (index << 1)) & 0xFFFF;
+        }
+    }
+
+    static final class DirectPackedReader20 extends DirectPackedReader {
+        DirectPackedReader20(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            long offset = (index * 20) >>> 3;
+            int shift = (int) (index & 1) << 2;
+            return (in.readInt(this.offset + offset) >>> shift) & 0xFFFFF;
+        }
+    }
+
+    static final class DirectPackedReader24 extends DirectPackedReader {
+        DirectPackedReader24(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            return in.readInt(offset + index * 3) & 0xFFFFFF;
+        }
+    }
+
+    static final class DirectPackedReader28 extends DirectPackedReader {
+        DirectPackedReader28(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            long offset = (index * 28) >>> 3;
+            int shift = (int) (index & 1) << 2;
+            return (in.readInt(this.offset + offset) >>> shift) & 0xFFFFFFF;
+        }
+    }
+
+    static final class DirectPackedReader32 extends DirectPackedReader {
+        DirectPackedReader32(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            return in.readInt(this.offset + (index << 2)) & 0xFFFFFFFFL;
+        }
+    }
+
+    static final class DirectPackedReader40 extends DirectPackedReader {
+        DirectPackedReader40(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            return in.readLong(this.offset + index * 5) & 0xFFFFFFFFFFL;
+        }
+    }
+
+    static final class DirectPackedReader48 extends DirectPackedReader {
+        DirectPackedReader48(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            return in.readLong(this.offset + index * 6) & 0xFFFFFFFFFFFFL;
+        }
+    }
+
+    static final class DirectPackedReader56 extends DirectPackedReader {
+        DirectPackedReader56(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            return in.readLong(this.offset + index * 7) & 0xFFFFFFFFFFFFFFL;
+        }
+    }
+
+    static final class DirectPackedReader64 extends DirectPackedReader {
+        DirectPackedReader64(RandomAccessInput in, long offset) {
+            super(in, offset);
+        }
+
+        @Override
+        long read(long index) throws IOException {
+            return in.readLong(offset + (index << 3));
+        }
+    }
+}
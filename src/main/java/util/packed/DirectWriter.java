@@ -0,0 +1,140 @@
+package util.packed;
+
+import store.DataOutput;
+
+import java.io.IOException;
+
+/**
+ * Class for writing packed integers to be directly read from Directory. Integers can be read
+ * on-the-fly via {@link DirectReader}.
+ *
+ * <p>Values are written as a little-endian bit stream, value <code>i</code> taking bits <code>i *
+ * bitsPerValue</code> to <code>(i + 1) * bitsPerValue - 1</code>. Only bits per value that let
+ * {@link DirectReader} fetch any value with a single aligned-or-not read of a byte, short, int or
+ * long are supported, see {@link #bitsRequired}. The stream is padded so that the last value can
+ * be read with the same width as the others.
+ *
+ * @lucene.internal
+ */
+public final class DirectWriter {
+
+    static final int[] SUPPORTED_BITS_PER_VALUE =
+            new int[] {1, 2, 4, 8, 12, 16, 20, 24, 28, 32, 40, 48, 56, 64};
+
+    private final DataOutput output;
+    private final long numValues;
+    private final int bitsPerValue;
+
+    private long count;
+    private boolean finished;
+
+    // bits that don't fill a byte yet
+    private long pendingBits;
+    private int numPendingBits;
+
+    private DirectWriter(DataOutput output, long numValues, int bitsPerValue) {
+        this.output = output;
+        this.numValues = numValues;
+        this.bitsPerValue = bitsPerValue;
+    }
+
+    /**
+     * Returns an instance suitable for encoding {@code numValues} using {@code bitsPerValue}, which
+     * must be one of the values returned by {@link #bitsRequired}.
+     */
+    public static DirectWriter getInstance(DataOutput output, long numValues, int bitsPerValue) {
+        if (java.util.Arrays.binarySearch(SUPPORTED_BITS_PER_VALUE, bitsPerValue) < 0) {
+            throw new IllegalArgumentException("Unsupported bitsPerValue " + bitsPerValue + ". Did you use bitsRequired?");
+        }
+        return new DirectWriter(output, numValues, bitsPerValue);
+    }
+
+    /** Adds a value to this writer */
+    public void add(long l) throws IOException {
+        assert bitsPerValue == 64 || (l >= 0 && l <= (1L << bitsPerValue) - 1) : bitsPerValue;
+        assert finished == false;
+        if (count >= numValues) {
+            throw new IllegalStateException("Writing past end of stream");
+        }
+        int remaining = bitsPerValue;
+        while (remaining > 0) {
+            // fill the pending byte, at most 8 bits at a time
+            final int take = Math.min(remaining, 8 - numPendingBits);
+            pendingBits |= (l & ((1L << take) - 1)) << numPendingBits;
+            numPendingBits += take;
+            l >>>= take;
+            remaining -= take;
+            if (numPendingBits == 8) {
+                output.writeByte((byte) pendingBits);
+                pendingBits = 0;
+                numPendingBits = 0;
+            }
+        }
+        count++;
+    }
+
+    /** finishes writing */
+    public void finish() throws IOException {
+        if (count != numValues) {
+            throw new IllegalStateException("Wrong number of values added, expected: " + numValues + ", got: " + count);
+        }
+        assert finished == false;
+        finished = true;
+        if (numPendingBits > 0) {
+            output.writeByte((byte) pendingBits);
+        }
+        // pad so that the reader can read the last value with a full-width read
+        final int paddingBytes = (paddingBitsNeeded(bitsPerValue) + 7) / 8;
+        for (int i = 0; i < paddingBytes; i++) {
+            output.writeByte((byte) 0);
+        }
+    }
+
+    private static int paddingBitsNeeded(int bitsPerValue) {
+        if (bitsPerValue > 32) {
+            return 64 - bitsPerValue;
+        } else if (bitsPerValue > 16) {
+            return 32 - bitsPerValue;
+        } else if (bitsPerValue > 8) {
+            return 16 - bitsPerValue;
+        } else {
+            return 0;
+        }
+    }
+
+    /** Returns the number of bytes written for the given number of values. */
+    public static long bytesRequired(long numValues, int bitsPerValue) {
+        return (numValues * bitsPerValue + 7) / 8 + (paddingBitsNeeded(bitsPerValue) + 7) / 8;
+    }
+
+    /**
+     * Returns how many bits are required to hold values up to and including maxValue
+     *
+     * @param maxValue the maximum value that should be representable.
+     * @return the amount of bits needed to represent values from 0 to maxValue.
+     */
+    public static int bitsRequired(long maxValue) {
+        if (maxValue < 0) {
+            throw new IllegalArgumentException("maxValue must be non-negative (got: " + maxValue + ")");
+        }
+        return roundBits(unsignedBitsRequired(maxValue));
+    }
+
+    /**
+     * Returns how many bits are required to store <code>bits</code>, interpreted as an unsigned
+     * value. The result is not rounded to a supported number of bits per value.
+     */
+    public static int unsignedBitsRequired(long bits) {
+        return Math.max(1, 64 - Long.numberOfLeadingZeros(bits));
+    }
+
+    /** Round a number of bits per value to the next amount of bits per value that is supported. */
+    private static int roundBits(int bitsRequired) {
+        for (int bpv : SUPPORTED_BITS_PER_VALUE) {
+            if (bpv >= bitsRequired) {
+                return bpv;
+            }
+        }
+        throw new AssertionError("unreachable: " + bitsRequired);
+    }
+}
@@ -0,0 +1,181 @@
+package util.packed;
+
+import util.Accountable;
+import util.ArrayUtil;
+
+import java.util.Arrays;
+
+/**
+ * An append-only list of longs that packs its values as they are added, for buffering per-document
+ * values in RAM. Values are buffered in pages of {@link #PAGE_SIZE}: a full page is stored as its
+ * minimum value and the deltas to that minimum, bit-packed with as many bits as the largest delta
+ * needs, so that a page of values in a narrow range takes a few bits per value.
+ *
+ * @lucene.internal
+ */
+public final class PackedLongValues implements Accountable {
+
+    /** Number of values of a page. */
+    public static final int PAGE_SIZE = 1024;
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final long[][] pages;
+    private final long[] mins;
+    private final byte[] bitsPerValue;
+    private final long size;
+
+    private PackedLongValues(long[][] pages, long[] mins, byte[] bitsPerValue, long size) {
+        this.pages = pages;
+        this.mins = mins;
+        this.bitsPerValue = bitsPerValue;
+        this.size = size;
+    }
+
+    /** Returns a new builder. */
+    public static Builder packedBuilder() {
+        return new Builder();
+    }
+
+    /** Returns the number of values. */
+    public long size() {
+        return size;
+    }
+
+    /** Returns the value at the given index. */
+    public long get(long index) {
+        assert index >= 0 && index < size;
+        final int page = (int) (index >>> PAGE_SHIFT);
+        return mins[page] + unpack(pages[page], bitsPerValue[page], (int) index & PAGE_MASK);
+    }
+
+    /** Returns an iterator over the values, in the order they were added. */
+    public Iterator iterator() {
+        return new Iterator();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long bytes = (long) mins.length * Long.BYTES + bitsPerValue.length;
+        for (long[] page : pages) {
+            bytes += page == null ? 0 : (long) page.length * Long.BYTES;
+        }
+        return bytes;
+    }
+
+    private static long unpack(long[] words, int bitsPerValue, int index) {
+        if (bitsPerValue == 0) {
+            return 0;
+        }
+        final long bit = (long) index * bitsPerValue;
+        final int word = (int) (bit >>> 6);
+        final int shift = (int) (bit & 63);
+        long value = words[word] >>> shift;
+        if (shift + bitsPerValue > Long.SIZE) {
+            value |= words[word + 1] << (Long.SIZE - shift);
+        }
+        return bitsPerValue == Long.SIZE ? value : value & ((1L << bitsPerValue) - 1);
+    }
+
+    /** Iterates over the values. */
+    public final class Iterator {
+
+        private long index;
+
+        private Iterator() {}
+
+        /** Whether there are remaining values. */
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        /** Returns the next value, {@link #hasNext()} must be true. */
+        public long next() {
+            return get(index++);
+        }
+    }
+
+    /** Accumulates values to build a {@link PackedLongValues}. */
+    public static final class Builder implements Accountable {
+
+        private long[][] pages = new long[16][];
+        private long[] mins = new long[16];
+        private byte[] bitsPerValue = new byte[16];
+        private int numPages;
+        private final long[] pending = new long[PAGE_SIZE];
+        private int pendingOff;
+        private long size;
+
+        private Builder() {}
+
+        /** Adds a value. */
+        public Builder add(long value) {
+            pending[pendingOff++] = value;
+            size++;
+            if (pendingOff == PAGE_SIZE) {
+                pack();
+            }
+            return this;
+        }
+
+        /** Returns the number of values added so far. */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Builds a {@link PackedLongValues} instance that contains the values added so far. No value
+         * can be added afterwards.
+         */
+        public PackedLongValues build() {
+            if (pendingOff > 0) {
+                pack();
+            }
+            return new PackedLongValues(
+                    Arrays.copyOf(pages, numPages), Arrays.copyOf(mins, numPages), Arrays.copyOf(bitsPerValue, numPages), size);
+        }
+
+        private void pack() {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < pendingOff; i++) {
+                min = Math.min(min, pending[i]);
+                max = Math.max(max, pending[i]);
+            }
+            final int bits = max == min ? 0 : DirectWriter.unsignedBitsRequired(max - min);
+            final long[] words = new long[(int) (((long) bits * pendingOff + 63) >>> 6)];
+            for (int i = 0; i < pendingOff && bits > 0; i++) {
+                final long delta = pending[i] - min;
+                final long bit = (long) i * bits;
+                final int word = (int) (bit >>> 6);
+                final int shift = (int) (bit & 63);
+                words[word] |= delta << shift;
+                if (shift + bits > Long.SIZE) {
+                    words[word + 1] |= delta >>> (Long.SIZE - shift);
+                }
+            }
+
+            if (numPages == pages.length) {
+                final int newLength = ArrayUtil.oversize(numPages + 1, Long.BYTES);
+                pages = Arrays.copyOf(pages, newLength);
+                mins = Arrays.copyOf(mins, newLength);
+                bitsPerValue = Arrays.copyOf(bitsPerValue, newLength);
+            }
+            pages[numPages] = words;
+            mins[numPages] = min;
+            bitsPerValue[numPages] = (byte) bits;
+            numPages++;
+            pendingOff = 0;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            long bytes = (long) pending.length * Long.BYTES + (long) mins.length * Long.BYTES + bitsPerValue.length;
+            for (int i = 0; i < numPages; i++) {
+                bytes += (long) pages[i].length * Long.BYTES;
+            }
+            return bytes;
+        }
+    }
+}
@@ -1,21 +1,20 @@
 package disk;
 
-import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 
 import static org.junit.jupiter.api.Assertions.*;
 public class DiskTest {
 
-    private final Path path = Paths.get("src", "test", "resources", "temp").toAbsolutePath();
+    @TempDir
+    Path tempDir;
 
     @Test
     public void testLargeGetAndPut() throws IOException {
+        final Path path = tempDir.resolve("temp");
         DiskWriter writer = new DiskWriter(path.toString());
 
         for(int i = 0; i < 3000; i++) {
@@ -26,6 +25,7 @@ public class DiskTest {
             writer.writeVInt(i);
         }
         writer.flush();
+        writer.close();
 
         DiskReader reader = new DiskReader(path.toString());
 
@@ -43,6 +43,15 @@ class RWTest {
                     disk.write(b[offset + i]);
                 }
             }
+
+            @Override
+            public long size() {
+                return disk.writeOffset;
+            }
+
+            @Override
+            public void close() {
+            }
         };
     }
 
@@ -0,0 +1,144 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockTermsTest {
+
+    /** field -> term -> doc -> freq, terms in UTF-8 order */
+    private final Map<String, TreeMap<BytesRef, TreeMap<Integer, Integer>>> expected = new HashMap<>();
+
+    private void add(String field, String term, int doc) {
+        expected.computeIfAbsent(field, f -> new TreeMap<>())
+                .computeIfAbsent(new BytesRef(term), t -> new TreeMap<>())
+                .merge(doc, 1, Integer::sum);
+    }
+
+    @Test
+    public void testSeekAndPostings() throws IOException {
+        final Random random = new Random(0);
+        final FieldType body = new FieldType();
+        body.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        final FieldType id = new FieldType();
+        id.setIndexOptions(IndexOptions.DOCS);
+        id.setTokenized(false);
+        id.setStored(true);
+        // enough terms for many blocks, some sharing long prefixes
+        final String[] vocabulary = new String[20000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "w" + Integer.toString(i * 7919, 36) + (i % 5 == 0 ? "x" + i : "");
+        }
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final SegmentInfo si = new SegmentInfo("_0");
+            final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+            final int maxDoc = 5000;
+            for (int doc = 0; doc < maxDoc; doc++) {
+                final List<IndexableField> fields = new ArrayList<>();
+                fields.add(new Field("id", id, "doc" + doc));
+                add("id", "doc" + doc, doc);
+                final StringBuilder text = new StringBuilder();
+                for (int t = random.nextInt(40); t > 0; t--) {
+                    final String word = vocabulary[(int) Math.abs(random.nextGaussian() * 3000) % vocabulary.length];
+                    text.append(word).append(' ');
+                    add("body", word, doc);
+                }
+                fields.add(new Field("body", body, text.toString()));
+                chain.processDocument(fields, doc);
+            }
+            chain.flush(maxDoc);
+
+            try (BlockTermsReader reader = new BlockTermsReader(dir, si, new PostingsReader(dir, si))) {
+                assertNull(reader.terms("missing"));
+                for (Map.Entry<String, TreeMap<BytesRef, TreeMap<Integer, Integer>>> field : expected.entrySet()) {
+                    assertTerms(random, reader, field.getKey(), field.getValue());
+                }
+            }
+        }
+    }
+
+    private static void assertTerms(
+            Random random, BlockTermsReader reader, String field, TreeMap<BytesRef, TreeMap<Integer, Integer>> terms)
+            throws IOException {
+        final TermsEnum termsEnum = reader.terms(field);
+        long sumTotalTermFreq = 0;
+        for (Map.Entry<BytesRef, TreeMap<Integer, Integer>> term : terms.entrySet()) {
+            assertEquals(term.getKey(), termsEnum.next());
+            assertEquals(term.getValue().size(), termsEnum.docFreq());
+            long totalTermFreq = 0;
+            for (int freq : term.getValue().values()) {
+                totalTermFreq += freq;
+            }
+            assertEquals(totalTermFreq, termsEnum.totalTermFreq());
+            sumTotalTermFreq += totalTermFreq;
+            if (random.nextInt(3) == 0) {
+                assertPostings(termsEnum.postings(null), term.getValue(), field.equals("id"));
+            }
+        }
+        assertNull(termsEnum.next());
+        assertEquals(sumTotalTermFreq, reader.sumTotalTermFreq(field));
+
+        final List<BytesRef> keys = new ArrayList<>(terms.keySet());
+        for (int i = 0; i < 5000; i++) {
+            final BytesRef target;
+            if (random.nextBoolean()) {
+                target = keys.get(random.nextInt(keys.size()));
+            } else {
+                final byte[] bytes = new byte[random.nextInt(6)];
+                for (int j = 0; j < bytes.length; j++) {
+                    bytes[j] = (byte) (random.nextBoolean() ? "wdoc0123456789abcxyz".charAt(random.nextInt(20)) : random.nextInt(256));
+                }
+                target = new BytesRef(bytes);
+            }
+            // seek both a positioned enum and a fresh one
+            final TermsEnum seekEnum = i % 2 == 0 ? termsEnum : reader.terms(field);
+
+            final boolean found = seekEnum.seekExact(target);
+            assertEquals(terms.containsKey(target), found, "seekExact " + target);
+            if (found) {
+                assertEquals(target, seekEnum.term());
+                assertEquals(terms.get(target).size(), seekEnum.docFreq());
+                if (i % 10 == 0) {
+                    assertPostings(seekEnum.postings(null), terms.get(target), field.equals("id"));
+                }
+            }
+
+            final TermsEnum.SeekStatus status = seekEnum.seekCeil(target);
+            final BytesRef ceil = terms.ceilingKey(target);
+            if (ceil == null) {
+                assertEquals(TermsEnum.SeekStatus.END, status);
+                continue;
+            }
+            assertEquals(ceil.equals(target) ? TermsEnum.SeekStatus.FOUND : TermsEnum.SeekStatus.NOT_FOUND, status);
+            assertEquals(ceil, seekEnum.term());
+            assertEquals(terms.get(ceil).size(), seekEnum.docFreq());
+            // next() goes on from the position of the seek
+            final BytesRef higher = terms.higherKey(ceil);
+            assertEquals(higher, seekEnum.next());
+            if (higher != null) {
+                assertEquals(terms.get(higher).size(), seekEnum.docFreq());
+            }
+        }
+    }
+
+    private static void assertPostings(PostingsEnum postings, TreeMap<Integer, Integer> docs, boolean omitFreqs)
+            throws IOException {
+        for (Map.Entry<Integer, Integer> doc : docs.entrySet()) {
+            assertEquals((int) doc.getKey(), postings.nextDoc());
+            assertEquals(omitFreqs ? 1 : doc.getValue(), postings.freq());
+        }
+        assertEquals(PostingsEnum.NO_MORE_DOCS, postings.nextDoc());
+    }
+}
@@ -0,0 +1,113 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferedUpdatesTest {
+
+    private static final FieldType KEYWORD = new FieldType();
+
+    static {
+        KEYWORD.setIndexOptions(IndexOptions.DOCS);
+        KEYWORD.setTokenized(false);
+        KEYWORD.setOmitNorms(true);
+    }
+
+    @Test
+    public void testApplyToSegment() throws IOException {
+        final Random random = new Random(0);
+        final int maxDoc = 3000;
+        final int numTerms = 200;
+        final String[] docTerms = new String[maxDoc];
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexingChain chain = new IndexingChain(new SegmentInfo("_0"), dir, new IndexWriterConfig());
+            for (int doc = 0; doc < maxDoc; doc++) {
+                docTerms[doc] = "t" + random.nextInt(numTerms);
+                chain.processDocument(List.of(new Field("id", KEYWORD, docTerms[doc])), doc);
+            }
+
+            final BufferedUpdates updates = new BufferedUpdates("_0");
+            final Map<String, Integer> expectedDocIDUpto = new HashMap<>();
+            for (int i = 0; i < 300; i++) {
+                // half of the deleted terms are not in the segment
+                final String term = "t" + random.nextInt(numTerms * 2);
+                final int docIDUpto = random.nextInt(maxDoc + 1);
+                updates.addTerm(new Term("id", term), docIDUpto);
+                // a term that is deleted again keeps the highest docIDUpto
+                expectedDocIDUpto.merge(term, docIDUpto, Math::max);
+                assertEquals(expectedDocIDUpto.get(term), updates.getDocIDUpto(new Term("id", term)));
+            }
+            updates.addTerm(new Term("missing", "t1"), maxDoc);
+            assertEquals(301, updates.numTermDeletes());
+            assertTrue(updates.ramBytesUsed() > 0);
+
+            final FixedBitSet liveDocs = updates.applyToSegment(chain.fields(), maxDoc);
+            assertNotNull(liveDocs);
+            for (int doc = 0; doc < maxDoc; doc++) {
+                final Integer docIDUpto = expectedDocIDUpto.get(docTerms[doc]);
+                final boolean deleted = docIDUpto != null && doc < docIDUpto;
+                assertEquals(deleted, liveDocs.get(doc) == false, "doc " + doc);
+            }
+            chain.abort();
+        }
+    }
+
+    @Test
+    public void testNothingDeleted() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexingChain chain = new IndexingChain(new SegmentInfo("_0"), dir, new IndexWriterConfig());
+            for (int doc = 0; doc < 10; doc++) {
+                chain.processDocument(List.of(new Field("id", KEYWORD, "t" + doc)), doc);
+            }
+            final BufferedUpdates updates = new BufferedUpdates("_0");
+            assertFalse(updates.any());
+            // only docs added after the delete have the term
+            updates.addTerm(new Term("id", "t5"), 5);
+            updates.addTerm(new Term("id", "t99"), 10);
+            assertTrue(updates.any());
+            assertNull(updates.applyToSegment(chain.fields(), 10));
+            chain.abort();
+        }
+    }
+
+    @Test
+    public void testUpdateDocumentsOnFlush() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriterPerThread dwpt =
+                    new DocumentsWriterPerThread("_0", dir, new IndexWriterConfig(), new DocumentsWriterDeleteQueue());
+            dwpt.lock();
+            try {
+                for (int i = 0; i < 3; i++) {
+                    for (String id : new String[] {"a", "b"}) {
+                        // replaces the previous versions of the doc
+                        dwpt.updateDocuments(
+                                List.of(List.of(new Field("id", KEYWORD, id))),
+                                DocumentsWriterDeleteQueue.newNode(new Term("id", id)),
+                                null,
+                                () -> {});
+                    }
+                }
+                dwpt.updateDocuments(List.of(List.of(new Field("id", KEYWORD, "c"))), null, null, () -> {});
+                dwpt.setFlushPending();
+                final DocumentsWriterPerThread.FlushedSegment segment = dwpt.flush();
+                assertEquals(4, segment.delCount);
+                final boolean[] expected = {false, false, false, false, true, true, true};
+                for (int doc = 0; doc < expected.length; doc++) {
+                    assertEquals(expected[doc], segment.liveDocs.get(doc), "doc " + doc);
+                }
+            } finally {
+                dwpt.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentsWriterDeleteQueueTest {
+
+    private static Term term(int i) {
+        return new Term("id", Integer.toString(i));
+    }
+
+    @Test
+    public void testSlicesApplyDeletesOfOtherSlices() {
+        final DocumentsWriterDeleteQueue queue = new DocumentsWriterDeleteQueue();
+        final DocumentsWriterDeleteQueue.DeleteSlice slice1 = queue.newSlice();
+        final DocumentsWriterDeleteQueue.DeleteSlice slice2 = queue.newSlice();
+        final BufferedUpdates updates1 = new BufferedUpdates("_0");
+        final BufferedUpdates updates2 = new BufferedUpdates("_1");
+        assertEquals(1, queue.getNextSequenceNumber());
+
+        // slice1 deletes term 0 after its 3 docs
+        final long seqNo1 = queue.add(DocumentsWriterDeleteQueue.newNode(term(0)), slice1);
+        slice1.apply(updates1, 3);
+        assertEquals(1, seqNo1);
+        assertEquals(3, updates1.getDocIDUpto(term(0)));
+        assertTrue(slice1.isEmpty());
+
+        // slice2 sees the delete once it is updated
+        final long seqNo2 = queue.updateSlice(slice2);
+        assertTrue(seqNo2 < 0, "the slice moved and must be applied");
+        assertEquals(seqNo1 + 1, -seqNo2);
+        slice2.apply(updates2, 5);
+        assertEquals(5, updates2.getDocIDUpto(term(0)));
+
+        // nothing new for slice2
+        final long seqNo3 = queue.updateSlice(slice2);
+        assertEquals(-seqNo2 + 1, seqNo3);
+        assertTrue(slice2.isEmpty());
+        assertEquals(seqNo3, queue.getLastSequenceNumber());
+
+        // slice1 already applied its own delete, a later delete in slice1 raises the docIDUpto
+        queue.add(DocumentsWriterDeleteQueue.newNode(term(0)), slice1);
+        slice1.apply(updates1, 7);
+        assertEquals(7, updates1.getDocIDUpto(term(0)));
+        assertEquals(-1, updates1.getDocIDUpto(term(1)));
+    }
+
+    @Test
+    public void testStartSequenceNumber() {
+        final DocumentsWriterDeleteQueue queue = new DocumentsWriterDeleteQueue(42);
+        final DocumentsWriterDeleteQueue.DeleteSlice slice = queue.newSlice();
+        assertEquals(42, queue.updateSlice(slice));
+        assertEquals(43, queue.add(DocumentsWriterDeleteQueue.newNode(term(0)), slice));
+        assertEquals(43, queue.getLastSequenceNumber());
+    }
+
+    /**
+     * Threads concurrently index documents and delete terms. Each operation gets a unique sequence
+     * number, increasing within a thread, and a doc must be deleted exactly when a delete of its
+     * term has a higher sequence number than the doc.
+     */
+    @Test
+    public void testConcurrentSequenceNumbers() throws InterruptedException {
+        final int numThreads = 4;
+        final int numOps = 5000;
+        final int numTerms = 50;
+        final DocumentsWriterDeleteQueue queue = new DocumentsWriterDeleteQueue();
+        final BufferedUpdates[] updates = new BufferedUpdates[numThreads];
+        final DocumentsWriterDeleteQueue.DeleteSlice[] slices = new DocumentsWriterDeleteQueue.DeleteSlice[numThreads];
+        // per thread: for each op, the term it deleted or -1 for a doc, and its sequence number
+        final int[][] opTerms = new int[numThreads][numOps];
+        final long[][] opSeqNos = new long[numThreads][numOps];
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<>();
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            updates[t] = new BufferedUpdates("_" + t);
+            slices[t] = queue.newSlice();
+            threads[t] =
+                    new Thread(
+                            () -> {
+                                try {
+                                    start.await();
+                                    final Random random = new Random(thread);
+                                    long lastSeqNo = 0;
+                                    for (int docID = 0; docID < numOps; docID++) {
+                                        final long seqNo;
+                                        if (random.nextInt(3) == 0) {
+                                            final long updated = queue.updateSlice(slices[thread]);
+                                            if (updated < 0) {
+                                                slices[thread].apply(updates[thread], docID);
+                                            }
+                                            seqNo = Math.abs(updated);
+                                            opTerms[thread][docID] = -1;
+                                        } else {
+                                            final int term = random.nextInt(numTerms);
+                                            seqNo = queue.add(DocumentsWriterDeleteQueue.newNode(term(term)), slices[thread]);
+                                            slices[thread].apply(updates[thread], docID);
+                                            opTerms[thread][docID] = term;
+                                        }
+                                        assertTrue(seqNo > lastSeqNo);
+                                        lastSeqNo = opSeqNos[thread][docID] = seqNo;
+                                    }
+                                } catch (Throwable e) {
+                                    synchronized (failures) {
+                                        failures.add(e);
+                                    }
+                                }
+                            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(List.of(), failures);
+        for (int t = 0; t < numThreads; t++) {
+            if (queue.updateSlice(slices[t]) < 0) {
+                slices[t].apply(updates[t], numOps);
+            }
+        }
+
+        final Set<Long> seqNos = new HashSet<>();
+        final long[] lastDeleteSeqNo = new long[numTerms];
+        for (int t = 0; t < numThreads; t++) {
+            for (int op = 0; op < numOps; op++) {
+                assertTrue(seqNos.add(opSeqNos[t][op]), "duplicate sequence number");
+                final int term = opTerms[t][op];
+                if (term >= 0) {
+                    lastDeleteSeqNo[term] = Math.max(lastDeleteSeqNo[term], opSeqNos[t][op]);
+                }
+            }
+        }
+        // the delete ops of the test also stand for a doc of their term indexed right before them
+        for (int t = 0; t < numThreads; t++) {
+            for (int docID = 0; docID < numOps; docID++) {
+                final int term = opTerms[t][docID];
+                if (term < 0) {
+                    continue;
+                }
+                final boolean deleted = docID < updates[t].getDocIDUpto(term(term));
+                assertEquals(opSeqNos[t][docID] < lastDeleteSeqNo[term], deleted, "thread " + t + " doc " + docID);
+            }
+        }
+    }
+}
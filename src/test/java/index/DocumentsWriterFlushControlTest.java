@@ -0,0 +1,138 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentsWriterFlushControlTest {
+
+    private static final FieldType TEXT = new FieldType();
+
+    static {
+        TEXT.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        TEXT.setTokenized(true);
+    }
+
+    private static final DocumentsWriter.FlushNotifications NO_NOTIFICATIONS =
+            new DocumentsWriter.FlushNotifications() {
+                @Override
+                public void onDeletesFrozen(FrozenBufferedUpdates updates) {}
+
+                @Override
+                public void onSegmentFlushed(DocumentsWriterPerThread.FlushedSegment segment) {}
+
+                @Override
+                public void flushFailed(SegmentInfo segment) {}
+            };
+
+    private static DocumentsWriter newDocumentsWriter(ByteBuffersDirectory dir, IndexWriterConfig config) {
+        final int[] segmentCounter = new int[1];
+        return new DocumentsWriter(NO_NOTIFICATIONS, dir, config, () -> "_" + segmentCounter[0]++);
+    }
+
+    /** A document of 100 terms that no other document has, so that every document uses more RAM. */
+    private static List<IndexableField> doc(int id) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("t").append(id).append('_').append(i).append(' ');
+        }
+        final List<IndexableField> doc = new ArrayList<>();
+        doc.add(new Field("body", TEXT, text.toString()));
+        return doc;
+    }
+
+    /**
+     * Indexes a document into the given locked DWPT, like {@link DocumentsWriter#updateDocuments}
+     * does, and returns what the flush control returned.
+     */
+    private static DocumentsWriterPerThread index(
+            DocumentsWriterFlushControl flushControl, DocumentsWriterPerThread dwpt, int id) throws IOException {
+        dwpt.updateDocuments(List.of(doc(id)), null, NO_NOTIFICATIONS, () -> {});
+        return flushControl.doAfterDocument(dwpt, false);
+    }
+
+    @Test
+    public void testLargestWriterIsMarkedPending() throws IOException {
+        final IndexWriterConfig config = new IndexWriterConfig().setRAMBufferSizeMB(1);
+        final long limit = 1024 * 1024;
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriter documentsWriter = newDocumentsWriter(dir, config);
+            final DocumentsWriterFlushControl flushControl = documentsWriter.flushControl;
+            // both DWPTs are held by this thread, so the pool creates a second one
+            final DocumentsWriterPerThread large = flushControl.obtainAndLock();
+            final DocumentsWriterPerThread small = flushControl.obtainAndLock();
+            assertNotSame(large, small);
+            try {
+                int id = 0;
+                while (flushControl.activeBytes() < limit * 3 / 4) {
+                    assertNull(index(flushControl, large, id++));
+                }
+                assertEquals(0, flushControl.numFlushesPending());
+
+                // the small DWPT takes the active RAM over the buffer, but the large one must flush
+                while (large.isFlushPending() == false) {
+                    assertTrue(flushControl.activeBytes() < limit);
+                    assertNull(index(flushControl, small, id++));
+                }
+                assertFalse(small.isFlushPending());
+                assertTrue(large.getLastCommittedBytesUsed() > small.getLastCommittedBytesUsed());
+                assertEquals(1, flushControl.numFlushesPending());
+                assertEquals(large.getLastCommittedBytesUsed(), flushControl.getFlushingBytes());
+                assertEquals(small.getLastCommittedBytesUsed(), flushControl.activeBytes());
+
+                // only the DWPT that indexed the document is checked out by doAfterDocument, the
+                // pending one is picked up by the next indexing thread
+                assertSame(large, flushControl.nextPendingFlush());
+                assertFalse(documentsWriter.perThreadPool.isRegistered(large));
+                assertEquals(0, flushControl.numFlushesPending());
+                large.flush();
+                flushControl.doAfterFlush(large);
+                assertEquals(0, flushControl.getFlushingBytes());
+            } finally {
+                large.unlock();
+                small.unlock();
+            }
+        }
+    }
+
+    @Test
+    public void testWriterOverHardLimitIsFlushedRightAway() throws IOException {
+        // the RAM buffer alone would never trigger a flush
+        final IndexWriterConfig config =
+                new IndexWriterConfig().setRAMBufferSizeMB(1024).setRAMPerThreadHardLimitMB(1);
+        final long hardLimit = 1024 * 1024;
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriter documentsWriter = newDocumentsWriter(dir, config);
+            final DocumentsWriterFlushControl flushControl = documentsWriter.flushControl;
+            final DocumentsWriterPerThread dwpt = flushControl.obtainAndLock();
+            try {
+                DocumentsWriterPerThread flushing = null;
+                for (int id = 0; flushing == null; id++) {
+                    assertTrue(dwpt.ramBytesUsed() <= hardLimit);
+                    flushing = index(flushControl, dwpt, id);
+                }
+                // checked out by the document that took it over the limit, ready to be flushed
+                assertSame(dwpt, flushing);
+                assertTrue(dwpt.ramBytesUsed() > hardLimit);
+                assertTrue(dwpt.isFlushPending());
+                assertFalse(documentsWriter.perThreadPool.isRegistered(dwpt));
+                assertEquals(0, flushControl.numFlushesPending());
+                assertEquals(dwpt.getLastCommittedBytesUsed(), flushControl.getFlushingBytes());
+                assertEquals(0, flushControl.activeBytes());
+
+                final DocumentsWriterPerThread.FlushedSegment segment = dwpt.flush();
+                assertEquals(dwpt.getNumDocsInRAM(), segment.segmentInfo.maxDoc());
+                flushControl.doAfterFlush(dwpt);
+                assertEquals(0, flushControl.getFlushingBytes());
+            } finally {
+                dwpt.unlock();
+            }
+        }
+    }
+}
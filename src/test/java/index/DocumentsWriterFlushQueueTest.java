@@ -0,0 +1,134 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentsWriterFlushQueueTest {
+
+    private static DocumentsWriterPerThread newFlushingDWPT(ByteBuffersDirectory dir, String name) {
+        final DocumentsWriterPerThread dwpt =
+                new DocumentsWriterPerThread(
+                        name, dir, new IndexWriterConfig(), new DocumentsWriterDeleteQueue());
+        dwpt.setFlushPending();
+        return dwpt;
+    }
+
+    private static DocumentsWriterPerThread.FlushedSegment segment(DocumentsWriterPerThread dwpt) {
+        return new DocumentsWriterPerThread.FlushedSegment(dwpt.getSegmentInfo(), null, 0);
+    }
+
+    @Test
+    public void testTicketsArePublishedInOrderWhenFlushesFinishOutOfOrder() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriterPerThread first = newFlushingDWPT(dir, "_0");
+            final DocumentsWriterPerThread second = newFlushingDWPT(dir, "_1");
+            final DocumentsWriterPerThread third = newFlushingDWPT(dir, "_2");
+
+            final DocumentsWriterFlushQueue queue = new DocumentsWriterFlushQueue();
+            final DocumentsWriterFlushQueue.FlushTicket firstTicket = queue.addFlushTicket(first);
+            final DocumentsWriterFlushQueue.FlushTicket secondTicket = queue.addFlushTicket(second);
+            final DocumentsWriterFlushQueue.FlushTicket thirdTicket = queue.addFlushTicket(third);
+            assertEquals(3, queue.getTicketCount());
+
+            final List<String> published = new ArrayList<>();
+            final List<String> failed = new ArrayList<>();
+            final Consumer<DocumentsWriterFlushQueue.FlushTicket> publisher =
+                    ticket -> {
+                        ticket.markPublished();
+                        if (ticket.getFlushedSegment() != null) {
+                            published.add(ticket.getFlushedSegment().segmentInfo.name);
+                        } else {
+                            failed.add(ticket.getSegmentInfo().name);
+                        }
+                    };
+
+            // the last flush finishes first, it has to wait for the ones that were started before it
+            queue.addSegment(thirdTicket, segment(third));
+            queue.tryPurge(publisher);
+            assertEquals(List.of(), published);
+            assertEquals(3, queue.getTicketCount());
+
+            // a failed flush doesn't publish anything, but it doesn't block the queue either
+            queue.markTicketFailed(secondTicket);
+            queue.tryPurge(publisher);
+            assertEquals(List.of(), published);
+            assertEquals(List.of(), failed);
+
+            queue.addSegment(firstTicket, segment(first));
+            queue.tryPurge(publisher);
+            assertEquals(List.of("_0", "_2"), published);
+            assertEquals(List.of("_1"), failed);
+            assertFalse(queue.hasTickets());
+        }
+    }
+
+    @Test
+    public void testForcePurgeOnlyPublishesTheHeadOfTheQueue() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriterPerThread first = newFlushingDWPT(dir, "_0");
+            final DocumentsWriterPerThread second = newFlushingDWPT(dir, "_1");
+            final DocumentsWriterPerThread third = newFlushingDWPT(dir, "_2");
+
+            final DocumentsWriterFlushQueue queue = new DocumentsWriterFlushQueue();
+            final DocumentsWriterFlushQueue.FlushTicket firstTicket = queue.addFlushTicket(first);
+            queue.addFlushTicket(second);
+            final DocumentsWriterFlushQueue.FlushTicket thirdTicket = queue.addFlushTicket(third);
+
+            final List<String> published = new ArrayList<>();
+            queue.addSegment(thirdTicket, segment(third));
+            queue.addSegment(firstTicket, segment(first));
+            queue.forcePurge(
+                    ticket -> {
+                        ticket.markPublished();
+                        published.add(ticket.getSegmentInfo().name);
+                    });
+            // the second flush is still running, the third segment stays queued behind it
+            assertEquals(List.of("_0"), published);
+            assertEquals(2, queue.getTicketCount());
+        }
+    }
+
+    @Test
+    public void testDeletesAfterTheLastFlushGetTheirOwnTicket() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriterDeleteQueue deleteQueue = new DocumentsWriterDeleteQueue();
+            final DocumentsWriterFlushQueue queue = new DocumentsWriterFlushQueue();
+            queue.addDeletes(deleteQueue);
+            assertFalse(queue.hasTickets());
+
+            deleteQueue.add(DocumentsWriterDeleteQueue.newNode(new Term("id", "1")));
+            final DocumentsWriterPerThread dwpt =
+                    new DocumentsWriterPerThread("_0", dir, new IndexWriterConfig(), deleteQueue);
+            dwpt.setFlushPending();
+            // the delete arrived before the DWPT existed, it only applies to older segments
+            final DocumentsWriterFlushQueue.FlushTicket flushTicket = queue.addFlushTicket(dwpt);
+            assertEquals(1, flushTicket.getFrozenUpdates().numTerms());
+
+            deleteQueue.add(DocumentsWriterDeleteQueue.newNode(new Term("id", "2")));
+            deleteQueue.add(DocumentsWriterDeleteQueue.newNode(new Term("id", "3")));
+            queue.addDeletes(deleteQueue);
+            assertEquals(2, queue.getTicketCount());
+
+            // the deletes-only ticket is publishable right away, but has to wait for the flush
+            final List<Integer> published = new ArrayList<>();
+            final Consumer<DocumentsWriterFlushQueue.FlushTicket> publisher =
+                    ticket -> {
+                        ticket.markPublished();
+                        published.add(ticket.getFrozenUpdates().numTerms());
+                    };
+            queue.tryPurge(publisher);
+            assertEquals(List.of(), published);
+            queue.markTicketFailed(flushTicket);
+            queue.tryPurge(publisher);
+            assertEquals(List.of(1, 2), published);
+            assertFalse(queue.hasTickets());
+        }
+    }
+}
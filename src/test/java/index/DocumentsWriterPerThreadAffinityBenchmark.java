@@ -0,0 +1,114 @@
+package index;
+
+import document.FieldType;
+import store.ByteBuffersDirectory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares {@link IndexWriter#addDocument} throughput with and without {@link
+ * IndexWriterConfig#setThreadAffinity(boolean) thread affinity} for 1 to 64 threads.
+ *
+ * <p>Each thread indexes small documents, a tokenized text field, a keyword field and a stored
+ * long, into a fresh writer over a {@link ByteBuffersDirectory}, so segments are flushed whenever
+ * the RAM buffer fills up. With affinity, a thread keeps getting the DWPT it used last, whose term
+ * hashes and buffers are still in the caches of its core.
+ *
+ * <p>This is not a unit test, run it with {@code java -cp <test classpath>
+ * index.DocumentsWriterPerThreadAffinityBenchmark [millisPerRun] [ramBufferSizeMB]} on a machine
+ * with as many cores as ingest threads.
+ */
+public class DocumentsWriterPerThreadAffinityBenchmark {
+
+    private static final String[] WORDS = {
+        "apache", "lucene", "index", "writer", "thread", "segment", "flush", "merge", "term", "field",
+        "posting", "norm", "vector", "point", "query", "score", "block", "chunk", "delete", "update"
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        final long millisPerRun = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        final double ramBufferSizeMB = args.length > 1 ? Double.parseDouble(args[1]) : 16;
+        System.out.printf("%8s %18s %18s%n", "threads", "no affinity docs/s", "affinity docs/s");
+        for (int numThreads = 1; numThreads <= 64; numThreads *= 2) {
+            // warm up both variants first
+            run(numThreads, false, ramBufferSizeMB, millisPerRun / 4);
+            run(numThreads, true, ramBufferSizeMB, millisPerRun / 4);
+            final long shared = run(numThreads, false, ramBufferSizeMB, millisPerRun);
+            final long affine = run(numThreads, true, ramBufferSizeMB, millisPerRun);
+            System.out.printf(
+                    "%8d %18d %18d%n",
+                    numThreads, shared * 1000 / millisPerRun, affine * 1000 / millisPerRun);
+        }
+    }
+
+    private static long run(int numThreads, boolean threadAffinity, double ramBufferSizeMB, long millis)
+            throws InterruptedException {
+        final IndexWriterConfig config =
+                new IndexWriterConfig().setRAMBufferSizeMB(ramBufferSizeMB).setThreadAffinity(threadAffinity);
+        final ByteBuffersDirectory dir = new ByteBuffersDirectory();
+        final IndexWriter writer = new IndexWriter(dir, config);
+
+        final FieldType textType = new FieldType();
+        textType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        textType.setTokenized(true);
+        final FieldType keywordType = new FieldType();
+        keywordType.setIndexOptions(IndexOptions.DOCS);
+        keywordType.setTokenized(false);
+        keywordType.setOmitNorms(true);
+
+        final LongAdder docs = new LongAdder();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[numThreads];
+        final long[] deadline = new long[1];
+        for (int i = 0; i < numThreads; ++i) {
+            final int threadNum = i;
+            threads[i] =
+                    new Thread(
+                            () -> {
+                                // pre-built documents, so that the loop mostly measures the writer
+                                final List<List<IndexableField>> pool = new ArrayList<>();
+                                int seed = threadNum * 31 + 17;
+                                for (int d = 0; d < 256; ++d) {
+                                    final StringBuilder text = new StringBuilder();
+                                    for (int w = 0; w < 20; ++w) {
+                                        seed = seed * 1103515245 + 12345;
+                                        text.append(WORDS[(seed >>> 8) % WORDS.length]).append(' ');
+                                    }
+                                    final List<IndexableField> doc = new ArrayList<>();
+                                    doc.add(new Field("body", textType, text.toString()));
+                                    doc.add(new Field("category", keywordType, WORDS[d % WORDS.length]));
+                                    doc.add(new LongStoredField("timestamp", threadNum * 1_000_000L + d));
+                                    pool.add(doc);
+                                }
+                                try {
+                                    start.await();
+                                } catch (InterruptedException e) {
+                                    throw new RuntimeException(e);
+                                }
+                                long count = 0;
+                                try {
+                                    while ((count & 0x3F) != 0 || System.nanoTime() < deadline[0]) {
+                                        writer.addDocument(pool.get((int) (count & 0xFF)));
+                                        count++;
+                                    }
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                                docs.add(count);
+                            });
+            threads[i].start();
+        }
+        deadline[0] = System.nanoTime() + millis * 1_000_000L;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        dir.close();
+        return docs.sum();
+    }
+}
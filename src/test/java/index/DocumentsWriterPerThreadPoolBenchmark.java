@@ -0,0 +1,145 @@
+package index;
+
+import document.FieldType;
+import store.ByteBuffersDirectory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how many {@link DocumentsWriterPerThreadPool#getAndLock()} / {@link
+ * DocumentsWriterPerThreadPool#marksAsFreeAndUnlock(DocumentsWriterPerThread)} round trips the pool
+ * sustains with 1 to 64 threads, with a single free-list stripe (one lock shared by all threads) and
+ * with one stripe per available processor, which is what the pool uses by default. Each round trip
+ * indexes a one-term document so that DWPTs are held for a realistic, if short, time.
+ *
+ * <p>Every run also reports how many DWPTs the pool created and how many segments flushing them
+ * would write, one per DWPT that holds documents. More DWPTs than threads means a thread found no
+ * free DWPT although one was about to be returned, and the index ends up with extra, smaller
+ * segments.
+ *
+ * <p>This is not a unit test, run it with {@code java -cp <test classpath>
+ * index.DocumentsWriterPerThreadPoolBenchmark [millisPerRun] [numStripes]} on a machine with as many
+ * cores as ingest threads.
+ */
+public class DocumentsWriterPerThreadPoolBenchmark {
+
+    private static final FieldType KEYWORD = new FieldType();
+
+    static {
+        KEYWORD.setIndexOptions(IndexOptions.DOCS);
+    }
+
+    private static final DocumentsWriter.FlushNotifications NO_NOTIFICATIONS =
+            new DocumentsWriter.FlushNotifications() {
+                @Override
+                public void onDeletesFrozen(FrozenBufferedUpdates updates) {}
+
+                @Override
+                public void onSegmentFlushed(DocumentsWriterPerThread.FlushedSegment segment) {}
+
+                @Override
+                public void flushFailed(SegmentInfo segment) {}
+            };
+
+    private static final class Result {
+        final long ops;
+        final int numDWPTs;
+        final int numSegments;
+
+        Result(long ops, int numDWPTs, int numSegments) {
+            this.ops = ops;
+            this.numDWPTs = numDWPTs;
+            this.numSegments = numSegments;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final long millisPerRun = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        final int stripes =
+                args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        System.out.printf(
+                "%8s %16s %6s %9s %16s %6s %9s%n",
+                "threads", "1 stripe ops/s", "dwpts", "segments",
+                stripes + " stripes ops/s", "dwpts", "segments");
+        for (int numThreads = 1; numThreads <= 64; numThreads *= 2) {
+            // warm up both variants first
+            run(numThreads, 1, millisPerRun / 4);
+            run(numThreads, stripes, millisPerRun / 4);
+            final Result single = run(numThreads, 1, millisPerRun);
+            final Result striped = run(numThreads, stripes, millisPerRun);
+            System.out.printf(
+                    "%8d %16d %6d %9d %16d %6d %9d%n",
+                    numThreads,
+                    single.ops * 1000 / millisPerRun,
+                    single.numDWPTs,
+                    single.numSegments,
+                    striped.ops * 1000 / millisPerRun,
+                    striped.numDWPTs,
+                    striped.numSegments);
+        }
+    }
+
+    private static Result run(int numThreads, int numStripes, long millis) throws Exception {
+        final IndexWriterConfig config = new IndexWriterConfig();
+        final DocumentsWriterDeleteQueue deleteQueue = new DocumentsWriterDeleteQueue();
+        final AtomicInteger segmentCounter = new AtomicInteger();
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriterPerThreadPool pool =
+                    new DocumentsWriterPerThreadPool(
+                            () ->
+                                    new DocumentsWriterPerThread(
+                                            "_" + segmentCounter.getAndIncrement(), dir, config, deleteQueue),
+                            numStripes,
+                            false);
+            final List<List<IndexableField>> docs = List.of(List.of(new Field("id", KEYWORD, "1")));
+
+            final LongAdder ops = new LongAdder();
+            final CountDownLatch start = new CountDownLatch(1);
+            final Thread[] threads = new Thread[numThreads];
+            final long[] deadline = new long[1];
+            for (int i = 0; i < numThreads; ++i) {
+                threads[i] =
+                        new Thread(
+                                () -> {
+                                    try {
+                                        start.await();
+                                    } catch (InterruptedException e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                    long count = 0;
+                                    while ((count & 0xFF) != 0 || System.nanoTime() < deadline[0]) {
+                                        final DocumentsWriterPerThread dwpt = pool.getAndLock();
+                                        try {
+                                            dwpt.updateDocuments(docs, null, NO_NOTIFICATIONS, () -> {});
+                                        } catch (IOException e) {
+                                            throw new UncheckedIOException(e);
+                                        } finally {
+                                            pool.marksAsFreeAndUnlock(dwpt);
+                                        }
+                                        count++;
+                                    }
+                                    ops.add(count);
+                                });
+                threads[i].start();
+            }
+            deadline[0] = System.nanoTime() + millis * 1_000_000L;
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            int numSegments = 0;
+            for (DocumentsWriterPerThread dwpt : pool) {
+                if (dwpt.getNumDocsInRAM() > 0) {
+                    numSegments++;
+                }
+                dwpt.abort();
+            }
+            return new Result(ops.sum(), segmentCounter.get(), numSegments);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentsWriterStallControlTest {
+
+    private static final FieldType TEXT = new FieldType();
+
+    static {
+        TEXT.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        TEXT.setTokenized(true);
+    }
+
+    /** A document of 100 terms that no other document has, so that every document uses more RAM. */
+    private static List<IndexableField> doc(int id) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("t").append(id).append('_').append(i).append(' ');
+        }
+        return List.of(new Field("body", TEXT, text.toString()));
+    }
+
+    @Test
+    public void testStalledUpdatesBlockOrAreRejected() throws Exception {
+        // flushes only start once the test releases them
+        final CountDownLatch releaseFlushes = new CountDownLatch(1);
+        final Executor heldFlushes =
+                command -> {
+                    final Thread flusher =
+                            new Thread(
+                                    () -> {
+                                        try {
+                                            releaseFlushes.await();
+                                        } catch (InterruptedException e) {
+                                            throw new RuntimeException(e);
+                                        }
+                                        command.run();
+                                    });
+                    flusher.start();
+                };
+        final IndexWriterConfig config =
+                new IndexWriterConfig().setRAMBufferSizeMB(1).setFlushExecutor(heldFlushes);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexWriter writer = new IndexWriter(dir, config);
+            int id = 0;
+            try {
+                // flushing DWPTs pile up until they use twice the RAM buffer
+                while (writer.isStalled() == false) {
+                    writer.addDocument(doc(id++));
+                }
+                assertEquals(0, writer.getNumStalledUpdates());
+                assertEquals(0, writer.getNumRejectedUpdates());
+
+                final int rejectedId = id++;
+                assertThrows(RejectedExecutionException.class, () -> writer.tryAddDocument(doc(rejectedId)));
+                assertEquals(1, writer.getNumRejectedUpdates());
+
+                final int blockedId = id++;
+                final CountDownLatch added = new CountDownLatch(1);
+                final Thread indexer =
+                        new Thread(
+                                () -> {
+                                    try {
+                                        writer.addDocument(doc(blockedId));
+                                    } catch (IOException e) {
+                                        throw new UncheckedIOException(e);
+                                    }
+                                    added.countDown();
+                                });
+                indexer.start();
+                assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+                assertTrue(writer.isStalled());
+                assertEquals(0, writer.getNumStalledUpdates());
+
+                releaseFlushes.countDown();
+                assertTrue(added.await(10, TimeUnit.SECONDS));
+                indexer.join();
+                assertEquals(1, writer.getNumStalledUpdates());
+                // blocked for at least most of the 200ms the test waited
+                assertTrue(writer.getStallTimeMillis() >= 100, "stall time " + writer.getStallTimeMillis());
+                // the rejected update was not counted as stalled and vice versa
+                assertEquals(1, writer.getNumRejectedUpdates());
+            } finally {
+                releaseFlushes.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import store.Directory;
+import store.IndexInput;
+import store.IndexOutput;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexWriterTest {
+
+    private static final FieldType TEXT = new FieldType();
+
+    private static final FieldType KEYWORD = new FieldType();
+
+    static {
+        TEXT.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        TEXT.setTokenized(true);
+        KEYWORD.setIndexOptions(IndexOptions.DOCS);
+    }
+
+    private static List<IndexableField> doc(String text) {
+        return List.of(new Field("body", TEXT, text));
+    }
+
+    private static List<IndexableField> doc(String id, String text) {
+        return List.of(new Field("id", KEYWORD, id), new Field("body", TEXT, text));
+    }
+
+    private static void assertLiveDocs(
+            Directory dir, DocumentsWriterPerThread.FlushedSegment segment, boolean... expected)
+            throws IOException {
+        assertEquals(expected.length, segment.segmentInfo.maxDoc());
+        int delCount = 0;
+        try (LiveDocsFormat.LiveDocs liveDocs = LiveDocsFormat.read(dir, segment.segmentInfo)) {
+            for (int doc = 0; doc < expected.length; doc++) {
+                assertEquals(expected[doc], segment.liveDocs.get(doc), "doc " + doc);
+                assertEquals(expected[doc], liveDocs.get(doc), "doc " + doc);
+                if (expected[doc] == false) {
+                    delCount++;
+                }
+            }
+            assertEquals(delCount, liveDocs.delCount());
+        }
+        assertEquals(delCount, segment.delCount);
+    }
+
+    /** Fails to create files with the given extension while {@link #failing} is set. */
+    private static final class FailingDirectory extends Directory {
+
+        private final Directory in = new ByteBuffersDirectory();
+
+        private final String extension;
+
+        volatile boolean failing = false;
+
+        FailingDirectory(String extension) {
+            this.extension = extension;
+        }
+
+        @Override
+        public String[] listAll() throws IOException {
+            return in.listAll();
+        }
+
+        @Override
+        public void deleteFile(String name) throws IOException {
+            in.deleteFile(name);
+        }
+
+        @Override
+        public long fileLength(String name) throws IOException {
+            return in.fileLength(name);
+        }
+
+        @Override
+        public IndexOutput createOutput(String name) throws IOException {
+            if (failing && name.endsWith("." + extension)) {
+                throw new IOException("simulated failure creating " + name);
+            }
+            return in.createOutput(name);
+        }
+
+        @Override
+        public IndexInput openInput(String name) throws IOException {
+            return in.openInput(name);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static boolean hasSegmentFiles(Directory dir, String segment) throws IOException {
+        for (String file : dir.listAll()) {
+            if (segment.equals(IndexFileNames.parseSegmentName(file))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testFlushAndClose() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig());
+            for (int i = 0; i < 10; i++) {
+                writer.addDocument(doc("hello world " + i));
+            }
+            assertEquals(0, writer.getFlushedSegments().size());
+            writer.flush();
+            assertEquals(1, writer.getFlushedSegments().size());
+            assertEquals(10, writer.getFlushedSegments().get(0).segmentInfo.maxDoc());
+
+            // nothing is buffered, flushing again doesn't write an empty segment
+            writer.flush();
+            assertEquals(1, writer.getFlushedSegments().size());
+
+            writer.addDocument(doc("hello again"));
+            writer.close();
+            assertEquals(2, writer.getFlushedSegments().size());
+            assertEquals(1, writer.getFlushedSegments().get(1).segmentInfo.maxDoc());
+
+            assertThrows(IllegalStateException.class, () -> writer.addDocument(doc("closed")));
+            assertThrows(IllegalStateException.class, writer::flush);
+            // closing twice is a no-op
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testUpdateDeletesDocumentOfFlushedSegment() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig());
+            for (int i = 0; i < 3; i++) {
+                writer.addDocument(doc(Integer.toString(i), "version one"));
+            }
+            writer.flush();
+            final String firstSegment = writer.getFlushedSegments().get(0).segmentInfo.name;
+            assertNull(writer.getFlushedSegments().get(0).liveDocs);
+
+            // the old version of doc 1 is in a segment that has already been flushed
+            writer.updateDocument(new Term("id", "1"), doc("1", "version two"));
+            writer.flush();
+            assertEquals(2, writer.getFlushedSegments().size());
+            assertEquals(firstSegment, writer.getFlushedSegments().get(0).segmentInfo.name);
+            assertLiveDocs(dir, writer.getFlushedSegments().get(0), true, false, true);
+            // the new version is not affected by the delete that came with it
+            assertEquals(1, writer.getFlushedSegments().get(1).segmentInfo.maxDoc());
+            assertEquals(0, writer.getFlushedSegments().get(1).delCount);
+
+            // deletes are applied on top of those the segment already has
+            writer.updateDocument(new Term("id", "0"), doc("0", "version two"));
+            writer.updateDocument(new Term("id", "1"), doc("1", "version three"));
+            writer.close();
+            assertEquals(3, writer.getFlushedSegments().size());
+            assertLiveDocs(dir, writer.getFlushedSegments().get(0), false, false, true);
+            assertLiveDocs(dir, writer.getFlushedSegments().get(1), false);
+            assertEquals(0, writer.getFlushedSegments().get(2).delCount);
+        }
+    }
+
+    @Test
+    public void testWriterRecoversFromFailedFlush() throws IOException {
+        testWriterRecoversFromFailedFlush(null);
+        final ExecutorService flushExecutor = Executors.newFixedThreadPool(2);
+        try {
+            testWriterRecoversFromFailedFlush(flushExecutor);
+        } finally {
+            flushExecutor.shutdown();
+        }
+    }
+
+    private void testWriterRecoversFromFailedFlush(ExecutorService flushExecutor) throws IOException {
+        // the terms dictionary is only written at flush, after the postings
+        try (FailingDirectory dir = new FailingDirectory(BlockTermsWriter.TERMS_EXTENSION)) {
+            final IndexWriter writer =
+                    new IndexWriter(dir, new IndexWriterConfig().setFlushExecutor(flushExecutor));
+            writer.addDocument(doc("first segment"));
+            writer.flush();
+            assertEquals(1, writer.getFlushedSegments().size());
+            final String firstSegment = writer.getFlushedSegments().get(0).segmentInfo.name;
+
+            writer.addDocument(doc("lost"));
+            dir.failing = true;
+            final IOException e = assertThrows(IOException.class, writer::flush);
+            dir.failing = false;
+            assertEquals(1, writer.getFlushedSegments().size());
+            // whatever the failed flush wrote has been deleted again
+            for (String file : dir.listAll()) {
+                assertEquals(firstSegment, IndexFileNames.parseSegmentName(file), file + " " + e);
+            }
+
+            // the failure is only reported once
+            writer.addDocument(doc("second segment"));
+            writer.close();
+            assertEquals(2, writer.getFlushedSegments().size());
+            final String secondSegment = writer.getFlushedSegments().get(1).segmentInfo.name;
+            assertEquals(1, writer.getFlushedSegments().get(1).segmentInfo.maxDoc());
+            assertTrue(hasSegmentFiles(dir, secondSegment));
+        }
+    }
+}
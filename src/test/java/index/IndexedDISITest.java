@@ -0,0 +1,104 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import store.IndexInput;
+import store.IndexOutput;
+import util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexedDISITest {
+
+    @Test
+    public void testBlockTypes() throws IOException {
+        final Random random = new Random(0);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            int iter = 0;
+            for (int maxDoc : new int[] {1, 100, 65536, 65537, 200000, 300000}) {
+                // SPARSE, DENSE and ALL blocks, and a mix of them with empty blocks in between
+                for (double density : new double[] {0.0001, 0.01, 0.06, 0.5, 0.999, 1.0, -1}) {
+                    final FixedBitSet set = new FixedBitSet(maxDoc);
+                    for (int doc = 0; doc < maxDoc; doc++) {
+                        final int block = doc >>> 16;
+                        final double p = density >= 0 ? density : block % 3 == 0 ? 1.0 : block % 3 == 1 ? 0.0 : 0.2;
+                        if (random.nextDouble() < p) {
+                            set.set(doc);
+                        }
+                    }
+                    if (set.cardinality() == 0) {
+                        set.set(maxDoc - 1);
+                    }
+                    assertDISI(random, dir, "disi" + iter++, set, maxDoc);
+                }
+            }
+        }
+    }
+
+    private static void assertDISI(Random random, ByteBuffersDirectory dir, String name, FixedBitSet set, int maxDoc)
+            throws IOException {
+        final int cardinality = set.cardinality();
+        final int[] index = new int[maxDoc];
+        for (int doc = 0, count = 0; doc < maxDoc; doc++) {
+            index[doc] = count;
+            if (set.get(doc)) {
+                count++;
+            }
+        }
+
+        final long offset;
+        final long length;
+        final int jumpTableEntryCount;
+        try (IndexOutput out = dir.createOutput(name)) {
+            // the bit set is framed by other data
+            out.writeByte((byte) 1);
+            offset = out.getFilePointer();
+            jumpTableEntryCount = IndexedDISI.writeBitSet(set, out);
+            length = out.getFilePointer() - offset;
+            out.writeLong(-1);
+        }
+
+        try (IndexInput in = dir.openInput(name)) {
+            IndexedDISI disi = new IndexedDISI(in, offset, length, jumpTableEntryCount, cardinality);
+            int count = 0;
+            for (int doc = disi.nextDoc(); doc != DocValuesIterator.NO_MORE_DOCS; doc = disi.nextDoc()) {
+                assertTrue(set.get(doc), "doc " + doc);
+                assertEquals(count++, disi.index());
+            }
+            assertEquals(cardinality, count);
+
+            // short jumps within a block, jumps over a few blocks and over most of the set
+            for (int maxStep : new int[] {10, 3000, 200000}) {
+                disi = new IndexedDISI(in, offset, length, jumpTableEntryCount, cardinality);
+                int target = -1;
+                while (true) {
+                    target += 1 + random.nextInt(maxStep);
+                    if (target >= maxDoc) {
+                        break;
+                    }
+                    if (random.nextBoolean()) {
+                        final boolean exists = disi.advanceExact(target);
+                        assertEquals(set.get(target), exists, "target " + target);
+                        assertEquals(target, disi.docID());
+                        if (exists) {
+                            assertEquals(index[target], disi.index());
+                        }
+                    } else {
+                        final int doc = disi.advance(target);
+                        final int expected = set.nextSetBit(target);
+                        if (expected == FixedBitSet.NO_MORE_BITS) {
+                            assertEquals(DocValuesIterator.NO_MORE_DOCS, doc);
+                            break;
+                        }
+                        assertEquals(expected, doc, "target " + target);
+                        assertEquals(index[doc], disi.index());
+                        target = doc;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package index;
+
+import document.FieldType;
+import store.ByteBuffersDirectory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the bytes allocated and the time spent per document by {@link
+ * IndexingChain#processDocument} followed by {@link IndexingChain#ramBytesUsed()}, which is what a
+ * DWPT does for every document, for segments that have seen 10 to 10,000 distinct fields while
+ * every document only has 10 of them.
+ *
+ * <p>Neither should grow with the number of fields of the segment: fields are found through a
+ * hash table and the bytes used by their buffers are tracked as values are added.
+ *
+ * <p>This is not a unit test, run it with {@code java -cp <test classpath>
+ * index.IndexingChainAllocationBenchmark [numDocs]}, on a HotSpot JVM for allocation counters.
+ */
+public class IndexingChainAllocationBenchmark {
+
+    private static final int FIELDS_PER_DOC = 10;
+
+    public static void main(String[] args) throws IOException {
+        final int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        System.out.printf("%8s %12s %12s%n", "fields", "bytes/doc", "ns/doc");
+        for (int numFields = FIELDS_PER_DOC; numFields <= 10_000; numFields *= 10) {
+            // warm up first
+            run(numFields, numDocs);
+            final long[] result = run(numFields, numDocs);
+            System.out.printf("%8d %12d %12d%n", numFields, result[0] / numDocs, result[1] / numDocs);
+        }
+    }
+
+    /** Returns the bytes allocated and the nanoseconds spent indexing {@code numDocs} documents. */
+    private static long[] run(int numFields, int numDocs) throws IOException {
+        final FieldType type = new FieldType();
+        type.setIndexOptions(IndexOptions.DOCS);
+        type.setTokenized(false);
+        // norms of a field that only some docs have grow a bit set up to the max doc, which is not
+        // what this measures
+        type.setOmitNorms(true);
+        final Field[] fields = new Field[numFields];
+        for (int i = 0; i < numFields; ++i) {
+            fields[i] = new Field("field" + i, type, "value" + (i % 100));
+        }
+        final List<IndexableField> doc = new ArrayList<>(FIELDS_PER_DOC);
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexingChain chain = new IndexingChain(new SegmentInfo("_0"), dir, new IndexWriterConfig());
+            // the segment has seen every field before the measurement starts
+            for (int docID = 0; docID < numFields; docID += FIELDS_PER_DOC) {
+                doc.clear();
+                for (int i = docID; i < docID + FIELDS_PER_DOC; ++i) {
+                    doc.add(fields[i % numFields]);
+                }
+                chain.processDocument(doc, docID / FIELDS_PER_DOC);
+            }
+            final int docBase = (numFields + FIELDS_PER_DOC - 1) / FIELDS_PER_DOC;
+
+            final com.sun.management.ThreadMXBean threadMXBean =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threadMXBean.isThreadAllocatedMemorySupported() == false) {
+                throw new UnsupportedOperationException("this JVM does not count allocated bytes per thread");
+            }
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+            final long threadId = Thread.currentThread().getId();
+            final long bytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            final long start = System.nanoTime();
+            long ramBytesUsed = 0;
+            for (int docID = 0; docID < numDocs; ++docID) {
+                doc.clear();
+                for (int i = 0; i < FIELDS_PER_DOC; ++i) {
+                    doc.add(fields[(docID * 7 + i * 31) % numFields]);
+                }
+                chain.processDocument(doc, docBase + docID);
+                ramBytesUsed = chain.ramBytesUsed();
+            }
+            final long nanos = System.nanoTime() - start;
+            final long bytes = threadMXBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+            if (ramBytesUsed <= 0) {
+                throw new AssertionError("nothing was buffered");
+            }
+            chain.abort();
+            return new long[] {bytes, nanos};
+        }
+    }
+}
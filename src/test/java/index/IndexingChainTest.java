@@ -0,0 +1,187 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexingChainTest {
+
+    private static final FieldType TEXT = new FieldType();
+    private static final FieldType KEYWORD = new FieldType();
+
+    static {
+        TEXT.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        TEXT.setTokenized(true);
+        KEYWORD.setIndexOptions(IndexOptions.DOCS);
+        KEYWORD.setTokenized(false);
+        KEYWORD.setStored(true);
+    }
+
+    /** term -> doc -> {position, startOffset, endOffset} of each occurrence, terms in UTF-8 order */
+    private static final class Model {
+        final Map<BytesRef, TreeMap<Integer, List<int[]>>> postings = new TreeMap<>();
+
+        void add(String term, int doc, int position, int startOffset, int endOffset) {
+            postings.computeIfAbsent(new BytesRef(term), t -> new TreeMap<>())
+                    .computeIfAbsent(doc, d -> new ArrayList<>())
+                    .add(new int[] {position, startOffset, endOffset});
+        }
+    }
+
+    @Test
+    public void testInvertedPostings() throws IOException {
+        final Random random = new Random(0);
+        final String[] vocabulary = new String[500];
+        for (int i = 0; i < vocabulary.length; i++) {
+            // some terms have multi-byte and supplementary letters
+            vocabulary[i] = (i % 7 == 0 ? "é" : "") + "w" + Integer.toString(i * 7919, 36) + (i % 11 == 0 ? "𝐀" : "");
+        }
+        final Model body = new Model();
+        final Model id = new Model();
+        final int maxDoc = 2000;
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexingChain chain = new IndexingChain(new SegmentInfo("_0"), dir, new IndexWriterConfig());
+            for (int doc = 0; doc < maxDoc; doc++) {
+                final List<IndexableField> fields = new ArrayList<>();
+                fields.add(new Field("id", KEYWORD, "doc" + doc));
+                id.add("doc" + doc, doc, 0, 0, 0);
+                // positions and offsets go on across the values of a field
+                int position = -1;
+                int offset = 0;
+                final int numValues = 1 + random.nextInt(2);
+                for (int v = 0; v < numValues; v++) {
+                    if (v > 0) {
+                        offset++;
+                    }
+                    final StringBuilder text = new StringBuilder();
+                    for (int t = random.nextInt(random.nextInt(10) == 0 ? 300 : 20); t > 0; t--) {
+                        text.append(random.nextBoolean() ? " " : ", ");
+                        final String word = vocabulary[(int) Math.abs(random.nextGaussian() * 100) % vocabulary.length];
+                        final int start = text.length();
+                        text.append(word);
+                        body.add(word, doc, ++position, offset + start, offset + text.length());
+                    }
+                    text.append('.');
+                    fields.add(new Field("body", TEXT, text.toString()));
+                    offset += text.length();
+                }
+                chain.processDocument(fields, doc);
+            }
+            assertTrue(chain.ramBytesUsed() > 0);
+
+            final Fields fields = chain.fields();
+            assertNull(fields.terms("missing"));
+            assertPostings(body, fields.terms("body"), true);
+            assertPostings(id, fields.terms("id"), false);
+
+            final TermsEnum termsEnum = fields.terms("id");
+            assertEquals(TermsEnum.SeekStatus.FOUND, termsEnum.seekCeil(new BytesRef("doc42")));
+            assertEquals(new BytesRef("doc42"), termsEnum.term());
+            // 'a' sorts after every digit
+            assertEquals(TermsEnum.SeekStatus.NOT_FOUND, termsEnum.seekCeil(new BytesRef("doc42a")));
+            assertEquals(new BytesRef("doc43"), termsEnum.term());
+            assertTrue(termsEnum.seekExact(new BytesRef("doc1999")));
+            assertFalse(termsEnum.seekExact(new BytesRef("doc2000")));
+            assertEquals(TermsEnum.SeekStatus.END, termsEnum.seekCeil(new BytesRef("e")));
+            chain.abort();
+        }
+    }
+
+    private static void assertPostings(Model model, TermsEnum termsEnum, boolean hasProx) throws IOException {
+        PostingsEnum postings = null;
+        for (Map.Entry<BytesRef, TreeMap<Integer, List<int[]>>> term : model.postings.entrySet()) {
+            assertEquals(term.getKey(), termsEnum.next());
+            postings = termsEnum.postings(postings, PostingsEnum.ALL);
+            for (Map.Entry<Integer, List<int[]>> doc : term.getValue().entrySet()) {
+                assertEquals((int) doc.getKey(), postings.nextDoc());
+                if (hasProx == false) {
+                    continue;
+                }
+                assertEquals(doc.getValue().size(), postings.freq());
+                for (int[] occurrence : doc.getValue()) {
+                    assertEquals(occurrence[0], postings.nextPosition());
+                    assertEquals(occurrence[1], postings.startOffset());
+                    assertEquals(occurrence[2], postings.endOffset());
+                }
+            }
+            assertEquals(PostingsEnum.NO_MORE_DOCS, postings.nextDoc());
+        }
+        assertNull(termsEnum.next());
+    }
+
+    @Test
+    public void testFailedDocumentIsDeleted() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriterPerThread dwpt =
+                    new DocumentsWriterPerThread("_0", dir, new IndexWriterConfig(), new DocumentsWriterDeleteQueue());
+            dwpt.lock();
+            try {
+                dwpt.updateDocuments(List.of(List.of(new Field("id", KEYWORD, "a"))), null, null, () -> {});
+                // the first field is buffered before the immense term of the second one is hit
+                final List<IndexableField> failing =
+                        List.of(
+                                new Field("id", KEYWORD, "b"),
+                                new Field("body", TEXT, "x".repeat(IndexWriter.MAX_TERM_LENGTH + 1)));
+                final IllegalArgumentException e =
+                        assertThrows(
+                                IllegalArgumentException.class,
+                                () -> dwpt.updateDocuments(List.of(failing), null, null, () -> {}));
+                assertTrue(e.getMessage().contains("immense term"), e.getMessage());
+                dwpt.updateDocuments(List.of(List.of(new Field("id", KEYWORD, "c"))), null, null, () -> {});
+                assertEquals(3, dwpt.getNumDocsInRAM());
+
+                dwpt.setFlushPending();
+                final DocumentsWriterPerThread.FlushedSegment segment = dwpt.flush();
+                assertEquals(1, segment.delCount);
+                assertTrue(segment.liveDocs.get(0));
+                assertFalse(segment.liveDocs.get(1));
+                assertTrue(segment.liveDocs.get(2));
+            } finally {
+                dwpt.unlock();
+            }
+        }
+    }
+
+    @Test
+    public void testInconsistentFieldDeletesDocument() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final DocumentsWriterPerThread dwpt =
+                    new DocumentsWriterPerThread("_0", dir, new IndexWriterConfig(), new DocumentsWriterDeleteQueue());
+            dwpt.lock();
+            try {
+                dwpt.updateDocuments(
+                        List.of(List.of(new Field("id", KEYWORD, "a"), new Field("body", TEXT, "some text"))),
+                        null, null, () -> {});
+                // the id is indexed before the body is checked against the schema of the segment
+                final List<IndexableField> failing =
+                        List.of(new Field("id", KEYWORD, "b"), new Field("body", KEYWORD, "other"));
+                final IllegalArgumentException e =
+                        assertThrows(
+                                IllegalArgumentException.class,
+                                () -> dwpt.updateDocuments(List.of(failing), null, null, () -> {}));
+                assertTrue(e.getMessage().contains("inconsistent index options"), e.getMessage());
+                dwpt.updateDocuments(List.of(List.of(new Field("id", KEYWORD, "c"))), null, null, () -> {});
+
+                dwpt.setFlushPending();
+                final DocumentsWriterPerThread.FlushedSegment segment = dwpt.flush();
+                assertEquals(1, segment.delCount);
+                assertTrue(segment.liveDocs.get(0));
+                assertFalse(segment.liveDocs.get(1));
+                assertTrue(segment.liveDocs.get(2));
+            } finally {
+                dwpt.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import util.FixedBitSet;
+import util.GeoEncodingUtils;
+import util.GeoUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatLonPointTest {
+
+    /** Slack for points that are within encoding precision of a box edge. */
+    private static final double BOX_TOLERANCE = 1e-6;
+
+    /** Slack in meters for points that are within rounding of the radius. */
+    private static final double DISTANCE_TOLERANCE = 1e-3;
+
+    private static boolean inRange(double value, double min, double max, double slack) {
+        return value >= min + slack && value <= max - slack;
+    }
+
+    private static boolean inBox(double lat, double lon, double minLat, double maxLat, double minLon, double maxLon, double slack) {
+        final boolean lonMatches = minLon <= maxLon
+                ? inRange(lon, minLon, maxLon, slack)
+                // crosses the dateline
+                : lon >= minLon + slack || lon <= maxLon - slack;
+        return inRange(lat, minLat, maxLat, slack) && lonMatches;
+    }
+
+    @Test
+    public void testBoxAndDistanceFilters() throws IOException {
+        final Random random = new Random(0);
+        for (int maxDoc : new int[] {1, 300, 30000}) {
+            try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+                final SegmentInfo si = new SegmentInfo("_0");
+                final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+                final double[] lats = new double[maxDoc];
+                final double[] lons = new double[maxDoc];
+                final boolean[] hasPoint = new boolean[maxDoc];
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    final List<IndexableField> fields = new ArrayList<>();
+                    // the first doc always has a point so that the segment has points files
+                    if (doc == 0 || random.nextInt(20) != 0) {
+                        hasPoint[doc] = true;
+                        // clusters near New York and next to the dateline, and some anywhere
+                        if (random.nextInt(3) == 0) {
+                            lats[doc] = random.nextDouble() * 180 - 90;
+                            lons[doc] = random.nextDouble() * 360 - 180;
+                        } else {
+                            lats[doc] = 40 + random.nextDouble();
+                            lons[doc] = (random.nextBoolean() ? 179.5 : -74) + random.nextDouble() * 0.5;
+                        }
+                        fields.add(new LatLonPoint("location", lats[doc], lons[doc]));
+                        fields.add(new LatLonDocValuesField("location", lats[doc], lons[doc]));
+                    }
+                    chain.processDocument(fields, doc);
+                }
+                chain.flush(maxDoc);
+
+                try (PointsReader pointsReader = new PointsReader(dir, si);
+                        DocValuesProducer docValuesProducer = new DocValuesProducer(dir, si)) {
+                    final PointValues points = pointsReader.getValues("location");
+                    for (int i = 0; i < 60; i++) {
+                        final boolean box = i % 3 == 0;
+                        final boolean dateline = i % 2 == 1;
+                        final double minLat = 40 + random.nextDouble() * 0.5;
+                        final double maxLat = minLat + random.nextDouble() * 0.5;
+                        final double minLon = dateline ? 179.7 : -74 + random.nextDouble() * 0.2;
+                        final double maxLon = dateline ? -179.8 : minLon + 0.1;
+                        // a circle around the pole covers all longitudes
+                        final double centerLat = i == 7 ? 89.9 : 40 + random.nextDouble();
+                        final double centerLon = dateline ? 179.8 + random.nextDouble() * 0.2 : -74 + random.nextDouble() * 0.5;
+                        final double radius = i == 7 ? 100000 : i % 5 == 0 ? 5_000_000 : random.nextDouble() * 20000;
+                        final LatLonPointFilter filter = box
+                                ? LatLonPoint.newBoxFilter(minLat, maxLat, minLon, maxLon)
+                                : LatLonPoint.newDistanceFilter(centerLat, centerLon, radius);
+
+                        final FixedBitSet hits = filter.matches(points, maxDoc);
+                        final NumericDocValues docValues = docValuesProducer.getNumeric("location");
+                        for (int doc = 0; doc < maxDoc; doc++) {
+                            if (hasPoint[doc] == false) {
+                                assertFalse(hits.get(doc));
+                                assertFalse(filter.matches(docValues, doc));
+                                continue;
+                            }
+                            final double lat = GeoEncodingUtils.decodeLatitude(GeoEncodingUtils.encodeLatitude(lats[doc]));
+                            final double lon = GeoEncodingUtils.decodeLongitude(GeoEncodingUtils.encodeLongitude(lons[doc]));
+                            final boolean expected;
+                            final boolean onEdge;
+                            if (box) {
+                                expected = inBox(lat, lon, minLat, maxLat, minLon, maxLon, -BOX_TOLERANCE);
+                                onEdge = expected != inBox(lat, lon, minLat, maxLat, minLon, maxLon, BOX_TOLERANCE);
+                            } else {
+                                final double distance = GeoUtils.haversinMeters(centerLat, centerLon, lat, lon);
+                                expected = distance <= radius;
+                                onEdge = Math.abs(distance - radius) < DISTANCE_TOLERANCE;
+                            }
+                            // points and doc values must agree even when the point is on the edge
+                            assertEquals(hits.get(doc), filter.matches(docValues, doc), filter + " doc " + doc);
+                            if (onEdge == false) {
+                                assertEquals(expected, hits.get(doc), filter + " doc " + doc);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> LatLonPoint.newDistanceFilter(0, 0, -1));
+        assertThrows(IllegalArgumentException.class, () -> new LatLonPoint("location", 91, 0));
+    }
+}
@@ -0,0 +1,41 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import util.FixedBitSet;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LiveDocsFormatTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(0);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            for (int iter = 0; iter < 20; iter++) {
+                final int maxDoc = 1 + random.nextInt(10000);
+                final SegmentInfo si = new SegmentInfo("_" + iter);
+                si.setMaxDoc(maxDoc);
+                final FixedBitSet liveDocs = new FixedBitSet(maxDoc);
+                liveDocs.set(0, maxDoc);
+                for (int i = random.nextInt(maxDoc); i > 0; i--) {
+                    liveDocs.clear(random.nextInt(maxDoc));
+                }
+                final int delCount = maxDoc - liveDocs.cardinality();
+                LiveDocsFormat.write(dir, si, liveDocs, delCount);
+
+                try (LiveDocsFormat.LiveDocs read = LiveDocsFormat.read(dir, si)) {
+                    assertEquals(maxDoc, read.length());
+                    assertEquals(delCount, read.delCount());
+                    for (int doc = 0; doc < maxDoc; doc++) {
+                        assertEquals(liveDocs.get(doc), read.get(doc), "doc " + doc);
+                    }
+                    assertEquals(liveDocs, read.toFixedBitSet());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import util.SmallFloat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NormsTest {
+
+    private static int decode(long norm) {
+        return SmallFloat.byte4ToInt((byte) norm);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(0);
+        final FieldType text = new FieldType();
+        text.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        final FieldType keyword = new FieldType();
+        keyword.setIndexOptions(IndexOptions.DOCS);
+        keyword.setTokenized(false);
+        final FieldType noNorms = new FieldType();
+        noNorms.setIndexOptions(IndexOptions.DOCS);
+        noNorms.setOmitNorms(true);
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final SegmentInfo si = new SegmentInfo("_0");
+            final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+            final int maxDoc = 30000;
+            final int[] bodyLength = new int[maxDoc];
+            final int[] titleLength = new int[maxDoc];
+            for (int doc = 0; doc < maxDoc; doc++) {
+                final List<IndexableField> fields = new ArrayList<>();
+                // some lengths are too large to be encoded exactly
+                final int numTokens = 1 + random.nextInt(doc % 7 == 0 ? 3000 : 30);
+                final StringBuilder body = new StringBuilder();
+                for (int i = 0; i < numTokens; i++) {
+                    body.append('w').append(random.nextInt(100)).append(' ');
+                }
+                fields.add(new Field("body", text, body.toString()));
+                bodyLength[doc] = numTokens;
+                // a sparse field whose length sums over its values
+                if (random.nextInt(100) == 0) {
+                    final int length = 1 + random.nextInt(5);
+                    fields.add(new Field("title", text, "t ".repeat(length)));
+                    fields.add(new Field("title", text, "x y"));
+                    titleLength[doc] = length + 2;
+                }
+                // a value without tokens does not give the doc a norm
+                if (doc % 3 == 0) {
+                    fields.add(new Field("title", text, " , "));
+                }
+                fields.add(new Field("keyword", keyword, "k" + doc));
+                fields.add(new Field("noNorms", noNorms, "a b c"));
+                chain.processDocument(fields, doc);
+            }
+            chain.flush(maxDoc);
+
+            try (NormsReader reader = new NormsReader(dir, si)) {
+                assertNull(reader.getNorms("noNorms"));
+
+                final NumericDocValues keywordNorms = reader.getNorms("keyword");
+                for (int doc = 0; doc < maxDoc; doc += 17) {
+                    assertTrue(keywordNorms.advanceExact(doc));
+                    assertEquals(1, keywordNorms.longValue());
+                }
+
+                final NumericDocValues bodyNorms = reader.getNorms("body");
+                for (int doc = 0; doc < maxDoc; doc += 1 + random.nextInt(10)) {
+                    assertTrue(bodyNorms.advanceExact(doc));
+                    assertEquals(decode(SmallFloat.intToByte4(bodyLength[doc])), decode(bodyNorms.longValue()), "doc " + doc);
+                }
+
+                NumericDocValues titleNorms = reader.getNorms("title");
+                assertTrue(titleNorms.cost() < maxDoc);
+                for (int doc = 0; doc < maxDoc; doc += 1 + random.nextInt(3)) {
+                    final boolean hasNorm = titleNorms.advanceExact(doc);
+                    assertEquals(titleLength[doc] != 0, hasNorm, "doc " + doc);
+                    if (hasNorm) {
+                        assertEquals(titleLength[doc], decode(titleNorms.longValue()));
+                    }
+                }
+
+                titleNorms = reader.getNorms("title");
+                int count = 0;
+                for (int doc = titleNorms.nextDoc(); doc != DocValuesIterator.NO_MORE_DOCS; doc = titleNorms.nextDoc()) {
+                    assertEquals(titleLength[doc], decode(titleNorms.longValue()), "doc " + doc);
+                    count++;
+                }
+                assertEquals(titleNorms.cost(), count);
+
+                titleNorms = reader.getNorms("title");
+                int current = -1;
+                while (true) {
+                    final int target = current + 1 + random.nextInt(500);
+                    if (target >= maxDoc) {
+                        break;
+                    }
+                    int expected = target;
+                    while (expected < maxDoc && titleLength[expected] == 0) {
+                        expected++;
+                    }
+                    final int doc = titleNorms.advance(target);
+                    assertEquals(expected == maxDoc ? DocValuesIterator.NO_MORE_DOCS : expected, doc);
+                    if (doc == DocValuesIterator.NO_MORE_DOCS) {
+                        break;
+                    }
+                    current = doc;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NumericDocValuesTest {
+
+    private static final FieldType DOC_VALUES = new FieldType();
+
+    static {
+        DOC_VALUES.setDocValue(true);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(0);
+        final FieldType stored = new FieldType();
+        stored.setStored(true);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final SegmentInfo si = new SegmentInfo("_0");
+            final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+            final int maxDoc = 50000;
+            // a common offset and gcd, a few distinct values, a constant and the full long range
+            final String[] names = {"timestamp", "category", "constant", "wide"};
+            final long[][] values = new long[names.length][maxDoc];
+            final long[] price = new long[maxDoc];
+            final boolean[] hasPrice = new boolean[maxDoc];
+            for (int doc = 0; doc < maxDoc; doc++) {
+                values[0][doc] = 1_600_000_000_000L + random.nextInt(1_000_000) * 1000L;
+                values[1][doc] = new long[] {-1_000_000_000_000L, 3, 7_000_000_000_000L}[random.nextInt(3)];
+                values[2][doc] = 99;
+                values[3][doc] = doc % 2 == 0 ? Long.MIN_VALUE + doc : Long.MAX_VALUE - doc;
+                final List<IndexableField> fields = new ArrayList<>();
+                for (int f = 0; f < names.length; f++) {
+                    fields.add(new Field(names[f], DOC_VALUES, values[f][doc]));
+                }
+                if (random.nextInt(10) == 0) {
+                    hasPrice[doc] = true;
+                    price[doc] = random.nextInt(100000) - 500;
+                    fields.add(new Field("price", DOC_VALUES, price[doc]));
+                }
+                fields.add(new Field("stored", stored, "x"));
+                chain.processDocument(fields, doc);
+            }
+            chain.flush(maxDoc);
+
+            try (DocValuesProducer producer = new DocValuesProducer(dir, si)) {
+                assertNull(producer.getNumeric("stored"));
+                for (int f = 0; f < names.length; f++) {
+                    final NumericDocValues docValues = producer.getNumeric(names[f]);
+                    for (int doc = 0; doc < maxDoc; doc += 1 + random.nextInt(5)) {
+                        assertTrue(docValues.advanceExact(doc));
+                        assertEquals(values[f][doc], docValues.longValue(), names[f] + " doc " + doc);
+                    }
+                }
+
+                NumericDocValues priceValues = producer.getNumeric("price");
+                for (int doc = 0; doc < maxDoc; doc += 1 + random.nextInt(3)) {
+                    final boolean hasValue = priceValues.advanceExact(doc);
+                    assertEquals(hasPrice[doc], hasValue, "doc " + doc);
+                    if (hasValue) {
+                        assertEquals(price[doc], priceValues.longValue());
+                    }
+                }
+
+                priceValues = producer.getNumeric("price");
+                int count = 0;
+                for (int doc = priceValues.nextDoc(); doc != DocValuesIterator.NO_MORE_DOCS; doc = priceValues.nextDoc()) {
+                    assertTrue(hasPrice[doc]);
+                    assertEquals(price[doc], priceValues.longValue());
+                    count++;
+                }
+                assertEquals(priceValues.cost(), count);
+            }
+        }
+    }
+
+    @Test
+    public void testMultipleValuesPerDoc() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexingChain chain = new IndexingChain(new SegmentInfo("_0"), dir, new IndexWriterConfig());
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> chain.processDocument(
+                            List.of(new Field("timestamp", DOC_VALUES, 1L), new Field("timestamp", DOC_VALUES, 2L)), 0));
+            chain.abort();
+        }
+    }
+}
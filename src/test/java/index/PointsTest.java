@@ -0,0 +1,218 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import util.BytesRef;
+import util.NumericUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PointsTest {
+
+    /** Collects docs with a value in {@code [min, max]} of a one-dimensional long point. */
+    private static PointValues.IntersectVisitor range(long min, long max, BitSet hits) {
+        final byte[] lower = new byte[Long.BYTES];
+        final byte[] upper = new byte[Long.BYTES];
+        LongPoint.encodeDimension(min, lower, 0);
+        LongPoint.encodeDimension(max, upper, 0);
+        return new PointValues.IntersectVisitor() {
+            @Override
+            public void visit(int docID) {
+                hits.set(docID);
+            }
+
+            @Override
+            public void visit(int docID, byte[] packedValue) {
+                if (Arrays.compareUnsigned(packedValue, lower) >= 0 && Arrays.compareUnsigned(packedValue, upper) <= 0) {
+                    hits.set(docID);
+                }
+            }
+
+            @Override
+            public PointValues.Relation compare(byte[] minPackedValue, byte[] maxPackedValue) {
+                if (Arrays.compareUnsigned(maxPackedValue, lower) < 0 || Arrays.compareUnsigned(minPackedValue, upper) > 0) {
+                    return PointValues.Relation.CELL_OUTSIDE_QUERY;
+                }
+                if (Arrays.compareUnsigned(minPackedValue, lower) >= 0 && Arrays.compareUnsigned(maxPackedValue, upper) <= 0) {
+                    return PointValues.Relation.CELL_INSIDE_QUERY;
+                }
+                return PointValues.Relation.CELL_CROSSES_QUERY;
+            }
+        };
+    }
+
+    @Test
+    public void testIntersect() throws IOException {
+        final Random random = new Random(0);
+        final FieldType threeDims = new FieldType();
+        // two index dimensions and one data-only dimension
+        threeDims.setDimensions(3, 2, Integer.BYTES);
+        final FieldType stored = new FieldType();
+        stored.setStored(true);
+        final long base = 1_700_000_000_000L;
+        // a single leaf, exactly one and a bit more than one leaf, and a deep tree
+        for (int maxDoc : new int[] {1, 7, 513, 1025, 100000}) {
+            try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+                final SegmentInfo si = new SegmentInfo("_0");
+                final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+                final List<long[]> values = new ArrayList<>();
+                final List<int[]> points = new ArrayList<>();
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    final List<IndexableField> fields = new ArrayList<>();
+                    // some docs have no value, some have several
+                    final long[] docValues = new long[random.nextInt(10) == 0 ? 0 : random.nextInt(8) == 0 ? 3 : 1];
+                    for (int i = 0; i < docValues.length; i++) {
+                        if (random.nextInt(4) == 0) {
+                            docValues[i] = base + random.nextInt(100) * 1000L;
+                        } else if (random.nextInt(50) == 0) {
+                            docValues[i] = -random.nextLong();
+                        } else {
+                            docValues[i] = base + random.nextInt(1 << 30);
+                        }
+                        fields.add(new LongPoint("timestamp", docValues[i]));
+                    }
+                    values.add(docValues);
+                    final int[] point = {random.nextInt(2000) - 1000, random.nextInt(), random.nextInt(5)};
+                    points.add(point);
+                    final byte[] packed = new byte[3 * Integer.BYTES];
+                    for (int dim = 0; dim < 3; dim++) {
+                        NumericUtils.intToSortableBytes(point[dim], packed, dim * Integer.BYTES);
+                    }
+                    fields.add(new Field("point", threeDims, new BytesRef(packed)));
+                    fields.add(new Field("stored", stored, "x"));
+                    chain.processDocument(fields, doc);
+                }
+                chain.flush(maxDoc);
+
+                try (PointsReader reader = new PointsReader(dir, si)) {
+                    assertNull(reader.getValues("stored"));
+                    assertRanges(random, reader.getValues("timestamp"), values, base);
+                    assertBoxes(random, reader.getValues("point"), points);
+                }
+            }
+        }
+    }
+
+    private static void assertRanges(Random random, PointValues pointValues, List<long[]> values, long base)
+            throws IOException {
+        long size = 0;
+        int docCount = 0;
+        for (long[] docValues : values) {
+            size += docValues.length;
+            docCount += docValues.length > 0 ? 1 : 0;
+        }
+        if (size == 0) {
+            assertNull(pointValues);
+            return;
+        }
+        assertEquals(size, pointValues.size());
+        assertEquals(docCount, pointValues.getDocCount());
+        for (int i = 0; i < 200; i++) {
+            long min;
+            long max;
+            if (i == 1) {
+                min = Long.MIN_VALUE;
+                max = Long.MAX_VALUE;
+            } else if (i % 3 == 0) {
+                // ranges over duplicate values
+                min = base + random.nextInt(100) * 1000L;
+                max = min + random.nextInt(5) * 1000L;
+            } else {
+                min = base + random.nextInt(1 << 30);
+                max = min + random.nextInt(1 << (i % 30));
+            }
+            final BitSet expected = new BitSet();
+            for (int doc = 0; doc < values.size(); doc++) {
+                for (long value : values.get(doc)) {
+                    if (value >= min && value <= max) {
+                        expected.set(doc);
+                    }
+                }
+            }
+            final BitSet hits = new BitSet();
+            pointValues.intersect(range(min, max, hits));
+            assertEquals(expected, hits, "range [" + min + ", " + max + "]");
+        }
+    }
+
+    private static void assertBoxes(Random random, PointValues pointValues, List<int[]> points) throws IOException {
+        assertEquals(3, pointValues.getNumDimensions());
+        assertEquals(2, pointValues.getNumIndexDimensions());
+        assertEquals(points.size(), pointValues.size());
+        for (int i = 0; i < 100; i++) {
+            final int minX = random.nextInt(2000) - 1000;
+            final int maxX = minX + random.nextInt(300);
+            final int minY = random.nextInt();
+            final int maxY = (int) Math.min(Integer.MAX_VALUE, (long) minY + random.nextInt(Integer.MAX_VALUE));
+            final BitSet expected = new BitSet();
+            for (int doc = 0; doc < points.size(); doc++) {
+                final int[] point = points.get(doc);
+                if (point[0] >= minX && point[0] <= maxX && point[1] >= minY && point[1] <= maxY) {
+                    expected.set(doc);
+                }
+            }
+            final BitSet hits = new BitSet();
+            pointValues.intersect(new PointValues.IntersectVisitor() {
+                @Override
+                public void visit(int docID) {
+                    hits.set(docID);
+                }
+
+                @Override
+                public void visit(int docID, byte[] packedValue) {
+                    // the data-only dimension comes with the value
+                    assertEquals(points.get(docID)[2], NumericUtils.sortableBytesToInt(packedValue, 2 * Integer.BYTES));
+                    final int x = NumericUtils.sortableBytesToInt(packedValue, 0);
+                    final int y = NumericUtils.sortableBytesToInt(packedValue, Integer.BYTES);
+                    if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                        hits.set(docID);
+                    }
+                }
+
+                @Override
+                public PointValues.Relation compare(byte[] minPackedValue, byte[] maxPackedValue) {
+                    // cell bounds only cover the index dimensions
+                    assertEquals(2 * Integer.BYTES, minPackedValue.length);
+                    final int cellMinX = NumericUtils.sortableBytesToInt(minPackedValue, 0);
+                    final int cellMinY = NumericUtils.sortableBytesToInt(minPackedValue, Integer.BYTES);
+                    final int cellMaxX = NumericUtils.sortableBytesToInt(maxPackedValue, 0);
+                    final int cellMaxY = NumericUtils.sortableBytesToInt(maxPackedValue, Integer.BYTES);
+                    if (cellMaxX < minX || cellMinX > maxX || cellMaxY < minY || cellMinY > maxY) {
+                        return PointValues.Relation.CELL_OUTSIDE_QUERY;
+                    }
+                    if (cellMinX >= minX && cellMaxX <= maxX && cellMinY >= minY && cellMaxY <= maxY) {
+                        return PointValues.Relation.CELL_INSIDE_QUERY;
+                    }
+                    return PointValues.Relation.CELL_CROSSES_QUERY;
+                }
+            });
+            assertEquals(expected, hits);
+        }
+    }
+
+    @Test
+    public void testInvalidPoints() throws IOException {
+        final FieldType oneDim = new FieldType();
+        oneDim.setDimensions(1, Long.BYTES);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexingChain chain = new IndexingChain(new SegmentInfo("_0"), dir, new IndexWriterConfig());
+            // wrong number of bytes
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> chain.processDocument(List.of(new Field("a", oneDim, new BytesRef(new byte[3]))), 0));
+            // a field changing its number of dimensions
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> chain.processDocument(List.of(new LongPoint("b", 1L), new LongPoint("b", 1L, 2L)), 1));
+            chain.abort();
+        }
+    }
+}
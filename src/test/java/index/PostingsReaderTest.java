@@ -0,0 +1,319 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDataInput;
+import store.ByteBuffersDataOutput;
+import store.ByteBuffersDirectory;
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PostingsReaderTest {
+
+    @Test
+    public void testForUtilRoundTrip() throws IOException {
+        final Random random = new Random(0);
+        final int[] values = new int[ForUtil.BLOCK_SIZE];
+        final int[] decoded = new int[ForUtil.BLOCK_SIZE];
+        final long[] tmp = new long[ForUtil.MAX_ENCODED_LONGS];
+        for (int iter = 0; iter < 2000; iter++) {
+            final int bitsPerValue = random.nextInt(32);
+            // blocks of equal values are encoded specially
+            final boolean allEqual = random.nextInt(10) == 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = allEqual ? values[0] : (int) (random.nextLong() & ((1L << bitsPerValue) - 1)) & Integer.MAX_VALUE;
+            }
+            final ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+            ForUtil.writeBlock(values, tmp, out);
+            out.writeByte((byte) 42);
+
+            ByteBuffersDataInput in = out.toDataInput();
+            ForUtil.readBlock(in, tmp, decoded);
+            assertArrayEquals(values, decoded);
+            assertEquals(42, in.readByte());
+
+            in = out.toDataInput();
+            ForUtil.skipBlock(in);
+            assertEquals(42, in.readByte());
+        }
+    }
+
+    @Test
+    public void testAdvance() throws IOException {
+        final Random random = new Random(1);
+        final FieldType body = new FieldType();
+        body.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        final FieldType id = new FieldType();
+        id.setIndexOptions(IndexOptions.DOCS);
+        id.setTokenized(false);
+        // from dense postings with many levels of skip data down to a vInt tail only
+        final double[] probabilities = {0.9, 0.3, 0.05, 0.005, 0.0005};
+        final List<List<int[]>> expected = new ArrayList<>();
+        for (int t = 0; t < probabilities.length; t++) {
+            expected.add(new ArrayList<>());
+        }
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final SegmentInfo si = new SegmentInfo("_0");
+            final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+            final int maxDoc = 100000;
+            for (int doc = 0; doc < maxDoc; doc++) {
+                final StringBuilder text = new StringBuilder();
+                for (int t = 0; t < probabilities.length; t++) {
+                    if (random.nextDouble() < probabilities[t]) {
+                        final int freq = random.nextInt(4) == 0 ? 1 + random.nextInt(5) : 1;
+                        for (int i = 0; i < freq; i++) {
+                            text.append('t').append(t).append(' ');
+                        }
+                        expected.get(t).add(new int[] {doc, freq});
+                    }
+                }
+                chain.processDocument(
+                        List.of(new Field("body", body, text.toString()), new Field("id", id, "x" + (doc % 1000))), doc);
+            }
+            chain.flush(maxDoc);
+
+            try (BlockTermsReader reader = new BlockTermsReader(dir, si, new PostingsReader(dir, si))) {
+                final TermsEnum termsEnum = reader.terms("body");
+                for (int t = 0; t < probabilities.length; t++) {
+                    assertTrue(termsEnum.seekExact(new BytesRef("t" + t)));
+                    final List<int[]> docs = expected.get(t);
+                    assertEquals(docs.size(), termsEnum.docFreq());
+
+                    PostingsEnum postings = termsEnum.postings(null);
+                    for (int[] doc : docs) {
+                        assertEquals(doc[0], postings.nextDoc());
+                        assertEquals(doc[1], postings.freq());
+                    }
+                    assertEquals(PostingsEnum.NO_MORE_DOCS, postings.nextDoc());
+
+                    for (int iter = 0; iter < 100; iter++) {
+                        // short jumps stay within a block, long ones use the skip data
+                        postings = termsEnum.postings(postings);
+                        assertAdvance(random, postings, docs, 1 + random.nextInt(iter % 2 == 0 ? 50 : 50000));
+                    }
+                }
+
+                final TermsEnum idEnum = reader.terms("id");
+                for (int i = 0; i < 1000; i++) {
+                    assertTrue(idEnum.seekExact(new BytesRef("x" + i)));
+                    final PostingsEnum postings = idEnum.postings(null);
+                    final int target = random.nextInt(maxDoc);
+                    int expectedDoc = target + Math.floorMod(i - target, 1000);
+                    for (int doc = postings.advance(target); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                        assertEquals(expectedDoc, doc);
+                        expectedDoc += 1000;
+                    }
+                    assertTrue(expectedDoc >= maxDoc);
+                }
+            }
+        }
+    }
+
+    private static void assertAdvance(Random random, PostingsEnum postings, List<int[]> docs, int maxStep)
+            throws IOException {
+        int index = 0;
+        int current = -1;
+        while (true) {
+            final int target = current + 1 + random.nextInt(maxStep);
+            final int doc = random.nextInt(4) == 0 && target == current + 1 ? postings.nextDoc() : postings.advance(target);
+            while (index < docs.size() && docs.get(index)[0] < target) {
+                index++;
+            }
+            if (index == docs.size()) {
+                assertEquals(PostingsEnum.NO_MORE_DOCS, doc);
+                return;
+            }
+            assertEquals(docs.get(index)[0], doc, "target " + target);
+            if (random.nextBoolean()) {
+                assertEquals(docs.get(index)[1], postings.freq());
+            }
+            current = doc;
+            index++;
+        }
+    }
+
+    /** Occurrences of a term in one doc. */
+    private static final class DocPositions {
+        final int doc;
+        final int[] positions;
+        final int[] startOffsets;
+        final int[] endOffsets;
+
+        DocPositions(int doc, int[] positions, int[] startOffsets, int[] endOffsets) {
+            this.doc = doc;
+            this.positions = positions;
+            this.startOffsets = startOffsets;
+            this.endOffsets = endOffsets;
+        }
+    }
+
+    @Test
+    public void testPositionsAndOffsets() throws IOException {
+        final Random random = new Random(2);
+        final FieldType withOffsets = new FieldType();
+        withOffsets.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        final FieldType withPositions = new FieldType();
+        withPositions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        final FieldType id = new FieldType();
+        id.setIndexOptions(IndexOptions.DOCS);
+        id.setTokenized(false);
+        final String[] vocabulary = {"a", "bb", "ccc", "dddd", "e", "ff"};
+        final double[] probabilities = {0.6, 0.3, 0.1, 0.02, 0.003, 0.0003};
+        final Map<String, List<DocPositions>> expected = new HashMap<>();
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final SegmentInfo si = new SegmentInfo("_0");
+            final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+            final int maxDoc = 20000;
+            for (int doc = 0; doc < maxDoc; doc++) {
+                final StringBuilder text = new StringBuilder();
+                final Map<String, List<int[]>> occurrences = new HashMap<>();
+                // some long docs fill whole position blocks
+                final int numTokens = 1 + random.nextInt(doc % 50 == 0 ? 300 : 12);
+                for (int i = 0; i < numTokens; i++) {
+                    String token = vocabulary[0];
+                    final double x = random.nextDouble();
+                    for (int k = vocabulary.length - 1; k >= 0; k--) {
+                        if (x < probabilities[k]) {
+                            token = vocabulary[k];
+                            break;
+                        }
+                    }
+                    if (i > 0) {
+                        text.append(random.nextBoolean() ? " " : " , ");
+                    }
+                    final int start = text.length();
+                    text.append(token);
+                    occurrences.computeIfAbsent(token, t -> new ArrayList<>()).add(new int[] {i, start, text.length()});
+                }
+                for (Map.Entry<String, List<int[]>> entry : occurrences.entrySet()) {
+                    final List<int[]> list = entry.getValue();
+                    final int[] positions = new int[list.size()];
+                    final int[] startOffsets = new int[list.size()];
+                    final int[] endOffsets = new int[list.size()];
+                    for (int i = 0; i < list.size(); i++) {
+                        positions[i] = list.get(i)[0];
+                        startOffsets[i] = list.get(i)[1];
+                        endOffsets[i] = list.get(i)[2];
+                    }
+                    expected.computeIfAbsent(entry.getKey(), t -> new ArrayList<>())
+                            .add(new DocPositions(doc, positions, startOffsets, endOffsets));
+                }
+                chain.processDocument(
+                        List.of(
+                                new Field("offsets", withOffsets, text.toString()),
+                                new Field("positions", withPositions, text.toString()),
+                                new Field("id", id, "x" + (doc % 100))),
+                        doc);
+            }
+            chain.flush(maxDoc);
+
+            try (BlockTermsReader reader = new BlockTermsReader(dir, si, new PostingsReader(dir, si))) {
+                for (String field : new String[] {"offsets", "positions"}) {
+                    final TermsEnum termsEnum = reader.terms(field);
+                    for (Map.Entry<String, List<DocPositions>> term : expected.entrySet()) {
+                        assertTrue(termsEnum.seekExact(new BytesRef(term.getKey())));
+                        final List<DocPositions> docs = term.getValue();
+                        long totalTermFreq = 0;
+                        for (DocPositions doc : docs) {
+                            totalTermFreq += doc.positions.length;
+                        }
+                        assertEquals(docs.size(), termsEnum.docFreq());
+                        assertEquals(totalTermFreq, termsEnum.totalTermFreq());
+                        for (int iter = 0; iter < 30; iter++) {
+                            final int flags = iter % 3 == 0 ? PostingsEnum.FREQS : iter % 3 == 1 ? PostingsEnum.POSITIONS : PostingsEnum.OFFSETS;
+                            final int maxStep = iter < 3 ? 1 : 1 + random.nextInt(iter % 2 == 0 ? 20 : 5000);
+                            assertPositions(
+                                    random,
+                                    termsEnum.postings(null, flags),
+                                    docs,
+                                    maxStep,
+                                    flags != PostingsEnum.FREQS,
+                                    field.equals("offsets") && flags == PostingsEnum.OFFSETS);
+                        }
+                    }
+                }
+
+                // positions are never returned for a field that does not index them
+                final TermsEnum idEnum = reader.terms("id");
+                for (int i = 0; i < 100; i++) {
+                    assertTrue(idEnum.seekExact(new BytesRef("x" + i)));
+                    final PostingsEnum postings = idEnum.postings(null, PostingsEnum.ALL);
+                    for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                        assertEquals(i, doc % 100);
+                        assertEquals(-1, postings.nextPosition());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertPositions(
+            Random random,
+            PostingsEnum postings,
+            List<DocPositions> docs,
+            int maxStep,
+            boolean hasPositions,
+            boolean hasOffsets)
+            throws IOException {
+        int index = 0;
+        int current = -1;
+        while (true) {
+            final int target = current + 1 + random.nextInt(maxStep);
+            final int doc = maxStep == 1 ? postings.nextDoc() : postings.advance(target);
+            while (index < docs.size() && docs.get(index).doc < target) {
+                index++;
+            }
+            if (index == docs.size()) {
+                assertEquals(PostingsEnum.NO_MORE_DOCS, doc);
+                return;
+            }
+            final DocPositions expected = docs.get(index);
+            assertEquals(expected.doc, doc, "target " + target);
+            assertEquals(expected.positions.length, postings.freq());
+            // positions left unread must be skipped when moving to the next doc
+            final int numPositions = random.nextInt(4) == 0 ? random.nextInt(postings.freq() + 1) : postings.freq();
+            for (int i = 0; i < numPositions; i++) {
+                final int position = postings.nextPosition();
+                if (hasPositions == false) {
+                    assertEquals(-1, position);
+                    continue;
+                }
+                assertEquals(expected.positions[i], position, "doc " + doc);
+                assertEquals(hasOffsets ? expected.startOffsets[i] : -1, postings.startOffset());
+                assertEquals(hasOffsets ? expected.endOffsets[i] : -1, postings.endOffset());
+            }
+            current = doc;
+            index++;
+        }
+    }
+
+    @Test
+    public void testNoPositionsFile() throws IOException {
+        final FieldType id = new FieldType();
+        id.setIndexOptions(IndexOptions.DOCS);
+        id.setTokenized(false);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final SegmentInfo si = new SegmentInfo("_0");
+            final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+            for (int doc = 0; doc < 10; doc++) {
+                chain.processDocument(List.of(new Field("id", id, "x" + doc)), doc);
+            }
+            chain.flush(10);
+            assertFalse(Arrays.asList(dir.listAll()).contains("_0.pos"));
+            try (BlockTermsReader reader = new BlockTermsReader(dir, si, new PostingsReader(dir, si))) {
+                assertEquals(new BytesRef("x0"), reader.terms("id").next());
+            }
+        }
+    }
+}
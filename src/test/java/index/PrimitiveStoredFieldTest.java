@@ -0,0 +1,149 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import store.ByteArrayDataInput;
+import store.ByteBuffersDirectory;
+import store.Directory;
+import store.IndexInput;
+import util.BytesRef;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrimitiveStoredFieldTest {
+
+    private static final int NUM_DOCS = 300;
+
+    private static final FieldInfo INT = new FieldInfo("int", 0);
+    private static final FieldInfo LONG = new FieldInfo("long", 1);
+    private static final FieldInfo TIMESTAMP = new FieldInfo("timestamp", 2);
+    private static final FieldInfo FLOAT = new FieldInfo("float", 3);
+    private static final FieldInfo DOUBLE = new FieldInfo("double", 4);
+
+    private static int intValue(int doc) {
+        return doc % 2 == 0 ? doc : -doc * 1000;
+    }
+
+    private static long longValue(int doc) {
+        return doc * -123456789L;
+    }
+
+    private static long timestampValue(int doc) {
+        return 1_600_000_000_000L + doc * 86_400_000L;
+    }
+
+    private static float floatValue(int doc) {
+        return doc / 3f;
+    }
+
+    private static double doubleValue(int doc) {
+        return doc % 5 == 0 ? doc : -doc / 7.0;
+    }
+
+    private static long infoAndBits(FieldInfo info, int type) {
+        return ((long) info.number << StoredFieldConsumer.TYPE_BITS) | type;
+    }
+
+    private static byte[] readFile(Directory dir, String name) throws IOException {
+        final byte[] bytes = new byte[(int) dir.fileLength(name)];
+        try (IndexInput in = dir.openInput(name)) {
+            in.readBytes(bytes, 0, bytes.length);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testReusedFieldsRoundTrip() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            // a single instance per field for all docs
+            final IntStoredField intField = new IntStoredField("int", 0);
+            final LongStoredField longField = new LongStoredField("long", 0);
+            final TimestampField timestampField = new TimestampField("timestamp", 0);
+            final FloatStoredField floatField = new FloatStoredField("float", 0);
+            final DoubleStoredField doubleField = new DoubleStoredField("double", 0);
+            final StoredFieldConsumer consumer = new StoredFieldConsumer(dir, new SegmentInfo("_0"));
+            try {
+                for (int doc = 0; doc < NUM_DOCS; doc++) {
+                    intField.setIntValue(intValue(doc));
+                    longField.setLongValue(longValue(doc));
+                    timestampField.setLongValue(timestampValue(doc));
+                    floatField.setFloatValue(floatValue(doc));
+                    doubleField.setDoubleValue(doubleValue(doc));
+                    consumer.writeField(INT, intField);
+                    consumer.writeField(LONG, longField);
+                    consumer.writeField(TIMESTAMP, timestampField);
+                    consumer.writeField(FLOAT, floatField);
+                    consumer.writeField(DOUBLE, doubleField);
+                    consumer.finishDocument();
+                }
+                consumer.finish(NUM_DOCS);
+            } finally {
+                consumer.close();
+            }
+
+            try (StoredFieldsReader reader = new StoredFieldsReader(dir, new SegmentInfo("_0"))) {
+                for (int doc = 0; doc < NUM_DOCS; doc++) {
+                    final StoredFieldsReader.SerializedDocument document = reader.serializedDocument(doc);
+                    final BytesRef bytes = document.bytes;
+                    final ByteArrayDataInput in = new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length);
+                    assertEquals(5, document.numStoredFields);
+                    assertEquals(infoAndBits(INT, StoredFieldConsumer.NUMERIC_INT), in.readVLong());
+                    assertEquals(intValue(doc), in.readZInt());
+                    assertEquals(infoAndBits(LONG, StoredFieldConsumer.NUMERIC_ZLONG), in.readVLong());
+                    assertEquals(longValue(doc), in.readZLong());
+                    assertEquals(infoAndBits(TIMESTAMP, StoredFieldConsumer.NUMERIC_LONG), in.readVLong());
+                    assertEquals(timestampValue(doc), in.readTLong());
+                    assertEquals(infoAndBits(FLOAT, StoredFieldConsumer.NUMERIC_FLOAT), in.readVLong());
+                    assertEquals(floatValue(doc), in.readZFloat());
+                    assertEquals(infoAndBits(DOUBLE, StoredFieldConsumer.NUMERIC_DOUBLE), in.readVLong());
+                    assertEquals(doubleValue(doc), in.readZDouble());
+                    assertTrue(in.eof());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSameEncodingAsBoxedValues() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            for (boolean primitive : new boolean[] {true, false}) {
+                final String segment = primitive ? "_0" : "_1";
+                final StoredFieldConsumer consumer = new StoredFieldConsumer(dir, new SegmentInfo(segment));
+                try {
+                    for (int doc = 0; doc < NUM_DOCS; doc++) {
+                        // timestamps are stored like boxed longs, LongStoredField has its own encoding
+                        if (primitive) {
+                            consumer.writeField(INT, new IntStoredField("int", intValue(doc)));
+                            consumer.writeField(TIMESTAMP, new TimestampField("timestamp", timestampValue(doc)));
+                            consumer.writeField(FLOAT, new FloatStoredField("float", floatValue(doc)));
+                            consumer.writeField(DOUBLE, new DoubleStoredField("double", doubleValue(doc)));
+                        } else {
+                            consumer.writeField(INT, new StoredField("int", intValue(doc)));
+                            consumer.writeField(TIMESTAMP, new StoredField("timestamp", timestampValue(doc)));
+                            consumer.writeField(FLOAT, new StoredField("float", floatValue(doc)));
+                            consumer.writeField(DOUBLE, new StoredField("double", doubleValue(doc)));
+                        }
+                        consumer.finishDocument();
+                    }
+                    consumer.finish(NUM_DOCS);
+                } finally {
+                    consumer.close();
+                }
+            }
+            final String fdt = StoredFieldConsumer.FIELDS_EXTENSION;
+            assertArrayEquals(
+                    readFile(dir, IndexFileNames.segmentFileName("_1", "", fdt)),
+                    readFile(dir, IndexFileNames.segmentFileName("_0", "", fdt)));
+        }
+    }
+
+    @Test
+    public void testNumericValue() {
+        assertEquals(-3, new IntStoredField("f", -3).numericValue());
+        assertEquals(42L, new LongStoredField("f", 42).numericValue());
+        assertEquals(7L, new TimestampField("f", 7).numericValue());
+        assertEquals(1.5f, new FloatStoredField("f", 1.5f).numericValue());
+        assertEquals(-0.25, new DoubleStoredField("f", -0.25).numericValue());
+    }
+}
@@ -0,0 +1,133 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SortedDocValuesTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(0);
+        final FieldType sorted = new FieldType();
+        sorted.setDocValuesType(DocValuesType.SORTED);
+        final FieldType sortedSet = new FieldType();
+        sortedSet.setDocValuesType(DocValuesType.SORTED_SET);
+        // shared prefixes and multi-byte characters
+        final String[] categories = new String[500];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = "category/" + (i * 7919 % 1000) + (i % 3 == 0 ? "é" : "");
+        }
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final SegmentInfo si = new SegmentInfo("_0");
+            final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+            final int maxDoc = 30000;
+            final BytesRef[] category = new BytesRef[maxDoc];
+            final BytesRef[] tenant = new BytesRef[maxDoc];
+            final List<TreeSet<BytesRef>> tags = new ArrayList<>();
+            final TreeSet<BytesRef> uniqueCategories = new TreeSet<>();
+            for (int doc = 0; doc < maxDoc; doc++) {
+                final List<IndexableField> fields = new ArrayList<>();
+                final String value = categories[random.nextInt(categories.length)];
+                category[doc] = new BytesRef(value);
+                uniqueCategories.add(category[doc]);
+                fields.add(new Field("category", sorted, value));
+                if (random.nextInt(5) == 0) {
+                    tenant[doc] = new BytesRef("t" + random.nextInt(3));
+                    fields.add(new Field("tenant", sorted, tenant[doc]));
+                }
+                final TreeSet<BytesRef> docTags = new TreeSet<>();
+                if (random.nextInt(4) != 0) {
+                    for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                        final String tag = "tag" + random.nextInt(2000);
+                        docTags.add(new BytesRef(tag));
+                        fields.add(new Field("tags", sortedSet, tag));
+                    }
+                    // duplicate values within a doc are deduplicated
+                    if (random.nextBoolean()) {
+                        fields.add(new Field("tags", sortedSet, docTags.first()));
+                    }
+                }
+                tags.add(docTags);
+                fields.add(new Field("single", sortedSet, "s" + (doc % 37)));
+                chain.processDocument(fields, doc);
+            }
+            chain.flush(maxDoc);
+
+            try (DocValuesProducer producer = new DocValuesProducer(dir, si)) {
+                final List<BytesRef> ords = new ArrayList<>(uniqueCategories);
+                SortedDocValues categoryValues = producer.getSorted("category");
+                assertEquals(ords.size(), categoryValues.getValueCount());
+                for (int ord = 0; ord < ords.size(); ord++) {
+                    assertEquals(ords.get(ord), categoryValues.lookupOrd(ord));
+                    assertEquals(ord, categoryValues.lookupTerm(ords.get(ord)));
+                }
+                // backwards lookups restart prefix-compressed blocks
+                for (int ord = ords.size() - 1; ord >= 0; ord -= 3) {
+                    assertEquals(ords.get(ord), categoryValues.lookupOrd(ord));
+                }
+                for (String probe : new String[] {"a", "zzz", "category/", "category/5", "category/50x", "category/999z"}) {
+                    final BytesRef term = new BytesRef(probe);
+                    assertEquals(Collections.binarySearch(ords, term), categoryValues.lookupTerm(term), probe);
+                }
+                for (int doc = 0; doc < maxDoc; doc += 1 + random.nextInt(4)) {
+                    assertTrue(categoryValues.advanceExact(doc));
+                    assertEquals(category[doc], categoryValues.lookupOrd(categoryValues.ordValue()));
+                }
+
+                final SortedDocValues tenantValues = producer.getSorted("tenant");
+                for (int doc = 0; doc < maxDoc; doc++) {
+                    final boolean hasValue = tenantValues.advanceExact(doc);
+                    assertEquals(tenant[doc] != null, hasValue, "doc " + doc);
+                    if (hasValue) {
+                        assertEquals(tenant[doc], tenantValues.lookupOrd(tenantValues.ordValue()));
+                    }
+                }
+
+                SortedSetDocValues tagValues = producer.getSortedSet("tags");
+                int count = 0;
+                for (int doc = tagValues.nextDoc(); doc != DocValuesIterator.NO_MORE_DOCS; doc = tagValues.nextDoc()) {
+                    final List<BytesRef> values = new ArrayList<>();
+                    long previousOrd = -1;
+                    for (long ord = tagValues.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = tagValues.nextOrd()) {
+                        assertTrue(ord > previousOrd);
+                        previousOrd = ord;
+                        values.add(BytesRef.deepCopyOf(tagValues.lookupOrd(ord)));
+                    }
+                    assertEquals(new ArrayList<>(tags.get(doc)), values, "doc " + doc);
+                    assertEquals(values.size(), tagValues.docValueCount());
+                    count++;
+                }
+                assertEquals(tagValues.cost(), count);
+
+                tagValues = producer.getSortedSet("tags");
+                for (int doc = 0; doc < maxDoc; doc += 1 + random.nextInt(5)) {
+                    final boolean hasValue = tagValues.advanceExact(doc);
+                    assertEquals(tags.get(doc).isEmpty() == false, hasValue, "doc " + doc);
+                    if (hasValue) {
+                        assertEquals(tags.get(doc).first(), tagValues.lookupOrd(tagValues.nextOrd()));
+                    }
+                }
+
+                final SortedSetDocValues singleValues = producer.getSortedSet("single");
+                assertEquals(37, singleValues.getValueCount());
+                for (int doc = 0; doc < maxDoc; doc += 7) {
+                    assertTrue(singleValues.advanceExact(doc));
+                    assertEquals(new BytesRef("s" + (doc % 37)), singleValues.lookupOrd(singleValues.nextOrd()));
+                    assertEquals(SortedSetDocValues.NO_MORE_ORDS, singleValues.nextOrd());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import store.ByteArrayDataInput;
+import store.ByteBuffersDirectory;
+import store.IndexInput;
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoredFieldConsumerTest {
+
+    private static final int NUM_DOCS = 1000;
+
+    private static final FieldInfo ID = new FieldInfo("id", 0);
+    private static final FieldInfo BODY = new FieldInfo("body", 1);
+    private static final FieldInfo PAYLOAD = new FieldInfo("payload", 2);
+    private static final FieldInfo WEIGHT = new FieldInfo("weight", 3);
+
+    private static String body(int doc) {
+        // long enough for documents to span several chunks
+        return "document " + doc + " says " + "lorem ipsum ".repeat(doc % 50);
+    }
+
+    /** Writes {@link #NUM_DOCS} documents to segment {@code _0} and returns the bytes of its fdt file. */
+    private static byte[] write(ByteBuffersDirectory dir, Executor executor) throws IOException {
+        final StoredFieldConsumer consumer =
+                new StoredFieldConsumer(dir, new SegmentInfo("_0"), CompressionMode.FAST, executor, 2);
+        try {
+            for (int doc = 0; doc < NUM_DOCS; doc++) {
+                consumer.writeField(ID, new StoredField("id", (long) doc * 1000));
+                consumer.writeField(BODY, new StoredField("body", body(doc)));
+                if (doc % 3 == 0) {
+                    consumer.writeField(PAYLOAD, new StoredField("payload", new BytesRef(new byte[] {(byte) doc, 42})));
+                }
+                consumer.writeField(WEIGHT, new DoubleStoredField("weight", doc / 4.0));
+                consumer.finishDocument();
+            }
+            consumer.finish(NUM_DOCS);
+        } finally {
+            consumer.close();
+        }
+        final String fdt = IndexFileNames.segmentFileName("_0", "", StoredFieldConsumer.FIELDS_EXTENSION);
+        final byte[] bytes = new byte[(int) dir.fileLength(fdt)];
+        try (IndexInput in = dir.openInput(fdt)) {
+            in.readBytes(bytes, 0, bytes.length);
+        }
+        return bytes;
+    }
+
+    private static void assertDocuments(ByteBuffersDirectory dir) throws IOException {
+        try (StoredFieldsReader reader = new StoredFieldsReader(dir, new SegmentInfo("_0"))) {
+            assertEquals(NUM_DOCS, reader.numDocs());
+            assertTrue(reader.numChunks() > 1);
+            // backwards too, so that chunks are decompressed again
+            for (int doc = NUM_DOCS - 1; doc >= 0; doc--) {
+                final StoredFieldsReader.SerializedDocument document = reader.serializedDocument(doc);
+                final BytesRef bytes = document.bytes;
+                final ByteArrayDataInput in = new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length);
+                assertEquals(doc % 3 == 0 ? 4 : 3, document.numStoredFields);
+
+                assertEquals(((long) ID.number << StoredFieldConsumer.TYPE_BITS) | StoredFieldConsumer.NUMERIC_LONG, in.readVLong());
+                assertEquals((long) doc * 1000, in.readTLong());
+                assertEquals(((long) BODY.number << StoredFieldConsumer.TYPE_BITS) | StoredFieldConsumer.STRING, in.readVLong());
+                assertEquals(body(doc), in.readString());
+                if (doc % 3 == 0) {
+                    assertEquals(((long) PAYLOAD.number << StoredFieldConsumer.TYPE_BITS) | StoredFieldConsumer.BYTE_ARR, in.readVLong());
+                    assertEquals(2, in.readVInt());
+                    assertEquals((byte) doc, in.readByte());
+                    assertEquals(42, in.readByte());
+                }
+                assertEquals(((long) WEIGHT.number << StoredFieldConsumer.TYPE_BITS) | StoredFieldConsumer.NUMERIC_DOUBLE, in.readVLong());
+                assertEquals(doc / 4.0, in.readZDouble());
+                assertTrue(in.eof());
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            write(dir, null);
+            assertDocuments(dir);
+        }
+    }
+
+    @Test
+    public void testCompressionExecutorWritesSameFile() throws IOException {
+        final byte[] expected;
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            expected = write(dir, null);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            assertArrayEquals(expected, write(dir, executor));
+            assertDocuments(dir);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedChunksAreCompressedInline() throws IOException {
+        final byte[] expected;
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            expected = write(dir, null);
+        }
+        final int[] executed = new int[1];
+        final Executor everyOtherChunk =
+                command -> {
+                    if (executed[0]++ % 2 == 0) {
+                        throw new RejectedExecutionException();
+                    }
+                    command.run();
+                };
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            assertArrayEquals(expected, write(dir, everyOtherChunk));
+            assertDocuments(dir);
+        }
+        assertTrue(executed[0] > 1);
+    }
+}
@@ -0,0 +1,188 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import store.ByteArrayDataInput;
+import store.ByteBuffersDirectory;
+import store.Directory;
+import store.IndexInput;
+import util.Bits;
+import util.BytesRef;
+import util.FixedBitSet;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoredFieldsMergeTest {
+
+    private static final FieldInfo ID = new FieldInfo("id", 0);
+    private static final FieldInfo BODY = new FieldInfo("body", 1);
+
+    /** Writes a segment of {@code numDocs} docs whose ids start at {@code firstId}. */
+    private static void write(Directory dir, String segment, int numDocs, long firstId) throws IOException {
+        final StoredFieldConsumer consumer = new StoredFieldConsumer(dir, new SegmentInfo(segment));
+        try {
+            for (int i = 0; i < numDocs; i++) {
+                consumer.writeField(ID, new StoredField("id", firstId + i));
+                consumer.writeField(BODY, new StoredField("body", "body of " + (firstId + i)));
+                consumer.finishDocument();
+            }
+            consumer.finish(numDocs);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private static StoredFieldsReader[] open(Directory dir, String... segments) throws IOException {
+        final StoredFieldsReader[] readers = new StoredFieldsReader[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            readers[i] = new StoredFieldsReader(dir, new SegmentInfo(segments[i]));
+        }
+        return readers;
+    }
+
+    private static int merge(Directory dir, String segment, MergeState mergeState) throws IOException {
+        final StoredFieldConsumer consumer = new StoredFieldConsumer(dir, new SegmentInfo(segment));
+        try {
+            final int numDocs = consumer.merge(mergeState);
+            consumer.finish(numDocs);
+            return numDocs;
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /** Checks that the docs of the segment have the given ids, and the given numbers for the id and body fields. */
+    private static void assertIds(StoredFieldsReader reader, long[] ids, int idNumber, int bodyNumber) throws IOException {
+        assertEquals(ids.length, reader.numDocs());
+        for (int doc = 0; doc < ids.length; doc++) {
+            final StoredFieldsReader.SerializedDocument document = reader.serializedDocument(doc);
+            final BytesRef bytes = document.bytes;
+            final ByteArrayDataInput in = new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length);
+            assertEquals(2, document.numStoredFields);
+            assertEquals(((long) idNumber << StoredFieldConsumer.TYPE_BITS) | StoredFieldConsumer.NUMERIC_LONG, in.readVLong());
+            assertEquals(ids[doc], in.readTLong());
+            assertEquals(((long) bodyNumber << StoredFieldConsumer.TYPE_BITS) | StoredFieldConsumer.STRING, in.readVLong());
+            assertEquals("body of " + ids[doc], in.readString());
+            assertTrue(in.eof());
+        }
+    }
+
+    private static long[] range(long from, long to) {
+        final long[] ids = new long[(int) (to - from)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = from + i;
+        }
+        return ids;
+    }
+
+    private static byte[] readFile(Directory dir, String name) throws IOException {
+        final byte[] bytes = new byte[(int) dir.fileLength(name)];
+        try (IndexInput in = dir.openInput(name)) {
+            in.readBytes(bytes, 0, bytes.length);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testCleanChunksAreCopied() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            // 2 full chunks each
+            write(dir, "_0", 256, 0);
+            write(dir, "_1", 256, 1000);
+
+            final StoredFieldsReader[] single = open(dir, "_0");
+            assertEquals(256, merge(dir, "_m0", new MergeState(single, new Bits[1], new int[1][])));
+            // the chunks were copied verbatim with the same docBase, so the files are identical
+            final String fdt = StoredFieldConsumer.FIELDS_EXTENSION;
+            assertArrayEquals(
+                    readFile(dir, IndexFileNames.segmentFileName("_0", "", fdt)),
+                    readFile(dir, IndexFileNames.segmentFileName("_m0", "", fdt)));
+
+            final StoredFieldsReader[] readers = open(dir, "_0", "_1");
+            assertEquals(512, merge(dir, "_m1", new MergeState(readers, new Bits[2], new int[2][])));
+            try (StoredFieldsReader merged = new StoredFieldsReader(dir, new SegmentInfo("_m1"))) {
+                assertEquals(4, merged.numChunks());
+                assertEquals(0, merged.numDirtyChunks());
+                assertEquals(256, merged.chunkDocBase(2));
+                final long[] ids = new long[512];
+                System.arraycopy(range(0, 256), 0, ids, 0, 256);
+                System.arraycopy(range(1000, 1256), 0, ids, 256, 256);
+                assertIds(merged, ids, ID.number, BODY.number);
+            }
+            for (StoredFieldsReader reader : single) {
+                reader.close();
+            }
+            for (StoredFieldsReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testDirtyChunksAndDeletedDocsAreReencoded() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            // the last chunk of _0 is dirty, _1 has deletes in its first chunk
+            write(dir, "_0", 300, 0);
+            write(dir, "_1", 400, 1000);
+            final FixedBitSet liveDocs = new FixedBitSet(400);
+            liveDocs.set(0, 400);
+            liveDocs.clear(5);
+            liveDocs.clear(399);
+
+            final StoredFieldsReader[] readers = open(dir, "_0", "_1");
+            try {
+                assertTrue(readers[0].isDirtyChunk(readers[0].numChunks() - 1));
+                final int numDocs =
+                        merge(dir, "_m", new MergeState(readers, new Bits[] {null, liveDocs}, new int[2][]));
+                assertEquals(698, numDocs);
+            } finally {
+                for (StoredFieldsReader reader : readers) {
+                    reader.close();
+                }
+            }
+
+            final long[] ids = new long[698];
+            int upto = 0;
+            for (long id = 0; id < 300; id++) {
+                ids[upto++] = id;
+            }
+            for (long id = 1000; id < 1400; id++) {
+                if (id != 1005 && id != 1399) {
+                    ids[upto++] = id;
+                }
+            }
+            try (StoredFieldsReader merged = new StoredFieldsReader(dir, new SegmentInfo("_m"))) {
+                assertIds(merged, ids, ID.number, BODY.number);
+                // 698 docs, the last chunk is the only one that is not full
+                assertEquals(6, merged.numChunks());
+                assertEquals(1, merged.numDirtyChunks());
+            }
+        }
+    }
+
+    @Test
+    public void testFieldsAreRenumbered() throws IOException {
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            write(dir, "_0", 200, 0);
+            write(dir, "_1", 200, 1000);
+
+            final StoredFieldsReader[] readers = open(dir, "_0", "_1");
+            try {
+                // the merged segment numbers body 0 and id 1
+                final int[][] fieldNumberMaps = {{1, 0}, {1, 0}};
+                assertEquals(400, merge(dir, "_m", new MergeState(readers, new Bits[2], fieldNumberMaps)));
+            } finally {
+                for (StoredFieldsReader reader : readers) {
+                    reader.close();
+                }
+            }
+            try (StoredFieldsReader merged = new StoredFieldsReader(dir, new SegmentInfo("_m"))) {
+                final long[] ids = new long[400];
+                System.arraycopy(range(0, 200), 0, ids, 0, 200);
+                System.arraycopy(range(1000, 1200), 0, ids, 200, 200);
+                assertIds(merged, ids, BODY.number, ID.number);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package index;
+
+import document.FieldType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import store.ByteBuffersDirectory;
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermVectorsTest {
+
+    /** field -> term -> {position, startOffset, endOffset} of each occurrence, terms in UTF-8 order */
+    private static final class DocVectors {
+        final Map<String, TreeMap<BytesRef, List<int[]>>> fields = new HashMap<>();
+
+        void add(String field, String term, int position, int startOffset, int endOffset) {
+            fields.computeIfAbsent(field, f -> new TreeMap<>())
+                    .computeIfAbsent(new BytesRef(term), t -> new ArrayList<>())
+                    .add(new int[] {position, startOffset, endOffset});
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(0);
+        final FieldType body = new FieldType();
+        body.setIndexed(true);
+        body.setStored(true);
+        body.setStoreTermVectors(true);
+        body.setStoreTermVectorPositions(true);
+        body.setStoreTermVectorOffsets(true);
+        final FieldType title = new FieldType();
+        title.setIndexed(true);
+        title.setStoreTermVectors(true);
+        final FieldType plain = new FieldType();
+        plain.setIndexed(true);
+        final String[] words = new String[300];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "w" + (i * 7 % 300) + (i % 5 == 0 ? "é" : "");
+        }
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final SegmentInfo si = new SegmentInfo("_0");
+            final IndexingChain chain = new IndexingChain(si, dir, new IndexWriterConfig());
+            final int maxDoc = 3000;
+            final List<DocVectors> expected = new ArrayList<>();
+            for (int doc = 0; doc < maxDoc; doc++) {
+                final List<IndexableField> fields = new ArrayList<>();
+                final DocVectors vectors = new DocVectors();
+                fields.add(new Field("plain", plain, "x y z"));
+                // the first docs have no vectors at all
+                if (doc >= 50 && random.nextInt(3) != 0) {
+                    int position = -1;
+                    int offset = 0;
+                    for (int v = 1 + random.nextInt(2); v > 0; v--) {
+                        if (position >= 0) {
+                            offset++;
+                        }
+                        final StringBuilder text = new StringBuilder();
+                        for (int i = 1 + random.nextInt(30); i > 0; i--) {
+                            if (text.length() > 0) {
+                                text.append(' ');
+                            }
+                            final String word = words[random.nextInt(words.length)];
+                            final int start = text.length();
+                            text.append(word);
+                            vectors.add("body", word, ++position, offset + start, offset + text.length());
+                        }
+                        offset += text.length();
+                        fields.add(new Field("body", body, text.toString()));
+                        // values of another field between the values of the vectors field
+                        if (random.nextBoolean()) {
+                            fields.add(new Field("plain", plain, "interleaved"));
+                        }
+                    }
+                }
+                if (random.nextInt(4) == 0) {
+                    final String word = words[random.nextInt(words.length)];
+                    vectors.add("title", word, -1, -1, -1);
+                    vectors.add("title", word, -1, -1, -1);
+                    fields.add(new Field("title", title, word + " " + word));
+                }
+                expected.add(vectors);
+                chain.processDocument(fields, doc);
+            }
+            chain.flush(maxDoc);
+
+            try (TermVectorsReader reader = new TermVectorsReader(dir, si)) {
+                assertEquals(maxDoc, reader.numDocs());
+                final int[] order = new int[maxDoc];
+                for (int i = 0; i < maxDoc; i++) {
+                    order[i] = i;
+                }
+                // in doc order, then in random order across chunks
+                for (int pass = 0; pass < 2; pass++) {
+                    if (pass == 1) {
+                        for (int i = maxDoc - 1; i > 0; i--) {
+                            final int j = random.nextInt(i + 1);
+                            final int tmp = order[i];
+                            order[i] = order[j];
+                            order[j] = tmp;
+                        }
+                    }
+                    for (int doc : order) {
+                        assertDocVectors(reader.get(doc), expected.get(doc), doc);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertDocVectors(Fields fields, DocVectors expected, int doc) throws IOException {
+        if (expected.fields.isEmpty()) {
+            assertNull(fields, "doc " + doc);
+            return;
+        }
+        assertNotNull(fields, "doc " + doc);
+        assertNull(fields.terms("plain"));
+        for (String field : new String[] {"body", "title"}) {
+            final TermsEnum termsEnum = fields.terms(field);
+            final TreeMap<BytesRef, List<int[]>> terms = expected.fields.get(field);
+            if (terms == null) {
+                assertNull(termsEnum, field + " doc " + doc);
+                continue;
+            }
+            assertNotNull(termsEnum, field + " doc " + doc);
+            PostingsEnum postings = null;
+            for (Map.Entry<BytesRef, List<int[]>> term : terms.entrySet()) {
+                assertEquals(term.getKey(), termsEnum.next());
+                assertEquals(1, termsEnum.docFreq());
+                assertEquals(term.getValue().size(), termsEnum.totalTermFreq());
+                postings = termsEnum.postings(postings, PostingsEnum.ALL);
+                assertEquals(0, postings.nextDoc());
+                assertEquals(term.getValue().size(), postings.freq());
+                for (int[] occurrence : term.getValue()) {
+                    assertEquals(occurrence[0], postings.nextPosition());
+                    assertEquals(occurrence[1], postings.startOffset());
+                    assertEquals(occurrence[2], postings.endOffset());
+                }
+                assertEquals(PostingsEnum.NO_MORE_DOCS, postings.nextDoc());
+            }
+            assertNull(termsEnum.next());
+
+            for (BytesRef term : terms.keySet()) {
+                assertEquals(TermsEnum.SeekStatus.FOUND, termsEnum.seekCeil(term));
+                assertEquals(term, termsEnum.term());
+            }
+            assertEquals(TermsEnum.SeekStatus.END, termsEnum.seekCeil(new BytesRef("zzz")));
+            assertEquals(TermsEnum.SeekStatus.NOT_FOUND, termsEnum.seekCeil(new BytesRef("a")));
+            assertEquals(terms.firstKey(), termsEnum.term());
+            // positions are not returned unless requested
+            final PostingsEnum freqs = termsEnum.postings(null, PostingsEnum.FREQS);
+            freqs.nextDoc();
+            assertEquals(-1, freqs.nextPosition());
+            assertFalse(termsEnum.seekExact(new BytesRef("w1x")));
+        }
+    }
+
+    @Test
+    public void testInvalidFieldTypes() throws IOException {
+        final FieldType notIndexed = new FieldType();
+        notIndexed.setStored(true);
+        notIndexed.setStoreTermVectors(true);
+        final FieldType offsetsWithoutVectors = new FieldType();
+        offsetsWithoutVectors.setIndexed(true);
+        offsetsWithoutVectors.setStoreTermVectorOffsets(true);
+        final FieldType payloadsWithoutPositions = new FieldType();
+        payloadsWithoutPositions.setIndexed(true);
+        payloadsWithoutPositions.setStoreTermVectors(true);
+        payloadsWithoutPositions.setStoreTermVectorPayloads(true);
+        final FieldType plain = new FieldType();
+        plain.setIndexed(true);
+        final FieldType vectors = new FieldType();
+        vectors.setIndexed(true);
+        vectors.setStoreTermVectors(true);
+
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            final IndexingChain chain = new IndexingChain(new SegmentInfo("_0"), dir, new IndexWriterConfig());
+            assertInvalid("not indexed", () -> chain.processDocument(List.of(new Field("a", notIndexed, "x")), 0));
+            assertInvalid(
+                    "offsets when term vectors",
+                    () -> chain.processDocument(List.of(new Field("b", offsetsWithoutVectors, "x")), 1));
+            assertInvalid(
+                    "payloads without",
+                    () -> chain.processDocument(List.of(new Field("c", payloadsWithoutPositions, "x")), 2));
+            // all values of a field in a doc must agree
+            assertInvalid(
+                    "same term vectors settings",
+                    () -> chain.processDocument(List.of(new Field("d", plain, "x"), new Field("d", vectors, "y")), 3));
+            chain.abort();
+        }
+    }
+
+    private static void assertInvalid(String message, Executable executable) {
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class, executable);
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+}
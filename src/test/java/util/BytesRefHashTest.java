@@ -0,0 +1,80 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BytesRefHashTest {
+
+    private static BytesRef randomBytes(Random random) {
+        // mostly short values, some longer than 127 bytes which take 2 length bytes in the pool
+        final byte[] bytes = new byte[random.nextInt(10) == 0 ? 128 + random.nextInt(200) : random.nextInt(6)];
+        random.nextBytes(bytes);
+        return new BytesRef(bytes);
+    }
+
+    @Test
+    public void testAddFindGet() {
+        final Random random = new Random(0);
+        final BytesRefHash hash = new BytesRefHash();
+        final Map<BytesRef, Integer> ids = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            final BytesRef bytes = randomBytes(random);
+            final int id = hash.add(bytes);
+            final Integer expected = ids.get(bytes);
+            if (expected == null) {
+                assertEquals(ids.size(), id);
+                ids.put(BytesRef.deepCopyOf(bytes), id);
+            } else {
+                // already there: -(id + 1)
+                assertEquals(-expected - 1, id);
+            }
+        }
+        assertEquals(ids.size(), hash.size());
+
+        final BytesRef scratch = new BytesRef();
+        for (Map.Entry<BytesRef, Integer> entry : ids.entrySet()) {
+            assertEquals((int) entry.getValue(), hash.find(entry.getKey()));
+            assertEquals(entry.getKey(), hash.get(entry.getValue(), scratch));
+        }
+        assertEquals(-1, hash.find(new BytesRef(new byte[400])));
+
+        hash.clear();
+        assertEquals(0, hash.size());
+        assertEquals(-1, hash.find(ids.keySet().iterator().next()));
+    }
+
+    @Test
+    public void testSort() {
+        final Random random = new Random(1);
+        for (int round = 0; round < 30; round++) {
+            final BytesRefHash hash = new BytesRefHash();
+            final TreeSet<BytesRef> expected = new TreeSet<>();
+            // long common prefixes go deeper than the radix levels, small alphabets make large buckets
+            final byte[] prefix = new byte[round % 3 == 0 ? random.nextInt(60) : 0];
+            final int alphabet = round % 5 == 0 ? 3 : 256;
+            for (int i = random.nextInt(20000); i > 0; i--) {
+                final byte[] bytes = new byte[prefix.length + random.nextInt(round % 2 == 0 ? 4 : 40)];
+                for (int j = prefix.length; j < bytes.length; j++) {
+                    bytes[j] = (byte) random.nextInt(alphabet);
+                }
+                final BytesRef term = new BytesRef(bytes);
+                hash.add(term);
+                expected.add(term);
+            }
+
+            final int[] ids = hash.sort();
+            final BytesRef scratch = new BytesRef();
+            int i = 0;
+            for (BytesRef term : expected) {
+                assertEquals(term, hash.get(ids[i++], scratch), "round " + round + " at " + i);
+            }
+            assertEquals(expected.size(), hash.size());
+        }
+    }
+}
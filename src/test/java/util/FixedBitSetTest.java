@@ -0,0 +1,123 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FixedBitSetTest {
+
+    private static void assertSameBits(BitSet expected, Bits actual) {
+        for (int i = 0; i < actual.length(); i++) {
+            assertEquals(expected.get(i), actual.get(i), "bit " + i);
+        }
+    }
+
+    private static int nextSetBit(BitSet set, int from) {
+        final int next = set.nextSetBit(from);
+        return next == -1 ? FixedBitSet.NO_MORE_BITS : next;
+    }
+
+    @Test
+    public void testAgainstBitSet() {
+        final Random random = new Random(0);
+        for (int iter = 0; iter < 100; iter++) {
+            final int numBits = 1 + random.nextInt(5000);
+            final FixedBitSet fixed = new FixedBitSet(numBits);
+            final SparseFixedBitSet sparse = new SparseFixedBitSet(numBits);
+            final BitSet expected = new BitSet();
+            final int numSet = random.nextInt(300);
+            for (int i = 0; i < numSet; i++) {
+                final int bit = random.nextInt(numBits);
+                fixed.set(bit);
+                sparse.set(bit);
+                expected.set(bit);
+            }
+            final int numClear = random.nextInt(50);
+            for (int i = 0; i < numClear; i++) {
+                final int bit = random.nextInt(numBits);
+                fixed.clear(bit);
+                sparse.clear(bit);
+                expected.clear(bit);
+            }
+
+            assertEquals(expected.cardinality(), fixed.cardinality());
+            assertEquals(expected.cardinality(), sparse.cardinality());
+            assertSameBits(expected, fixed);
+            assertSameBits(expected, sparse);
+            for (int i = 0; i < numBits; i++) {
+                assertEquals(nextSetBit(expected, i), fixed.nextSetBit(i));
+                assertEquals(nextSetBit(expected, i), sparse.nextSetBit(i));
+                assertEquals(expected.previousSetBit(i), fixed.prevSetBit(i));
+            }
+        }
+    }
+
+    @Test
+    public void testBulkOperations() {
+        final Random random = new Random(1);
+        for (int iter = 0; iter < 100; iter++) {
+            final int numBits = 1 + random.nextInt(5000);
+            final FixedBitSet a = new FixedBitSet(numBits);
+            final FixedBitSet b = new FixedBitSet(numBits);
+            final BitSet expectedA = new BitSet();
+            final BitSet expectedB = new BitSet();
+            for (int i = random.nextInt(200); i > 0; i--) {
+                final int bit = random.nextInt(numBits);
+                a.set(bit);
+                expectedA.set(bit);
+            }
+            for (int i = random.nextInt(200); i > 0; i--) {
+                final int bit = random.nextInt(numBits);
+                b.set(bit);
+                expectedB.set(bit);
+            }
+            assertEquals(expectedA.intersects(expectedB), a.intersects(b));
+
+            FixedBitSet actual = a.clone();
+            BitSet expected = (BitSet) expectedA.clone();
+            actual.or(b);
+            expected.or(expectedB);
+            assertSameBits(expected, actual);
+
+            actual = a.clone();
+            expected = (BitSet) expectedA.clone();
+            actual.and(b);
+            expected.and(expectedB);
+            assertSameBits(expected, actual);
+
+            actual = a.clone();
+            expected = (BitSet) expectedA.clone();
+            actual.andNot(b);
+            expected.andNot(expectedB);
+            assertSameBits(expected, actual);
+
+            final int start = random.nextInt(numBits);
+            final int end = start + random.nextInt(numBits - start + 1);
+            actual = a.clone();
+            expected = (BitSet) expectedA.clone();
+            actual.clear(start, end);
+            expected.clear(start, end);
+            assertSameBits(expected, actual);
+
+            actual = a.clone();
+            expected = (BitSet) expectedA.clone();
+            actual.set(start, end);
+            expected.set(start, end);
+            assertSameBits(expected, actual);
+            assertEquals(expected.cardinality(), actual.cardinality());
+        }
+    }
+
+    @Test
+    public void testGetAndSet() {
+        final FixedBitSet set = new FixedBitSet(100);
+        assertFalse(set.getAndSet(70));
+        assertTrue(set.getAndSet(70));
+        assertTrue(set.getAndClear(70));
+        assertFalse(set.getAndClear(70));
+        assertEquals(0, set.cardinality());
+    }
+}
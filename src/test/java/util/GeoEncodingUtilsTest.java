@@ -0,0 +1,32 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeoEncodingUtilsTest {
+
+    @Test
+    public void testEncoding() {
+        final Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            final double lat = random.nextDouble() * 180 - 90;
+            final double lon = random.nextDouble() * 360 - 180;
+            final long morton = GeoEncodingUtils.encodeMorton(lat, lon);
+            assertEquals(GeoEncodingUtils.encodeLatitude(lat), GeoEncodingUtils.mortonLatitude(morton));
+            assertEquals(GeoEncodingUtils.encodeLongitude(lon), GeoEncodingUtils.mortonLongitude(morton));
+            assertEquals(lat, GeoEncodingUtils.decodeLatitude(GeoEncodingUtils.encodeLatitude(lat)), 1e-7);
+            assertEquals(lon, GeoEncodingUtils.decodeLongitude(GeoEncodingUtils.encodeLongitude(lon)), 1e-7);
+        }
+        // the poles and the dateline are valid
+        for (double lat : new double[] {-90, 90}) {
+            for (double lon : new double[] {-180, 180}) {
+                final long morton = GeoEncodingUtils.encodeMorton(lat, lon);
+                assertEquals(GeoEncodingUtils.encodeLatitude(lat), GeoEncodingUtils.mortonLatitude(morton));
+                assertEquals(GeoEncodingUtils.encodeLongitude(lon), GeoEncodingUtils.mortonLongitude(morton));
+            }
+        }
+    }
+}
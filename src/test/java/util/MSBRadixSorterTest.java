@@ -0,0 +1,58 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MSBRadixSorterTest {
+
+    private static void sort(int[][] keys, int maxLength, int from, int to) {
+        new MSBRadixSorter(maxLength) {
+            @Override
+            protected void swap(int i, int j) {
+                final int[] tmp = keys[i];
+                keys[i] = keys[j];
+                keys[j] = tmp;
+            }
+
+            @Override
+            protected int byteAt(int i, int k) {
+                return k < keys[i].length ? keys[i][k] : -1;
+            }
+        }.sort(from, to);
+    }
+
+    @Test
+    public void testSortsLikeArraysCompare() {
+        final Random random = new Random(0);
+        for (int iter = 0; iter < 50; iter++) {
+            final int maxLength = 1 + random.nextInt(iter % 2 == 0 ? 6 : 40);
+            final int alphabet = iter % 3 == 0 ? 4 : 256;
+            final int[][] keys = new int[random.nextInt(5000)][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = new int[random.nextInt(maxLength + 1)];
+                for (int j = 0; j < keys[i].length; j++) {
+                    keys[i][j] = random.nextInt(alphabet);
+                }
+            }
+            final int[][] expected = keys.clone();
+            final int from = keys.length == 0 ? 0 : random.nextInt(keys.length);
+            final int to = from + random.nextInt(keys.length - from + 1);
+            Arrays.sort(expected, from, to, Arrays::compare);
+
+            // the bound on the key length may be exact or unknown
+            sort(keys, iter % 4 == 0 ? Integer.MAX_VALUE : maxLength, from, to);
+            for (int i = 0; i < keys.length; i++) {
+                assertArrayEquals(expected[i], keys[i], "iter " + iter + " at " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidMaxLength() {
+        assertThrows(IllegalArgumentException.class, () -> sort(new int[0][], 0, 0, 0));
+    }
+}
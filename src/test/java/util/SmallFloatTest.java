@@ -0,0 +1,24 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SmallFloatTest {
+
+    @Test
+    public void testInt4() {
+        int previous = 0;
+        for (int i = 0; i < 100000; i++) {
+            final byte encoded = SmallFloat.intToByte4(i);
+            final int decoded = SmallFloat.byte4ToInt(encoded);
+            // lossless for small values, never rounded up, order preserving
+            assertTrue(decoded <= i, "value " + i);
+            if (i < 40) {
+                assertEquals(i, decoded);
+            }
+            assertTrue(Byte.toUnsignedInt(encoded) >= previous, "value " + i);
+            previous = Byte.toUnsignedInt(encoded);
+        }
+    }
+}
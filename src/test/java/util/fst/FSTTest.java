@@ -0,0 +1,145 @@
+package util.fst;
+
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import store.IndexInput;
+import store.IndexOutput;
+import util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FSTTest {
+
+    private static TreeMap<BytesRef, Long> randomTerms(Random random, int iter, int alphabet, boolean ords) {
+        final TreeMap<BytesRef, Long> terms = new TreeMap<>();
+        for (int i = random.nextInt(iter % 10 == 0 ? 3000 : 60); i > 0; i--) {
+            final byte[] bytes = new byte[random.nextInt(7)];
+            for (int j = 0; j < bytes.length; j++) {
+                // odd iterations use labels >= 128 which are negative as bytes
+                bytes[j] = (byte) (random.nextInt(alphabet) + (iter % 2 == 0 ? 0 : 200));
+            }
+            terms.put(new BytesRef(bytes), 0L);
+        }
+        long ord = 0;
+        for (Map.Entry<BytesRef, Long> entry : terms.entrySet()) {
+            // many zero outputs leave outputs on final arcs and shared suffixes
+            entry.setValue(ords ? ord++ : (long) random.nextInt(3) * random.nextInt(1000));
+        }
+        return terms;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(0);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            for (int iter = 0; iter < 300; iter++) {
+                final int alphabet = 1 + random.nextInt(iter % 3 == 0 ? 255 : 4);
+                final boolean ords = random.nextBoolean();
+                final TreeMap<BytesRef, Long> terms = randomTerms(random, iter, alphabet, ords);
+                final FSTCompiler compiler = new FSTCompiler();
+                for (Map.Entry<BytesRef, Long> entry : terms.entrySet()) {
+                    compiler.add(entry.getKey(), entry.getValue());
+                }
+                final FST compiled = compiler.compile();
+
+                try (IndexOutput metaOut = dir.createOutput("fst" + iter + ".meta");
+                        IndexOutput out = dir.createOutput("fst" + iter)) {
+                    // the FST does not start at the beginning of its file
+                    out.writeByte((byte) 7);
+                    compiled.save(metaOut, out);
+                }
+                IndexInput in = dir.openInput("fst" + iter);
+                in.readByte();
+                final FST onHeap = FST.read(dir.openInput("fst" + iter + ".meta"), in);
+                in = dir.openInput("fst" + iter);
+                in.readByte();
+                final FST offHeap = FST.readOffHeap(dir.openInput("fst" + iter + ".meta"), in);
+
+                for (FST fst : new FST[] {compiled, onHeap, offHeap}) {
+                    assertLookups(fst, terms, ords);
+                    assertEnum(random, fst, terms, alphabet, iter);
+                }
+            }
+        }
+    }
+
+    private static void assertLookups(FST fst, TreeMap<BytesRef, Long> terms, boolean ords) throws IOException {
+        for (Map.Entry<BytesRef, Long> entry : terms.entrySet()) {
+            assertEquals(entry.getValue(), Util.get(fst, entry.getKey()));
+            if (ords) {
+                assertEquals(entry.getKey(), Util.getByOutput(fst, entry.getValue()));
+            }
+        }
+        if (ords) {
+            assertNull(Util.getByOutput(fst, terms.size()));
+        }
+    }
+
+    private static void assertEnum(Random random, FST fst, TreeMap<BytesRef, Long> terms, int alphabet, int iter)
+            throws IOException {
+        final BytesRefFSTEnum fstEnum = new BytesRefFSTEnum(fst);
+        for (Map.Entry<BytesRef, Long> entry : terms.entrySet()) {
+            assertInputOutput(entry, fstEnum.next());
+        }
+        assertNull(fstEnum.next());
+
+        final List<BytesRef> keys = new ArrayList<>(terms.keySet());
+        for (int i = 0; i < 300; i++) {
+            BytesRef target;
+            if (i % 3 == 0 && keys.isEmpty() == false) {
+                target = keys.get(random.nextInt(keys.size()));
+            } else {
+                final byte[] bytes = new byte[random.nextInt(8)];
+                for (int j = 0; j < bytes.length; j++) {
+                    // labels just outside of the alphabet too
+                    bytes[j] = (byte) (random.nextInt(alphabet + 1) + (iter % 2 == 0 ? 0 : 200) - (random.nextInt(10) == 0 ? 1 : 0));
+                }
+                target = new BytesRef(bytes);
+            }
+            assertSeek(terms, terms.ceilingEntry(target), fstEnum.seekCeil(target), fstEnum);
+            assertSeek(terms, terms.floorEntry(target), fstEnum.seekFloor(target), fstEnum);
+            assertSeek(terms, terms.containsKey(target) ? terms.ceilingEntry(target) : null, fstEnum.seekExact(target), fstEnum);
+        }
+    }
+
+    private static void assertSeek(
+            TreeMap<BytesRef, Long> terms,
+            Map.Entry<BytesRef, Long> expected,
+            BytesRefFSTEnum.InputOutput actual,
+            BytesRefFSTEnum fstEnum)
+            throws IOException {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertInputOutput(expected, actual);
+        // next() goes on from the position of the seek
+        final Map.Entry<BytesRef, Long> higher = terms.higherEntry(expected.getKey());
+        final BytesRefFSTEnum.InputOutput next = fstEnum.next();
+        if (higher == null) {
+            assertNull(next);
+        } else {
+            assertInputOutput(higher, next);
+        }
+    }
+
+    private static void assertInputOutput(Map.Entry<BytesRef, Long> expected, BytesRefFSTEnum.InputOutput actual) {
+        assertNotNull(actual, "expected " + expected.getKey());
+        assertEquals(expected.getKey(), actual.input);
+        assertEquals((long) expected.getValue(), actual.output);
+    }
+
+    @Test
+    public void testOutOfOrderInput() throws IOException {
+        final FSTCompiler compiler = new FSTCompiler();
+        compiler.add(new BytesRef("b"), 1);
+        assertThrows(IllegalArgumentException.class, () -> compiler.add(new BytesRef("a"), 1));
+    }
+}
@@ -0,0 +1,64 @@
+package util.packed;
+
+import org.junit.jupiter.api.Test;
+import store.ByteBuffersDirectory;
+import store.IndexInput;
+import store.IndexOutput;
+import util.LongValues;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectWriterTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(0);
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            for (int bitsPerValue : new int[] {1, 2, 4, 8, 12, 16, 20, 24, 28, 32, 40, 48, 56, 64}) {
+                final int numValues = 1 + random.nextInt(3000);
+                final long[] values = new long[numValues];
+                final String name = "values" + bitsPerValue;
+                try (IndexOutput out = dir.createOutput(name)) {
+                    // the values do not start at the beginning of the file
+                    out.writeByte((byte) 7);
+                    final DirectWriter writer = DirectWriter.getInstance(out, numValues, bitsPerValue);
+                    for (int i = 0; i < numValues; i++) {
+                        values[i] = bitsPerValue == 64 ? random.nextLong() : random.nextLong() & ((1L << bitsPerValue) - 1);
+                        writer.add(values[i]);
+                    }
+                    writer.finish();
+                    assertEquals(DirectWriter.bytesRequired(numValues, bitsPerValue), out.getFilePointer() - 1);
+                }
+                try (IndexInput in = dir.openInput(name)) {
+                    final LongValues reader = DirectReader.getInstance(in.randomAccessSlice(1, in.length() - 1), bitsPerValue);
+                    for (int i = 0; i < numValues; i++) {
+                        assertEquals(values[i], reader.get(i), "bpv " + bitsPerValue + " at " + i);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackedLongValues() {
+        final Random random = new Random(1);
+        final PackedLongValues.Builder builder = PackedLongValues.packedBuilder();
+        final long[] values = new long[5000];
+        for (int i = 0; i < values.length; i++) {
+            // constant pages first, then pages mixing small and full-width values
+            values[i] = i < 2048 ? 42 : (i % 3 == 0 ? random.nextLong() : random.nextInt(1000));
+            builder.add(values[i]);
+        }
+        final PackedLongValues packed = builder.build();
+        assertEquals(values.length, packed.size());
+        int i = 0;
+        for (PackedLongValues.Iterator it = packed.iterator(); it.hasNext(); i++) {
+            assertEquals(values[i], it.next());
+            assertEquals(values[i], packed.get(i));
+        }
+        assertEquals(values.length, i);
+    }
+}